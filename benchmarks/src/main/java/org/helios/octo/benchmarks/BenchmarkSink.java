@@ -0,0 +1,82 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.MessageList;
+
+/**
+ * <p>Title: BenchmarkSink</p>
+ * <p>Description: Terminates the outbound side of a benchmark pipeline. Everything written is counted and released
+ * instead of being queued on the embedded channel, so a benchmark's allocation profile only reflects the handlers under test.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.benchmarks.BenchmarkSink</code></p>
+ */
+@Sharable
+public class BenchmarkSink extends ChannelOutboundHandlerAdapter {
+	/** The number of messages written to the sink */
+	protected long messages = 0L;
+	/** The number of buffer bytes written to the sink */
+	protected long bytes = 0L;
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.channel.ChannelOutboundHandlerAdapter#write(io.netty.channel.ChannelHandlerContext, io.netty.channel.MessageList, io.netty.channel.ChannelPromise)
+	 */
+	@Override
+	public void write(ChannelHandlerContext ctx, MessageList<Object> msgs, ChannelPromise promise) {
+		final int size = msgs.size();
+		for(int i = 0; i < size; i++) {
+			Object msg = msgs.get(i);
+			if(msg instanceof ByteBuf) bytes += ((ByteBuf)msg).readableBytes();
+			else if(msg instanceof ByteBufHolder) bytes += ((ByteBufHolder)msg).content().readableBytes();
+		}
+		messages += size;
+		msgs.releaseAllAndRecycle();
+		promise.setSuccess();
+	}
+
+	/**
+	 * Returns the number of messages written to the sink
+	 * @return the number of messages
+	 */
+	public long getMessages() {
+		return messages;
+	}
+
+	/**
+	 * Returns the number of buffer bytes written to the sink
+	 * @return the number of bytes
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.benchmarks;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.util.Arrays;
+
+import org.helios.octo.server.io.ChannelOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * <p>Title: ChannelOutputStreamBenchmark</p>
+ * <p>Description: Benchmarks single byte and array writes to a request's {@link ChannelOutputStream}, including the threshold
+ * flushes they trigger. The stream writes to an embedded channel whose written chunks are released by a {@link BenchmarkSink}.
+ * The embedded event loop can not schedule, so latency flushes are disabled.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.benchmarks.ChannelOutputStreamBenchmark</code></p>
+ */
+@State(Scope.Thread)
+public class ChannelOutputStreamBenchmark {
+	/** The size of the array written per op */
+	@Param({"16", "128", "4096"})
+	public int arraySize;
+
+	/** The channel the stream writes to */
+	protected EmbeddedChannel channel;
+	/** The stream under test */
+	protected ChannelOutputStream stream;
+	/** The array to write */
+	protected byte[] bytes;
+	/** The default flush latency, restored on tear down */
+	protected long flushLatency;
+
+	/**
+	 * Creates the channel and the stream
+	 */
+	@Setup
+	public void setup() {
+		flushLatency = ChannelOutputStream.getDefaultFlushLatency();
+		ChannelOutputStream.setDefaultFlushLatency(0L);
+		channel = new EmbeddedChannel(new BenchmarkSink());
+		stream = ChannelOutputStream.getInstance(true, channel, 1L);
+		bytes = new byte[arraySize];
+		Arrays.fill(bytes, (byte)'x');
+		bytes[arraySize-1] = '\n';
+	}
+
+	/**
+	 * Flushes the stream, closes the channel and restores the default flush latency
+	 * @throws Exception thrown if the stream can not be flushed
+	 */
+	@TearDown
+	public void tearDown() throws Exception {
+		stream.flush();
+		channel.runPendingTasks();
+		channel.finish();
+		ChannelOutputStream.setDefaultFlushLatency(flushLatency);
+	}
+
+	/**
+	 * Writes a single byte
+	 * @throws Exception thrown if the write fails
+	 */
+	@Benchmark
+	public void writeByte() throws Exception {
+		stream.write('x');
+		// Flushes from the event loop are queued as tasks
+		channel.runPendingTasks();
+	}
+
+	/**
+	 * Writes an array
+	 * @throws Exception thrown if the write fails
+	 */
+	@Benchmark
+	public void writeArray() throws Exception {
+		stream.write(bytes);
+		channel.runPendingTasks();
+	}
+}
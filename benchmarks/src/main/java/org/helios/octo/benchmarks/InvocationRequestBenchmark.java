@@ -0,0 +1,148 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.serialization.ClassResolver;
+import io.netty.handler.codec.serialization.ClassResolvers;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.helios.octo.server.invocation.InvocationRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * <p>Title: InvocationRequestBenchmark</p>
+ * <p>Description: Benchmarks {@link InvocationRequest#encode(ByteBuf)} and {@link InvocationRequest#decode(long, ByteBuf, ClassResolver)}
+ * over a range of script sizes and argument mixes.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.benchmarks.InvocationRequestBenchmark</code></p>
+ */
+@State(Scope.Thread)
+public class InvocationRequestBenchmark {
+	/** The script text size in characters */
+	@Param({"64", "4096", "65536"})
+	public int scriptSize;
+	/** The argument mix */
+	@Param({"NONE", "PRIMITIVES", "MIXED"})
+	public String argMix;
+
+	/** The request to encode */
+	protected InvocationRequest request;
+	/** The encoded request to decode */
+	protected ByteBuf encoded;
+	/** The reused encoding buffer */
+	protected ByteBuf out;
+	/** The class resolver for java serialized arguments */
+	protected ClassResolver classResolver;
+
+	/**
+	 * Builds the request and its encoded form
+	 * @throws Exception thrown if the request can not be encoded
+	 */
+	@Setup
+	public void setup() throws Exception {
+		request = new InvocationRequest(script(scriptSize), arguments(argMix), 1L);
+		classResolver = ClassResolvers.softCachingConcurrentResolver(getClass().getClassLoader());
+		out = Unpooled.buffer(scriptSize * 2);
+		encoded = Unpooled.buffer(scriptSize * 2);
+		request.encode(encoded);
+	}
+
+	/**
+	 * Releases the buffers
+	 */
+	@TearDown
+	public void tearDown() {
+		out.release();
+		encoded.release();
+	}
+
+	/**
+	 * Encodes the request into a reused buffer
+	 * @return the encoded size
+	 * @throws Exception thrown if the request can not be encoded
+	 */
+	@Benchmark
+	public int encode() throws Exception {
+		out.clear();
+		request.encode(out);
+		return out.writerIndex();
+	}
+
+	/**
+	 * Decodes the encoded request
+	 * @return the decoded request
+	 * @throws Exception thrown if the request can not be decoded
+	 */
+	@Benchmark
+	public InvocationRequest decode() throws Exception {
+		return InvocationRequest.decode(1L, encoded.duplicate(), classResolver);
+	}
+
+	/**
+	 * Generates script text of the passed size from repeated lines
+	 * @param size The size in characters
+	 * @return the script text
+	 */
+	protected static String script(int size) {
+		final String line = "def x = binding.getVariable('args'); println \"Processing ${x?.length} arguments\";\n";
+		StringBuilder b = new StringBuilder(size);
+		while(b.length() < size) {
+			b.append(line);
+		}
+		b.setLength(size);
+		return b.toString();
+	}
+
+	/**
+	 * Creates the arguments for the passed mix
+	 * @param mix <b><code>NONE</code></b>, <b><code>PRIMITIVES</code></b> or <b><code>MIXED</code></b>
+	 * @return the arguments
+	 */
+	protected static Object[] arguments(String mix) {
+		if("NONE".equals(mix)) return new Object[0];
+		if("PRIMITIVES".equals(mix)) {
+			return new Object[]{42, 1370000000000L, 3.14159D, true, 'c', (short)7, (byte)1, 2.5F};
+		}
+		if("MIXED".equals(mix)) {
+			Map<String, Object> map = new HashMap<String, Object>();
+			for(int i = 0; i < 16; i++) {
+				map.put("key" + i, i);
+			}
+			return new Object[]{"com.example:service=Foo", 42, map, new Date(1370000000000L), new int[]{1, 2, 3, 4}, new StringBuilder("serialized")};
+		}
+		throw new IllegalArgumentException("Unknown argument mix [" + mix + "]");
+	}
+}
@@ -0,0 +1,205 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Title: LatencyRecorder</p>
+ * <p>Description: Records the first response and completion latencies of requests. Each load generator thread records into its own
+ * recorders, which are merged once the run is over, so recording is not synchronized.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.benchmarks.LatencyRecorder</code></p>
+ */
+
+public class LatencyRecorder {
+	/** The latencies in ns to the first response */
+	protected long[] firstResponse;
+	/** The latencies in ns to completion */
+	protected long[] completion;
+	/** The number of recorded requests */
+	protected int count = 0;
+	/** The number of failed requests */
+	protected long errors = 0L;
+	/** The number of output bytes received */
+	protected long outputBytes = 0L;
+	/** Indicates if the latencies are sorted */
+	protected boolean sorted = false;
+
+	/** The percentiles reported */
+	public static final double[] PERCENTILES = {50D, 99D, 99.9D};
+
+	/**
+	 * Creates a new LatencyRecorder
+	 */
+	public LatencyRecorder() {
+		this(1024);
+	}
+
+	/**
+	 * Creates a new LatencyRecorder
+	 * @param capacity The initial capacity
+	 */
+	protected LatencyRecorder(int capacity) {
+		firstResponse = new long[Math.max(16, capacity)];
+		completion = new long[firstResponse.length];
+	}
+
+	/**
+	 * Records a successful request
+	 * @param firstResponseNanos The latency in ns to the first response
+	 * @param completionNanos The latency in ns to completion
+	 * @param output The number of output bytes received
+	 */
+	public void record(long firstResponseNanos, long completionNanos, long output) {
+		if(count==firstResponse.length) {
+			firstResponse = Arrays.copyOf(firstResponse, count << 1);
+			completion = Arrays.copyOf(completion, count << 1);
+		}
+		firstResponse[count] = firstResponseNanos;
+		completion[count] = completionNanos;
+		count++;
+		outputBytes += output;
+		sorted = false;
+	}
+
+	/**
+	 * Records a failed request
+	 */
+	public void error() {
+		errors++;
+	}
+
+	/**
+	 * Merges the passed recorders into a new recorder
+	 * @param recorders The recorders to merge
+	 * @return the merged recorder
+	 */
+	public static LatencyRecorder merge(Iterable<LatencyRecorder> recorders) {
+		int total = 0;
+		for(LatencyRecorder r: recorders) {
+			total += r.count;
+		}
+		LatencyRecorder merged = new LatencyRecorder(total);
+		for(LatencyRecorder r: recorders) {
+			System.arraycopy(r.firstResponse, 0, merged.firstResponse, merged.count, r.count);
+			System.arraycopy(r.completion, 0, merged.completion, merged.count, r.count);
+			merged.count += r.count;
+			merged.errors += r.errors;
+			merged.outputBytes += r.outputBytes;
+		}
+		return merged;
+	}
+
+	/**
+	 * Returns the number of recorded successful requests
+	 * @return the number of successful requests
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the number of failed requests
+	 * @return the number of failed requests
+	 */
+	public long getErrors() {
+		return errors;
+	}
+
+	/**
+	 * Returns the number of output bytes received
+	 * @return the number of output bytes
+	 */
+	public long getOutputBytes() {
+		return outputBytes;
+	}
+
+	/**
+	 * Appends the first response latency summary as a JSON object
+	 * @param json The buffer to append to
+	 * @return the buffer
+	 */
+	public StringBuilder firstResponseJson(StringBuilder json) {
+		sort();
+		return json(json, firstResponse);
+	}
+
+	/**
+	 * Appends the completion latency summary as a JSON object
+	 * @param json The buffer to append to
+	 * @return the buffer
+	 */
+	public StringBuilder completionJson(StringBuilder json) {
+		sort();
+		return json(json, completion);
+	}
+
+	/**
+	 * Appends the mean, percentiles and max of the passed sorted latencies, in microseconds, as a JSON object
+	 * @param json The buffer to append to
+	 * @param latencies The sorted latencies in ns
+	 * @return the buffer
+	 */
+	protected StringBuilder json(StringBuilder json, long[] latencies) {
+		long sum = 0L;
+		for(int i = 0; i < count; i++) {
+			sum += latencies[i];
+		}
+		json.append("{\"mean\":").append(count==0 ? 0L : micros(sum / count));
+		for(double p: PERCENTILES) {
+			json.append(",\"p").append(p==Math.rint(p) ? String.valueOf((long)p) : String.valueOf(p).replace(".", "")).append("\":").append(micros(percentile(latencies, p)));
+		}
+		return json.append(",\"max\":").append(count==0 ? 0L : micros(latencies[count-1])).append('}');
+	}
+
+	/**
+	 * Returns the passed percentile of the sorted latencies, by the nearest rank
+	 * @param latencies The sorted latencies
+	 * @param p The percentile
+	 * @return the latency at the percentile, or 0 if nothing was recorded
+	 */
+	protected long percentile(long[] latencies, double p) {
+		if(count==0) return 0L;
+		int rank = (int)Math.ceil(p / 100D * count);
+		return latencies[Math.min(count, Math.max(1, rank)) - 1];
+	}
+
+	/**
+	 * Sorts the latencies if they are not already sorted
+	 */
+	protected void sort() {
+		if(sorted) return;
+		Arrays.sort(firstResponse, 0, count);
+		Arrays.sort(completion, 0, count);
+		sorted = true;
+	}
+
+	private static long micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+}
@@ -0,0 +1,535 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.benchmarks;
+
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.helios.octo.client.InvocationFuture;
+import org.helios.octo.client.OctoClient;
+import org.helios.octo.client.OctoShared;
+import org.helios.octo.client.ResponseListener;
+import org.helios.octo.protocol.CompressionCodec;
+import org.helios.octo.server.OctoServer;
+
+/**
+ * <p>Title: LoadGenerator</p>
+ * <p>Description: An end-to-end load test that runs in one JVM. It starts an {@link OctoServer} on an ephemeral loopback port
+ * and drives it with a number of {@link OctoClient}s, each running a number of concurrent request loops over a weighted {@link Workload} mix.
+ * After a warmup, it measures throughput, the latency to the first response and to completion, and the CPU time and allocations
+ * of the server's threads, and writes the results as a JSON document so runs can be compared.</p>
+ * <p>Options are passed as <b><code>name=value</code></b> arguments, see {@link #DEFAULTS}. For example:<pre>
+ * java -cp benchmarks.jar org.helios.octo.benchmarks.LoadGenerator clients=16 concurrency=4 mix=echo:2,output:1 outputLines=500 out=run1.json
+ * </pre></p>
+ * <p>Server threads are recognized by name: the script threads and the server's netty event loops. The client event loop threads
+ * have default thread names, so they are not counted.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.benchmarks.LoadGenerator</code></p>
+ */
+
+public class LoadGenerator {
+	/** The run options */
+	protected final Properties options;
+	/** The workloads in proportion to their weight */
+	protected final Workload[] mix;
+	/** The script text for each workload, by ordinal */
+	protected final String[] scripts;
+	/** The arguments passed with each request */
+	protected final Object[] arguments;
+	/** The per thread recorders, one per workload, by ordinal */
+	protected final List<LatencyRecorder[]> recorders = new ArrayList<LatencyRecorder[]>();
+	/** The nano time the measurement started, requests started before it are discarded */
+	protected volatile long measureStart = Long.MAX_VALUE;
+	/** The nano time the measurement ended, requests started after it are discarded */
+	protected volatile long measureEnd = Long.MAX_VALUE;
+	/** Set to stop the request loops */
+	protected volatile boolean stopped = false;
+
+	/** Static class logger */
+	protected static final Logger LOG = Logger.getLogger(LoadGenerator.class);
+
+	/** The thread name prefixes of the server threads */
+	public static final String[] SERVER_THREAD_PREFIXES = {"OctoScriptThread", "nioEventLoopGroup"};
+
+	/**
+	 * The default run options:<ul>
+	 * <li><b><code>clients</code></b>: the number of clients, each with its own connection</li>
+	 * <li><b><code>concurrency</code></b>: the number of concurrent request loops per client</li>
+	 * <li><b><code>warmup</code></b>: the warmup time in seconds</li>
+	 * <li><b><code>duration</code></b>: the measurement time in seconds</li>
+	 * <li><b><code>mix</code></b>: the weighted workload mix</li>
+	 * <li><b><code>argSize</code></b>: the size in bytes of the byte array argument passed with each request, 0 for no arguments</li>
+	 * <li><b><code>outputLines</code></b>: the number of lines printed by the output workload</li>
+	 * <li><b><code>lineSize</code></b>: the size in bytes of each printed line</li>
+	 * <li><b><code>computeIterations</code></b>: the number of loop iterations of the compute workload</li>
+	 * <li><b><code>scriptThreads</code></b>: the number of server script threads</li>
+	 * <li><b><code>scriptQueueSize</code></b>: the maximum number of queued script invocations</li>
+	 * <li><b><code>flushThreshold</code></b>: the server stream flush threshold in bytes</li>
+	 * <li><b><code>flushLatency</code></b>: the server stream flush latency in ms</li>
+	 * <li><b><code>highWaterMark</code></b>: the server child channel write buffer high water mark</li>
+	 * <li><b><code>lowWaterMark</code></b>: the server child channel write buffer low water mark</li>
+	 * <li><b><code>backpressure</code></b>: the server backpressure policy</li>
+	 * <li><b><code>compression</code></b>: the compression codecs offered by the clients, NONE to disable compression</li>
+	 * <li><b><code>coalesce</code></b>: true to let the server coalesce identical in-flight requests. Off by default so every request runs its script.</li>
+	 * <li><b><code>out</code></b>: the file to write the JSON results to, - for std-out</li>
+	 * </ul>
+	 */
+	public static final Properties DEFAULTS = new Properties();
+
+	static {
+		DEFAULTS.setProperty("clients", "8");
+		DEFAULTS.setProperty("concurrency", "4");
+		DEFAULTS.setProperty("warmup", "5");
+		DEFAULTS.setProperty("duration", "30");
+		DEFAULTS.setProperty("mix", "echo:1,output:1,compute:1,jmx:1");
+		DEFAULTS.setProperty("argSize", "128");
+		DEFAULTS.setProperty("outputLines", "100");
+		DEFAULTS.setProperty("lineSize", "80");
+		DEFAULTS.setProperty("computeIterations", "10000");
+		DEFAULTS.setProperty("scriptThreads", String.valueOf(Runtime.getRuntime().availableProcessors()));
+		DEFAULTS.setProperty("scriptQueueSize", "1024");
+		DEFAULTS.setProperty("flushThreshold", "8192");
+		DEFAULTS.setProperty("flushLatency", "50");
+		DEFAULTS.setProperty("highWaterMark", String.valueOf(OctoServer.DEFAULT_HIGH_WATER_MARK));
+		DEFAULTS.setProperty("lowWaterMark", String.valueOf(OctoServer.DEFAULT_LOW_WATER_MARK));
+		DEFAULTS.setProperty("backpressure", "BLOCK");
+		DEFAULTS.setProperty("compression", "DEFLATE,SNAPPY");
+		DEFAULTS.setProperty("coalesce", "false");
+		DEFAULTS.setProperty("out", "-");
+	}
+
+	/**
+	 * Runs a load test
+	 * @param args <b><code>name=value</code></b> options
+	 */
+	public static void main(String[] args) {
+		BasicConfigurator.configure();
+		Logger.getRootLogger().setLevel(Level.WARN);
+		Properties options = new Properties(DEFAULTS);
+		for(String arg: args) {
+			int eq = arg.indexOf('=');
+			String name = eq==-1 ? arg : arg.substring(0, eq);
+			if(eq==-1 || DEFAULTS.getProperty(name)==null) {
+				System.err.println("Invalid option [" + arg + "]. Options and defaults: " + new TreeSet<Object>(DEFAULTS.entrySet()));
+				System.exit(1);
+			}
+			options.setProperty(name, arg.substring(eq+1));
+		}
+		int exitCode = 0;
+		try {
+			String json = new LoadGenerator(options).run();
+			String out = options.getProperty("out");
+			if("-".equals(out)) {
+				System.out.println(json);
+			} else {
+				Writer writer = new OutputStreamWriter(new FileOutputStream(out), "UTF-8");
+				try {
+					writer.write(json);
+					writer.write('\n');
+				} finally {
+					writer.close();
+				}
+			}
+		} catch (Exception ex) {
+			ex.printStackTrace(System.err);
+			exitCode = 1;
+		}
+		System.exit(exitCode);
+	}
+
+	/**
+	 * Creates a new LoadGenerator
+	 * @param options The run options, see {@link #DEFAULTS}
+	 */
+	public LoadGenerator(Properties options) {
+		this.options = options;
+		mix = Workload.forMix(options.getProperty("mix"));
+		Workload[] workloads = Workload.values();
+		scripts = new String[workloads.length];
+		for(Workload w: workloads) {
+			scripts[w.ordinal()] = w.script(intOption("outputLines"), intOption("lineSize"), intOption("computeIterations"));
+		}
+		int argSize = intOption("argSize");
+		if(argSize > 0) {
+			byte[] arg = new byte[argSize];
+			new Random(argSize).nextBytes(arg);
+			arguments = new Object[]{arg};
+		} else {
+			arguments = new Object[0];
+		}
+	}
+
+	/**
+	 * Starts the server, runs the warmup and the measurement, stops the server and returns the results
+	 * @return the results as a JSON document
+	 * @throws Exception thrown on any error starting the server or the clients
+	 */
+	public String run() throws Exception {
+		LoadServer server = new LoadServer();
+		configure(server);
+		server.start();
+		final List<OctoClient> clients = new ArrayList<OctoClient>();
+		final List<Thread> threads = new ArrayList<Thread>();
+		try {
+			OctoShared shared = OctoShared.getInstance();
+			String compression = options.getProperty("compression");
+			shared.setCompressionCodecs("NONE".equalsIgnoreCase(compression) ? new CompressionCodec[0] : CompressionCodec.forNames(compression));
+			final int clientCount = intOption("clients");
+			final int concurrency = intOption("concurrency");
+			shared.setPoolMaxSize(Math.max(shared.getPoolMaxSize(), clientCount));
+			for(int i = 0; i < clientCount; i++) {
+				clients.add(new OctoClient("127.0.0.1", server.getPort()));
+			}
+			final CountDownLatch started = new CountDownLatch(clientCount * concurrency);
+			for(int i = 0; i < clientCount; i++) {
+				for(int c = 0; c < concurrency; c++) {
+					final OctoClient client = clients.get(i);
+					final LatencyRecorder[] recorder = new LatencyRecorder[Workload.values().length];
+					for(int w = 0; w < recorder.length; w++) {
+						recorder[w] = new LatencyRecorder();
+					}
+					recorders.add(recorder);
+					final long seed = (i * 1000L) + c;
+					Thread t = new Thread("LoadGenerator#" + i + "." + c) {
+						@Override
+						public void run() {
+							started.countDown();
+							requestLoop(client, recorder, new Random(seed));
+						}
+					};
+					t.setDaemon(true);
+					threads.add(t);
+					t.start();
+				}
+			}
+			started.await();
+			Thread.sleep(TimeUnit.SECONDS.toMillis(intOption("warmup")));
+			Map<Long, long[]> serverStart = sampleServerThreads();
+			long[] gcStart = sampleGc();
+			measureStart = System.nanoTime();
+			Thread.sleep(TimeUnit.SECONDS.toMillis(intOption("duration")));
+			measureEnd = System.nanoTime();
+			Map<Long, long[]> serverEnd = sampleServerThreads();
+			long[] gcEnd = sampleGc();
+			stopped = true;
+			for(Thread t: threads) {
+				t.join();
+			}
+			return results(measureEnd - measureStart, serverStart, serverEnd, gcStart, gcEnd);
+		} finally {
+			stopped = true;
+			for(OctoClient client: clients) {
+				client.close();
+			}
+			OctoShared.getInstance().shutdownAll();
+			server.stop();
+		}
+	}
+
+	/**
+	 * Issues requests from one client until stopped, one at a time
+	 * @param client The client to issue requests from
+	 * @param recorder The recorders of this loop, one per workload
+	 * @param random The workload picker
+	 */
+	protected void requestLoop(OctoClient client, LatencyRecorder[] recorder, Random random) {
+		while(!stopped) {
+			Workload workload = mix[random.nextInt(mix.length)];
+			RequestTimer timer = new RequestTimer();
+			long start = System.nanoTime();
+			InvocationFuture future = client.executeAsync(timer, scripts[workload.ordinal()], arguments);
+			future.awaitUninterruptibly();
+			if(start < measureStart || start >= measureEnd) continue;
+			if(future.isSuccess()) {
+				recorder[workload.ordinal()].record(timer.firstResponse - start, timer.completion - start, timer.outputBytes);
+			} else {
+				recorder[workload.ordinal()].error();
+				if(LOG.isDebugEnabled()) LOG.debug("Request failed", future.cause());
+			}
+		}
+	}
+
+	/**
+	 * Applies the server options
+	 * @param server The server to configure
+	 * @throws Exception thrown if an option is invalid
+	 */
+	protected void configure(OctoServer server) throws Exception {
+		server.setAddress("127.0.0.1");
+		server.setPort(0);
+		server.setClassLoaderRef(new ObjectName(ManagementFactory.CLASS_LOADING_MXBEAN_NAME));
+		server.setScriptThreads(intOption("scriptThreads"));
+		server.setScriptQueueSize(intOption("scriptQueueSize"));
+		server.setStreamFlushThreshold(intOption("flushThreshold"));
+		server.setStreamFlushLatency(intOption("flushLatency"));
+		int high = intOption("highWaterMark"), low = intOption("lowWaterMark");
+		if(high < server.getWriteBufferLowWaterMark()) {
+			server.setWriteBufferLowWaterMark(low);
+			server.setWriteBufferHighWaterMark(high);
+		} else {
+			server.setWriteBufferHighWaterMark(high);
+			server.setWriteBufferLowWaterMark(low);
+		}
+		server.setBackpressurePolicy(options.getProperty("backpressure"));
+		server.setCoalescing(Boolean.parseBoolean(options.getProperty("coalesce")));
+	}
+
+	/**
+	 * Builds the JSON results
+	 * @param elapsed The measurement time in ns
+	 * @param serverStart The server thread sample at the start of the measurement
+	 * @param serverEnd The server thread sample at the end of the measurement
+	 * @param gcStart The GC sample at the start of the measurement
+	 * @param gcEnd The GC sample at the end of the measurement
+	 * @return the JSON results
+	 */
+	protected String results(long elapsed, Map<Long, long[]> serverStart, Map<Long, long[]> serverEnd, long[] gcStart, long[] gcEnd) {
+		final double seconds = elapsed / 1E9D;
+		Workload[] workloads = Workload.values();
+		List<LatencyRecorder> all = new ArrayList<LatencyRecorder>();
+		LatencyRecorder[] byWorkload = new LatencyRecorder[workloads.length];
+		for(Workload w: workloads) {
+			List<LatencyRecorder> rs = new ArrayList<LatencyRecorder>();
+			for(LatencyRecorder[] r: recorders) {
+				rs.add(r[w.ordinal()]);
+			}
+			byWorkload[w.ordinal()] = LatencyRecorder.merge(rs);
+			all.add(byWorkload[w.ordinal()]);
+		}
+		LatencyRecorder total = LatencyRecorder.merge(all);
+		StringBuilder json = new StringBuilder(2048);
+		json.append("{\"options\":{");
+		boolean first = true;
+		for(String name: new TreeSet<String>(DEFAULTS.stringPropertyNames())) {
+			if(!first) json.append(',');
+			first = false;
+			json.append('"').append(name).append("\":\"").append(options.getProperty(name).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+		}
+		json.append("},\"elapsedMs\":").append(TimeUnit.NANOSECONDS.toMillis(elapsed)).append(',');
+		summary(json, total, seconds);
+		json.append(",\"workloads\":{");
+		first = true;
+		for(Workload w: workloads) {
+			LatencyRecorder r = byWorkload[w.ordinal()];
+			if(r.getCount()==0 && r.getErrors()==0) continue;
+			if(!first) json.append(',');
+			first = false;
+			json.append('"').append(w.name().toLowerCase()).append("\":{");
+			summary(json, r, seconds);
+			json.append('}');
+		}
+		long cpu = 0L, allocated = 0L;
+		for(Map.Entry<Long, long[]> entry: serverEnd.entrySet()) {
+			long[] before = serverStart.get(entry.getKey());
+			long[] after = entry.getValue();
+			cpu += after[0] - (before==null ? 0L : before[0]);
+			if(after[1]>=0) allocated += after[1] - (before==null ? 0L : before[1]);
+		}
+		json.append("},\"server\":{\"threads\":").append(serverEnd.size())
+			.append(",\"cpuMs\":").append(TimeUnit.NANOSECONDS.toMillis(cpu))
+			.append(",\"cpuCores\":").append(round(cpu / (double)elapsed))
+			.append(",\"allocatedBytes\":").append(allocated)
+			.append(",\"allocationRate\":").append(Math.round(allocated / seconds))
+			.append("},\"gc\":{\"count\":").append(gcEnd[0] - gcStart[0])
+			.append(",\"timeMs\":").append(gcEnd[1] - gcStart[1])
+			.append("}}");
+		return json.toString();
+	}
+
+	/**
+	 * Appends the request counts, throughput and latencies of the passed recorder as JSON fields
+	 * @param json The buffer to append to
+	 * @param r The recorder
+	 * @param seconds The measurement time in seconds
+	 */
+	protected static void summary(StringBuilder json, LatencyRecorder r, double seconds) {
+		json.append("\"requests\":").append(r.getCount())
+			.append(",\"errors\":").append(r.getErrors())
+			.append(",\"throughput\":").append(round(r.getCount() / seconds))
+			.append(",\"outputBytes\":").append(r.getOutputBytes())
+			.append(",\"firstResponseLatencyUs\":");
+		r.firstResponseJson(json).append(",\"completionLatencyUs\":");
+		r.completionJson(json);
+	}
+
+	/**
+	 * Samples the CPU time and allocated bytes of each server thread
+	 * @return a map of {cpu time in ns, allocated bytes or -1 if not supported} keyed by thread id
+	 */
+	protected static Map<Long, long[]> sampleServerThreads() {
+		ThreadMXBean tmx = ManagementFactory.getThreadMXBean();
+		com.sun.management.ThreadMXBean alloc = tmx instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean)tmx : null;
+		Map<Long, long[]> sample = new HashMap<Long, long[]>();
+		for(ThreadInfo ti: tmx.getThreadInfo(tmx.getAllThreadIds())) {
+			if(ti==null || !isServerThread(ti.getThreadName())) continue;
+			long id = ti.getThreadId();
+			long cpu = tmx.getThreadCpuTime(id);
+			if(cpu < 0) continue;
+			sample.put(id, new long[]{cpu, alloc==null ? -1L : alloc.getThreadAllocatedBytes(id)});
+		}
+		return sample;
+	}
+
+	/**
+	 * Determines if the passed thread name is the name of a server thread
+	 * @param name The thread name
+	 * @return true if the thread is a server thread
+	 */
+	protected static boolean isServerThread(String name) {
+		for(String prefix: SERVER_THREAD_PREFIXES) {
+			if(name.startsWith(prefix)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Samples the total GC count and time
+	 * @return {the GC count, the GC time in ms}
+	 */
+	protected static long[] sampleGc() {
+		long[] sample = new long[2];
+		for(GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) {
+			sample[0] += Math.max(0L, gc.getCollectionCount());
+			sample[1] += Math.max(0L, gc.getCollectionTime());
+		}
+		return sample;
+	}
+
+	/**
+	 * Returns an int option
+	 * @param name The option name
+	 * @return the option value
+	 */
+	protected int intOption(String name) {
+		String value = options.getProperty(name);
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException("Invalid value for option [" + name + "]: [" + value + "]");
+		}
+	}
+
+	private static double round(double d) {
+		return Math.round(d * 100D) / 100D;
+	}
+
+	/**
+	 * <p>Title: RequestTimer</p>
+	 * <p>Description: Records when the first response and the completion of a request arrive</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.octo.benchmarks.LoadGenerator.RequestTimer</code></p>
+	 */
+	protected static class RequestTimer implements ResponseListener {
+		/** The nano time of the first output, result or error */
+		protected volatile long firstResponse = 0L;
+		/** The nano time of completion */
+		protected volatile long completion = 0L;
+		/** The number of output bytes received, assuming single byte characters */
+		protected volatile long outputBytes = 0L;
+
+		@Override
+		public void onOutput(long requestId, boolean stdOut, String line) {
+			responded();
+			outputBytes += line.length();
+		}
+
+		@Override
+		public void onResult(long requestId, Object result) {
+			responded();
+		}
+
+		@Override
+		public void onError(long requestId, Throwable error) {
+			responded();
+		}
+
+		@Override
+		public void onComplete(long requestId) {
+			responded();
+			completion = System.nanoTime();
+		}
+
+		private void responded() {
+			if(firstResponse==0L) firstResponse = System.nanoTime();
+		}
+	}
+
+	/**
+	 * <p>Title: LoadServer</p>
+	 * <p>Description: An {@link OctoServer} that can be started and stopped outside a container</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.octo.benchmarks.LoadGenerator.LoadServer</code></p>
+	 */
+	protected static class LoadServer extends OctoServer {
+		/** The maximum time in ms to wait for the server to bind */
+		public static final long BIND_TIMEOUT = 10000L;
+
+		/**
+		 * Starts the server and waits for it to bind
+		 * @throws Exception thrown if the server fails to start or bind
+		 */
+		public void start() throws Exception {
+			startService();
+			long deadline = System.currentTimeMillis() + BIND_TIMEOUT;
+			while(getPort() < 1) {
+				if(System.currentTimeMillis() > deadline) {
+					stopService();
+					throw new Exception("Server did not bind within [" + BIND_TIMEOUT + "] ms");
+				}
+				Thread.sleep(10);
+			}
+		}
+
+		/**
+		 * Stops the server
+		 */
+		public void stop() {
+			stopService();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.Random;
+
+import org.helios.octo.util.NettyUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * <p>Title: NettyUtilBenchmark</p>
+ * <p>Description: Benchmarks the {@link NettyUtil#formatBuffer(ByteBuf)} hex dump used when logging frames</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.benchmarks.NettyUtilBenchmark</code></p>
+ */
+@State(Scope.Thread)
+public class NettyUtilBenchmark {
+	/** The size of the buffer to format */
+	@Param({"16", "256", "4096"})
+	public int bufferSize;
+
+	/** The buffer to format */
+	protected ByteBuf buffer;
+
+	/**
+	 * Fills the buffer with random bytes
+	 */
+	@Setup
+	public void setup() {
+		byte[] bytes = new byte[bufferSize];
+		new Random(bufferSize).nextBytes(bytes);
+		buffer = Unpooled.wrappedBuffer(bytes);
+	}
+
+	/**
+	 * Releases the buffer
+	 */
+	@TearDown
+	public void tearDown() {
+		buffer.release();
+	}
+
+	/**
+	 * Formats the whole buffer
+	 * @return the hex dump
+	 */
+	@Benchmark
+	public String formatBuffer() {
+		return NettyUtil.formatBuffer(buffer);
+	}
+
+	/**
+	 * Formats the first 64 bytes of the buffer, the way frames are logged
+	 * @return the hex dump
+	 */
+	@Benchmark
+	public String formatBufferMaxLength() {
+		return NettyUtil.formatBuffer(buffer, 64);
+	}
+}
@@ -0,0 +1,65 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Title: OctoBenchmarks</p>
+ * <p>Description: Runs the benchmarks in throughput mode with the GC profiler, so every result is reported in ops/s
+ * with the bytes allocated per op as <b><code>gc.alloc.rate.norm</code></b>. Standard JMH command line options
+ * are accepted, e.g. a benchmark name regex, <b><code>-f 1</code></b> or <b><code>-rf json</code></b>.
+ * With no name regex, all the benchmarks in this package are run.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.benchmarks.OctoBenchmarks</code></p>
+ */
+
+public class OctoBenchmarks {
+
+	/**
+	 * Runs the benchmarks
+	 * @param args JMH command line options
+	 * @throws Exception thrown if the options are invalid or a benchmark fails
+	 */
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmdLine = new CommandLineOptions(args);
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(cmdLine);
+		if(cmdLine.getIncludes().isEmpty()) {
+			builder.include(OctoBenchmarks.class.getPackage().getName() + ".*Benchmark");
+		}
+		builder.mode(Mode.Throughput)
+			.timeUnit(TimeUnit.SECONDS)
+			.addProfiler(GCProfiler.class);
+		new Runner(builder.build()).run();
+	}
+}
@@ -0,0 +1,225 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.MessageList;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.serialization.ClassResolver;
+import io.netty.handler.codec.serialization.ClassResolvers;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.helios.octo.client.ResponseHandler;
+import org.helios.octo.client.ResponseListener;
+import org.helios.octo.protocol.CompressionCodec;
+import org.helios.octo.protocol.Frame;
+import org.helios.octo.protocol.FrameCompressor;
+import org.helios.octo.protocol.FrameDecoder;
+import org.helios.octo.protocol.FrameDecompressor;
+import org.helios.octo.protocol.FrameEncoder;
+import org.helios.octo.protocol.FrameType;
+import org.helios.octo.protocol.ValueCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * <p>Title: ResponseDecodeBenchmark</p>
+ * <p>Description: Benchmarks the client side decoding of one response arriving in fragments: the frame decoder and decompressor
+ * reassemble the std-out, result and end frames, and each payload is decoded and passed to a listener by the client's
+ * {@link ResponseHandler#dispatch(Frame, ResponseListener, ResponseHandler.LineBuffer, ClassResolver)}, lines to strings and the result through {@link ValueCodec}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.benchmarks.ResponseDecodeBenchmark</code></p>
+ */
+@State(Scope.Thread)
+public class ResponseDecodeBenchmark {
+	/** The size of the fragments the response arrives in */
+	@Param({"16", "512", "8192"})
+	public int fragmentSize;
+	/** The compression codec the response was encoded with */
+	@Param({"NONE", "DEFLATE"})
+	public String codec;
+
+	/** The channel under test */
+	protected EmbeddedChannel channel;
+	/** The encoded response */
+	protected ByteBuf wire;
+	/** The decoding handler */
+	protected PayloadDecoder decoder;
+
+	/** The number of std-out frames in the response */
+	public static final int STDOUT_FRAMES = 32;
+
+	/**
+	 * Encodes the response and assembles the decoding channel
+	 * @throws Exception thrown if the response can not be encoded
+	 */
+	@Setup
+	public void setup() throws Exception {
+		EmbeddedChannel encoder = new EmbeddedChannel(new FrameEncoder(), new FrameCompressor());
+		encoder.attr(FrameCompressor.CODEC).set(CompressionCodec.valueOf(codec));
+		final byte[] line = "2013-06-01 12:00:00,000 INFO  [Script] Processed record 000042 of 100000 in 12 ms\n".getBytes();
+		for(int i = 0; i < STDOUT_FRAMES; i++) {
+			ByteBuf lines = Unpooled.buffer(line.length * 8);
+			for(int l = 0; l < 8; l++) {
+				lines.writeBytes(line);
+			}
+			encoder.writeOutbound(new Frame(FrameType.STDOUT, 1L, lines));
+		}
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		for(int i = 0; i < 64; i++) {
+			result.put("attribute" + i, i % 2==0 ? (Object)Long.valueOf(i * 1000L) : new Date(1370000000000L + i));
+		}
+		ByteBuf payload = Unpooled.buffer();
+		ValueCodec.write(payload, result);
+		encoder.writeOutbound(new Frame(FrameType.RESULT, 1L, payload));
+		encoder.writeOutbound(new Frame(FrameType.END, 1L));
+		wire = Unpooled.directBuffer();
+		Object msg;
+		while((msg = encoder.readOutbound())!=null) {
+			ByteBuf buf = (ByteBuf)msg;
+			wire.writeBytes(buf);
+			buf.release();
+		}
+		encoder.finish();
+		decoder = new PayloadDecoder(ClassResolvers.softCachingConcurrentResolver(getClass().getClassLoader()));
+		channel = new EmbeddedChannel(new FrameDecoder(), new FrameDecompressor(), decoder);
+	}
+
+	/**
+	 * Closes the channel and releases the encoded response
+	 */
+	@TearDown
+	public void tearDown() {
+		channel.finish();
+		wire.release();
+	}
+
+	/**
+	 * Writes the response to the channel in fragments
+	 * @return the number of frames decoded
+	 */
+	@Benchmark
+	public long decode() {
+		final long start = decoder.frames;
+		final int size = wire.readableBytes();
+		for(int i = 0; i < size; i += fragmentSize) {
+			channel.writeInbound(wire.slice(i, Math.min(fragmentSize, size - i)).retain());
+		}
+		if(decoder.error!=null) throw new RuntimeException("Decode failed", decoder.error);
+		return decoder.frames - start;
+	}
+
+	/**
+	 * <p>Title: PayloadDecoder</p>
+	 * <p>Description: Passes each frame to the client's response dispatch with a listener that keeps the decoded values, and releases the frames</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.octo.benchmarks.ResponseDecodeBenchmark.PayloadDecoder</code></p>
+	 */
+	public static class PayloadDecoder extends ChannelInboundHandlerAdapter implements ResponseListener {
+		/** The class resolver for java serialized results */
+		protected final ClassResolver classResolver;
+		/** The partial lines carried between stream frames, as the client keeps them per request */
+		protected final ResponseHandler.LineBuffer lines = new ResponseHandler.LineBuffer();
+		/** The number of frames decoded */
+		protected long frames = 0L;
+		/** The last decoded value, retained so that decoding can not be eliminated */
+		protected Object last = null;
+		/** The first decoding error */
+		protected Throwable error = null;
+
+		/**
+		 * Creates a new PayloadDecoder
+		 * @param classResolver The class resolver for java serialized results
+		 */
+		public PayloadDecoder(ClassResolver classResolver) {
+			this.classResolver = classResolver;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see io.netty.channel.ChannelInboundHandlerAdapter#messageReceived(io.netty.channel.ChannelHandlerContext, io.netty.channel.MessageList)
+		 */
+		@Override
+		public void messageReceived(ChannelHandlerContext ctx, MessageList<Object> msgs) throws Exception {
+			final int size = msgs.size();
+			for(int i = 0; i < size; i++) {
+				try {
+					if(ResponseHandler.dispatch((Frame)msgs.get(i), this, lines, classResolver)) frames++;
+				} catch (Exception ex) {
+					if(error==null) error = ex;
+				}
+			}
+			msgs.releaseAllAndRecycle();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.octo.client.ResponseListener#onOutput(long, boolean, java.lang.String)
+		 */
+		@Override
+		public void onOutput(long requestId, boolean stdOut, String line) {
+			last = line;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.octo.client.ResponseListener#onResult(long, java.lang.Object)
+		 */
+		@Override
+		public void onResult(long requestId, Object result) {
+			last = result;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.octo.client.ResponseListener#onError(long, java.lang.Throwable)
+		 */
+		@Override
+		public void onError(long requestId, Throwable t) {
+			if(error==null) error = t;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.octo.client.ResponseListener#onComplete(long)
+		 */
+		@Override
+		public void onComplete(long requestId) {
+			/* No Op */
+		}
+	}
+}
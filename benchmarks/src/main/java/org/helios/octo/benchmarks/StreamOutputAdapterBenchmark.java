@@ -0,0 +1,109 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.MessageList;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import org.helios.octo.protocol.CompressionCodec;
+import org.helios.octo.protocol.Frame;
+import org.helios.octo.protocol.FrameCompressor;
+import org.helios.octo.protocol.FrameEncoder;
+import org.helios.octo.protocol.FrameType;
+import org.helios.octo.server.streams.StreamChunk;
+import org.helios.octo.server.streams.StreamOutputAdapter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * <p>Title: StreamOutputAdapterBenchmark</p>
+ * <p>Description: Benchmarks {@link StreamOutputAdapter#write(io.netty.channel.ChannelHandlerContext, MessageList, io.netty.channel.ChannelPromise)}
+ * in an embedded channel assembled with the server's outbound handlers: frame encoder, frame compressor and the std-out and std-err adapters.
+ * Each op writes a batch of std-out chunks for one request followed by its end frame.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.benchmarks.StreamOutputAdapterBenchmark</code></p>
+ */
+@State(Scope.Thread)
+public class StreamOutputAdapterBenchmark {
+	/** The size of each chunk in bytes. Chunks end mid line, so the adapter carries tails between chunks. */
+	@Param({"128", "8192"})
+	public int chunkSize;
+	/** The number of chunks written per op */
+	@Param({"1", "16"})
+	public int chunks;
+	/** The negotiated compression codec */
+	@Param({"NONE", "DEFLATE", "SNAPPY"})
+	public String codec;
+
+	/** The channel under test */
+	protected EmbeddedChannel channel;
+	/** The chunk content template */
+	protected ByteBuf content;
+
+	/**
+	 * Assembles the channel and the chunk content
+	 */
+	@Setup
+	public void setup() {
+		channel = new EmbeddedChannel(new BenchmarkSink(), new FrameEncoder(), new FrameCompressor(),
+				new StreamOutputAdapter(FrameType.STDOUT), new StreamOutputAdapter(FrameType.STDERR));
+		channel.attr(FrameCompressor.CODEC).set(CompressionCodec.valueOf(codec));
+		content = Unpooled.directBuffer(chunkSize);
+		final byte[] line = "2013-06-01 12:00:00,000 INFO  [Script] Processed record 000042 of 100000 in 12 ms\n".getBytes();
+		while(content.writableBytes() > 0) {
+			content.writeBytes(line, 0, Math.min(line.length, content.writableBytes()));
+		}
+	}
+
+	/**
+	 * Closes the channel and releases the chunk content
+	 */
+	@TearDown
+	public void tearDown() {
+		channel.finish();
+		content.release();
+	}
+
+	/**
+	 * Writes a batch of chunks and the end frame for one request
+	 * @return the write future
+	 */
+	@Benchmark
+	public Object write() {
+		MessageList<Object> msgs = MessageList.newInstance(chunks + 1);
+		for(int i = 0; i < chunks; i++) {
+			msgs.add(new StreamChunk(1L, FrameType.STDOUT, content.duplicate().retain()));
+		}
+		msgs.add(new Frame(FrameType.END, 1L));
+		return channel.write(msgs);
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Title: Workload</p>
+ * <p>Description: Enumerates the scripts the {@link LoadGenerator} can mix</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.benchmarks.Workload</code></p>
+ */
+
+public enum Workload {
+	/** Returns its first argument, exercising the argument and result codecs */
+	ECHO {
+		@Override
+		public String script(int outputLines, int lineSize, int computeIterations) {
+			return "args.length==0 ? null : args[0]";
+		}
+	},
+	/** Prints lines of output, exercising output streaming */
+	OUTPUT {
+		@Override
+		public String script(int outputLines, int lineSize, int computeIterations) {
+			return "def line = 'x' * " + Math.max(0, lineSize-1) + "; for(i in 0..<" + outputLines + ") println line; " + outputLines;
+		}
+	},
+	/** Spins in a loop, exercising the script threads */
+	COMPUTE {
+		@Override
+		public String script(int outputLines, int lineSize, int computeIterations) {
+			return "long s = 0; for(int i = 0; i < " + computeIterations + "; i++) { s = s * 31 + i }; s";
+		}
+	},
+	/** Reads a composite MBean attribute, exercising the open type codecs */
+	JMX {
+		@Override
+		public String script(int outputLines, int lineSize, int computeIterations) {
+			return "java.lang.management.ManagementFactory.getPlatformMBeanServer().getAttribute(new javax.management.ObjectName('java.lang:type=Memory'), 'HeapMemoryUsage')";
+		}
+	};
+
+	/**
+	 * Returns the script text for this workload
+	 * @param outputLines The number of lines printed by the output workload
+	 * @param lineSize The size of each printed line in bytes, including the line feed
+	 * @param computeIterations The number of loop iterations of the compute workload
+	 * @return the script text
+	 */
+	public abstract String script(int outputLines, int lineSize, int computeIterations);
+
+	/**
+	 * Decodes a weighted workload mix such as <b><code>echo:4,output:1</code></b>, ignoring case. A workload without a weight has a weight of 1.
+	 * @param mix The mix to decode
+	 * @return an array where each workload appears as many times as its weight, so that a uniform pick follows the mix
+	 */
+	public static Workload[] forMix(String mix) {
+		if(mix==null || mix.trim().isEmpty()) throw new IllegalArgumentException("The passed mix was null or empty");
+		List<Workload> weighted = new ArrayList<Workload>();
+		for(String entry: mix.split(",")) {
+			entry = entry.trim();
+			if(entry.isEmpty()) continue;
+			int colon = entry.indexOf(':');
+			String name = colon==-1 ? entry : entry.substring(0, colon).trim();
+			int weight;
+			Workload workload;
+			try {
+				weight = colon==-1 ? 1 : Integer.parseInt(entry.substring(colon+1).trim());
+				workload = valueOf(name.toUpperCase());
+			} catch (IllegalArgumentException iae) {
+				throw new IllegalArgumentException("Invalid workload mix entry [" + entry + "]");
+			}
+			if(weight<0) throw new IllegalArgumentException("Invalid workload weight [" + entry + "]");
+			for(int i = 0; i < weight; i++) {
+				weighted.add(workload);
+			}
+		}
+		if(weighted.isEmpty()) throw new IllegalArgumentException("The workload mix [" + mix + "] has no weight");
+		return weighted.toArray(new Workload[weighted.size()]);
+	}
+}
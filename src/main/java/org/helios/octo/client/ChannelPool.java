@@ -0,0 +1,374 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.client;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.util.AttributeKey;
+
+import java.util.Iterator;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.helios.octo.protocol.Frame;
+import org.helios.octo.protocol.FrameType;
+
+/**
+ * <p>Title: ChannelPool</p>
+ * <p>Description: A bounded pool of connected channels to one OctoServer endpoint.
+ * Channels are leased exclusively and released back to the pool when the lessee is done with them.
+ * Idle channels are checked periodically by {@link #check()}: channels idle for longer than the idle timeout are closed
+ * while the pool is above its minimum size, the remaining idle channels are pinged, and channels that did not answer
+ * the previous ping in time are closed.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.client.ChannelPool</code></p>
+ */
+
+public class ChannelPool {
+	/** The OctoServer host */
+	protected final String host;
+	/** The OctoServer listening port */
+	protected final int port;
+	/** The bootstrap used to connect new channels */
+	protected final Bootstrap bootstrap;
+	/** The idle channels, most recently released first */
+	protected final LinkedBlockingDeque<Channel> idle = new LinkedBlockingDeque<Channel>();
+	/** Lease permits, one per channel that may be leased */
+	protected final Semaphore permits;
+	/** The number of open channels in the pool */
+	protected final AtomicInteger total = new AtomicInteger(0);
+	/** The number of leases served from idle channels */
+	protected final AtomicLong reused = new AtomicLong(0L);
+	/** The number of channels connected */
+	protected final AtomicLong connects = new AtomicLong(0L);
+	/** The number of channels closed because they failed a liveness check */
+	protected final AtomicLong failedChecks = new AtomicLong(0L);
+	/** The maximum number of channels */
+	protected final int maxSize;
+	/** The minimum number of channels kept open */
+	protected volatile int minSize = DEFAULT_MIN_SIZE;
+	/** The time in ms after which an idle channel may be closed */
+	protected volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	/** The time in ms a channel has to answer a ping */
+	protected volatile long pingTimeout = DEFAULT_PING_TIMEOUT;
+	/** Instance logger */
+	protected final Logger log;
+	
+	/** The default minimum number of channels kept open */
+	public static final int DEFAULT_MIN_SIZE = 1;
+	/** The default maximum number of channels */
+	public static final int DEFAULT_MAX_SIZE = 16;
+	/** The default time in ms after which an idle channel may be closed */
+	public static final long DEFAULT_IDLE_TIMEOUT = 60000L;
+	/** The default time in ms a channel has to answer a ping */
+	public static final long DEFAULT_PING_TIMEOUT = 5000L;
+	
+	/** The attribute key for the pool that owns a channel */
+	public static final AttributeKey<ChannelPool> POOL = new AttributeKey<ChannelPool>("OctoChannelPool");
+	/** The attribute key for the time a channel was last released */
+	public static final AttributeKey<Long> IDLE_SINCE = new AttributeKey<Long>("OctoChannelIdleSince");
+	/** The attribute key for the time a ping was last sent on a channel */
+	public static final AttributeKey<Long> LAST_PING = new AttributeKey<Long>("OctoChannelLastPing");
+	/** The attribute key for the flag that is set while a channel is counted in the pool's total */
+	public static final AttributeKey<Boolean> COUNTED = new AttributeKey<Boolean>("OctoChannelCounted");
+	/** The attribute key for the time a pong was last received on a channel */
+	public static final AttributeKey<Long> LAST_PONG = new AttributeKey<Long>("OctoChannelLastPong");
+	
+	/**
+	 * Creates a new ChannelPool
+	 * @param bootstrap The bootstrap used to connect new channels
+	 * @param host The OctoServer host
+	 * @param port The OctoServer listening port
+	 * @param maxSize The maximum number of channels
+	 */
+	public ChannelPool(Bootstrap bootstrap, String host, int port, int maxSize) {
+		if(maxSize<1) throw new IllegalArgumentException("Invalid max size [" + maxSize + "]");
+		this.bootstrap = bootstrap;
+		this.host = host;
+		this.port = port;
+		this.maxSize = maxSize;
+		permits = new Semaphore(maxSize, true);
+		log = Logger.getLogger(getClass().getName() + "." + host + ":" + port);
+	}
+	
+	/**
+	 * Leases a channel, reusing an idle channel if there is one or connecting a new one otherwise
+	 * @param timeout The maximum time in ms to wait for a channel to become available
+	 * @return the leased channel
+	 * @throws Exception thrown if no channel becomes available in time or the connect fails
+	 */
+	public Channel lease(long timeout) throws Exception {
+		if(!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+			throw new TimeoutException("Timed out waiting for a channel to [" + host + ":" + port + "]");
+		}
+		try {
+			Channel channel = null;
+			while((channel = idle.pollFirst())!=null) {
+				if(channel.isActive()) {
+					reused.incrementAndGet();
+					return channel;
+				}
+				channel.close();
+			}
+			return connect();
+		} catch (Exception ex) {
+			permits.release();
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Returns a leased channel to the pool. Closed channels are dropped.
+	 * @param channel The channel to release
+	 */
+	public void release(Channel channel) {
+		if(channel.attr(POOL).get()!=this) throw new IllegalArgumentException("Channel [" + channel + "] does not belong to this pool");
+		try {
+			if(channel.isActive()) {
+				channel.attr(IDLE_SINCE).set(System.currentTimeMillis());
+				idle.offerFirst(channel);
+			}
+		} finally {
+			permits.release();
+		}
+	}
+	
+	/**
+	 * Connects a new pooled channel
+	 * @return the connected channel
+	 */
+	protected Channel connect() {
+		Channel channel = bootstrap.connect(host, port).syncUninterruptibly().channel();
+		channel.attr(POOL).set(this);
+		OctoShared.getInstance().getChannelGroup().add(channel);
+		channel.attr(COUNTED).set(Boolean.TRUE);
+		total.incrementAndGet();
+		connects.incrementAndGet();
+		channel.closeFuture().addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(ChannelFuture future) throws Exception {
+				idle.remove(future.channel());
+				uncount(future.channel());
+			}
+		});
+		return channel;
+	}
+	
+	/**
+	 * Removes a closing channel from the pool's total, once only
+	 * @param channel The closing channel
+	 */
+	protected void uncount(Channel channel) {
+		if(Boolean.TRUE.equals(channel.attr(COUNTED).getAndSet(Boolean.FALSE))) {
+			total.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Evicts idle channels, closes channels that failed their liveness check, pings the remaining
+	 * idle channels and tops the pool up to its minimum size.
+	 * May connect synchronously, so must not be called on an event loop thread.
+	 */
+	public void check() {
+		final long now = System.currentTimeMillis();
+		// Oldest idle channels first
+		Iterator<Channel> iter = idle.descendingIterator();
+		while(iter.hasNext()) {
+			Channel channel = iter.next();
+			Long lastPing = channel.attr(LAST_PING).get();
+			Long lastPong = channel.attr(LAST_PONG).get();
+			Long idleSince = channel.attr(IDLE_SINCE).get();
+			boolean pingFailed = lastPing!=null && (lastPong==null || lastPong < lastPing) && now - lastPing > pingTimeout;
+			boolean expired = idleSince!=null && now - idleSince > idleTimeout && total.get() > minSize;
+			if(pingFailed || expired) {
+				// Only close the channel if it was not leased in the meantime
+				if(idle.remove(channel)) {
+					if(pingFailed) {
+						failedChecks.incrementAndGet();
+						log.warn("Closing channel [" + channel + "] that did not answer a ping in [" + pingTimeout + "] ms");
+					}
+					// The close listener runs later, so take the channel out of the total now
+					// or the rest of this pass would see the pool larger than it is
+					uncount(channel);
+					channel.close();
+				}
+			} else if(lastPing==null || (lastPong!=null && lastPong >= lastPing)) {
+				channel.attr(LAST_PING).set(now);
+				channel.write(new Frame(FrameType.PING, 0L));
+			}
+		}
+		while(total.get() < minSize && permits.tryAcquire()) {
+			Channel channel = null;
+			try {
+				channel = connect();
+			} catch (Exception ex) {
+				permits.release();
+				log.warn("Failed to top up pool to [" + minSize + "] channels:" + ex);
+				break;
+			}
+			release(channel);
+		}
+	}
+	
+	/**
+	 * Called when a pong is received on a pooled channel
+	 * @param channel The channel the pong was received on
+	 */
+	static void pong(Channel channel) {
+		channel.attr(LAST_PONG).set(System.currentTimeMillis());
+	}
+	
+	/**
+	 * Closes all idle channels. Leased channels are closed when they are released.
+	 */
+	public void close() {
+		Channel channel = null;
+		while((channel = idle.pollFirst())!=null) {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Returns the number of open channels in the pool, leased or idle
+	 * @return the number of open channels
+	 */
+	public int getSize() {
+		return total.get();
+	}
+	
+	/**
+	 * Returns the number of idle channels
+	 * @return the number of idle channels
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+	
+	/**
+	 * Returns the number of leased channels
+	 * @return the number of leased channels
+	 */
+	public int getLeasedCount() {
+		return maxSize - permits.availablePermits();
+	}
+	
+	/**
+	 * Returns the number of leases served from idle channels
+	 * @return the number of reused channels
+	 */
+	public long getReusedCount() {
+		return reused.get();
+	}
+	
+	/**
+	 * Returns the number of channels connected
+	 * @return the number of connects
+	 */
+	public long getConnectCount() {
+		return connects.get();
+	}
+	
+	/**
+	 * Returns the number of channels closed because they failed a liveness check
+	 * @return the number of failed liveness checks
+	 */
+	public long getFailedCheckCount() {
+		return failedChecks.get();
+	}
+
+	/**
+	 * Returns the maximum number of channels
+	 * @return the maximum number of channels
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Returns the minimum number of channels kept open
+	 * @return the minimum number of channels
+	 */
+	public int getMinSize() {
+		return minSize;
+	}
+
+	/**
+	 * Sets the minimum number of channels kept open
+	 * @param minSize the minimum number of channels
+	 */
+	public void setMinSize(int minSize) {
+		if(minSize<0 || minSize>maxSize) throw new IllegalArgumentException("Invalid min size [" + minSize + "]");
+		this.minSize = minSize;
+	}
+
+	/**
+	 * Returns the time in ms after which an idle channel may be closed
+	 * @return the idle timeout in ms
+	 */
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * Sets the time in ms after which an idle channel may be closed
+	 * @param idleTimeout the idle timeout in ms
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Returns the time in ms a channel has to answer a ping
+	 * @return the ping timeout in ms
+	 */
+	public long getPingTimeout() {
+		return pingTimeout;
+	}
+
+	/**
+	 * Sets the time in ms a channel has to answer a ping
+	 * @param pingTimeout the ping timeout in ms
+	 */
+	public void setPingTimeout(long pingTimeout) {
+		this.pingTimeout = pingTimeout;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ChannelPool [" + host + ":" + port + ", size:" + getSize() + ", idle:" + getIdleCount() + ", leased:" + getLeasedCount() + "]";
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.client;
+
+/**
+ * <p>Title: ConsoleResponseListener</p>
+ * <p>Description: Default {@link ResponseListener} that prints responses to the console, prefixed with the request id</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.client.ConsoleResponseListener</code></p>
+ */
+
+public class ConsoleResponseListener implements ResponseListener {
+	/** The shared instance */
+	public static final ConsoleResponseListener INSTANCE = new ConsoleResponseListener();
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.octo.client.ResponseListener#onOutput(long, boolean, java.lang.String)
+	 */
+	@Override
+	public void onOutput(long requestId, boolean stdOut, String line) {
+		if(stdOut) {
+			System.out.print("[" + requestId + " out]:" + line);
+		} else {
+			System.err.print("[" + requestId + " err]:" + line);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.octo.client.ResponseListener#onResult(long, java.lang.Object)
+	 */
+	@Override
+	public void onResult(long requestId, Object result) {
+		System.out.println("[" + requestId + " result]:" + result);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.octo.client.ResponseListener#onError(long, java.lang.Throwable)
+	 */
+	@Override
+	public void onError(long requestId, Throwable error) {
+		System.err.print("[" + requestId + " error]:");
+		error.printStackTrace(System.err);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.octo.client.ResponseListener#onComplete(long)
+	 */
+	@Override
+	public void onComplete(long requestId) {
+		/* No Op */
+	}
+}
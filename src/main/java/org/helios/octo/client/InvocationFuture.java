@@ -0,0 +1,146 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.client;
+
+import io.netty.util.concurrent.DefaultPromise;
+import io.netty.util.concurrent.EventExecutor;
+
+/**
+ * <p>Title: InvocationFuture</p>
+ * <p>Description: The future result of an asynchronous script invocation. The future completes when the server
+ * signals the end of the request, so all of the request's output has been delivered by the time it completes.
+ * It succeeds with the script's return value or fails with the remote exception.
+ * Output lines are passed on to an optional {@link ResponseListener} as they arrive.
+ * Cancelling the future asks the server to stop the request.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.client.InvocationFuture</code></p>
+ */
+
+public class InvocationFuture extends DefaultPromise<Object> implements ResponseListener {
+	/** The listener output and responses are passed on to, or null */
+	protected final ResponseListener listener;
+	/** The id of the request */
+	protected volatile long requestId = -1L;
+	/** The client that sent the request, or null */
+	protected volatile OctoClient client = null;
+	/** The script return value */
+	protected volatile Object result = null;
+	/** The remote exception */
+	protected volatile Throwable error = null;
+
+	/**
+	 * Creates a new InvocationFuture
+	 * @param executor The executor that notifies the future's listeners
+	 * @param listener An optional listener that output and responses are passed on to
+	 */
+	public InvocationFuture(EventExecutor executor, ResponseListener listener) {
+		super(executor);
+		this.listener = listener;
+	}
+	
+	/**
+	 * Returns the id of the request
+	 * @return the request id, or -1 if the request has not been sent
+	 */
+	public long getRequestId() {
+		return requestId;
+	}
+	
+	/**
+	 * Sets the id of the request
+	 * @param requestId the request id
+	 */
+	void setRequestId(long requestId) {
+		this.requestId = requestId;
+	}
+
+	/**
+	 * Sets the client that sent the request
+	 * @param client the client
+	 */
+	void setClient(OctoClient client) {
+		this.client = client;
+	}
+	
+	/**
+	 * Cancels this future and asks the server to stop the request
+	 * {@inheritDoc}
+	 * @see io.netty.util.concurrent.DefaultPromise#cancel(boolean)
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if(!super.cancel(mayInterruptIfRunning)) return false;
+		OctoClient c = client;
+		if(c!=null && requestId!=-1L) c.cancel(requestId);
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.octo.client.ResponseListener#onOutput(long, boolean, java.lang.String)
+	 */
+	@Override
+	public void onOutput(long requestId, boolean stdOut, String line) {
+		if(listener!=null) listener.onOutput(requestId, stdOut, line);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.octo.client.ResponseListener#onResult(long, java.lang.Object)
+	 */
+	@Override
+	public void onResult(long requestId, Object result) {
+		this.result = result;
+		if(listener!=null) listener.onResult(requestId, result);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.octo.client.ResponseListener#onError(long, java.lang.Throwable)
+	 */
+	@Override
+	public void onError(long requestId, Throwable error) {
+		this.error = error;
+		if(listener!=null) listener.onError(requestId, error);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.octo.client.ResponseListener#onComplete(long)
+	 */
+	@Override
+	public void onComplete(long requestId) {
+		try {
+			if(listener!=null) listener.onComplete(requestId);
+		} finally {
+			if(error!=null) {
+				tryFailure(error);
+			} else {
+				trySuccess(result);
+			}
+		}
+	}
+}
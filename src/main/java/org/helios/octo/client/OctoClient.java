@@ -26,19 +26,40 @@ package org.helios.octo.client;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+
 
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Logger;
+import org.helios.octo.protocol.Frame;
+import org.helios.octo.protocol.FrameType;
+import org.helios.octo.protocol.PriorityClass;
 import org.helios.octo.server.invocation.InvocationRequest;
+import org.helios.octo.util.DigestTable;
+import org.helios.octo.util.DigestUtil;
 import org.helios.octo.util.NettyUtil;
 
 /**
  * <p>Title: OctoClient</p>
- * <p>Description: Optimized client for sending scripts and arguments to an {@link org.helios.octo.server.OctoServer} instance.</p> 
+ * <p>Description: Optimized client for sending scripts and arguments to an {@link org.helios.octo.server.OctoServer} instance.
+ * Any number of requests may be in flight at once over the client's single channel. Responses are routed by request id
+ * to the {@link ResponseListener} supplied with each request.
+ * The channel is leased from the {@link OctoShared} channel pool for the endpoint and released back to it on {@link #close()}.</p>
+ * <p>A request may carry a deadline, after which the server stops it. An in-flight request can be stopped with {@link #cancel(long)}.
+ * A stopped request's listener receives a {@link java.util.concurrent.CancellationException} or, if its deadline expired,
+ * a {@link java.util.concurrent.TimeoutException}. A request the server refuses to run fails with a {@link RequestRejectedException}.</p> 
+ * <p>Each request carries a {@link PriorityClass} that decides how it shares the server's script threads with other requests.
+ * A request sent with {@link #executeCachedAsync(long, TimeUnit, ResponseListener, String, Object...)} may be answered from the server's result cache.
+ * Unless it opts out, a request with the same script and arguments as a request already running on the server is answered by that request's run.</p>
+ * <p>A script stored on the server is run with {@link #executeStoredAsync(ResponseListener, String, Object...)}, which sends only the script name and arguments.</p>
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.octo.client.OctoClient</code></p>
@@ -57,10 +78,25 @@ public class OctoClient {
 	protected final Logger log;
 	/** Request id serial factory */
 	protected final AtomicLong requestIdFactory = new AtomicLong(0L);
+	/** The digests of the scripts already sent in full on this client's channel, shared by all lessees of the channel */
+	protected final DigestTable digestTable;
+	/** Indicates if scripts already sent on this channel should be sent as a digest only */
+	protected volatile boolean sendDigests = true;
+	/** The time in ms the server has to complete a request sent without a timeout, or 0 for no deadline */
+	protected volatile int defaultTimeout = 0;
+	/** The priority class of requests sent without a priority */
+	protected volatile PriorityClass defaultPriority = PriorityClass.BATCH;
+	/** Indicates if the server may answer this client's requests with the run of an identical in-flight request */
+	protected volatile boolean coalesce = true;
+	/** In-flight digest only requests retained in case the server asks for the full script text, removed when each completes */
+	protected final Map<Long, InvocationRequest> digestOnlyRequests = new ConcurrentHashMap<Long, InvocationRequest>();
+	
+	/** The listeners of the in-flight requests keyed by request id */
+	protected final Map<Long, ResponseListener> listeners = new ConcurrentHashMap<Long, ResponseListener>();
 	
 	
 	/**
-	 * Creates a new OctoClient and synchronously connects
+	 * Creates a new OctoClient, leasing a pooled channel to the endpoint
 	 * @param host The OctoServer host
 	 * @param port The OctoServer listening port
 	 */
@@ -70,12 +106,16 @@ public class OctoClient {
 		this.port = port;
 		log = Logger.getLogger(getClass().getName() + "." + host + ":" + port);
 		try {
-			channel = OctoShared.getInstance().getBootstrap().connect(host, port).sync().channel();
-			log.info("Connected");
-			connected.set(true);
+			channel = OctoShared.getInstance().lease(host, port);
 		} catch (Exception ex) {
 			throw new RuntimeException("Failed to connect to [" + host + ":" + port + "]", ex);
 		}
+		channel.attr(OctoShared.CLIENT).set(this);
+		DigestTable table = new DigestTable();
+		DigestTable existing = channel.attr(OctoShared.DIGESTS).setIfAbsent(table);
+		digestTable = existing==null ? table : existing;
+		log.info("Connected");
+		connected.set(true);
 	}
 
 
@@ -98,23 +138,402 @@ public class OctoClient {
 	
 	
 	/**
-	 * Creates a script execution request and sends it
+	 * Creates a script execution request and sends it. Responses are printed to the console.
+	 * If the script has already been sent on this client's channel, only its digest is sent.
 	 * @param s The script content to send
 	 * @param args The invocation arguments
 	 * @return the request id
 	 */
 	public long execute(String s, Object...args) {
+		return execute(ConsoleResponseListener.INSTANCE, s, args);
+	}
+	
+	/**
+	 * Creates a script execution request and sends it, waiting for the write to complete.
+	 * If the script has already been sent on this client's channel, only its digest is sent.
+	 * @param listener The listener that receives the responses for the request
+	 * @param s The script content to send
+	 * @param args The invocation arguments
+	 * @return the request id
+	 */
+	public long execute(ResponseListener listener, String s, Object...args) {
+		if(listener==null) throw new IllegalArgumentException("The passed listener was null");
 		final long rId = requestIdFactory.incrementAndGet();
-		if(s==null || s.trim().isEmpty()) throw new IllegalArgumentException("The passed script was null or empty");
-		channel.write(new InvocationRequest(s, args, rId)).syncUninterruptibly();
+		send(false, rId, listener, defaultPriority, defaultTimeout, 0, coalesce, s, args).syncUninterruptibly();
 		return rId;
 	}
+	
+	/**
+	 * Creates a script execution request and sends it without blocking.
+	 * @param s The script content to send
+	 * @param args The invocation arguments
+	 * @return a future that completes with the script's return value
+	 */
+	public InvocationFuture executeAsync(String s, Object...args) {
+		return executeAsync(null, s, args);
+	}
+	
+	/**
+	 * Creates a script execution request and sends it without blocking.
+	 * If the script has already been sent on this client's channel, only its digest is sent.
+	 * @param listener An optional listener that receives the request's output as it arrives
+	 * @param s The script content to send
+	 * @param args The invocation arguments
+	 * @return a future that completes with the script's return value, or fails with the remote exception
+	 */
+	public InvocationFuture executeAsync(ResponseListener listener, String s, Object...args) {
+		return executeAsync(defaultTimeout, TimeUnit.MILLISECONDS, listener, s, args);
+	}
+	
+	/**
+	 * Creates a script execution request with a deadline and sends it without blocking.
+	 * If the server has not completed the request within the timeout of receiving it, the server stops it
+	 * and the future fails with a {@link java.util.concurrent.TimeoutException}.
+	 * Cancelling the future asks the server to stop the request.
+	 * If the script has already been sent on this client's channel, only its digest is sent.
+	 * @param timeout The time the server has to complete the request, or 0 for no deadline
+	 * @param unit The unit of the timeout
+	 * @param listener An optional listener that receives the request's output as it arrives
+	 * @param s The script content to send
+	 * @param args The invocation arguments
+	 * @return a future that completes with the script's return value, or fails with the remote exception
+	 */
+	public InvocationFuture executeAsync(long timeout, TimeUnit unit, ResponseListener listener, String s, Object...args) {
+		return executeAsync(defaultPriority, timeout, unit, listener, s, args);
+	}
+	
+	/**
+	 * Creates a script execution request with a priority class and a deadline and sends it without blocking.
+	 * The server queues the request with others of its class and schedules the classes by weight.
+	 * @param priority The priority class of the request
+	 * @param timeout The time the server has to complete the request, or 0 for no deadline
+	 * @param unit The unit of the timeout
+	 * @param listener An optional listener that receives the request's output as it arrives
+	 * @param s The script content to send
+	 * @param args The invocation arguments
+	 * @return a future that completes with the script's return value, or fails with the remote exception
+	 */
+	public InvocationFuture executeAsync(PriorityClass priority, long timeout, TimeUnit unit, ResponseListener listener, String s, Object...args) {
+		if(priority==null) throw new IllegalArgumentException("The passed priority was null");
+		if(unit==null) throw new IllegalArgumentException("The passed unit was null");
+		return submit(false, priority, toTimeout(timeout, unit), 0, coalesce, listener, s, args);
+	}
+	
+	/**
+	 * Creates a script execution request whose result the server may cache, and sends it without blocking.
+	 * Until the result expires, requests for the same script and arguments that also allow caching are answered
+	 * with the cached output and return value without the script being run. Only scripts without side effects should be cached.
+	 * @param ttl The time the server may cache the result for
+	 * @param unit The unit of the ttl
+	 * @param listener An optional listener that receives the request's output as it arrives
+	 * @param s The script content to send
+	 * @param args The invocation arguments
+	 * @return a future that completes with the script's return value, or fails with the remote exception
+	 */
+	public InvocationFuture executeCachedAsync(long ttl, TimeUnit unit, ResponseListener listener, String s, Object...args) {
+		if(unit==null) throw new IllegalArgumentException("The passed unit was null");
+		if(ttl<1) throw new IllegalArgumentException("Invalid cache ttl [" + ttl + "]");
+		return submit(false, defaultPriority, defaultTimeout, toTimeout(ttl, unit), coalesce, listener, s, args);
+	}
+	
+	/**
+	 * Creates a script execution request that the server always runs, and sends it without blocking.
+	 * The request is never answered by the run of an identical in-flight request, so scripts with side effects
+	 * that must happen once per request should be sent this way.
+	 * @param timeout The time the server has to complete the request, or 0 for no deadline
+	 * @param unit The unit of the timeout
+	 * @param listener An optional listener that receives the request's output as it arrives
+	 * @param s The script content to send
+	 * @param args The invocation arguments
+	 * @return a future that completes with the script's return value, or fails with the remote exception
+	 */
+	public InvocationFuture executeUncoalescedAsync(long timeout, TimeUnit unit, ResponseListener listener, String s, Object...args) {
+		if(unit==null) throw new IllegalArgumentException("The passed unit was null");
+		return submit(false, defaultPriority, toTimeout(timeout, unit), 0, false, listener, s, args);
+	}
+	
+	/**
+	 * Creates a request for a script stored on the server and sends it without blocking. Only the script name and the arguments are sent.
+	 * @param name The name of the stored script
+	 * @param args The invocation arguments
+	 * @return a future that completes with the script's return value
+	 */
+	public InvocationFuture executeStoredAsync(String name, Object...args) {
+		return executeStoredAsync(null, name, args);
+	}
+	
+	/**
+	 * Creates a request for a script stored on the server and sends it without blocking. Only the script name and the arguments are sent.
+	 * If the server has no script with the name, the future fails with the remote exception.
+	 * @param listener An optional listener that receives the request's output as it arrives
+	 * @param name The name of the stored script
+	 * @param args The invocation arguments
+	 * @return a future that completes with the script's return value, or fails with the remote exception
+	 */
+	public InvocationFuture executeStoredAsync(ResponseListener listener, String name, Object...args) {
+		return executeStoredAsync(defaultPriority, defaultTimeout, TimeUnit.MILLISECONDS, listener, name, args);
+	}
+	
+	/**
+	 * Creates a request for a script stored on the server with a priority class and a deadline, and sends it without blocking.
+	 * @param priority The priority class of the request
+	 * @param timeout The time the server has to complete the request, or 0 for no deadline
+	 * @param unit The unit of the timeout
+	 * @param listener An optional listener that receives the request's output as it arrives
+	 * @param name The name of the stored script
+	 * @param args The invocation arguments
+	 * @return a future that completes with the script's return value, or fails with the remote exception
+	 */
+	public InvocationFuture executeStoredAsync(PriorityClass priority, long timeout, TimeUnit unit, ResponseListener listener, String name, Object...args) {
+		if(priority==null) throw new IllegalArgumentException("The passed priority was null");
+		if(unit==null) throw new IllegalArgumentException("The passed unit was null");
+		return submit(true, priority, toTimeout(timeout, unit), 0, coalesce, listener, name, args);
+	}
+	
+	/**
+	 * Sends a script execution request without blocking
+	 * @param named true if the request is for a stored script, false if it carries its script
+	 * @param priority The priority class of the request
+	 * @param timeout The time in ms the server has to complete the request, or 0 for no deadline
+	 * @param cacheTtl The time in ms the server may cache the result for, or 0 if it may not be cached
+	 * @param coalesce true if the server may answer the request with the run of an identical in-flight request
+	 * @param listener An optional listener that receives the request's output as it arrives
+	 * @param s The script content to send, or the stored script name
+	 * @param args The invocation arguments
+	 * @return a future that completes with the script's return value, or fails with the remote exception
+	 */
+	protected InvocationFuture submit(boolean named, PriorityClass priority, int timeout, int cacheTtl, boolean coalesce, ResponseListener listener, String s, Object...args) {
+		final InvocationFuture future = new InvocationFuture(channel.eventLoop(), listener);
+		final long rId = requestIdFactory.incrementAndGet();
+		future.setRequestId(rId);
+		future.setClient(this);
+		send(named, rId, future, priority, timeout, cacheTtl, coalesce, s, args).addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(ChannelFuture f) throws Exception {
+				if(!f.isSuccess()) {
+					complete(rId);
+					future.tryFailure(f.cause());
+				}
+			}
+		});
+		return future;
+	}
+	
+	/**
+	 * Registers the listener for a request and writes the request to the channel.
+	 * If the script has already been sent on this client's channel, only its digest is sent.
+	 * @param named true if the request is for a stored script, false if it carries its script
+	 * @param rId The request id
+	 * @param listener The listener that receives the responses for the request
+	 * @param priority The priority class of the request
+	 * @param timeout The time in ms the server has to complete the request, or 0 for no deadline
+	 * @param cacheTtl The time in ms the server may cache the result for, or 0 if it may not be cached
+	 * @param coalesce true if the server may answer the request with the run of an identical in-flight request
+	 * @param s The script content to send, or the stored script name
+	 * @param args The invocation arguments
+	 * @return the write future
+	 */
+	protected ChannelFuture send(boolean named, long rId, ResponseListener listener, PriorityClass priority, int timeout, int cacheTtl, boolean coalesce, String s, Object...args) {
+		if(s==null || s.trim().isEmpty()) throw new IllegalArgumentException("The passed script was null or empty");
+		InvocationRequest request = named ? InvocationRequest.named(s, args, rId) : new InvocationRequest(s, DigestUtil.digest(s), args, rId);
+		request.setTimeout(timeout);
+		request.setPriority(priority);
+		request.setCacheTtl(cacheTtl);
+		request.setCoalesce(coalesce);
+		if(sendDigests && !named) {
+			String hexDigest = request.getHexDigest();
+			if(digestTable.contains(hexDigest)) {
+				request.setDigestOnly(true);
+				digestOnlyRequests.put(rId, request);
+			} else {
+				digestTable.put(hexDigest, s);
+			}
+		}
+		listeners.put(rId, listener);
+		return channel.write(request);
+	}
+	
+	/**
+	 * Converts a timeout to the whole ms carried in a request, rounding up so a short timeout is not lost
+	 * @param timeout The timeout
+	 * @param unit The unit of the timeout
+	 * @return the timeout in ms
+	 */
+	protected static int toTimeout(long timeout, TimeUnit unit) {
+		if(timeout<0) throw new IllegalArgumentException("Invalid timeout [" + timeout + "]");
+		long ms = unit.toMillis(timeout);
+		if(ms==0L && timeout>0) ms = 1L;
+		return (int)Math.min(ms, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Asks the server to stop an in-flight request. The request's listener receives a
+	 * {@link java.util.concurrent.CancellationException} and completes once the server has stopped it.
+	 * Output sent before the server stopped the request is still delivered. 
+	 * A request the server has already completed is not affected.
+	 * @param requestId The id of the request to stop
+	 * @return the write future of the cancel, or a succeeded future if the request is not in flight
+	 */
+	public ChannelFuture cancel(long requestId) {
+		if(!listeners.containsKey(requestId)) return channel.newSucceededFuture();
+		return channel.write(new Frame(FrameType.CANCEL, requestId));
+	}
+	
+	/**
+	 * Returns the listener for an in-flight request
+	 * @param requestId The request id
+	 * @return the listener or null if the request is not in flight
+	 */
+	ResponseListener getListener(long requestId) {
+		return listeners.get(requestId);
+	}
+	
+	/**
+	 * Called when the last response for a request has been received
+	 * @param requestId The request id
+	 * @return the listener of the completed request, or null if the request was not in flight
+	 */
+	ResponseListener complete(long requestId) {
+		digestOnlyRequests.remove(requestId);
+		return listeners.remove(requestId);
+	}
+	
+	/**
+	 * Fails and completes all in-flight requests
+	 * @param cause The failure cause passed to each listener
+	 */
+	void failPending(Throwable cause) {
+		for(Long requestId: listeners.keySet()) {
+			ResponseListener listener = complete(requestId);
+			if(listener==null) continue;
+			try {
+				listener.onError(requestId, cause);
+				listener.onComplete(requestId);
+			} catch (Exception ex) {
+				log.warn("Response listener failed for request [" + requestId + "]", ex);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of requests in flight
+	 * @return the number of requests in flight
+	 */
+	public int getPendingCount() {
+		return listeners.size();
+	}
+	
+	/**
+	 * Called when the server does not recognize the digest of a digest only request.
+	 * Forgets the digest and resends the request with the full script text.
+	 * A request that cannot be resent is failed and completed so its listener is not left waiting.
+	 * @param requestId The id of the request to resend
+	 */
+	void resendFull(long requestId) {
+		InvocationRequest request = digestOnlyRequests.remove(requestId);
+		if(request==null) {
+			ResponseListener listener = complete(requestId);
+			if(listener==null) {
+				log.warn("Server requested script for unknown request [" + requestId + "]");
+				return;
+			}
+			log.warn("Server requested script for request [" + requestId + "] which was not sent as a digest");
+			try {
+				listener.onError(requestId, new IllegalStateException("The server does not know the script of request [" + requestId + "] and it cannot be resent"));
+				listener.onComplete(requestId);
+			} catch (Exception ex) {
+				log.warn("Response listener failed for request [" + requestId + "]", ex);
+			}
+			return;
+		}
+		log.debug("Resending full script for request [" + requestId + "]");
+		request.setDigestOnly(false);
+		digestTable.put(request.getHexDigest(), request.getScriptText());
+		channel.write(request);
+	}
+	
+	/**
+	 * Indicates if scripts already sent on this channel are sent as a digest only
+	 * @return true if digests are sent for known scripts, false if the full script is always sent
+	 */
+	public boolean isSendDigests() {
+		return sendDigests;
+	}
+
+	/**
+	 * Sets whether scripts already sent on this channel are sent as a digest only
+	 * @param sendDigests true to send digests for known scripts, false to always send the full script
+	 */
+	public void setSendDigests(boolean sendDigests) {
+		this.sendDigests = sendDigests;
+	}
+
+	/**
+	 * Returns the time in ms the server has to complete a request sent without a timeout
+	 * @return the default timeout in ms, or 0 for no deadline
+	 */
+	public int getDefaultTimeout() {
+		return defaultTimeout;
+	}
+
+	/**
+	 * Sets the time the server has to complete a request sent without a timeout
+	 * @param timeout the default timeout in ms, or 0 for no deadline
+	 */
+	public void setDefaultTimeout(int timeout) {
+		if(timeout<0) throw new IllegalArgumentException("Invalid timeout [" + timeout + "]");
+		this.defaultTimeout = timeout;
+	}
 
 	/**
-	 * Closes this client
+	 * Returns the priority class of requests sent without a priority
+	 * @return the default priority class
+	 */
+	public PriorityClass getDefaultPriority() {
+		return defaultPriority;
+	}
+
+	/**
+	 * Sets the priority class of requests sent without a priority
+	 * @param priority the default priority class
+	 */
+	public void setDefaultPriority(PriorityClass priority) {
+		if(priority==null) throw new IllegalArgumentException("The passed priority was null");
+		this.defaultPriority = priority;
+	}
+
+	/**
+	 * Indicates if the server may answer this client's requests with the run of an identical in-flight request
+	 * @return true if requests may be coalesced
+	 */
+	public boolean isCoalesce() {
+		return coalesce;
+	}
+
+	/**
+	 * Sets whether the server may answer this client's requests with the run of an identical in-flight request.
+	 * Does not affect requests sent with {@link #executeUncoalescedAsync(long, TimeUnit, ResponseListener, String, Object...)}, which are never coalesced.
+	 * @param coalesce true to allow coalescing
+	 */
+	public void setCoalesce(boolean coalesce) {
+		this.coalesce = coalesce;
+	}
+
+	/**
+	 * Closes this client and releases its channel back to the pool.
+	 * If requests are still in flight the channel is closed instead, failing the pending requests,
+	 * and the closed channel's lease is returned to the pool.
 	 */
 	public void close() {
-		this.channel.close().syncUninterruptibly();
+		if(!connected.compareAndSet(true, false)) return;
+		if(listeners.isEmpty()) {
+			channel.attr(OctoShared.CLIENT).remove();
+			OctoShared.getInstance().release(channel);
+		} else {
+			channel.close().syncUninterruptibly();
+			// The pool drops a closed channel but must still free its lease permit
+			OctoShared.getInstance().release(channel);
+		}
 	}
 
 	/**
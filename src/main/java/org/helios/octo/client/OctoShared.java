@@ -25,6 +25,7 @@
 package org.helios.octo.client;
 
 import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelInitializer;
@@ -37,21 +38,28 @@ import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.codec.DelimiterBasedFrameDecoder;
-import io.netty.handler.codec.Delimiters;
-import io.netty.handler.codec.MessageToMessageDecoder;
-import io.netty.handler.codec.serialization.ObjectEncoder;
-import io.netty.handler.codec.string.StringDecoder;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.util.AttributeKey;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.FutureListener;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.Logger;
+import org.helios.octo.protocol.CompressionCodec;
+import org.helios.octo.protocol.FrameCompressor;
+import org.helios.octo.protocol.FrameDecoder;
+import org.helios.octo.protocol.FrameDecompressor;
+import org.helios.octo.protocol.FrameEncoder;
+import org.helios.octo.protocol.RequestEncoder;
+import org.helios.octo.util.DigestTable;
 
 /**
  * <p>Title: OctoShared</p>
@@ -79,8 +87,27 @@ public class OctoShared implements ThreadFactory {
 	protected final LoggingHandler loggingHandler = new LoggingHandler(OctoClient.class, LogLevel.INFO);
 	/** Response handler */
 	protected final ResponseHandler responseHandler = new ResponseHandler();
+	/** Frame encoder */
+	protected final FrameEncoder frameEncoder = new FrameEncoder();
+	/** Frame compressor */
+	protected final FrameCompressor frameCompressor = new FrameCompressor();
+	/** Request encoder */
+	protected final RequestEncoder requestEncoder = new RequestEncoder();
 	/** Indicator switched on when {@link OctoShared#shutdownAll()} is being called */
 	protected final AtomicBoolean stopping = new AtomicBoolean(false);
+	/** The channel pools keyed by host:port */
+	protected final Map<String, ChannelPool> pools = new ConcurrentHashMap<String, ChannelPool>();
+	/** The scheduler that runs the channel pool checks */
+	protected final ScheduledExecutorService poolChecker;
+	/** The maximum number of channels per pool */
+	protected volatile int poolMaxSize = ChannelPool.DEFAULT_MAX_SIZE;
+	/** The maximum time in ms to wait for a pooled channel */
+	protected volatile long leaseTimeout = DEFAULT_LEASE_TIMEOUT;
+	
+	/** The default maximum time in ms to wait for a pooled channel */
+	public static final long DEFAULT_LEASE_TIMEOUT = 30000L;
+	/** The period in ms of the channel pool checks */
+	public static final long POOL_CHECK_PERIOD = 15000L;
 	
 	/**
 	 * Acquires the OctoShared singleton instance
@@ -97,41 +124,28 @@ public class OctoShared implements ThreadFactory {
 		return instance;
 	}
 	
-	/** The attribute key for the request id */
-	public static final AttributeKey<Long> REQ_ID = new AttributeKey<Long>("ReqId"); 
-	
-	/** The attribute key for the stream type */
-	public static final AttributeKey<Byte> STREAM = new AttributeKey<Byte>("StremType"); 
-	
+	/** The attribute key for the client that owns a channel */
+	public static final AttributeKey<OctoClient> CLIENT = new AttributeKey<OctoClient>("OctoClient"); 
 	
+	/** The attribute key for the digests of the scripts already sent in full on a channel */
+	public static final AttributeKey<DigestTable> DIGESTS = new AttributeKey<DigestTable>("OctoClientDigestTable"); 
 	
 	/** The key for the response handler in the client pipeline */
 	public static final String RESPONSE_HANDLER = "responseHandler";
-	/** The key for the stream frame decoder in the client pipeline */
-	public static final String STREAM_DECODER = "streamDecoder";
-	/** The key for the object decoder in the client pipeline */
-	public static final String OBJECT_DECODER = "objectDecoder";
-	/** The key for the object encoder in the client pipeline */
-	public static final String OBJECT_ENCODER = "objectEncoder";
-	/** The key for the string decoder in the client pipeline */
-	public static final String STRING_DECODER = "stringDecoder";
-	/** The key for the string printer in the client pipeline */
-	public static final String STRING_PRINTER = "stringPrinter";
+	/** The key for the frame decoder in the client pipeline */
+	public static final String FRAME_DECODER = "frameDecoder";
+	/** The key for the frame encoder in the client pipeline */
+	public static final String FRAME_ENCODER = "frameEncoder";
+	/** The key for the frame decompressor in the client pipeline */
+	public static final String FRAME_DECOMPRESSOR = "frameDecompressor";
+	/** The key for the frame compressor in the client pipeline */
+	public static final String FRAME_COMPRESSOR = "frameCompressor";
+	/** The key for the request encoder in the client pipeline */
+	public static final String REQUEST_ENCODER = "requestEncoder";
 
 	/** The key for the logging handler in the client pipeline */
 	public static final String LOGGING_HANDLER = "logging";
 	
-	protected final MessageToMessageDecoder<String> stringPrinter = new MessageToMessageDecoder<String>() {
-		protected void decode(io.netty.channel.ChannelHandlerContext ctx, String msg, io.netty.channel.MessageList<Object> out) throws Exception {
-			byte streamType = ctx.channel().attr(STREAM).get();
-			if(streamType==0) {
-				System.out.println("[out]:" + msg);
-			} else {
-				System.err.println("[err]:" + msg);
-			}
-		};
-	};
-	
 	private OctoShared() {
 		group = new NioEventLoopGroup(MultithreadEventLoopGroup.DEFAULT_EVENT_LOOP_THREADS, this);
 		channelGroup = new DefaultChannelGroup(group.next());
@@ -143,34 +157,162 @@ public class OctoShared implements ThreadFactory {
                 @Override
                 public void initChannel(SocketChannel ch) throws Exception {
                 	ch.pipeline().addLast(LOGGING_HANDLER, loggingHandler);
-                	ch.pipeline().addLast(OBJECT_ENCODER, new ObjectEncoder());
+                	ch.pipeline().addLast(FRAME_DECODER, new FrameDecoder());
+                	ch.pipeline().addLast(FRAME_DECOMPRESSOR, new FrameDecompressor());
+                	ch.pipeline().addLast(FRAME_ENCODER, frameEncoder);
+                	ch.pipeline().addLast(FRAME_COMPRESSOR, frameCompressor);
+                	ch.pipeline().addLast(REQUEST_ENCODER, requestEncoder);
                 	ch.pipeline().addLast(RESPONSE_HANDLER, responseHandler);
-                	//ch.pipeline().addLast(STREAM_DECODER, new DelimiterBasedFrameDecoder(Integer.MAX_VALUE, Delimiters.lineDelimiter()));
-                	ch.pipeline().addLast(STRING_DECODER, new StringDecoder()); 
-                	ch.pipeline().addLast(STRING_PRINTER, stringPrinter);
-                	//ch.pipeline().addLast("decoder", new ObjectDecoder(ClassResolvers.cacheDisabled(null)));
-                	
                 }});
+		poolChecker = Executors.newSingleThreadScheduledExecutor(this);
+		poolChecker.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				for(ChannelPool pool: pools.values()) {
+					try {
+						pool.check();
+					} catch (Exception ex) {
+						log.warn("Check failed for [" + pool + "]", ex);
+					}
+				}
+			}
+		}, POOL_CHECK_PERIOD, POOL_CHECK_PERIOD, TimeUnit.MILLISECONDS);
 		log.info("OctoShared Initialized");
 	}
 	
+	/**
+	 * Connects a new unpooled channel
+	 * @param host The OctoServer host
+	 * @param port The OctoServer listening port
+	 * @return the connect future
+	 */
 	public ChannelFuture connect(String host, int port) {
-		ChannelFuture cf = bootstrap.connect();
+		ChannelFuture cf = bootstrap.connect(host, port);
 		cf.addListener(new ChannelFutureListener(){
 			/**
 			 * {@inheritDoc}
 			 * @see io.netty.util.concurrent.GenericFutureListener#operationComplete(io.netty.util.concurrent.Future)
 			 */
 			@Override
-			public void operationComplete(ChannelFuture future)
-					throws Exception {
-				// TODO Auto-generated method stub
-				
+			public void operationComplete(ChannelFuture future) throws Exception {
+				if(future.isSuccess()) channelGroup.add(future.channel());
 			}
 		});
 		return cf;
 	}
 	
+	/**
+	 * Returns the channel pool for the passed endpoint, creating it if it does not exist
+	 * @param host The OctoServer host
+	 * @param port The OctoServer listening port
+	 * @return the channel pool
+	 */
+	public ChannelPool getPool(String host, int port) {
+		String key = host + ":" + port;
+		ChannelPool pool = pools.get(key);
+		if(pool==null) {
+			synchronized(pools) {
+				pool = pools.get(key);
+				if(pool==null) {
+					pool = new ChannelPool(bootstrap, host, port, poolMaxSize);
+					pools.put(key, pool);
+				}
+			}
+		}
+		return pool;
+	}
+	
+	/**
+	 * Leases a pooled channel to the passed endpoint
+	 * @param host The OctoServer host
+	 * @param port The OctoServer listening port
+	 * @return the leased channel
+	 * @throws Exception thrown if no channel becomes available before the lease timeout or the connect fails
+	 */
+	public Channel lease(String host, int port) throws Exception {
+		if(stopping.get()) throw new IllegalStateException("OctoShared is shutting down");
+		return getPool(host, port).lease(leaseTimeout);
+	}
+	
+	/**
+	 * Returns a leased channel to its pool
+	 * @param channel The channel to release
+	 */
+	public void release(Channel channel) {
+		ChannelPool pool = channel.attr(ChannelPool.POOL).get();
+		if(pool==null) {
+			channel.close();
+		} else {
+			pool.release(channel);
+		}
+	}
+	
+	/**
+	 * Returns the maximum number of channels per pool
+	 * @return the maximum number of channels per pool
+	 */
+	public int getPoolMaxSize() {
+		return poolMaxSize;
+	}
+
+	/**
+	 * Sets the maximum number of channels per pool. Applies to pools created after the change.
+	 * @param poolMaxSize the maximum number of channels per pool
+	 */
+	public void setPoolMaxSize(int poolMaxSize) {
+		if(poolMaxSize<1) throw new IllegalArgumentException("Invalid pool max size [" + poolMaxSize + "]");
+		this.poolMaxSize = poolMaxSize;
+	}
+
+	/**
+	 * Returns the maximum time in ms to wait for a pooled channel
+	 * @return the lease timeout in ms
+	 */
+	public long getLeaseTimeout() {
+		return leaseTimeout;
+	}
+
+	/**
+	 * Sets the maximum time in ms to wait for a pooled channel
+	 * @param leaseTimeout the lease timeout in ms
+	 */
+	public void setLeaseTimeout(long leaseTimeout) {
+		this.leaseTimeout = leaseTimeout;
+	}
+	
+	/**
+	 * Returns the compression codecs offered to servers, in order of preference
+	 * @return the compression codecs
+	 */
+	public CompressionCodec[] getCompressionCodecs() {
+		return frameCompressor.getCodecs();
+	}
+
+	/**
+	 * Sets the compression codecs offered to servers, in order of preference. An empty array disables compression.
+	 * Applies to channels connected after the change.
+	 * @param codecs the compression codecs
+	 */
+	public void setCompressionCodecs(CompressionCodec... codecs) {
+		frameCompressor.setCodecs(codecs);
+	}
+
+	/**
+	 * Returns the minimum frame payload size in bytes that is compressed
+	 * @return the compression threshold
+	 */
+	public int getCompressionThreshold() {
+		return frameCompressor.getMinSize();
+	}
+
+	/**
+	 * Sets the minimum frame payload size in bytes that is compressed
+	 * @param threshold the compression threshold
+	 */
+	public void setCompressionThreshold(int threshold) {
+		frameCompressor.setMinSize(threshold);
+	}
+	
 	/**
 	 * Returns the shared bootstrap
 	 * @return the shared bootstrap
@@ -187,6 +329,11 @@ public class OctoShared implements ThreadFactory {
 			throw new RuntimeException("This OctoShared is already being shutdown");
 		}
 		log.info("Stopping all OctoClients....");
+		poolChecker.shutdownNow();
+		for(ChannelPool pool: pools.values()) {
+			pool.close();
+		}
+		pools.clear();
 		channelGroup.close().addListener(new ChannelGroupFutureListener(){
 			@Override
 			public void operationComplete(ChannelGroupFuture future) throws Exception {
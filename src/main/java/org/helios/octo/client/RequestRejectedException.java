@@ -0,0 +1,74 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.client;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import org.helios.octo.protocol.RejectReason;
+
+/**
+ * <p>Title: RequestRejectedException</p>
+ * <p>Description: Passed to a request's listener when the server refuses to run the request</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.client.RequestRejectedException</code></p>
+ */
+
+public class RequestRejectedException extends RejectedExecutionException {
+	/**  */
+	private static final long serialVersionUID = 4460528740236577932L;
+	/** The reason the server refused the request */
+	protected final RejectReason reason;
+	/** The time in ms after which the request may be retried, or 0 if unknown */
+	protected final int retryAfter;
+
+	/**
+	 * Creates a new RequestRejectedException
+	 * @param requestId The id of the refused request
+	 * @param reason The reason the server refused the request
+	 * @param retryAfter The time in ms after which the request may be retried, or 0 if unknown
+	 */
+	public RequestRejectedException(long requestId, RejectReason reason, int retryAfter) {
+		super("Request [" + requestId + "] rejected:" + reason + (retryAfter>0 ? ", retry after [" + retryAfter + "] ms" : ""));
+		this.reason = reason;
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * Returns the reason the server refused the request
+	 * @return the reject reason
+	 */
+	public RejectReason getReason() {
+		return reason;
+	}
+
+	/**
+	 * Returns the time after which the request may be retried
+	 * @return the retry delay in ms, or 0 if unknown
+	 */
+	public int getRetryAfter() {
+		return retryAfter;
+	}
+}
@@ -2,7 +2,7 @@
  * Helios, OpenSource Monitoring
  * Brought to you by the Helios Development Group
  *
- * Copyright 2007, Helios Development Group and individual contributors
+ * Copyright 2013, Helios Development Group and individual contributors
  * as indicated by the @author tags. See the copyright.txt file in the
  * distribution for a full listing of individual contributors.
  *
@@ -24,89 +24,330 @@
  */
 package org.helios.octo.client;
 
-import static org.helios.octo.client.Response.FORWARD;
-import static org.helios.octo.client.Response.RESPONSE_TYPE;
-import static org.helios.octo.client.Response.STREAM_TYPE;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.MessageList;
-import io.netty.handler.codec.DelimiterBasedFrameDecoder;
-import io.netty.handler.codec.Delimiters;
-import io.netty.handler.codec.ReplayingDecoder;
+import io.netty.handler.codec.serialization.ClassResolver;
 import io.netty.handler.codec.serialization.ClassResolvers;
-import io.netty.handler.codec.serialization.ObjectDecoder;
 import io.netty.util.AttributeKey;
 
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+
+import org.helios.octo.protocol.CancelReason;
+import org.helios.octo.protocol.CompressionCodec;
+import org.helios.octo.protocol.Frame;
+import org.helios.octo.protocol.FrameCompressor;
+import org.helios.octo.protocol.FrameType;
+import org.helios.octo.protocol.RejectReason;
+import org.helios.octo.protocol.ValueCodec;
 import org.jboss.logging.Logger;
 
 /**
  * <p>Title: ResponseHandler</p>
- * <p>Description: Handles the response stream back from the server</p> 
+ * <p>Description: Handles the response frames sent back from the server, routing each one by request id
+ * to the {@link ResponseListener} of the request it belongs to.</p> 
+ * <p>The server cuts stream frames at line ends when it can, but spilled output and over long lines arrive cut at arbitrary bytes.
+ * The bytes after the last line feed of a stream frame are therefore kept in the request's {@link LineBuffer} and prefixed to its next
+ * frame of the same stream, so the listener receives whole lines and multi-byte characters are never split. A partial line is passed on
+ * when the request's result, error or end arrives, and a line longer than {@link #MAX_PARTIAL_LINE} is passed on in pieces.</p>
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.octo.client.ResponseHandler</code></p>
  */
 @Sharable
-public class ResponseHandler extends ReplayingDecoder<Response> {
+public class ResponseHandler extends ChannelInboundHandlerAdapter {
 	/** Instance logger */
 	protected final Logger log = Logger.getLogger(getClass());
+	/** The class resolver used to decode results and errors */
+	protected final ClassResolver classResolver = ClassResolvers.softCachingConcurrentResolver(getClass().getClassLoader());
+	/** The charset of stream frames */
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+	/** The line feed byte */
+	public static final byte LF = '\n';
+	/** The maximum bytes of a partial line kept for the next stream frame. A longer line is passed to the listener in pieces. */
+	public static final int MAX_PARTIAL_LINE = 1024 * 1024;
+	/** The attribute key for the partial lines of a channel's requests, keyed by request id */
+	public static final AttributeKey<Map<Long, LineBuffer>> LINES = new AttributeKey<Map<Long, LineBuffer>>("OctoResponseLines");
 	
 	/**
-	 * Creates a new ResponseHandler
+	 * {@inheritDoc}
+	 * @see io.netty.channel.ChannelInboundHandlerAdapter#messageReceived(io.netty.channel.ChannelHandlerContext, io.netty.channel.MessageList)
 	 */
-	public ResponseHandler() {
-		super(Response.REQUEST_ID);
+	@Override
+	public void messageReceived(ChannelHandlerContext ctx, MessageList<Object> msgs) throws Exception {
+		for(Object obj: msgs) {
+			if(!(obj instanceof Frame)) {
+				log.warn("Unexpected message type [" + (obj==null ? "null" : obj.getClass().getName()) + "]");
+				continue;
+			}
+			Frame frame = (Frame)obj;
+			try {
+				handleFrame(ctx, frame);
+			} catch (Exception ex) {
+				log.error("Failed to handle frame [" + frame + "]", ex);
+			}
+		}
+		msgs.releaseAllAndRecycle();
 	}
 	
 	/**
+	 * Offers the client's compression codecs to the server
 	 * {@inheritDoc}
-	 * @see io.netty.handler.codec.ByteToMessageDecoder#decode(io.netty.channel.ChannelHandlerContext, io.netty.buffer.ByteBuf, io.netty.channel.MessageList)
+	 * @see io.netty.channel.ChannelInboundHandlerAdapter#channelActive(io.netty.channel.ChannelHandlerContext)
 	 */
 	@Override
-	protected void decode(ChannelHandlerContext ctx, ByteBuf in, MessageList<Object> out) {
-		long bytesAvailable = super.actualReadableBytes();
-		log.info("Replay Bytes Available:" + bytesAvailable);
-		if(bytesAvailable<1) return;
-		switch(state()) {		
-		case REQUEST_ID:
-			log.info("--------------------------------->Processing [" + state() + "]");
-			long reqId = in.readLong();
-			ctx.channel().attr(OctoShared.REQ_ID).set(reqId);
-			checkpoint(RESPONSE_TYPE);
-			log.info("REQUEST_ID:" + reqId);
-		case RESPONSE_TYPE:
-			log.info("--------------------------------->Processing [" + state() + "]");
-			byte responseType = in.readByte();
-			log.info("RESPONSE_TYPE:" + responseType);
-			if(responseType==0) {
-				checkpoint(STREAM_TYPE);				
-			} else {
-//				if(!ctx.pipeline().get(name))
-				ctx.pipeline().addAfter(OctoShared.RESPONSE_HANDLER, OctoShared.OBJECT_DECODER, new ObjectDecoder(ClassResolvers.cacheDisabled(null)));
-				out.add(in.copy(0, super.actualReadableBytes()));							
-				checkpoint(FORWARD);
-				return;
+	public void channelActive(ChannelHandlerContext ctx) throws Exception {
+		FrameCompressor compressor = ctx.pipeline().get(FrameCompressor.class);
+		if(compressor!=null) {
+			ctx.write(new Frame(FrameType.HELLO, 0L, compressor.offer(ctx.alloc())));
+		}
+		super.channelActive(ctx);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.channel.ChannelInboundHandlerAdapter#channelInactive(io.netty.channel.ChannelHandlerContext)
+	 */
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		Map<Long, LineBuffer> lines = ctx.channel().attr(LINES).getAndSet(null);
+		if(lines!=null) {
+			for(LineBuffer buffer: lines.values()) {
+				buffer.release();
 			}
-		case STREAM_TYPE:
-			log.info("--------------------------------->Processing [" + state() + "]");
-			byte streamType = in.readByte();
-			ctx.channel().attr(OctoShared.STREAM).set(streamType);
-			log.info("STREAM_TYPE:" + streamType);
-			checkpoint(FORWARD);
+		}
+		OctoClient client = ctx.channel().attr(OctoShared.CLIENT).get();
+		if(client!=null) client.failPending(new ClosedChannelException());
+		super.channelInactive(ctx);
+	}
+	
+	/**
+	 * Closes the channel. A decoder exception leaves the offending bytes buffered, so every later read would fail the same way.
+	 * The client's pending requests are failed by {@link #channelInactive(ChannelHandlerContext)}.
+	 * {@inheritDoc}
+	 * @see io.netty.channel.ChannelInboundHandlerAdapter#exceptionCaught(io.netty.channel.ChannelHandlerContext, java.lang.Throwable)
+	 */
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+		if(ctx.channel().isActive()) {
+			log.error("Exception caught in pipeline of [" + ctx.channel().remoteAddress() + "], closing the channel", cause);
+			ctx.close();
+		} else if(log.isDebugEnabled()) {
+			log.debug("Exception caught in pipeline of closed channel [" + ctx.channel().remoteAddress() + "]", cause);
+		}
+	}
+	
+	/**
+	 * Passes each line of a buffer up to the passed index to the listener. The last line is passed on even if it has no line feed.
+	 * @param listener The request's listener
+	 * @param requestId The request id
+	 * @param stdOut true for std-out, false for std-err
+	 * @param buf The buffer holding the lines
+	 * @param end The index following the last byte to pass on
+	 */
+	protected static void dispatchLines(ResponseListener listener, long requestId, boolean stdOut, ByteBuf buf, int end) {
+		while(buf.readerIndex() < end) {
+			int loc = buf.bytesBefore(buf.readerIndex(), end - buf.readerIndex(), LF);
+			int len = loc==-1 ? end - buf.readerIndex() : loc+1;
+			listener.onOutput(requestId, stdOut, buf.toString(buf.readerIndex(), len, UTF8));
+			buf.skipBytes(len);
+		}
+	}
+	
+	/**
+	 * Returns the index following the last complete UTF-8 character in a range of a buffer
+	 * @param buf The buffer
+	 * @param from The index of the first byte of the range
+	 * @param to The index following the last byte of the range
+	 * @return the index following the last complete character, which is <code>to</code> unless the range ends inside a character
+	 */
+	protected static int charBoundary(ByteBuf buf, int from, int to) {
+		int i = to - 1;
+		// Back over at most three continuation bytes to the lead byte of the last character
+		while(i > from && to - i < 4 && (buf.getByte(i) & 0xC0)==0x80) i--;
+		int lead = buf.getByte(i) & 0xFF;
+		int length = lead >= 0xF0 ? 4 : lead >= 0xE0 ? 3 : lead >= 0xC0 ? 2 : 1;
+		return i + length > to ? i : to;
+	}
+	
+	/**
+	 * Creates the exception passed to the listener of a request the server stopped
+	 * @param requestId The request id
+	 * @param reason The reason the server stopped the request
+	 * @return a {@link TimeoutException} if the request's deadline expired, otherwise a {@link CancellationException}
+	 */
+	protected static Throwable cancelled(long requestId, CancelReason reason) {
+		if(reason==CancelReason.DEADLINE) {
+			return new TimeoutException("Request [" + requestId + "] deadline expired");
+		}
+		return new CancellationException("Request [" + requestId + "] cancelled");
+	}
+	
+	/**
+	 * Handles one response frame
+	 * @param ctx The channel handler context
+	 * @param frame The frame to handle
+	 * @throws Exception thrown on any error decoding the frame payload
+	 */
+	protected void handleFrame(ChannelHandlerContext ctx, Frame frame) throws Exception {
+		if(frame.getType()==FrameType.PONG) {
+			ChannelPool.pong(ctx.channel());
+			return;
+		}
+		if(frame.getType()==FrameType.HELLO) {
+			CompressionCodec codec = FrameCompressor.selected(ctx.channel(), frame.getPayload());
+			if(log.isDebugEnabled()) log.debug("Server selected compression [" + codec + "] for [" + ctx.channel() + "]");
 			return;
-//			out.add(in.readBytes(super.actualReadableBytes()));			
-//			return;
-		case FORWARD:
-			log.info("--------------------------------->Processing [" + state() + "]");
-			log.info("Forwarding [" + super.actualReadableBytes() + "]....");
-			out.add(in.readBytes(super.actualReadableBytes()));
-			log.info("Forward Complete. Remaining: [" + super.actualReadableBytes() + "]");
-			return;		
-		default:
-			log.warn("Unexpected state [" + state() + "]");
-			break;			
+		}
+		OctoClient client = ctx.channel().attr(OctoShared.CLIENT).get();
+		final long requestId = frame.getRequestId();
+		ResponseListener listener = client==null ? null : client.getListener(requestId);
+		if(listener==null) {
+			log.warn("Dropping frame for unknown request [" + frame + "]");
+			return;
+		}
+		if(frame.getType()==FrameType.UNKNOWN_DIGEST) {
+			client.resendFull(requestId);
+			return;
+		}
+		Map<Long, LineBuffer> lines = ctx.channel().attr(LINES).get();
+		if(lines==null) {
+			lines = new HashMap<Long, LineBuffer>();
+			ctx.channel().attr(LINES).set(lines);
+		}
+		LineBuffer buffer = null;
+		if(frame.getType()==FrameType.END) {
+			// The request is no longer routed to its listener once it has ended
+			client.complete(requestId);
+			buffer = lines.remove(requestId);
+		} else {
+			buffer = lines.get(requestId);
+			if(buffer==null && frame.getType().isStream()) {
+				buffer = new LineBuffer();
+				lines.put(requestId, buffer);
+			}
+		}
+		if(!dispatch(frame, listener, buffer, classResolver)) {
+			log.warn("Unexpected frame type [" + frame.getType() + "]");
 		}
 	}
 	
+	/**
+	 * Decodes the payload of one response frame and passes it to the request's listener.
+	 * Needs no channel or client, so it can be driven directly.
+	 * @param frame The response frame
+	 * @param listener The request's listener
+	 * @param lines The request's partial lines, or null to pass each stream frame's lines on by themselves
+	 * @param classResolver The class resolver used to decode results and errors
+	 * @return true if the frame was dispatched, false if it is not a response frame
+	 * @throws Exception thrown on any error decoding the frame payload
+	 */
+	public static boolean dispatch(Frame frame, ResponseListener listener, LineBuffer lines, ClassResolver classResolver) throws Exception {
+		final long requestId = frame.getRequestId();
+		ByteBuf payload = frame.getPayload();
+		if(lines!=null && !frame.getType().isStream()) lines.flush(listener, requestId);
+		switch(frame.getType()) {
+			case STDOUT:
+			case STDERR:
+				if(lines!=null) {
+					lines.lines(listener, requestId, frame.getType()==FrameType.STDOUT, payload);
+				} else {
+					dispatchLines(listener, requestId, frame.getType()==FrameType.STDOUT, payload, payload.writerIndex());
+				}
+				return true;
+			case RESULT:
+				listener.onResult(requestId, ValueCodec.read(payload, classResolver));
+				return true;
+			case ERROR:
+				listener.onError(requestId, (Throwable)ValueCodec.read(payload, classResolver));
+				return true;
+			case CANCELLED:
+				listener.onError(requestId, cancelled(requestId, payload.isReadable() ? CancelReason.decode(payload.readByte()) : CancelReason.CLIENT));
+				return true;
+			case REJECTED:
+				listener.onError(requestId, new RequestRejectedException(requestId, RejectReason.decode(payload.readByte()), payload.readInt()));
+				return true;
+			case END:
+				listener.onComplete(requestId);
+				return true;
+			default:
+				return false;
+		}
+	}
+	
+	/**
+	 * <p>Title: LineBuffer</p>
+	 * <p>Description: The bytes following the last line feed of a request's std-out and std-err, kept until the rest of the line arrives.
+	 * Only used on the channel's event loop.</p> 
+	 */
+	public static class LineBuffer {
+		/** The partial std-out line, or null if there is none */
+		protected ByteBuf out = null;
+		/** The partial std-err line, or null if there is none */
+		protected ByteBuf err = null;
+		
+		/**
+		 * Passes each complete line of a stream frame payload, prefixed by the stream's partial line, to the listener,
+		 * and keeps the bytes following the last line feed
+		 * @param listener The request's listener
+		 * @param requestId The request id
+		 * @param stdOut true for std-out, false for std-err
+		 * @param payload The stream frame payload
+		 */
+		public void lines(ResponseListener listener, long requestId, boolean stdOut, ByteBuf payload) {
+			ByteBuf partial = stdOut ? out : err;
+			ByteBuf in = payload;
+			if(partial!=null && partial.isReadable()) {
+				partial.writeBytes(payload);
+				in = partial;
+			}
+			int last = in.indexOf(in.writerIndex(), in.readerIndex(), LF);
+			if(last!=-1) dispatchLines(listener, requestId, stdOut, in, last+1);
+			if(in.readableBytes() > MAX_PARTIAL_LINE) {
+				dispatchLines(listener, requestId, stdOut, in, charBoundary(in, in.readerIndex(), in.writerIndex()));
+			}
+			if(in==partial) {
+				partial.discardReadBytes();
+			} else if(in.isReadable()) {
+				if(partial==null) {
+					partial = Unpooled.buffer(in.readableBytes());
+					if(stdOut) out = partial; else err = partial;
+				}
+				partial.writeBytes(in);
+			}
+		}
+		
+		/**
+		 * Passes the partial lines on to the listener, std-out first
+		 * @param listener The request's listener
+		 * @param requestId The request id
+		 */
+		public void flush(ResponseListener listener, long requestId) {
+			if(out!=null && out.isReadable()) dispatchLines(listener, requestId, true, out, out.writerIndex());
+			if(err!=null && err.isReadable()) dispatchLines(listener, requestId, false, err, err.writerIndex());
+			release();
+		}
+		
+		/**
+		 * Releases the partial line buffers
+		 */
+		public void release() {
+			if(out!=null) {
+				out.release();
+				out = null;
+			}
+			if(err!=null) {
+				err.release();
+				err = null;
+			}
+		}
+	}
 }
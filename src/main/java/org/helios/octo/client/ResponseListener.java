@@ -0,0 +1,64 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.client;
+
+/**
+ * <p>Title: ResponseListener</p>
+ * <p>Description: Receives the responses for one invocation request. Callbacks are made on the client's event loop thread
+ * and should not block.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.client.ResponseListener</code></p>
+ */
+
+public interface ResponseListener {
+	/**
+	 * Called for each line of output the script writes
+	 * @param requestId The request id
+	 * @param stdOut true for std-out, false for std-err
+	 * @param line The output line, including the line terminator if there was one
+	 */
+	public void onOutput(long requestId, boolean stdOut, String line);
+	
+	/**
+	 * Called when the script completes normally
+	 * @param requestId The request id
+	 * @param result The script return value, which may be null
+	 */
+	public void onResult(long requestId, Object result);
+	
+	/**
+	 * Called when the script fails or the request could not be run
+	 * @param requestId The request id
+	 * @param error The failure cause
+	 */
+	public void onError(long requestId, Throwable error);
+	
+	/**
+	 * Called after the last response for the request. No more callbacks will be made for the request.
+	 * @param requestId The request id
+	 */
+	public void onComplete(long requestId);
+}
@@ -0,0 +1,69 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.protocol;
+
+/**
+ * <p>Title: CancelReason</p>
+ * <p>Description: Enumerates the reasons a request is stopped before it completes, carried as the payload of a {@link FrameType#CANCELLED} frame</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.protocol.CancelReason</code></p>
+ */
+
+public enum CancelReason {
+	/** The client sent a {@link FrameType#CANCEL} frame */
+	CLIENT((byte)1),
+	/** The request's deadline expired */
+	DEADLINE((byte)2),
+	/** The client's channel closed */
+	DISCONNECT((byte)3);
+	
+	private static final CancelReason[] BY_CODE;
+	
+	static {
+		CancelReason[] values = values();
+		BY_CODE = new CancelReason[values.length+1];
+		for(CancelReason cr: values) {
+			BY_CODE[cr.code] = cr;
+		}
+	}
+	
+	private CancelReason(byte code) {
+		this.code = code;
+	}
+	
+	/** The wire code of this reason */
+	public final byte code;
+	
+	/**
+	 * Decodes the passed wire code to a cancel reason
+	 * @param code The wire code
+	 * @return the cancel reason, or {@link #CLIENT} if the code is unknown
+	 */
+	public static CancelReason decode(byte code) {
+		if(code < 1 || code >= BY_CODE.length) return CLIENT;
+		return BY_CODE[code];
+	}
+}
@@ -0,0 +1,216 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.compression.DecompressionException;
+import io.netty.handler.codec.compression.Snappy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>Title: CompressionCodec</p>
+ * <p>Description: Enumerates the frame payload compression codecs a client and server can negotiate.
+ * A compressed frame carries the code of its codec in the {@link OctoProtocol#COMPRESSION_MASK} bits of its flags,
+ * so every compressed frame can be decompressed without reference to the negotiated state.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.protocol.CompressionCodec</code></p>
+ */
+
+public enum CompressionCodec {
+	/** No compression */
+	NONE((byte)0) {
+		@Override
+		public void compress(ByteBuf in, ByteBuf out) {
+			out.writeBytes(in);
+		}
+		@Override
+		public void decompress(ByteBuf in, ByteBuf out, int length) {
+			out.writeBytes(in);
+		}
+	},
+	/** Raw deflate at the fastest level. The better ratio of the two codecs. */
+	DEFLATE((byte)1) {
+		@Override
+		public void compress(ByteBuf in, ByteBuf out) {
+			Deflater deflater = DEFLATERS.get();
+			byte[] scratch = SCRATCH.get();
+			deflater.reset();
+			setInput(deflater, null, in);
+			deflater.finish();
+			while(!deflater.finished()) {
+				out.writeBytes(scratch, 0, deflater.deflate(scratch));
+			}
+		}
+		@Override
+		public void decompress(ByteBuf in, ByteBuf out, int length) {
+			Inflater inflater = INFLATERS.get();
+			byte[] scratch = SCRATCH.get();
+			inflater.reset();
+			setInput(null, inflater, in);
+			out.ensureWritable(length);
+			try {
+				while(!inflater.finished()) {
+					int inflated = inflater.inflate(scratch);
+					if(inflated==0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						throw new DecompressionException("Truncated deflate payload");
+					}
+					if(out.readableBytes() + inflated > length) {
+						throw new DecompressionException("Deflate payload exceeds declared length [" + length + "]");
+					}
+					out.writeBytes(scratch, 0, inflated);
+				}
+			} catch (DataFormatException dfe) {
+				throw new DecompressionException(dfe);
+			}
+		}
+	},
+	/** Snappy, as implemented by netty */
+	SNAPPY((byte)2) {
+		@Override
+		public void compress(ByteBuf in, ByteBuf out) {
+			new Snappy().encode(in, out, in.readableBytes());
+		}
+		@Override
+		public void decompress(ByteBuf in, ByteBuf out, int length) {
+			out.ensureWritable(length);
+			new Snappy().decode(in, out);
+		}
+	};
+
+	private static final CompressionCodec[] BY_CODE;
+
+	static {
+		CompressionCodec[] values = values();
+		BY_CODE = new CompressionCodec[OctoProtocol.COMPRESSION_MASK+1];
+		for(CompressionCodec cc: values) {
+			BY_CODE[cc.code] = cc;
+		}
+	}
+
+	/** Per thread deflaters, so a deflater's native memory is allocated once per event loop thread */
+	private static final ThreadLocal<Deflater> DEFLATERS = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(Deflater.BEST_SPEED, true);
+		}
+	};
+	/** Per thread inflaters */
+	private static final ThreadLocal<Inflater> INFLATERS = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater(true);
+		}
+	};
+	/** Per thread scratch space for the deflate and inflate output */
+	private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[64 * 1024];
+		}
+	};
+
+	private CompressionCodec(byte code) {
+		this.code = code;
+	}
+
+	/** The wire code of this codec, carried in the compression bits of the frame flags */
+	public final byte code;
+
+	/**
+	 * Compresses all the readable bytes of the input into the output
+	 * @param in The buffer to compress
+	 * @param out The buffer to write the compressed bytes to
+	 */
+	public abstract void compress(ByteBuf in, ByteBuf out);
+
+	/**
+	 * Decompresses all the readable bytes of the input into the output
+	 * @param in The buffer to decompress
+	 * @param out The buffer to write the decompressed bytes to
+	 * @param length The declared decompressed length
+	 */
+	public abstract void decompress(ByteBuf in, ByteBuf out, int length);
+
+	/**
+	 * Decodes the passed wire code to a codec
+	 * @param code The wire code
+	 * @return the codec or null if the code is unknown
+	 */
+	public static CompressionCodec forCode(byte code) {
+		if(code < 0 || code >= BY_CODE.length) return null;
+		return BY_CODE[code];
+	}
+
+	/**
+	 * Decodes a comma separated list of codec names, ignoring case. <b><code>NONE</code></b> entries are dropped.
+	 * @param names The codec names
+	 * @return the codecs in the order named
+	 */
+	public static CompressionCodec[] forNames(String names) {
+		List<CompressionCodec> codecs = new ArrayList<CompressionCodec>();
+		if(names!=null) {
+			for(String name: names.split(",")) {
+				name = name.trim();
+				if(name.isEmpty()) continue;
+				try {
+					CompressionCodec cc = valueOf(name.toUpperCase());
+					if(cc!=NONE && !codecs.contains(cc)) codecs.add(cc);
+				} catch (IllegalArgumentException iae) {
+					throw new IllegalArgumentException("Invalid compression codec name [" + name + "]");
+				}
+			}
+		}
+		return codecs.toArray(new CompressionCodec[codecs.size()]);
+	}
+
+	/**
+	 * Sets the readable bytes of the passed buffer as the input of a deflater or inflater
+	 * @param deflater The deflater, or null if an inflater is passed
+	 * @param inflater The inflater, or null if a deflater is passed
+	 * @param in The buffer to read
+	 */
+	private static void setInput(Deflater deflater, Inflater inflater, ByteBuf in) {
+		final int length = in.readableBytes();
+		byte[] array;
+		int offset;
+		if(in.hasArray()) {
+			array = in.array();
+			offset = in.arrayOffset() + in.readerIndex();
+		} else {
+			array = new byte[length];
+			offset = 0;
+			in.getBytes(in.readerIndex(), array);
+		}
+		if(deflater!=null) deflater.setInput(array, offset, length);
+		else inflater.setInput(array, offset, length);
+		in.skipBytes(length);
+	}
+}
@@ -0,0 +1,169 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCounted;
+
+/**
+ * <p>Title: Frame</p>
+ * <p>Description: A decoded (or to be encoded) Octo protocol frame. Reference counting is delegated to the payload.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.protocol.Frame</code></p>
+ */
+
+public class Frame implements ReferenceCounted {
+	/** The frame type */
+	protected final FrameType type;
+	/** The frame flags */
+	protected final byte flags;
+	/** The request id the frame is for */
+	protected final long requestId;
+	/** The frame payload */
+	protected final ByteBuf payload;
+	
+	/**
+	 * Creates a new Frame
+	 * @param type The frame type
+	 * @param flags The frame flags
+	 * @param requestId The request id the frame is for
+	 * @param payload The frame payload
+	 */
+	public Frame(FrameType type, byte flags, long requestId, ByteBuf payload) {
+		if(type==null) throw new IllegalArgumentException("The passed frame type was null");
+		this.type = type;
+		this.flags = flags;
+		this.requestId = requestId;
+		this.payload = payload==null ? Unpooled.EMPTY_BUFFER : payload;
+	}
+	
+	/**
+	 * Creates a new Frame with no flags
+	 * @param type The frame type
+	 * @param requestId The request id the frame is for
+	 * @param payload The frame payload
+	 */
+	public Frame(FrameType type, long requestId, ByteBuf payload) {
+		this(type, OctoProtocol.NO_FLAGS, requestId, payload);
+	}
+	
+	/**
+	 * Creates a new Frame with no flags and no payload
+	 * @param type The frame type
+	 * @param requestId The request id the frame is for
+	 */
+	public Frame(FrameType type, long requestId) {
+		this(type, OctoProtocol.NO_FLAGS, requestId, null);
+	}
+
+	/**
+	 * Returns the frame type
+	 * @return the frame type
+	 */
+	public FrameType getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the frame flags
+	 * @return the frame flags
+	 */
+	public byte getFlags() {
+		return flags;
+	}
+
+	/**
+	 * Returns the request id the frame is for
+	 * @return the request id
+	 */
+	public long getRequestId() {
+		return requestId;
+	}
+
+	/**
+	 * Returns the frame payload
+	 * @return the frame payload
+	 */
+	public ByteBuf getPayload() {
+		return payload;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.util.ReferenceCounted#refCnt()
+	 */
+	@Override
+	public int refCnt() {
+		return payload.refCnt();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.util.ReferenceCounted#retain()
+	 */
+	@Override
+	public Frame retain() {
+		payload.retain();
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.util.ReferenceCounted#retain(int)
+	 */
+	@Override
+	public Frame retain(int increment) {
+		payload.retain(increment);
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.util.ReferenceCounted#release()
+	 */
+	@Override
+	public boolean release() {
+		return payload.release();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.util.ReferenceCounted#release(int)
+	 */
+	@Override
+	public boolean release(int decrement) {
+		return payload.release(decrement);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "Frame [" + type + ", requestId:" + requestId + ", flags:" + flags + ", payload:" + payload.readableBytes() + "]";
+	}
+}
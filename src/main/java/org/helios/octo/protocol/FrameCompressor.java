@@ -0,0 +1,268 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.MessageList;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.util.AttributeKey;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Title: FrameCompressor</p>
+ * <p>Description: Compresses the payloads of outbound {@link Frame}s with the {@link CompressionCodec} negotiated for the channel.
+ * A client offers its codecs in a {@link FrameType#HELLO} frame when it connects, and the server replies with the first offered codec
+ * it also supports. Until a codec is negotiated, and for payloads smaller than the minimum size, frames pass through uncompressed.
+ * A compressed payload that is no smaller than the original is discarded and the original is sent instead.
+ * Output drained from spill files is sent as file regions and is never compressed.
+ * The compression counters belong to the instance, so the server and the clients in one JVM are counted separately.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.protocol.FrameCompressor</code></p>
+ */
+@Sharable
+public class FrameCompressor extends MessageToMessageEncoder<Frame> {
+	/** The codecs this side supports, in order of preference */
+	protected volatile CompressionCodec[] codecs;
+	/** The minimum payload size in bytes that is compressed */
+	protected volatile int minSize;
+
+	/** The attribute key for the codec negotiated for a channel */
+	public static final AttributeKey<CompressionCodec> CODEC = new AttributeKey<CompressionCodec>("OctoCompressionCodec");
+	/** The default codecs, in order of preference */
+	public static final String DEFAULT_CODECS = "DEFLATE,SNAPPY";
+	/** The default minimum payload size in bytes that is compressed */
+	public static final int DEFAULT_MIN_SIZE = 512;
+
+	/** The number of compressed frames */
+	protected final AtomicLong compressedFrames = new AtomicLong(0L);
+	/** The number of payload bytes offered for compression */
+	protected final AtomicLong rawBytes = new AtomicLong(0L);
+	/** The number of payload bytes sent for the payloads offered for compression */
+	protected final AtomicLong wireBytes = new AtomicLong(0L);
+	/** The total time in ns spent compressing */
+	protected final AtomicLong compressionTime = new AtomicLong(0L);
+
+	/**
+	 * Creates a new FrameCompressor
+	 * @param codecs The codecs this side supports, in order of preference
+	 * @param minSize The minimum payload size in bytes that is compressed
+	 */
+	public FrameCompressor(CompressionCodec[] codecs, int minSize) {
+		super(Frame.class);
+		setCodecs(codecs);
+		setMinSize(minSize);
+	}
+
+	/**
+	 * Creates a new FrameCompressor with the default codecs and minimum size
+	 */
+	public FrameCompressor() {
+		this(CompressionCodec.forNames(DEFAULT_CODECS), DEFAULT_MIN_SIZE);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.handler.codec.MessageToMessageEncoder#acceptOutboundMessage(java.lang.Object)
+	 */
+	@Override
+	public boolean acceptOutboundMessage(Object msg) throws Exception {
+		if(!super.acceptOutboundMessage(msg)) return false;
+		Frame frame = (Frame)msg;
+		return frame.getType()!=FrameType.HELLO
+				&& (frame.getFlags() & OctoProtocol.COMPRESSION_MASK)==0
+				&& frame.getPayload().readableBytes() >= minSize;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.handler.codec.MessageToMessageEncoder#encode(io.netty.channel.ChannelHandlerContext, java.lang.Object, io.netty.channel.MessageList)
+	 */
+	@Override
+	protected void encode(ChannelHandlerContext ctx, Frame frame, MessageList<Object> out) throws Exception {
+		CompressionCodec codec = ctx.channel().attr(CODEC).get();
+		if(codec==null || codec==CompressionCodec.NONE) {
+			// The frame is released once encoded
+			out.add(frame.retain());
+			return;
+		}
+		final ByteBuf payload = frame.getPayload();
+		final int size = payload.readableBytes();
+		final long start = System.nanoTime();
+		ByteBuf compressed = ctx.alloc().buffer(4 + (size >> 1));
+		try {
+			compressed.writeInt(size);
+			codec.compress(payload.duplicate(), compressed);
+		} catch (Exception ex) {
+			compressed.release();
+			throw ex;
+		}
+		compressionTime.addAndGet(System.nanoTime() - start);
+		rawBytes.addAndGet(size);
+		if(compressed.readableBytes() >= size) {
+			compressed.release();
+			wireBytes.addAndGet(size);
+			out.add(frame.retain());
+			return;
+		}
+		compressedFrames.incrementAndGet();
+		wireBytes.addAndGet(compressed.readableBytes());
+		out.add(new Frame(frame.getType(), (byte)(frame.getFlags() | codec.code), frame.getRequestId(), compressed));
+	}
+
+	/**
+	 * Creates the payload of a client {@link FrameType#HELLO} frame offering this side's codecs
+	 * @param alloc The allocator to allocate the payload with
+	 * @return the hello payload
+	 */
+	public ByteBuf offer(ByteBufAllocator alloc) {
+		CompressionCodec[] offered = codecs;
+		ByteBuf payload = alloc.buffer(offered.length);
+		for(CompressionCodec cc: offered) {
+			payload.writeByte(cc.code);
+		}
+		return payload;
+	}
+
+	/**
+	 * Selects the first codec in the payload of a client {@link FrameType#HELLO} frame that this side supports,
+	 * and sets it as the passed channel's codec. Unknown codes are skipped.
+	 * @param channel The channel the hello frame was received on
+	 * @param offer The hello payload
+	 * @return the selected codec, which is {@link CompressionCodec#NONE} if no offered codec is supported
+	 */
+	public CompressionCodec select(Channel channel, ByteBuf offer) {
+		CompressionCodec selected = CompressionCodec.NONE;
+		CompressionCodec[] supported = codecs;
+		outer:
+		while(offer.isReadable()) {
+			CompressionCodec cc = CompressionCodec.forCode(offer.readByte());
+			if(cc==null || cc==CompressionCodec.NONE) continue;
+			for(CompressionCodec s: supported) {
+				if(s==cc) {
+					selected = cc;
+					break outer;
+				}
+			}
+		}
+		channel.attr(CODEC).set(selected);
+		return selected;
+	}
+
+	/**
+	 * Sets the codec selected in the payload of a server {@link FrameType#HELLO} reply as the passed channel's codec
+	 * @param channel The channel the hello reply was received on
+	 * @param reply The hello reply payload
+	 * @return the selected codec
+	 */
+	public static CompressionCodec selected(Channel channel, ByteBuf reply) {
+		CompressionCodec selected = reply.isReadable() ? CompressionCodec.forCode(reply.readByte()) : CompressionCodec.NONE;
+		if(selected==null) selected = CompressionCodec.NONE;
+		channel.attr(CODEC).set(selected);
+		return selected;
+	}
+
+	/**
+	 * Returns the codecs this side supports, in order of preference
+	 * @return the supported codecs
+	 */
+	public CompressionCodec[] getCodecs() {
+		return codecs.clone();
+	}
+
+	/**
+	 * Sets the codecs this side supports, in order of preference. Applies to connections negotiated after the change.
+	 * An empty array disables compression.
+	 * @param codecs the supported codecs
+	 */
+	public void setCodecs(CompressionCodec[] codecs) {
+		if(codecs==null) throw new IllegalArgumentException("The passed codecs were null");
+		this.codecs = codecs.clone();
+	}
+
+	/**
+	 * Returns the minimum payload size in bytes that is compressed
+	 * @return the minimum payload size
+	 */
+	public int getMinSize() {
+		return minSize;
+	}
+
+	/**
+	 * Sets the minimum payload size in bytes that is compressed
+	 * @param minSize the minimum payload size
+	 */
+	public void setMinSize(int minSize) {
+		if(minSize<0) throw new IllegalArgumentException("Invalid minimum compression size [" + minSize + "]");
+		this.minSize = minSize;
+	}
+
+	/**
+	 * Returns the number of compressed frames
+	 * @return the number of compressed frames
+	 */
+	public long getCompressedFrames() {
+		return compressedFrames.get();
+	}
+
+	/**
+	 * Returns the number of payload bytes offered for compression
+	 * @return the number of payload bytes offered for compression
+	 */
+	public long getRawBytes() {
+		return rawBytes.get();
+	}
+
+	/**
+	 * Returns the number of payload bytes sent for the payloads offered for compression
+	 * @return the number of bytes sent
+	 */
+	public long getWireBytes() {
+		return wireBytes.get();
+	}
+
+	/**
+	 * Returns the ratio of bytes sent to bytes offered for compression
+	 * @return the compression ratio, or 1 if nothing has been offered
+	 */
+	public double getCompressionRatio() {
+		long raw = rawBytes.get();
+		return raw==0 ? 1D : (double)wireBytes.get() / raw;
+	}
+
+	/**
+	 * Returns the total time in ms spent compressing
+	 * @return the total compression time in ms
+	 */
+	public long getCompressionTime() {
+		return TimeUnit.NANOSECONDS.toMillis(compressionTime.get());
+	}
+}
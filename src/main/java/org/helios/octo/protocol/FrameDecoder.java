@@ -0,0 +1,88 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.MessageList;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+
+/**
+ * <p>Title: FrameDecoder</p>
+ * <p>Description: Decodes inbound bytes into {@link Frame}s. One instance per channel.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.protocol.FrameDecoder</code></p>
+ */
+
+public class FrameDecoder extends ByteToMessageDecoder {
+	/** The maximum accepted payload size */
+	protected final int maxPayload;
+	
+	/**
+	 * Creates a new FrameDecoder
+	 * @param maxPayload The maximum accepted payload size
+	 */
+	public FrameDecoder(int maxPayload) {
+		this.maxPayload = maxPayload;
+	}
+	
+	/**
+	 * Creates a new FrameDecoder with the default maximum payload size
+	 */
+	public FrameDecoder() {
+		this(OctoProtocol.DEFAULT_MAX_PAYLOAD);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.handler.codec.ByteToMessageDecoder#decode(io.netty.channel.ChannelHandlerContext, io.netty.buffer.ByteBuf, io.netty.channel.MessageList)
+	 */
+	@Override
+	protected void decode(ChannelHandlerContext ctx, ByteBuf in, MessageList<Object> out) throws Exception {
+		while(in.readableBytes() >= OctoProtocol.HEADER_SIZE) {
+			final int start = in.readerIndex();
+			if(in.getByte(start)!=OctoProtocol.MAGIC) {
+				throw new CorruptedFrameException("Invalid frame magic [" + in.getByte(start) + "]");
+			}
+			if(in.getByte(start+1)!=OctoProtocol.VERSION) {
+				throw new CorruptedFrameException("Unsupported protocol version [" + in.getByte(start+1) + "]");
+			}
+			final int length = in.getInt(start + OctoProtocol.LENGTH_OFFSET);
+			if(length < 0 || length > maxPayload) {
+				throw new TooLongFrameException("Invalid frame payload length [" + length + "]");
+			}
+			if(in.readableBytes() < OctoProtocol.HEADER_SIZE + length) return;
+			in.skipBytes(2);
+			FrameType type = FrameType.decode(in.readByte());
+			byte flags = in.readByte();
+			long requestId = in.readLong();
+			in.skipBytes(4);
+			out.add(new Frame(type, flags, requestId, in.readBytes(length)));
+		}
+	}
+}
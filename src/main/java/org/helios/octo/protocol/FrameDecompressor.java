@@ -0,0 +1,154 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.MessageList;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.compression.DecompressionException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Title: FrameDecompressor</p>
+ * <p>Description: Decompresses inbound {@link Frame}s whose flags carry a {@link CompressionCodec} code.
+ * Uncompressed frames pass through untouched. One instance per channel. The decompressors of one server or client share a {@link Stats}
+ * so that their counts are kept apart from those of the other servers and clients in the JVM.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.protocol.FrameDecompressor</code></p>
+ */
+
+public class FrameDecompressor extends MessageToMessageDecoder<Frame> {
+	/** The maximum accepted decompressed payload size */
+	protected final int maxPayload;
+	/** The decompression counters this decompressor adds to */
+	protected final Stats stats;
+
+	/**
+	 * Creates a new FrameDecompressor
+	 * @param maxPayload The maximum accepted decompressed payload size
+	 * @param stats The decompression counters to add to
+	 */
+	public FrameDecompressor(int maxPayload, Stats stats) {
+		super(Frame.class);
+		if(stats==null) throw new IllegalArgumentException("The passed stats were null");
+		this.maxPayload = maxPayload;
+		this.stats = stats;
+	}
+
+	/**
+	 * Creates a new FrameDecompressor with its own decompression counters
+	 * @param maxPayload The maximum accepted decompressed payload size
+	 */
+	public FrameDecompressor(int maxPayload) {
+		this(maxPayload, new Stats());
+	}
+
+	/**
+	 * Creates a new FrameDecompressor with the default maximum payload size and its own decompression counters
+	 */
+	public FrameDecompressor() {
+		this(OctoProtocol.DEFAULT_MAX_PAYLOAD);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.handler.codec.MessageToMessageDecoder#acceptInboundMessage(java.lang.Object)
+	 */
+	@Override
+	public boolean acceptInboundMessage(Object msg) throws Exception {
+		return super.acceptInboundMessage(msg) && (((Frame)msg).getFlags() & OctoProtocol.COMPRESSION_MASK)!=0;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.handler.codec.MessageToMessageDecoder#decode(io.netty.channel.ChannelHandlerContext, java.lang.Object, io.netty.channel.MessageList)
+	 */
+	@Override
+	protected void decode(ChannelHandlerContext ctx, Frame frame, MessageList<Object> out) throws Exception {
+		final byte flags = frame.getFlags();
+		CompressionCodec codec = CompressionCodec.forCode((byte)(flags & OctoProtocol.COMPRESSION_MASK));
+		if(codec==null) throw new DecompressionException("Unknown compression codec [" + (flags & OctoProtocol.COMPRESSION_MASK) + "]");
+		ByteBuf payload = frame.getPayload();
+		if(payload.readableBytes() < 4) throw new DecompressionException("Truncated compressed payload");
+		final int length = payload.readInt();
+		if(length < 0 || length > maxPayload) {
+			throw new TooLongFrameException("Invalid decompressed payload length [" + length + "]");
+		}
+		final long start = System.nanoTime();
+		ByteBuf decompressed = ctx.alloc().buffer(length);
+		try {
+			codec.decompress(payload, decompressed, length);
+			if(decompressed.readableBytes()!=length) {
+				throw new DecompressionException("Decompressed [" + decompressed.readableBytes() + "] bytes but expected [" + length + "]");
+			}
+		} catch (Exception ex) {
+			decompressed.release();
+			throw ex;
+		}
+		stats.decompressionTime.addAndGet(System.nanoTime() - start);
+		stats.decompressedFrames.incrementAndGet();
+		out.add(new Frame(frame.getType(), (byte)(flags & ~OctoProtocol.COMPRESSION_MASK), frame.getRequestId(), decompressed));
+	}
+
+	/**
+	 * Returns the decompression counters this decompressor adds to
+	 * @return the decompression counters
+	 */
+	public Stats getStats() {
+		return stats;
+	}
+
+	/**
+	 * <p>Title: Stats</p>
+	 * <p>Description: The decompression counters shared by the decompressors of one server or client</p> 
+	 */
+	public static class Stats {
+		/** The number of decompressed frames */
+		protected final AtomicLong decompressedFrames = new AtomicLong(0L);
+		/** The total time in ns spent decompressing */
+		protected final AtomicLong decompressionTime = new AtomicLong(0L);
+
+		/**
+		 * Returns the number of decompressed frames
+		 * @return the number of decompressed frames
+		 */
+		public long getDecompressedFrames() {
+			return decompressedFrames.get();
+		}
+
+		/**
+		 * Returns the total time in ms spent decompressing
+		 * @return the total decompression time in ms
+		 */
+		public long getDecompressionTime() {
+			return TimeUnit.NANOSECONDS.toMillis(decompressionTime.get());
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.MessageList;
+import io.netty.handler.codec.MessageToMessageEncoder;
+
+/**
+ * <p>Title: FrameEncoder</p>
+ * <p>Description: Encodes outbound {@link Frame}s into the Octo wire format. The header is written to a small pooled buffer
+ * and composed with the frame payload, so the payload is never copied.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.protocol.FrameEncoder</code></p>
+ */
+@Sharable
+public class FrameEncoder extends MessageToMessageEncoder<Frame> {
+
+	/**
+	 * Creates a new FrameEncoder
+	 */
+	public FrameEncoder() {
+		super(Frame.class);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.handler.codec.MessageToMessageEncoder#encode(io.netty.channel.ChannelHandlerContext, java.lang.Object, io.netty.channel.MessageList)
+	 */
+	@Override
+	protected void encode(ChannelHandlerContext ctx, Frame frame, MessageList<Object> out) throws Exception {
+		ByteBuf payload = frame.getPayload();
+		ByteBuf header = OctoProtocol.writeHeader(ctx.alloc().buffer(OctoProtocol.HEADER_SIZE), frame.getType(), frame.getFlags(), frame.getRequestId(), payload.readableBytes());
+		if(payload.isReadable()) {
+			// The frame, and with it the payload, is released once encoded
+			out.add(Unpooled.wrappedBuffer(header, payload.retain()));
+		} else {
+			out.add(header);
+		}
+	}
+}
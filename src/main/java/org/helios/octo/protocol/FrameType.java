@@ -0,0 +1,105 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.protocol;
+
+/**
+ * <p>Title: FrameType</p>
+ * <p>Description: Enumerates the typed frames of the Octo protocol</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.protocol.FrameType</code></p>
+ */
+
+public enum FrameType {
+	/** A script invocation request, client to server */
+	REQUEST((byte)1),
+	/** A chunk of std-out output, server to client */
+	STDOUT((byte)2),
+	/** A chunk of std-err output, server to client */
+	STDERR((byte)3),
+	/** The return value of a script invocation, server to client */
+	RESULT((byte)4),
+	/** The exception thrown by a script invocation, server to client */
+	ERROR((byte)5),
+	/** Marks the end of all frames for a request, server to client */
+	END((byte)6),
+	/** The server does not know the digest of a digest only request, server to client */
+	UNKNOWN_DIGEST((byte)7),
+	/** A liveness check, client to server */
+	PING((byte)8),
+	/** The reply to a liveness check, server to client */
+	PONG((byte)9),
+	/** The compression codecs offered by a client, or the codec selected by the server in reply */
+	HELLO((byte)10),
+	/** Asks the server to stop a request, client to server */
+	CANCEL((byte)11),
+	/** The request was stopped before it completed, in place of a result or error, server to client. The payload is the {@link CancelReason#code}. */
+	CANCELLED((byte)12),
+	/** The server refused to run the request, in place of a result or error, server to client.
+	 * The payload is the {@link RejectReason#code} followed by the int time in ms after which the client may retry, 0 if unknown. */
+	REJECTED((byte)13);
+	
+	private static final FrameType[] BY_CODE;
+	
+	static {
+		FrameType[] values = values();
+		int max = 0;
+		for(FrameType ft: values) {
+			if(ft.code > max) max = ft.code;
+		}
+		BY_CODE = new FrameType[max+1];
+		for(FrameType ft: values) {
+			BY_CODE[ft.code] = ft;
+		}
+	}
+	
+	private FrameType(byte code) {
+		this.code = code;
+	}
+	
+	/** The wire code of this frame type */
+	public final byte code;
+	
+	/**
+	 * Decodes the passed wire code to a frame type
+	 * @param code The wire code
+	 * @return the frame type
+	 */
+	public static FrameType decode(byte code) {
+		if(code < 1 || code >= BY_CODE.length || BY_CODE[code]==null) {
+			throw new IllegalArgumentException("Invalid frame type code [" + code + "]");
+		}
+		return BY_CODE[code];
+	}
+	
+	/**
+	 * Indicates if this frame type carries script output
+	 * @return true if this is a std-out or std-err frame, false otherwise
+	 */
+	public boolean isStream() {
+		return this==STDOUT || this==STDERR;
+	}
+	
+}
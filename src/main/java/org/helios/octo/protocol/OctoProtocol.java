@@ -0,0 +1,99 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.protocol;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * <p>Title: OctoProtocol</p>
+ * <p>Description: Constants and header helpers for the versioned, length-prefixed Octo frame format.</p>
+ * <p>Every frame starts with a fixed size header:<pre>
+ *   byte  magic
+ *   byte  version
+ *   byte  frame type   ({@link FrameType#code})
+ *   byte  flags
+ *   long  request id
+ *   int   payload length
+ * </pre>followed by <code>payload length</code> bytes of payload.</p> 
+ * <p>A compressed payload is the decompressed length as an int followed by the compressed bytes.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.protocol.OctoProtocol</code></p>
+ */
+
+public class OctoProtocol {
+	/** The frame magic byte */
+	public static final byte MAGIC = (byte)0xC8;
+	/** The current protocol version */
+	public static final byte VERSION = 1;
+	/** The size of the frame header in bytes */
+	public static final int HEADER_SIZE = 16;
+	/** The offset of the payload length in the frame header */
+	public static final int LENGTH_OFFSET = 12;
+	/** The default maximum payload size */
+	public static final int DEFAULT_MAX_PAYLOAD = 64 * 1024 * 1024;
+	/** No flags */
+	public static final byte NO_FLAGS = 0;
+	/** The flag bits holding the {@link CompressionCodec#code} of a compressed payload */
+	public static final byte COMPRESSION_MASK = 0x03;
+	
+	/**
+	 * Writes a frame header to the passed buffer
+	 * @param out The buffer to write to
+	 * @param type The frame type
+	 * @param flags The frame flags
+	 * @param requestId The request id the frame is for
+	 * @param length The payload length
+	 * @return the passed buffer
+	 */
+	public static ByteBuf writeHeader(ByteBuf out, FrameType type, byte flags, long requestId, int length) {
+		return out.writeByte(MAGIC).writeByte(VERSION).writeByte(type.code).writeByte(flags).writeLong(requestId).writeInt(length);
+	}
+	
+	/**
+	 * Writes a frame header with a zero payload length which is filled in later by {@link #setLength(ByteBuf, int)}
+	 * @param out The buffer to write to
+	 * @param type The frame type
+	 * @param requestId The request id the frame is for
+	 * @return the writer index of the start of the header
+	 */
+	public static int startFrame(ByteBuf out, FrameType type, long requestId) {
+		int start = out.writerIndex();
+		writeHeader(out, type, NO_FLAGS, requestId, 0);
+		return start;
+	}
+	
+	/**
+	 * Sets the payload length of a frame started with {@link #startFrame(ByteBuf, FrameType, long)} 
+	 * from the bytes written since the header
+	 * @param out The buffer the frame was written to
+	 * @param start The writer index of the start of the header
+	 */
+	public static void endFrame(ByteBuf out, int start) {
+		out.setInt(start + LENGTH_OFFSET, out.writerIndex() - start - HEADER_SIZE);
+	}
+	
+	private OctoProtocol() {}
+}
@@ -0,0 +1,81 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.protocol;
+
+/**
+ * <p>Title: PriorityClass</p>
+ * <p>Description: Enumerates the scheduling classes of script invocations. The server queues each class separately
+ * and shares the script threads between the classes in proportion to their weights.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.protocol.PriorityClass</code></p>
+ */
+
+public enum PriorityClass {
+	/** Requests a person is waiting on, such as console commands */
+	INTERACTIVE((byte)0, 16),
+	/** Ordinary requests. The default. */
+	BATCH((byte)1, 4),
+	/** Requests nobody is waiting on, such as collector polls */
+	BACKGROUND((byte)2, 1);
+	
+	private static final PriorityClass[] BY_CODE = values();
+	
+	private PriorityClass(byte code, int defaultWeight) {
+		this.code = code;
+		this.defaultWeight = defaultWeight;
+	}
+	
+	/** The wire code of this class */
+	public final byte code;
+	/** The default scheduling weight of this class */
+	public final int defaultWeight;
+	
+	/**
+	 * Decodes the passed wire code to a priority class
+	 * @param code The wire code
+	 * @return the priority class
+	 */
+	public static PriorityClass decode(byte code) {
+		if(code < 0 || code >= BY_CODE.length) {
+			throw new IllegalArgumentException("Invalid priority class code [" + code + "]");
+		}
+		return BY_CODE[code];
+	}
+	
+	/**
+	 * Decodes a priority class name, ignoring case
+	 * @param name The priority class name
+	 * @return the priority class
+	 */
+	public static PriorityClass forName(String name) {
+		if(name==null) throw new IllegalArgumentException("The passed priority class name was null");
+		try {
+			return valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException iae) {
+			throw new IllegalArgumentException("Invalid priority class name [" + name + "]");
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.protocol;
+
+/**
+ * <p>Title: RejectReason</p>
+ * <p>Description: Enumerates the reasons the server refuses to run a request, carried in the payload of a {@link FrameType#REJECTED} frame</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.protocol.RejectReason</code></p>
+ */
+
+public enum RejectReason {
+	/** The connection or client exceeded its request rate */
+	RATE((byte)1),
+	/** The connection or client has as many invocations in progress as it is allowed */
+	CONCURRENCY((byte)2),
+	/** The script execution queue is full */
+	QUEUE_FULL((byte)3);
+	
+	private static final RejectReason[] BY_CODE;
+	
+	static {
+		RejectReason[] values = values();
+		BY_CODE = new RejectReason[values.length+1];
+		for(RejectReason rr: values) {
+			BY_CODE[rr.code] = rr;
+		}
+	}
+	
+	private RejectReason(byte code) {
+		this.code = code;
+	}
+	
+	/** The wire code of this reason */
+	public final byte code;
+	
+	/**
+	 * Decodes the passed wire code to a reject reason
+	 * @param code The wire code
+	 * @return the reject reason, or {@link #QUEUE_FULL} if the code is unknown
+	 */
+	public static RejectReason decode(byte code) {
+		if(code < 1 || code >= BY_CODE.length) return QUEUE_FULL;
+		return BY_CODE[code];
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.protocol;
+
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.MessageList;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.handler.codec.serialization.ClassResolver;
+
+import org.helios.octo.server.invocation.InvocationRequest;
+import org.helios.octo.server.metrics.ServerMetrics;
+
+/**
+ * <p>Title: RequestDecoder</p>
+ * <p>Description: Server side decoder that converts {@link FrameType#REQUEST} frames into {@link InvocationRequest}s.
+ * All other frames are passed through. Each decoded request is stamped with the time its frame was received.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.protocol.RequestDecoder</code></p>
+ */
+@Sharable
+public class RequestDecoder extends MessageToMessageDecoder<Frame> {
+	/** The class resolver used to resolve the classes of java serialized arguments */
+	protected final ClassResolver classResolver;
+	/** The metrics the decode times are recorded to, or null */
+	protected final ServerMetrics metrics;
+	
+	/**
+	 * Creates a new RequestDecoder
+	 * @param classResolver The class resolver used to resolve the classes of java serialized arguments
+	 * @param metrics The metrics the decode times are recorded to, or null
+	 */
+	public RequestDecoder(ClassResolver classResolver, ServerMetrics metrics) {
+		super(Frame.class);
+		this.classResolver = classResolver;
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Creates a new RequestDecoder that does not record decode times
+	 * @param classResolver The class resolver used to resolve the classes of java serialized arguments
+	 */
+	public RequestDecoder(ClassResolver classResolver) {
+		this(classResolver, null);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.handler.codec.MessageToMessageDecoder#decode(io.netty.channel.ChannelHandlerContext, java.lang.Object, io.netty.channel.MessageList)
+	 */
+	@Override
+	protected void decode(ChannelHandlerContext ctx, Frame frame, MessageList<Object> out) throws Exception {
+		if(frame.getType()==FrameType.REQUEST) {
+			final long start = System.nanoTime();
+			InvocationRequest request = InvocationRequest.decode(frame.getRequestId(), frame.getPayload(), classResolver);
+			request.setReceivedTime(start);
+			if(metrics!=null) metrics.requestDecoded(System.nanoTime() - start);
+			out.add(request);
+		} else {
+			out.add(frame.retain());
+		}
+	}
+}
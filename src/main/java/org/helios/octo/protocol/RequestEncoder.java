@@ -0,0 +1,61 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+import org.helios.octo.server.invocation.InvocationRequest;
+
+/**
+ * <p>Title: RequestEncoder</p>
+ * <p>Description: Client side encoder that writes {@link InvocationRequest}s directly as {@link FrameType#REQUEST} frames</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.protocol.RequestEncoder</code></p>
+ */
+@Sharable
+public class RequestEncoder extends MessageToByteEncoder<InvocationRequest> {
+
+	/**
+	 * Creates a new RequestEncoder
+	 */
+	public RequestEncoder() {
+		super(InvocationRequest.class);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.handler.codec.MessageToByteEncoder#encode(io.netty.channel.ChannelHandlerContext, java.lang.Object, io.netty.buffer.ByteBuf)
+	 */
+	@Override
+	protected void encode(ChannelHandlerContext ctx, InvocationRequest request, ByteBuf out) throws Exception {
+		final int start = OctoProtocol.startFrame(out, FrameType.REQUEST, request.getRequestId());
+		request.encode(out);
+		OctoProtocol.endFrame(out, start);
+	}
+}
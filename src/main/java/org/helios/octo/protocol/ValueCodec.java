@@ -0,0 +1,796 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.handler.codec.serialization.ClassResolver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.openmbean.ArrayType;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+/**
+ * <p>Title: ValueCodec</p>
+ * <p>Description: Encodes and decodes the argument and result values carried in frame payloads.
+ * Each value is written as a one byte tag followed by the tag specific encoding.</p> 
+ * <p>The types scripts usually return have compact tags: booleans, boxed primitives, strings, dates, big numbers, arrays, lists, sets, maps,
+ * {@link ObjectName}s and open MBean {@link CompositeData} and {@link TabularData}. Lists decode as {@link ArrayList}s, sets as {@link LinkedHashSet}s
+ * and maps as {@link LinkedHashMap}s, in the iteration order of the original. Open types are written once per value and referenced by index after that,
+ * so the rows of a large table do not repeat their type. Any other value, and anything nested deeper than {@link #MAX_DEPTH}, is java serialized.</p>
+ * <p>Lengths and sizes are unsigned varints, and ints and longs are zig-zag varints.</p>
+ * <p>Values are decoded on the event loop, so every length and size read is checked against the bytes remaining before anything is allocated,
+ * and nesting deeper than the writer produces is refused. Malformed input fails with an {@link IOException}.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.protocol.ValueCodec</code></p>
+ */
+
+public class ValueCodec {
+	/** The tag for a null value */
+	public static final byte NULL = 0;
+	/** The tag for a java serialized value: <code>int length, serialized bytes</code> */
+	public static final byte JAVA = 1;
+	/** The tag for {@link Boolean#TRUE} */
+	public static final byte TRUE = 2;
+	/** The tag for {@link Boolean#FALSE} */
+	public static final byte FALSE = 3;
+	/** The tag for a Byte: <code>byte</code> */
+	public static final byte BYTE = 4;
+	/** The tag for a Short: <code>short</code> */
+	public static final byte SHORT = 5;
+	/** The tag for an Integer: <code>zig-zag varint</code> */
+	public static final byte INT = 6;
+	/** The tag for a Long: <code>zig-zag varlong</code> */
+	public static final byte LONG = 7;
+	/** The tag for a Float: <code>float</code> */
+	public static final byte FLOAT = 8;
+	/** The tag for a Double: <code>double</code> */
+	public static final byte DOUBLE = 9;
+	/** The tag for a Character: <code>char</code> */
+	public static final byte CHAR = 10;
+	/** The tag for a String: <code>varint length, UTF-8 bytes</code> */
+	public static final byte STRING = 11;
+	/** The tag for a Date: <code>long millis</code> */
+	public static final byte DATE = 12;
+	/** The tag for a BigInteger: <code>varint length, two's complement bytes</code> */
+	public static final byte BIG_INTEGER = 13;
+	/** The tag for a BigDecimal: <code>zig-zag varint scale, varint length, two's complement unscaled bytes</code> */
+	public static final byte BIG_DECIMAL = 14;
+	/** The tag for a byte array: <code>varint length, bytes</code> */
+	public static final byte BYTES = 15;
+	/** The tag for any other array: <code>component class name, varint length, values</code> */
+	public static final byte ARRAY = 16;
+	/** The tag for a List: <code>varint size, values</code> */
+	public static final byte LIST = 17;
+	/** The tag for a Set: <code>varint size, values</code> */
+	public static final byte SET = 18;
+	/** The tag for a Map: <code>varint size, key and value pairs</code> */
+	public static final byte MAP = 19;
+	/** The tag for an ObjectName: <code>canonical name string</code> */
+	public static final byte OBJECT_NAME = 20;
+	/** The tag for a CompositeData: <code>composite type, item values in item name order</code> */
+	public static final byte COMPOSITE = 21;
+	/** The tag for a TabularData: <code>tabular type, varint row count, row item values in item name order</code> */
+	public static final byte TABULAR = 22;
+	
+	/** The maximum nesting depth of compactly encoded values. Deeper values are java serialized. */
+	public static final int MAX_DEPTH = 64;
+	
+	/** The maximum open type nesting depth accepted when reading */
+	protected static final int MAX_TYPE_DEPTH = 4 * MAX_DEPTH;
+	/** The maximum array type dimension */
+	protected static final int MAX_DIMENSION = 255;
+	
+	/** The open type kind of a type written earlier in the same value: <code>varint index</code> */
+	protected static final byte TYPE_REF = 0;
+	/** The open type kind of a simple type: <code>class name string</code> */
+	protected static final byte TYPE_SIMPLE = 1;
+	/** The open type kind of an array type: <code>varint dimension, primitive flag, element type</code> */
+	protected static final byte TYPE_ARRAY = 2;
+	/** The open type kind of a composite type: <code>name, description, varint item count, item name, description and type</code> */
+	protected static final byte TYPE_COMPOSITE = 3;
+	/** The open type kind of a tabular type: <code>name, description, row type, varint index name count, index names</code> */
+	protected static final byte TYPE_TABULAR = 4;
+	
+	/** The charset of encoded strings */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** The simple open types keyed by class name */
+	private static final Map<String, SimpleType<?>> SIMPLE_TYPES = new HashMap<String, SimpleType<?>>();
+	/** The primitive classes keyed by name */
+	private static final Map<String, Class<?>> PRIMITIVES = new HashMap<String, Class<?>>();
+	
+	static {
+		for(SimpleType<?> st: new SimpleType<?>[]{SimpleType.VOID, SimpleType.BOOLEAN, SimpleType.CHARACTER, SimpleType.BYTE, SimpleType.SHORT,
+				SimpleType.INTEGER, SimpleType.LONG, SimpleType.FLOAT, SimpleType.DOUBLE, SimpleType.STRING, SimpleType.BIGDECIMAL,
+				SimpleType.BIGINTEGER, SimpleType.DATE, SimpleType.OBJECTNAME}) {
+			SIMPLE_TYPES.put(st.getClassName(), st);
+		}
+		for(Class<?> clazz: new Class<?>[]{boolean.class, char.class, byte.class, short.class, int.class, long.class, float.class, double.class}) {
+			PRIMITIVES.put(clazz.getName(), clazz);
+		}
+	}
+	
+	/**
+	 * Writes the passed value to the passed buffer
+	 * @param out The buffer to write to
+	 * @param value The value to write
+	 * @throws IOException thrown if the value cannot be serialized
+	 */
+	public static void write(ByteBuf out, Object value) throws IOException {
+		write(out, value, null, 0);
+	}
+	
+	/**
+	 * Writes the passed value to the passed buffer
+	 * @param out The buffer to write to
+	 * @param value The value to write
+	 * @param types The open types already written for this value, created on first use
+	 * @param depth The nesting depth of the value
+	 * @return the open types already written for this value
+	 * @throws IOException thrown if the value cannot be serialized
+	 */
+	protected static Map<OpenType<?>, Integer> write(ByteBuf out, Object value, Map<OpenType<?>, Integer> types, int depth) throws IOException {
+		if(value==null) {
+			out.writeByte(NULL);
+			return types;
+		}
+		final Class<?> clazz = value.getClass();
+		if(clazz==String.class) {
+			out.writeByte(STRING);
+			writeString(out, (String)value);
+		} else if(clazz==Integer.class) {
+			out.writeByte(INT);
+			writeVarInt(out, zigZag((Integer)value));
+		} else if(clazz==Long.class) {
+			out.writeByte(LONG);
+			writeVarLong(out, zigZag((Long)value));
+		} else if(clazz==Boolean.class) {
+			out.writeByte((Boolean)value ? TRUE : FALSE);
+		} else if(clazz==Double.class) {
+			out.writeByte(DOUBLE).writeDouble((Double)value);
+		} else if(clazz==Float.class) {
+			out.writeByte(FLOAT).writeFloat((Float)value);
+		} else if(clazz==Short.class) {
+			out.writeByte(SHORT).writeShort((Short)value);
+		} else if(clazz==Byte.class) {
+			out.writeByte(BYTE).writeByte((Byte)value);
+		} else if(clazz==Character.class) {
+			out.writeByte(CHAR).writeChar((Character)value);
+		} else if(clazz==Date.class) {
+			out.writeByte(DATE).writeLong(((Date)value).getTime());
+		} else if(clazz==BigInteger.class) {
+			out.writeByte(BIG_INTEGER);
+			writeBytes(out, ((BigInteger)value).toByteArray());
+		} else if(clazz==BigDecimal.class) {
+			BigDecimal bd = (BigDecimal)value;
+			out.writeByte(BIG_DECIMAL);
+			writeVarInt(out, zigZag(bd.scale()));
+			writeBytes(out, bd.unscaledValue().toByteArray());
+		} else if(clazz==byte[].class) {
+			out.writeByte(BYTES);
+			writeBytes(out, (byte[])value);
+		} else if(clazz==ObjectName.class) {
+			out.writeByte(OBJECT_NAME);
+			writeString(out, ((ObjectName)value).getCanonicalName());
+		} else if(depth >= MAX_DEPTH) {
+			writeJava(out, value);
+		} else if(clazz.isArray()) {
+			final int length = Array.getLength(value);
+			out.writeByte(ARRAY);
+			writeString(out, clazz.getComponentType().getName());
+			writeVarInt(out, length);
+			for(int i = 0; i < length; i++) {
+				types = write(out, Array.get(value, i), types, depth+1);
+			}
+		} else if(value instanceof CompositeData) {
+			CompositeData cd = (CompositeData)value;
+			out.writeByte(COMPOSITE);
+			types = writeType(out, cd.getCompositeType(), types);
+			types = writeItems(out, cd, types, depth);
+		} else if(value instanceof TabularData) {
+			TabularData td = (TabularData)value;
+			out.writeByte(TABULAR);
+			types = writeType(out, td.getTabularType(), types);
+			writeVarInt(out, td.size());
+			for(Object row: td.values()) {
+				types = writeItems(out, (CompositeData)row, types, depth);
+			}
+		} else if(value instanceof Map) {
+			// After TabularData, which TabularDataSupport implements Map for
+			Map<?, ?> map = (Map<?, ?>)value;
+			out.writeByte(MAP);
+			writeVarInt(out, map.size());
+			for(Map.Entry<?, ?> entry: map.entrySet()) {
+				types = write(out, entry.getKey(), types, depth+1);
+				types = write(out, entry.getValue(), types, depth+1);
+			}
+		} else if(value instanceof List || value instanceof Set) {
+			Collection<?> collection = (Collection<?>)value;
+			out.writeByte(value instanceof List ? LIST : SET);
+			writeVarInt(out, collection.size());
+			for(Object item: collection) {
+				types = write(out, item, types, depth+1);
+			}
+		} else {
+			writeJava(out, value);
+		}
+		return types;
+	}
+	
+	/**
+	 * Writes the item values of a composite in item name order
+	 * @param out The buffer to write to
+	 * @param cd The composite to write the items of
+	 * @param types The open types already written for this value
+	 * @param depth The nesting depth of the composite
+	 * @return the open types already written for this value
+	 * @throws IOException thrown if an item cannot be serialized
+	 */
+	protected static Map<OpenType<?>, Integer> writeItems(ByteBuf out, CompositeData cd, Map<OpenType<?>, Integer> types, int depth) throws IOException {
+		for(String key: cd.getCompositeType().keySet()) {
+			types = write(out, cd.get(key), types, depth+1);
+		}
+		return types;
+	}
+	
+	/**
+	 * Writes an open type, or a reference to it if it has already been written for this value
+	 * @param out The buffer to write to
+	 * @param type The open type to write
+	 * @param types The open types already written for this value, created on first use
+	 * @return the open types already written for this value
+	 */
+	protected static Map<OpenType<?>, Integer> writeType(ByteBuf out, OpenType<?> type, Map<OpenType<?>, Integer> types) {
+		if(types==null) {
+			types = new HashMap<OpenType<?>, Integer>();
+		} else {
+			Integer index = types.get(type);
+			if(index!=null) {
+				out.writeByte(TYPE_REF);
+				writeVarInt(out, index);
+				return types;
+			}
+		}
+		if(type instanceof SimpleType) {
+			out.writeByte(TYPE_SIMPLE);
+			writeString(out, type.getClassName());
+			return types;
+		}
+		if(type instanceof ArrayType) {
+			ArrayType<?> at = (ArrayType<?>)type;
+			out.writeByte(TYPE_ARRAY);
+			writeVarInt(out, at.getDimension());
+			out.writeBoolean(at.isPrimitiveArray());
+			types = writeType(out, at.getElementOpenType(), types);
+		} else if(type instanceof CompositeType) {
+			CompositeType ct = (CompositeType)type;
+			out.writeByte(TYPE_COMPOSITE);
+			writeString(out, ct.getTypeName());
+			writeString(out, ct.getDescription());
+			Set<String> keys = ct.keySet();
+			writeVarInt(out, keys.size());
+			for(String key: keys) {
+				writeString(out, key);
+				writeString(out, ct.getDescription(key));
+				types = writeType(out, ct.getType(key), types);
+			}
+		} else if(type instanceof TabularType) {
+			TabularType tt = (TabularType)type;
+			out.writeByte(TYPE_TABULAR);
+			writeString(out, tt.getTypeName());
+			writeString(out, tt.getDescription());
+			types = writeType(out, tt.getRowType(), types);
+			List<String> indexNames = tt.getIndexNames();
+			writeVarInt(out, indexNames.size());
+			for(String name: indexNames) {
+				writeString(out, name);
+			}
+		} else {
+			throw new IllegalArgumentException("Unsupported open type [" + type + "]");
+		}
+		// Registered after the nested types, in the same order the reader registers them
+		types.put(type, types.size());
+		return types;
+	}
+	
+	/**
+	 * Writes the passed value using java serialization
+	 * @param out The buffer to write to
+	 * @param value The value to write
+	 * @throws IOException thrown if the value cannot be serialized
+	 */
+	protected static void writeJava(ByteBuf out, Object value) throws IOException {
+		final int start = out.writerIndex();
+		out.writeByte(JAVA).writeInt(0);
+		try {
+			ObjectOutputStream oos = new ObjectOutputStream(new ByteBufOutputStream(out));
+			oos.writeObject(value);
+			oos.flush();
+		} catch (IOException iex) {
+			out.writerIndex(start);
+			throw iex;
+		}
+		out.setInt(start + 1, out.writerIndex() - start - 5);
+	}
+	
+	/**
+	 * Reads a value from the passed buffer
+	 * @param in The buffer to read from
+	 * @param classResolver The class resolver used to resolve the classes of java serialized values and array components
+	 * @return the read value
+	 * @throws IOException thrown on any IO error
+	 * @throws ClassNotFoundException thrown if the class of a java serialized value cannot be resolved
+	 */
+	public static Object read(ByteBuf in, ClassResolver classResolver) throws IOException, ClassNotFoundException {
+		try {
+			return read(in, classResolver, new ArrayList<OpenType<?>>(0), 0);
+		} catch (IndexOutOfBoundsException iex) {
+			throw new IOException("Truncated value", iex);
+		} catch (ClassCastException cex) {
+			throw new IOException("Invalid value type", cex);
+		} catch (IllegalArgumentException iaex) {
+			throw new IOException("Invalid value", iaex);
+		}
+	}
+	
+	/**
+	 * Reads a value from the passed buffer
+	 * @param in The buffer to read from
+	 * @param classResolver The class resolver used to resolve the classes of java serialized values and array components
+	 * @param types The open types already read for this value
+	 * @param depth The nesting depth of the value
+	 * @return the read value
+	 * @throws IOException thrown on any IO error
+	 * @throws ClassNotFoundException thrown if the class of a java serialized value cannot be resolved
+	 */
+	protected static Object read(ByteBuf in, ClassResolver classResolver, List<OpenType<?>> types, int depth) throws IOException, ClassNotFoundException {
+		byte tag = in.readByte();
+		// The writer java serializes anything at MAX_DEPTH, so a deeper value is malformed
+		if(depth > MAX_DEPTH) throw new IOException("Value nested deeper than [" + MAX_DEPTH + "]");
+		switch(tag) {
+			case NULL:
+				return null;
+			case JAVA:
+				int length = in.readInt();
+				if(length < 0 || length > in.readableBytes()) throw new IOException("Invalid serialized length [" + length + "], [" + in.readableBytes() + "] bytes remain");
+				ObjectInputStream ois = new ResolvingObjectInputStream(new ByteBufInputStream(in, length), classResolver);
+				try {
+					return ois.readObject();
+				} finally {
+					ois.close();
+				}
+			case TRUE:
+				return Boolean.TRUE;
+			case FALSE:
+				return Boolean.FALSE;
+			case BYTE:
+				return in.readByte();
+			case SHORT:
+				return in.readShort();
+			case INT:
+				return unZigZag(readVarInt(in));
+			case LONG:
+				return unZigZag(readVarLong(in));
+			case FLOAT:
+				return in.readFloat();
+			case DOUBLE:
+				return in.readDouble();
+			case CHAR:
+				return in.readChar();
+			case STRING:
+				return readString(in);
+			case DATE:
+				return new Date(in.readLong());
+			case BIG_INTEGER:
+				return new BigInteger(readBytes(in));
+			case BIG_DECIMAL:
+				int scale = unZigZag(readVarInt(in));
+				return new BigDecimal(new BigInteger(readBytes(in)), scale);
+			case BYTES:
+				return readBytes(in);
+			case OBJECT_NAME:
+				try {
+					return new ObjectName(readString(in));
+				} catch (MalformedObjectNameException mex) {
+					throw new IOException("Invalid object name", mex);
+				}
+			case ARRAY:
+				Class<?> componentType = resolve(readString(in), classResolver);
+				int arrayLength = readSize(in, 1);
+				Object array = Array.newInstance(componentType, arrayLength);
+				for(int i = 0; i < arrayLength; i++) {
+					Array.set(array, i, read(in, classResolver, types, depth+1));
+				}
+				return array;
+			case LIST:
+				int listSize = readSize(in, 1);
+				List<Object> list = new ArrayList<Object>(listSize);
+				for(int i = 0; i < listSize; i++) {
+					list.add(read(in, classResolver, types, depth+1));
+				}
+				return list;
+			case SET:
+				int setSize = readSize(in, 1);
+				Set<Object> set = new LinkedHashSet<Object>(capacity(setSize));
+				for(int i = 0; i < setSize; i++) {
+					set.add(read(in, classResolver, types, depth+1));
+				}
+				return set;
+			case MAP:
+				int mapSize = readSize(in, 2);
+				Map<Object, Object> map = new LinkedHashMap<Object, Object>(capacity(mapSize));
+				for(int i = 0; i < mapSize; i++) {
+					Object key = read(in, classResolver, types, depth+1);
+					map.put(key, read(in, classResolver, types, depth+1));
+				}
+				return map;
+			case COMPOSITE:
+				return readItems(in, classResolver, types, (CompositeType)readType(in, types, 0), depth);
+			case TABULAR:
+				TabularType tabularType = (TabularType)readType(in, types, 0);
+				int rows = readSize(in, 1);
+				TabularDataSupport table = new TabularDataSupport(tabularType, capacity(rows), 0.75f);
+				for(int i = 0; i < rows; i++) {
+					table.put(readItems(in, classResolver, types, tabularType.getRowType(), depth));
+				}
+				return table;
+			default:
+				throw new IOException("Unknown value tag [" + tag + "]");
+		}
+	}
+	
+	/**
+	 * Reads the item values of a composite written in item name order
+	 * @param in The buffer to read from
+	 * @param classResolver The class resolver
+	 * @param types The open types already read for this value
+	 * @param compositeType The type of the composite
+	 * @param depth The nesting depth of the composite
+	 * @return the read composite
+	 * @throws IOException thrown on any IO error or if the items do not match the type
+	 * @throws ClassNotFoundException thrown if the class of an item cannot be resolved
+	 */
+	protected static CompositeData readItems(ByteBuf in, ClassResolver classResolver, List<OpenType<?>> types, CompositeType compositeType, int depth) throws IOException, ClassNotFoundException {
+		Set<String> keys = compositeType.keySet();
+		String[] names = keys.toArray(new String[keys.size()]);
+		Object[] values = new Object[names.length];
+		for(int i = 0; i < names.length; i++) {
+			values[i] = read(in, classResolver, types, depth+1);
+		}
+		try {
+			return new CompositeDataSupport(compositeType, names, values);
+		} catch (OpenDataException oex) {
+			throw new IOException("Invalid composite data", oex);
+		}
+	}
+	
+	/**
+	 * Reads an open type or a reference to an open type already read for this value
+	 * @param in The buffer to read from
+	 * @param types The open types already read for this value
+	 * @param depth The nesting depth of the type
+	 * @return the read open type
+	 * @throws IOException thrown on any IO error or if the type is invalid
+	 */
+	protected static OpenType<?> readType(ByteBuf in, List<OpenType<?>> types, int depth) throws IOException {
+		if(depth > MAX_TYPE_DEPTH) throw new IOException("Open type nested deeper than [" + MAX_TYPE_DEPTH + "]");
+		byte kind = in.readByte();
+		OpenType<?> type;
+		try {
+			switch(kind) {
+				case TYPE_REF:
+					int index = readVarInt(in);
+					if(index < 0 || index >= types.size()) throw new IOException("Invalid open type reference [" + index + "]");
+					return types.get(index);
+				case TYPE_SIMPLE:
+					String className = readString(in);
+					type = SIMPLE_TYPES.get(className);
+					if(type==null) throw new IOException("Unknown simple type [" + className + "]");
+					return type;
+				case TYPE_ARRAY:
+					int dimension = readVarInt(in);
+					if(dimension < 1 || dimension > MAX_DIMENSION) throw new IOException("Invalid array dimension [" + dimension + "]");
+					boolean primitive = in.readBoolean();
+					OpenType<?> elementType = readType(in, types, depth+1);
+					if(primitive) {
+						ArrayType<?> at = new ArrayType<Object>((SimpleType<?>)elementType, true);
+						for(int i = 1; i < dimension; i++) {
+							at = new ArrayType<Object>(1, at);
+						}
+						type = at;
+					} else {
+						type = new ArrayType<Object>(dimension, elementType);
+					}
+					break;
+				case TYPE_COMPOSITE:
+					String typeName = readString(in);
+					String description = readString(in);
+					int itemCount = readSize(in, 3);
+					String[] itemNames = new String[itemCount];
+					String[] itemDescriptions = new String[itemCount];
+					OpenType<?>[] itemTypes = new OpenType<?>[itemCount];
+					for(int i = 0; i < itemCount; i++) {
+						itemNames[i] = readString(in);
+						itemDescriptions[i] = readString(in);
+						itemTypes[i] = readType(in, types, depth+1);
+					}
+					type = new CompositeType(typeName, description, itemNames, itemDescriptions, itemTypes);
+					break;
+				case TYPE_TABULAR:
+					String tableName = readString(in);
+					String tableDescription = readString(in);
+					CompositeType rowType = (CompositeType)readType(in, types, depth+1);
+					int indexCount = readSize(in, 1);
+					String[] indexNames = new String[indexCount];
+					for(int i = 0; i < indexCount; i++) {
+						indexNames[i] = readString(in);
+					}
+					type = new TabularType(tableName, tableDescription, rowType, indexNames);
+					break;
+				default:
+					throw new IOException("Unknown open type kind [" + kind + "]");
+			}
+		} catch (OpenDataException oex) {
+			throw new IOException("Invalid open type", oex);
+		}
+		types.add(type);
+		return type;
+	}
+	
+	/**
+	 * Resolves an array component class, falling back to Object if it cannot be resolved
+	 * @param className The component class name
+	 * @param classResolver The class resolver
+	 * @return the component class
+	 */
+	protected static Class<?> resolve(String className, ClassResolver classResolver) {
+		Class<?> clazz = PRIMITIVES.get(className);
+		if(clazz!=null) return clazz;
+		try {
+			return classResolver==null ? Class.forName(className) : classResolver.resolve(className);
+		} catch (ClassNotFoundException cnfe) {
+			return Object.class;
+		}
+	}
+	
+	/**
+	 * Writes a string as a varint length and UTF-8 bytes. ASCII strings are written without an intermediate byte array.
+	 * @param out The buffer to write to
+	 * @param s The string to write
+	 */
+	protected static void writeString(ByteBuf out, String s) {
+		final int length = s.length();
+		boolean ascii = true;
+		for(int i = 0; i < length; i++) {
+			if(s.charAt(i) >= 0x80) {
+				ascii = false;
+				break;
+			}
+		}
+		if(ascii) {
+			writeVarInt(out, length);
+			out.ensureWritable(length);
+			for(int i = 0; i < length; i++) {
+				out.writeByte(s.charAt(i));
+			}
+		} else {
+			writeBytes(out, s.getBytes(UTF8));
+		}
+	}
+	
+	/**
+	 * Reads a string written by {@link #writeString(ByteBuf, String)}
+	 * @param in The buffer to read from
+	 * @return the read string
+	 * @throws IOException thrown if the length is malformed or exceeds the bytes remaining
+	 */
+	protected static String readString(ByteBuf in) throws IOException {
+		int length = readSize(in, 1);
+		String s = in.toString(in.readerIndex(), length, UTF8);
+		in.skipBytes(length);
+		return s;
+	}
+	
+	/**
+	 * Writes a byte array as a varint length and the bytes
+	 * @param out The buffer to write to
+	 * @param bytes The bytes to write
+	 */
+	protected static void writeBytes(ByteBuf out, byte[] bytes) {
+		writeVarInt(out, bytes.length);
+		out.writeBytes(bytes);
+	}
+	
+	/**
+	 * Reads a byte array written by {@link #writeBytes(ByteBuf, byte[])}
+	 * @param in The buffer to read from
+	 * @return the read bytes
+	 * @throws IOException thrown if the length is malformed or exceeds the bytes remaining
+	 */
+	protected static byte[] readBytes(ByteBuf in) throws IOException {
+		byte[] bytes = new byte[readSize(in, 1)];
+		in.readBytes(bytes);
+		return bytes;
+	}
+	
+	/**
+	 * Writes an unsigned varint
+	 * @param out The buffer to write to
+	 * @param value The value to write
+	 */
+	protected static void writeVarInt(ByteBuf out, int value) {
+		while((value & ~0x7F)!=0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+	
+	/**
+	 * Reads a length or element count, checking that the bytes remaining could hold it before the caller allocates for it
+	 * @param in The buffer to read from
+	 * @param minBytes The minimum encoded size in bytes of each element
+	 * @return the read length or count
+	 * @throws IOException thrown if the length is malformed or exceeds the bytes remaining
+	 */
+	protected static int readSize(ByteBuf in, int minBytes) throws IOException {
+		int size = readVarInt(in);
+		if(size < 0 || (long)size * minBytes > in.readableBytes()) {
+			throw new IOException("Invalid length [" + size + "], [" + in.readableBytes() + "] bytes remain");
+		}
+		return size;
+	}
+	
+	/**
+	 * Reads an unsigned varint
+	 * @param in The buffer to read from
+	 * @return the read value
+	 * @throws IOException thrown if the varint is longer than five bytes
+	 */
+	protected static int readVarInt(ByteBuf in) throws IOException {
+		int value = 0;
+		for(int shift = 0; shift < 35; shift += 7) {
+			byte b = in.readByte();
+			value |= (b & 0x7F) << shift;
+			if(b >= 0) return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+	
+	/**
+	 * Writes an unsigned varlong
+	 * @param out The buffer to write to
+	 * @param value The value to write
+	 */
+	protected static void writeVarLong(ByteBuf out, long value) {
+		while((value & ~0x7FL)!=0) {
+			out.writeByte((int)(value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int)value);
+	}
+	
+	/**
+	 * Reads an unsigned varlong
+	 * @param in The buffer to read from
+	 * @return the read value
+	 * @throws IOException thrown if the varlong is longer than ten bytes
+	 */
+	protected static long readVarLong(ByteBuf in) throws IOException {
+		long value = 0;
+		for(int shift = 0; shift < 70; shift += 7) {
+			byte b = in.readByte();
+			value |= (long)(b & 0x7F) << shift;
+			if(b >= 0) return value;
+		}
+		throw new IOException("Malformed varlong");
+	}
+	
+	private static int zigZag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+	
+	private static int unZigZag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+	
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	private static int capacity(int size) {
+		return Math.max(16, (int)(size / 0.75f) + 1);
+	}
+	
+	/**
+	 * <p>Title: ResolvingObjectInputStream</p>
+	 * <p>Description: Object input stream that resolves classes through a netty {@link ClassResolver}</p>
+	 */
+	protected static class ResolvingObjectInputStream extends ObjectInputStream {
+		/** The class resolver */
+		protected final ClassResolver classResolver;
+		
+		/**
+		 * Creates a new ResolvingObjectInputStream
+		 * @param in The input stream to read from
+		 * @param classResolver The class resolver
+		 * @throws IOException thrown on any IO error
+		 */
+		protected ResolvingObjectInputStream(InputStream in, ClassResolver classResolver) throws IOException {
+			super(in);
+			this.classResolver = classResolver;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see java.io.ObjectInputStream#resolveClass(java.io.ObjectStreamClass)
+		 */
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			if(classResolver==null) return super.resolveClass(desc);
+			try {
+				return classResolver.resolve(desc.getName());
+			} catch (ClassNotFoundException cnfe) {
+				return super.resolveClass(desc);
+			}
+		}
+	}
+	
+	private ValueCodec() {}
+}
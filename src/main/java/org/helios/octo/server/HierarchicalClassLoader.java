@@ -24,9 +24,19 @@
  */
 package org.helios.octo.server;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * <p>Title: HierarchicalClassLoader</p>
- * <p>Description: </p> 
+ * <p>Description: Class loader that resolves classes from its parent and then from each delegate in turn. It defines no classes of its own.
+ * Resolved classes are cached by name, and each source keeps a size bounded LRU of the names known to be missing from it,
+ * so repeated lookups of missing names (which groovy compiles make a lot of) neither reach the source nor construct an exception.
+ * Classes deployed into a source after a miss are found once the caches are flushed or the name is evicted.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.octo.server.HierarchicalClassLoader</code></p>
@@ -35,6 +45,23 @@ package org.helios.octo.server;
 public class HierarchicalClassLoader extends ClassLoader {
 	/** The delegate classloaders in the order they should be searched */
 	protected final ClassLoader[] delegates;
+	/** The class sources in search order: the parent, then the delegates */
+	protected final ClassLoader[] sources;
+	/** The resolved classes keyed by name */
+	protected final ConcurrentHashMap<String, Class<?>> resolved = new ConcurrentHashMap<String, Class<?>>();
+	/** The names known to be missing from each source, in access order, indexed as {@link #sources} */
+	protected final List<LinkedHashMap<String, Boolean>> missing;
+	/** The maximum number of missing names retained per source */
+	protected volatile int negativeCacheSize;
+	/** The number of lookups served from the resolved class cache */
+	protected final AtomicLong hits = new AtomicLong(0L);
+	/** The number of lookups that had to search the sources */
+	protected final AtomicLong misses = new AtomicLong(0L);
+	/** The number of source lookups skipped because the name is known to be missing */
+	protected final AtomicLong negativeHits = new AtomicLong(0L);
+	
+	/** The default maximum number of missing names retained per source */
+	public static final int DEFAULT_NEGATIVE_CACHE_SIZE = 10000;
 
 	/**
 	 * Creates a new HierarchicalClassLoader
@@ -44,6 +71,32 @@ public class HierarchicalClassLoader extends ClassLoader {
 	public HierarchicalClassLoader(ClassLoader parent, ClassLoader...delegates) {
 		super(parent);
 		this.delegates = (delegates==null||delegates.length==0) ? new ClassLoader[0] : delegates;
+		sources = new ClassLoader[this.delegates.length+1];
+		sources[0] = parent;
+		System.arraycopy(this.delegates, 0, sources, 1, this.delegates.length);
+		negativeCacheSize = DEFAULT_NEGATIVE_CACHE_SIZE;
+		missing = new ArrayList<LinkedHashMap<String, Boolean>>(sources.length);
+		for(int i = 0; i < sources.length; i++) {
+			missing.add(new LinkedHashMap<String, Boolean>(256, 0.75f, true) {
+				private static final long serialVersionUID = 2046717366245012337L;
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+					return size() > negativeCacheSize;
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Resolves all classes through the caches, since this loader defines none of its own
+	 * {@inheritDoc}
+	 * @see java.lang.ClassLoader#loadClass(java.lang.String, boolean)
+	 */
+	@Override
+	protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+		Class<?> clazz = findClass(name);
+		if(resolve) resolveClass(clazz);
+		return clazz;
 	}
 	
 	/**
@@ -51,18 +104,131 @@ public class HierarchicalClassLoader extends ClassLoader {
 	 * @see java.lang.ClassLoader#findClass(java.lang.String)
 	 */
 	public Class<?> findClass(String name) throws ClassNotFoundException {
-		Class<?> clazz = null;	
-		try { 
-			clazz = this.getParent().loadClass(name);
+		Class<?> clazz = resolved.get(name);
+		if(clazz!=null) {
+			hits.incrementAndGet();
 			return clazz;
-		} catch (ClassNotFoundException ex) { /* No Op */ }
-		for(int i = 0; i < delegates.length; i++) {
+		}
+		misses.incrementAndGet();
+		for(int i = 0; i < sources.length; i++) {
+			final Map<String, Boolean> sourceMissing = missing.get(i);
+			synchronized(sourceMissing) {
+				if(sourceMissing.get(name)!=null) {
+					negativeHits.incrementAndGet();
+					continue;
+				}
+			}
 			try {
-				clazz = delegates[i].loadClass(name);
-				return clazz;
-			}  catch (ClassNotFoundException ex) { /* No Op */ }
+				clazz = sources[i].loadClass(name);
+				Class<?> existing = resolved.putIfAbsent(name, clazz);
+				return existing==null ? clazz : existing;
+			} catch (ClassNotFoundException ex) {
+				synchronized(sourceMissing) {
+					sourceMissing.put(name, Boolean.TRUE);
+				}
+			}
 		}
-		throw new ClassNotFoundException("Could not load the class [" + name + "]");
+		throw new MissingClassException(name);
 	}
+	
+	/**
+	 * Clears the resolved class cache and the missing name caches
+	 */
+	public void flush() {
+		resolved.clear();
+		for(Map<String, Boolean> sourceMissing: missing) {
+			synchronized(sourceMissing) {
+				sourceMissing.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of cached resolved classes
+	 * @return the number of cached resolved classes
+	 */
+	public int getCacheSize() {
+		return resolved.size();
+	}
+	
+	/**
+	 * Returns the total number of cached missing names across all sources
+	 * @return the number of cached missing names
+	 */
+	public int getNegativeCacheEntries() {
+		int total = 0;
+		for(Map<String, Boolean> sourceMissing: missing) {
+			synchronized(sourceMissing) {
+				total += sourceMissing.size();
+			}
+		}
+		return total;
+	}
+	
+	/**
+	 * Returns the maximum number of missing names retained per source
+	 * @return the maximum number of missing names retained per source
+	 */
+	public int getNegativeCacheSize() {
+		return negativeCacheSize;
+	}
+
+	/**
+	 * Sets the maximum number of missing names retained per source. A smaller size takes effect as new names are added.
+	 * @param negativeCacheSize the maximum number of missing names retained per source
+	 */
+	public void setNegativeCacheSize(int negativeCacheSize) {
+		if(negativeCacheSize<0) throw new IllegalArgumentException("Invalid negative cache size [" + negativeCacheSize + "]");
+		this.negativeCacheSize = negativeCacheSize;
+	}
+	
+	/**
+	 * Returns the number of lookups served from the resolved class cache
+	 * @return the number of cache hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of lookups that had to search the sources
+	 * @return the number of cache misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of source lookups skipped because the name is known to be missing from the source
+	 * @return the number of negative cache hits
+	 */
+	public long getNegativeHits() {
+		return negativeHits.get();
+	}
+	
+	/**
+	 * <p>Title: MissingClassException</p>
+	 * <p>Description: A ClassNotFoundException without a stack trace. Missing classes are an expected, frequent outcome
+	 * of groovy compiles and class resolver probes, and the stack trace would cost more than the lookup.</p> 
+	 */
+	protected static class MissingClassException extends ClassNotFoundException {
+		private static final long serialVersionUID = -5227373788632716307L;
 
+		/**
+		 * Creates a new MissingClassException
+		 * @param name The name of the class that could not be loaded
+		 */
+		protected MissingClassException(String name) {
+			super("Could not load the class [" + name + "]");
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Throwable#fillInStackTrace()
+		 */
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	}
 }
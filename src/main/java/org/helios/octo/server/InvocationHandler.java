@@ -25,21 +25,84 @@
 package org.helios.octo.server;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.MessageList;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.ScheduledFuture;
+import groovy.lang.Binding;
+import groovy.lang.Script;
 
 import java.io.PrintStream;
-import java.util.Arrays;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.helios.octo.protocol.CancelReason;
+import org.helios.octo.protocol.CompressionCodec;
+import org.helios.octo.protocol.Frame;
+import org.helios.octo.protocol.FrameCompressor;
+import org.helios.octo.protocol.FrameType;
+import org.helios.octo.protocol.PriorityClass;
+import org.helios.octo.protocol.RejectReason;
+import org.helios.octo.protocol.ValueCodec;
+import org.helios.octo.server.admission.AdmissionControl;
+import org.helios.octo.server.admission.Rejection;
+import org.helios.octo.server.cache.CachedResult;
+import org.helios.octo.server.cache.ResultCache;
+import org.helios.octo.server.invocation.InvocationRequest;
+import org.helios.octo.server.invocation.Prioritized;
+import org.helios.octo.server.invocation.ScriptCache;
+import org.helios.octo.server.invocation.ScriptRegistry;
+import org.helios.octo.server.invocation.StoredScript;
 import org.helios.octo.server.io.ChannelOutputStream;
-import org.helios.octo.util.NettyUtil;
+import org.helios.octo.server.io.OutputCapture;
+import org.helios.octo.server.io.SpillDrainer;
+import org.helios.octo.server.io.SystemStreamRedirector;
+import org.helios.octo.server.io.WritabilityGate;
+import org.helios.octo.server.metrics.ScriptAccounting;
+import org.helios.octo.server.metrics.ServerMetrics;
+import org.helios.octo.server.streams.StreamChunk;
+import org.helios.octo.util.DigestTable;
+import org.helios.octo.util.DigestUtil;
 
 /**
  * <p>Title: InvocationHandler</p>
- * <p>Description: </p> 
+ * <p>Description: Receives decoded {@link InvocationRequest}s and hands them off to the script executor
+ * so that script execution never runs on the netty worker event loop. Invocations are queued by their request's {@link PriorityClass}. Scripts are compiled through the
+ * {@link ScriptCache} and run with the request arguments bound as <b><code>args</code></b>.
+ * Each connection keeps a {@link DigestTable} so clients can send a script digest in place of script text
+ * they have already sent on the same connection. A request for a stored script carries only the script name, which is resolved
+ * through the {@link ScriptRegistry}. A request for an unknown name is answered with an {@link FrameType#ERROR} frame, then a {@link FrameType#END} frame.</p>
+ * <p>Each invocation is answered with its output frames, then a {@link FrameType#RESULT} or {@link FrameType#ERROR} frame,
+ * then a {@link FrameType#END} frame.</p>
+ * <p>A request is stopped when the client sends a {@link FrameType#CANCEL} frame for it, when its deadline expires or when its channel closes.
+ * A queued request is removed from the queue. A running request's script thread is interrupted and its output is abandoned.
+ * A stopped request is answered with a {@link FrameType#CANCELLED} frame in place of its result, then a {@link FrameType#END} frame.</p>
+ * <p>Each request must be admitted by the {@link AdmissionControl} before it is queued. A request that is refused, or that does not fit
+ * in the script execution queue, is answered with a {@link FrameType#REJECTED} frame, then a {@link FrameType#END} frame.</p> 
+ * <p>A request that carries a cache TTL is first looked up in the {@link ResultCache}. A hit is answered with the cached output and result
+ * without being queued. It is charged against the request rates but takes no invocation slot. A miss runs normally and, if it returns a value, its output and result are cached.</p>
+ * <p>An admitted request with the same script digest and arguments as a request already in flight is coalesced with it, unless either opted out.
+ * The coalesced request is not queued. When the in-flight request completes, the coalesced request is answered with a copy of its output
+ * and its result or error. If the in-flight request is stopped, or its output exceeds {@link #MAX_COALESCED_OUTPUT}, the coalesced requests are run on their own.</p>
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.octo.server.InvocationHandler</code></p>
@@ -48,12 +111,78 @@ import org.helios.octo.util.NettyUtil;
 public class InvocationHandler extends ChannelInboundHandlerAdapter {
 	/** Instance logger */
 	protected final Logger log = Logger.getLogger(getClass());
+	/** The executor that script invocations are run in */
+	protected final Executor executor;
+	/** The compiled script cache */
+	protected final ScriptCache scriptCache;
+	
+	/** The maximum number of script digests retained per connection */
+	protected final int digestTableSize;
+	/** The number of digest only requests that could not be resolved */
+	protected final AtomicLong unknownDigests = new AtomicLong(0L);
+	/** The registry of named stored scripts */
+	protected final ScriptRegistry scriptRegistry;
+	/** The number of stored script requests for a name that is not registered */
+	protected final AtomicLong unknownScripts = new AtomicLong(0L);
+	/** The metrics the invocation latencies are recorded to */
+	protected final ServerMetrics metrics;
+	/** The per connection and per client request limits */
+	protected final AdmissionControl admission;
+	/** The cache of the results of cacheable requests */
+	protected final ResultCache resultCache;
+	/** The invocations identical requests are coalesced with, keyed by coalescing key */
+	protected final ConcurrentMap<String, InvocationTask> inFlight = new ConcurrentHashMap<String, InvocationTask>();
+	/** Indicates if identical in-flight requests are coalesced */
+	protected volatile boolean coalescing = true;
+	
+	/** The binding name of the invocation arguments */
+	public static final String ARGS_BINDING = "args";
+	/** The binding name of the request's std-out print stream */
+	public static final String OUT_BINDING = "out";
+	/** The binding name of the request's std-err print stream */
+	public static final String ERR_BINDING = "err";
+	/** The maximum output in bytes an invocation keeps for the requests coalesced with it */
+	public static final int MAX_COALESCED_OUTPUT = 1024 * 1024;
+	/** The attribute key for the per connection digest table */
+	public static final AttributeKey<DigestTable> DIGEST_TABLE = new AttributeKey<DigestTable>("OctoServerDigestTable");
+	/** The attribute key for the per connection invocations that have been accepted and not completed, keyed by request id */
+	public static final AttributeKey<ConcurrentMap<Long, InvocationTask>> INVOCATIONS = new AttributeKey<ConcurrentMap<Long, InvocationTask>>("OctoServerInvocations");
+	/** The name of the std-out stream adapter in the server pipeline */
+	public static final String OUT_ADAPTER = "out";
+	/** The name of the std-err stream adapter in the server pipeline */
+	public static final String ERR_ADAPTER = "err";
+	
+	/** The state of a task waiting for a script thread */
+	protected static final int QUEUED = 0;
+	/** The state of a task whose script is running */
+	protected static final int RUNNING = 1;
+	/** The state of a task that has been answered, or whose script has stopped */
+	protected static final int DONE = 2;
 	
 	/**
 	 * Creates a new InvocationHandler
+	 * @param executor The executor that script invocations are run in
+	 * @param scriptCache The compiled script cache
+	 * @param digestTableSize The maximum number of script digests retained per connection
+	 * @param metrics The metrics the invocation latencies are recorded to
+	 * @param admission The per connection and per client request limits
+	 * @param resultCache The cache of the results of cacheable requests
+	 * @param scriptRegistry The registry of named stored scripts
 	 */
-	public InvocationHandler() {
-		
+	public InvocationHandler(Executor executor, ScriptCache scriptCache, int digestTableSize, ServerMetrics metrics, AdmissionControl admission, ResultCache resultCache, ScriptRegistry scriptRegistry) {
+		if(executor==null) throw new IllegalArgumentException("The passed executor was null");
+		if(scriptCache==null) throw new IllegalArgumentException("The passed script cache was null");
+		if(metrics==null) throw new IllegalArgumentException("The passed metrics was null");
+		if(admission==null) throw new IllegalArgumentException("The passed admission control was null");
+		if(resultCache==null) throw new IllegalArgumentException("The passed result cache was null");
+		if(scriptRegistry==null) throw new IllegalArgumentException("The passed script registry was null");
+		this.executor = executor;
+		this.scriptCache = scriptCache;
+		this.digestTableSize = digestTableSize;
+		this.metrics = metrics;
+		this.admission = admission;
+		this.resultCache = resultCache;
+		this.scriptRegistry = scriptRegistry;
 	}
 	
 	/**
@@ -62,48 +191,654 @@ public class InvocationHandler extends ChannelInboundHandlerAdapter {
 	 */
 	@Override
 	public void channelActive(ChannelHandlerContext ctx) throws Exception {		
+		ctx.channel().attr(DIGEST_TABLE).set(new DigestTable(digestTableSize));
+		ctx.channel().attr(INVOCATIONS).set(new ConcurrentHashMap<Long, InvocationTask>());
+		admission.opened(ctx.channel());
 		super.channelActive(ctx);
 	}
 	
+	/**
+	 * Stops the channel's invocations so they no longer consume script threads
+	 * {@inheritDoc}
+	 * @see io.netty.channel.ChannelInboundHandlerAdapter#channelInactive(io.netty.channel.ChannelHandlerContext)
+	 */
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		ConcurrentMap<Long, InvocationTask> invocations = ctx.channel().attr(INVOCATIONS).get();
+		if(invocations!=null) {
+			for(InvocationTask task: invocations.values()) {
+				task.cancel(CancelReason.DISCONNECT);
+			}
+		}
+		admission.closed(ctx.channel());
+		super.channelInactive(ctx);
+	}
+	
+	/**
+	 * Closes the channel. A decoder exception leaves the offending bytes buffered, so every later read would fail the same way.
+	 * Closing the channel stops the channel's invocations through {@link #channelInactive(ChannelHandlerContext)}.
+	 * {@inheritDoc}
+	 * @see io.netty.channel.ChannelInboundHandlerAdapter#exceptionCaught(io.netty.channel.ChannelHandlerContext, java.lang.Throwable)
+	 */
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+		if(ctx.channel().isActive()) {
+			log.error("Exception caught in pipeline of [" + ctx.channel().remoteAddress() + "], closing the channel", cause);
+			ctx.close();
+		} else if(log.isDebugEnabled()) {
+			log.debug("Exception caught in pipeline of closed channel [" + ctx.channel().remoteAddress() + "]", cause);
+		}
+	}
+	
 
+	/**
+	 * Releases script threads blocked on output and resumes spill draining when the channel drains below its low water mark
+	 * {@inheritDoc}
+	 * @see io.netty.channel.ChannelInboundHandlerAdapter#channelWritabilityChanged(io.netty.channel.ChannelHandlerContext)
+	 */
+	@Override
+	public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+		if(ctx.channel().isWritable()) {
+			WritabilityGate gate = ctx.channel().attr(WritabilityGate.GATE).get();
+			if(gate!=null) gate.signal();
+			SpillDrainer drainer = ctx.channel().attr(SpillDrainer.DRAINER).get();
+			if(drainer!=null) drainer.schedule();
+		}
+		super.channelWritabilityChanged(ctx);
+	}
 	
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.channel.ChannelInboundHandlerAdapter#messageReceived(io.netty.channel.ChannelHandlerContext, io.netty.channel.MessageList)
+	 */
 	@Override
 	public void messageReceived(ChannelHandlerContext ctx, MessageList<Object> msgs) throws Exception {
-		StringBuilder b = new StringBuilder("\n======= Invocation ======");
-		int cnt = 0;
+		final Channel channel = ctx.channel();
 		for(Object obj: msgs) {
-			b.append("\n\t [").append(cnt).append("] ");
-			if(obj instanceof ByteBuf) {
-				ByteBuf buff = (ByteBuf)obj;
-				log.info(NettyUtil.formatBuffer(buff));
-				byte[] bytes = new byte[buff.readableBytes()];
-				buff.readBytes(bytes);
-				b.append(new String(bytes));
+			if(obj instanceof InvocationRequest) {
+				InvocationRequest request = (InvocationRequest)obj;
+				// Digests are resolved here, in arrival order, so a full request
+				// always registers its script before later digest only requests run
+				if(!resolveScript(ctx, request)) continue;
+				if(request.getCacheKey()!=null && resultCache.isEnabled()) {
+					CachedResult cached = resultCache.get(request.getCacheKey());
+					if(cached!=null) {
+						Rejection rejection = admission.admitRate(channel);
+						if(rejection!=null) {
+							if(log.isDebugEnabled()) log.debug("Refused cached invocation [" + request.getRequestId() + "] from [" + channel.remoteAddress() + "]:" + rejection);
+							reject(channel, request.getRequestId(), rejection.getReason(), rejection.getRetryAfter());
+							continue;
+						}
+						metrics.invocationAccepted();
+						metrics.invocationCompleted(request.getReceivedTime(), 0L);
+						replay(channel, request.getRequestId(), cached.getOutput(), cached.getStreams(), FrameType.RESULT, cached.getResult());
+						continue;
+					}
+				}
+				Rejection rejection = admission.admit(channel);
+				if(rejection!=null) {
+					if(log.isDebugEnabled()) log.debug("Refused invocation [" + request.getRequestId() + "] from [" + channel.remoteAddress() + "]:" + rejection);
+					reject(channel, request.getRequestId(), rejection.getReason(), rejection.getRetryAfter());
+					continue;
+				}
+				metrics.invocationAccepted();
+				InvocationTask task = new InvocationTask(channel, request);
+				channel.attr(INVOCATIONS).get().put(request.getRequestId(), task);
+				task.scheduleDeadline();
+				if(!join(task)) dispatch(task);
+			} else if(obj instanceof Frame && ((Frame)obj).getType()==FrameType.PING) {
+				ctx.write(new Frame(FrameType.PONG, ((Frame)obj).getRequestId()));
+			} else if(obj instanceof Frame && ((Frame)obj).getType()==FrameType.CANCEL) {
+				InvocationTask task = channel.attr(INVOCATIONS).get().get(((Frame)obj).getRequestId());
+				if(task!=null) {
+					task.cancel(CancelReason.CLIENT);
+				} else if(log.isDebugEnabled()) {
+					log.debug("Ignoring cancel for request [" + ((Frame)obj).getRequestId() + "] which is not in progress");
+				}
+			} else if(obj instanceof Frame && ((Frame)obj).getType()==FrameType.HELLO) {
+				hello(ctx, (Frame)obj);
 			} else {
-				if(obj.getClass().isArray()) {
-					b.append("[").append(Arrays.toString((Object[])obj)).append("]");
-				} else {
-					b.append("[").append(obj).append("]");
+				log.warn("Unexpected message type [" + (obj==null ? "null" : obj.getClass().getName()) + "]");
+			}
+		}
+		msgs.releaseAllAndRecycle();
+	}
+	
+	/**
+	 * Coalesces a task with an identical in-flight invocation, which answers it when it completes
+	 * @param task The task to coalesce
+	 * @return true if the task was coalesced, false if it must be run
+	 */
+	protected boolean join(InvocationTask task) {
+		if(!rejoin(task)) return false;
+		metrics.invocationCoalesced();
+		return true;
+	}
+	
+	/**
+	 * Coalesces a task with an identical in-flight invocation without counting it, for a task already counted as coalesced
+	 * @param task The task to coalesce
+	 * @return true if the task was coalesced, false if it must be run
+	 */
+	protected boolean rejoin(InvocationTask task) {
+		final String key = task.request.getCoalesceKey();
+		if(key==null || !coalescing) return false;
+		InvocationTask leader = inFlight.get(key);
+		return leader!=null && leader.follow(task);
+	}
+	
+	/**
+	 * Queues a task for a script thread. A task that may be coalesced becomes the invocation identical requests are
+	 * coalesced with, unless another one already is. A task that does not fit in the queue is answered with a rejected frame.
+	 * @param task The task to queue
+	 */
+	protected void dispatch(InvocationTask task) {
+		final String key = task.request.getCoalesceKey();
+		if(key!=null && coalescing && inFlight.putIfAbsent(key, task)==null) task.leading = true;
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException rex) {
+			log.warn("Rejected invocation [" + task.request.getRequestId() + "]:" + rex.getMessage());
+			synchronized(task) {
+				if(task.state!=QUEUED) return;
+				task.state = DONE;
+			}
+			task.finish();
+			metrics.invocationAbandoned();
+			reject(task.channel, task.request.getRequestId(), RejectReason.QUEUE_FULL, 0);
+			redispatch(task.seal(), true);
+		}
+	}
+	
+	/**
+	 * Runs the coalesced requests of an invocation that cannot answer them. The first request run is coalesced with by the rest,
+	 * unless the invocation's output was too large to be copied. Requests that have been stopped are skipped.
+	 * @param followers The coalesced requests
+	 * @param recoalesce true if the requests may be coalesced again
+	 */
+	protected void redispatch(List<InvocationTask> followers, boolean recoalesce) {
+		for(InvocationTask follower: followers) {
+			synchronized(follower) {
+				if(follower.state!=QUEUED) continue;
+			}
+			if(recoalesce && rejoin(follower)) continue;
+			if(!recoalesce) follower.request.setCoalesce(false);
+			dispatch(follower);
+		}
+	}
+	
+	/**
+	 * Selects the compression codec for the connection from the codecs offered in a client hello, and replies with the selection
+	 * @param ctx The invocation handler context
+	 * @param hello The client hello frame
+	 */
+	protected void hello(ChannelHandlerContext ctx, Frame hello) {
+		FrameCompressor compressor = ctx.pipeline().get(FrameCompressor.class);
+		CompressionCodec codec = compressor==null ? CompressionCodec.NONE : compressor.select(ctx.channel(), hello.getPayload());
+		if(log.isDebugEnabled()) log.debug("Selected compression [" + codec + "] for [" + ctx.channel() + "]");
+		ctx.write(new Frame(FrameType.HELLO, hello.getRequestId(), ctx.alloc().buffer(1).writeByte(codec.code)));
+	}
+	
+	/**
+	 * Registers the script text of a full request in the connection's digest table, or resolves the
+	 * script text of a digest only request. If the digest is unknown, the client is told to resend the full text.
+	 * The script of a stored script request is resolved from the registry.
+	 * @param ctx The invocation handler context
+	 * @param request The invocation request
+	 * @return true if the request has script text and can be executed, false otherwise
+	 */
+	protected boolean resolveScript(ChannelHandlerContext ctx, InvocationRequest request) {
+		if(request.isNamed()) {
+			StoredScript stored = scriptRegistry.get(request.getScriptName());
+			if(stored==null) {
+				unknownScripts.incrementAndGet();
+				MessageList<Object> frames = MessageList.newInstance(2);
+				frames.add(new Frame(FrameType.ERROR, request.getRequestId(), encode(ctx.channel(), new IllegalArgumentException("Unknown stored script [" + request.getScriptName() + "]"), true)));
+				frames.add(new Frame(FrameType.END, request.getRequestId()));
+				ctx.write(frames);
+				return false;
+			}
+			request.resolve(stored.getText(), stored.getDigest());
+			return true;
+		}
+		DigestTable table = ctx.channel().attr(DIGEST_TABLE).get();
+		if(request.isDigestOnly()) {
+			String scriptText = table.get(request.getHexDigest());
+			if(scriptText==null) {
+				unknownDigests.incrementAndGet();
+				ctx.write(new Frame(FrameType.UNKNOWN_DIGEST, request.getRequestId()));
+				return false;
+			}
+			request.setScriptText(scriptText);
+		} else {
+			// Never trust the client's digest for the shared script cache
+			String digest = DigestUtil.hexDigest(request.getScriptText());
+			if(!digest.equals(request.getHexDigest())) {
+				log.warn("Request [" + request.getRequestId() + "] digest mismatch. Supplied [" + request.getHexDigest() + "], computed [" + digest + "]");
+				// The cache and coalescing keys are built from the supplied digest, so the request must not be matched by them
+				request.setCacheTtl(0);
+				request.setCoalesce(false);
+				return true;
+			}
+			table.put(digest, request.getScriptText());
+		}
+		return true;
+	}
+	
+	/**
+	 * Writes the terminal frames for a request: a result or error frame followed by an end frame.
+	 * A returned value of a cacheable request is cached with its output, and the requests coalesced with the request are answered.
+	 * @param task The task that ran the request
+	 * @param result The script return value
+	 * @param error The exception thrown by the script, or null if it completed normally
+	 * @param firstOutputTime The nano time the request's first output was handed to the channel, or 0 if there was no output
+	 */
+	protected void complete(InvocationTask task, Object result, Throwable error, long firstOutputTime) {
+		final Channel channel = task.channel;
+		final InvocationRequest request = task.request;
+		final long requestId = request.getRequestId();
+		final FrameType resultType = error==null ? FrameType.RESULT : FrameType.ERROR;
+		final ByteBuf payload = error==null ? encode(channel, result, false) : encode(channel, error, true);
+		final boolean cacheable = error==null && request.getCacheKey()!=null && resultCache.isEnabled();
+		final List<InvocationTask> followers = task.seal();
+		final OutputCapture capture = task.capture;
+		if(capture==null || capture.isOverflowed()) {
+			if(capture!=null && cacheable) resultCache.oversized();
+			redispatch(followers, false);
+		} else if(cacheable || !followers.isEmpty()) {
+			byte[] encoded = new byte[payload.readableBytes()];
+			payload.getBytes(payload.readerIndex(), encoded);
+			byte[][] output = capture.getSegments();
+			boolean[] streams = capture.getStreams();
+			if(cacheable) resultCache.put(new CachedResult(request.getCacheKey(), output, streams, encoded, request.getCacheTtl()));
+			for(InvocationTask follower: followers) {
+				follower.answer(output, streams, resultType, encoded);
+			}
+		}
+		MessageList<Object> frames = MessageList.newInstance(2);
+		frames.add(new Frame(resultType, requestId, payload));
+		frames.add(new Frame(FrameType.END, requestId));
+		metrics.invocationCompleted(request.getReceivedTime(), firstOutputTime);
+		channel.write(frames);
+	}
+	
+	/**
+	 * Answers a request with output and a result produced by another invocation: the output, then a result or error frame and an end frame.
+	 * Output is sent in chunks of no more than the default flush threshold, as a running script's output would be.
+	 * @param channel The channel to write to
+	 * @param requestId The request id
+	 * @param output The output segments in the order they were written
+	 * @param streams The stream of each output segment, true for std-out
+	 * @param resultType {@link FrameType#RESULT} or {@link FrameType#ERROR}
+	 * @param result The encoded result or error
+	 */
+	protected void replay(Channel channel, long requestId, byte[][] output, boolean[] streams, FrameType resultType, byte[] result) {
+		final int chunkSize = ChannelOutputStream.getDefaultFlushThreshold();
+		MessageList<Object> frames = MessageList.newInstance(output.length + 2);
+		for(int i = 0; i < output.length; i++) {
+			FrameType streamType = streams[i] ? FrameType.STDOUT : FrameType.STDERR;
+			for(int offset = 0; offset < output[i].length; offset += chunkSize) {
+				frames.add(new StreamChunk(requestId, streamType, Unpooled.wrappedBuffer(output[i], offset, Math.min(chunkSize, output[i].length - offset))));
+			}
+		}
+		frames.add(new Frame(resultType, requestId, Unpooled.wrappedBuffer(result)));
+		frames.add(new Frame(FrameType.END, requestId));
+		channel.write(frames);
+	}
+	
+	/**
+	 * Answers a request that will not be run with a rejected frame and an end frame
+	 * @param channel The channel to write to
+	 * @param requestId The request id
+	 * @param reason The reason the request was refused
+	 * @param retryAfter The time in ms after which the client may retry, or 0 if unknown
+	 */
+	protected void reject(Channel channel, long requestId, RejectReason reason, int retryAfter) {
+		MessageList<Object> frames = MessageList.newInstance(2);
+		frames.add(new Frame(FrameType.REJECTED, requestId, channel.alloc().buffer(5).writeByte(reason.code).writeInt(retryAfter)));
+		frames.add(new Frame(FrameType.END, requestId));
+		channel.write(frames);
+	}
+	
+	/**
+	 * Drains the request's output streams and writes the terminal frames once all their output, including any spilled
+	 * output, has been handed to the channel. The calling thread does not wait for spilled output to drain.
+	 * @param task The task that ran the request
+	 * @param result The script return value
+	 * @param error The exception thrown by the script, or null if it completed normally
+	 */
+	protected void completeWhenDrained(final InvocationTask task, final Object result, final Throwable error) {
+		final ChannelOutputStream[] streams = {task.outStream, task.errStream};
+		final AtomicInteger remaining = new AtomicInteger(streams.length);
+		final AtomicReference<Throwable> drainError = new AtomicReference<Throwable>(null);
+		GenericFutureListener<Future<Void>> listener = new GenericFutureListener<Future<Void>>() {
+			@Override
+			public void operationComplete(Future<Void> future) throws Exception {
+				if(!future.isSuccess()) drainError.compareAndSet(null, future.cause());
+				if(remaining.decrementAndGet()==0) {
+					Throwable cause = error!=null ? error : drainError.get();
+					long firstOutputTime = 0L;
+					for(ChannelOutputStream stream: streams) {
+						long t = stream.getFirstFlushTime();
+						if(t!=0L && (firstOutputTime==0L || t < firstOutputTime)) firstOutputTime = t;
+					}
+					complete(task, cause==null ? result : null, cause, firstOutputTime);
 				}
 			}
-			
-			cnt++;
+		};
+		for(ChannelOutputStream stream: streams) {
+			stream.drain().addListener(listener);
 		}
-		b.append("\n=================================");
-//		SystemStreamRedirector.install();
-//		SystemStreamRedirector.set(ctx.channel());
-		b.append("\n");
-		byte[] bytes = b.toString().getBytes();
-		PrintStream ps = System.out;
+	}
+	
+	/**
+	 * Encodes a result or error value. A value that cannot be serialized is sent as its string value,
+	 * or for an exception, as a RuntimeException carrying the original message and stack trace.
+	 * @param channel The channel whose allocator should be used
+	 * @param value The value to encode
+	 * @param isError true if the value is an exception
+	 * @return the encoded value
+	 */
+	protected ByteBuf encode(Channel channel, Object value, boolean isError) {
+		ByteBuf payload = channel.alloc().buffer();
 		try {
-			System.setOut(ChannelOutputStream.getInstance(true, ctx.channel()).getPrintStream());
-			log.info("Out Stream:" + System.out.getClass().getSimpleName());
-			System.out.println(b);
-			System.out.flush();
-		} finally {
-			System.setOut(ps);
+			ValueCodec.write(payload, value);
+		} catch (Exception ex) {
+			payload.clear();
+			Serializable fallback = null;
+			if(isError) {
+				Throwable t = (Throwable)value;
+				RuntimeException rex = new RuntimeException(t.toString());
+				rex.setStackTrace(t.getStackTrace());
+				fallback = rex;
+			} else {
+				fallback = String.valueOf(value);
+			}
+			try {
+				ValueCodec.write(payload, fallback);
+			} catch (Exception ex2) {
+				log.error("Failed to encode fallback value", ex2);
+				payload.clear().writeByte(ValueCodec.NULL);
+			}
 		}
-		msgs.releaseAllAndRecycle();
-	}	
+		return payload;
+	}
+	
+	/**
+	 * Indicates if identical in-flight requests are coalesced
+	 * @return true if requests are coalesced
+	 */
+	public boolean isCoalescing() {
+		return coalescing;
+	}
+
+	/**
+	 * Sets whether identical in-flight requests are coalesced. Requests already coalesced are still answered.
+	 * @param coalescing true to coalesce requests
+	 */
+	public void setCoalescing(boolean coalescing) {
+		this.coalescing = coalescing;
+	}
+	
+	/**
+	 * Returns the number of digest only requests that could not be resolved
+	 * @return the number of unknown digests
+	 */
+	public long getUnknownDigestCount() {
+		return unknownDigests.get();
+	}
+	
+	/**
+	 * Returns the number of stored script requests for a name that is not registered
+	 * @return the unknown stored script count
+	 */
+	public long getUnknownStoredScriptCount() {
+		return unknownScripts.get();
+	}
+	
+	/**
+	 * <p>Title: InvocationTask</p>
+	 * <p>Description: Runs a single invocation in a script execution thread, writing output back to the channel asynchronously.
+	 * The task moves from queued to running to done. A cancel is only acted on before the task is done.</p> 
+	 */
+	protected class InvocationTask implements Runnable, Prioritized {
+		/** The channel the invocation was received on */
+		protected final Channel channel;
+		/** The invocation request */
+		protected final InvocationRequest request;
+		/** The nano time the task was queued */
+		protected final long queuedTime = System.nanoTime();
+		/** The task state, guarded by the task's monitor */
+		protected int state = QUEUED;
+		/** The thread running the script, guarded by the task's monitor */
+		protected Thread runner = null;
+		/** The request's std-out stream, set when the task starts running */
+		protected ChannelOutputStream outStream = null;
+		/** The request's std-err stream, set when the task starts running */
+		protected ChannelOutputStream errStream = null;
+		/** The reason the invocation was stopped, or null */
+		protected volatile CancelReason cancelReason = null;
+		/** The deadline timer, or null if the request has no deadline */
+		protected volatile ScheduledFuture<?> deadline = null;
+		/** The copy of the output kept for the result cache and the coalesced requests, set when the task starts running */
+		protected OutputCapture capture = null;
+		/** Indicates if identical requests are coalesced with this task */
+		protected volatile boolean leading = false;
+		/** The requests coalesced with this task, guarded by the task's monitor */
+		protected List<InvocationTask> followers = null;
+		/** Indicates if the task accepts no more coalesced requests, guarded by the task's monitor */
+		protected boolean sealed = false;
+		
+		/**
+		 * Creates a new InvocationTask
+		 * @param channel The channel the invocation was received on
+		 * @param request The invocation request
+		 */
+		protected InvocationTask(Channel channel, InvocationRequest request) {
+			this.channel = channel;
+			this.request = request;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.octo.server.invocation.Prioritized#getPriority()
+		 */
+		@Override
+		public PriorityClass getPriority() {
+			return request.getPriority();
+		}
+		
+		/**
+		 * Schedules the cancellation of the task on the channel's event loop when the request's deadline expires
+		 */
+		protected void scheduleDeadline() {
+			final int timeout = request.getTimeout();
+			if(timeout<=0) return;
+			final long received = request.getReceivedTime()==0L ? queuedTime : request.getReceivedTime();
+			final long delay = TimeUnit.MILLISECONDS.toNanos(timeout) - (System.nanoTime() - received);
+			deadline = channel.eventLoop().schedule(new Runnable() {
+				@Override
+				public void run() {
+					cancel(CancelReason.DEADLINE);
+				}
+			}, Math.max(0L, delay), TimeUnit.NANOSECONDS);
+		}
+		
+		/**
+		 * Coalesces a request with this task. A request is not coalesced with a task that has been stopped or has answered
+		 * its coalesced requests, or with a queued task of a lower priority class.
+		 * @param follower The task of the request to coalesce
+		 * @return true if the request was coalesced
+		 */
+		protected synchronized boolean follow(InvocationTask follower) {
+			if(sealed || cancelReason!=null) return false;
+			if(state==QUEUED && follower.getPriority().code < getPriority().code) return false;
+			if(followers==null) followers = new ArrayList<InvocationTask>();
+			followers.add(follower);
+			return true;
+		}
+		
+		/**
+		 * Stops this task accepting coalesced requests
+		 * @return the requests coalesced with this task
+		 */
+		protected synchronized List<InvocationTask> seal() {
+			sealed = true;
+			if(leading) inFlight.remove(request.getCoalesceKey(), this);
+			return followers==null ? Collections.<InvocationTask>emptyList() : followers;
+		}
+		
+		/**
+		 * Answers a coalesced request with the output and result of the invocation it was coalesced with, unless it has been stopped
+		 * @param output The output segments in the order they were written
+		 * @param streams The stream of each output segment, true for std-out
+		 * @param resultType {@link FrameType#RESULT} or {@link FrameType#ERROR}
+		 * @param result The encoded result or error
+		 */
+		protected void answer(byte[][] output, boolean[] streams, FrameType resultType, byte[] result) {
+			synchronized(this) {
+				if(state!=QUEUED) return;
+				state = DONE;
+			}
+			finish();
+			metrics.invocationCompleted(request.getReceivedTime(), 0L);
+			replay(channel, request.getRequestId(), output, streams, resultType, result);
+		}
+		
+		/**
+		 * Stops the invocation. A queued invocation is removed from the queue and answered at once.
+		 * A running invocation's output is abandoned and its script thread is interrupted. The script thread
+		 * answers the request when the script stops. Never blocks.
+		 * @param reason The reason the invocation is stopped
+		 */
+		protected void cancel(CancelReason reason) {
+			synchronized(this) {
+				if(state==DONE || cancelReason!=null) return;
+				cancelReason = reason;
+				if(state==RUNNING) {
+					outStream.cancel();
+					errStream.cancel();
+					runner.interrupt();
+					return;
+				}
+				state = DONE;
+			}
+			// Frees the queue slot and the request's arguments now rather than when a script thread reaches the task
+			if(executor instanceof ThreadPoolExecutor) ((ThreadPoolExecutor)executor).remove(this);
+			finish();
+			cancelled();
+			redispatch(seal(), true);
+		}
+		
+		/**
+		 * Removes the task from the channel's invocations, stops the deadline timer and frees the task's admission slots
+		 */
+		protected void finish() {
+			admission.release(channel);
+			ScheduledFuture<?> timer = deadline;
+			if(timer!=null) timer.cancel(false);
+			ConcurrentMap<Long, InvocationTask> invocations = channel.attr(INVOCATIONS).get();
+			if(invocations!=null) invocations.remove(request.getRequestId(), this);
+		}
+		
+		/**
+		 * Answers a stopped request with a cancelled frame and an end frame
+		 */
+		protected void cancelled() {
+			final CancelReason reason = cancelReason;
+			final long requestId = request.getRequestId();
+			metrics.invocationCancelled(reason);
+			if(log.isDebugEnabled()) log.debug("Invocation [" + requestId + "] cancelled:" + reason);
+			if(!channel.isActive()) return;
+			MessageList<Object> frames = MessageList.newInstance(2);
+			frames.add(new Frame(FrameType.CANCELLED, requestId, channel.alloc().buffer(1).writeByte(reason.code)));
+			frames.add(new Frame(FrameType.END, requestId));
+			channel.write(frames);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			final long startTime = System.nanoTime();
+			final Thread current = Thread.currentThread();
+			final ClassLoader tccl = current.getContextClassLoader();
+			final long requestId = request.getRequestId();
+			// Each request gets its own streams so concurrent requests on one channel are framed apart
+			final ChannelOutputStream outStream = ChannelOutputStream.getInstance(true, channel, requestId);
+			final ChannelOutputStream errStream = ChannelOutputStream.getInstance(false, channel, requestId);
+			final boolean cacheable = request.getCacheKey()!=null && resultCache.isEnabled();
+			if(cacheable || leading) {
+				capture = new OutputCapture(cacheable ? Math.max(resultCache.getMaxResultSize(), MAX_COALESCED_OUTPUT) : MAX_COALESCED_OUTPUT);
+				outStream.setCapture(capture);
+				errStream.setCapture(capture);
+			}
+			synchronized(this) {
+				// A task cancelled while queued has already been answered
+				if(state!=QUEUED) return;
+				state = RUNNING;
+				runner = current;
+				this.outStream = outStream;
+				this.errStream = errStream;
+			}
+			metrics.invocationStarted(startTime - queuedTime, request.getPriority());
+			if(!channel.isActive()) {
+				log.warn("Channel closed before invocation [" + requestId + "] could run");
+				cancel(CancelReason.DISCONNECT);
+			}
+			Object result = null;
+			Throwable error = null;
+			// Thread counters cover compilation too, so a script's first invocation carries its compile cost
+			final long startCpu = ScriptAccounting.threadCpuTime();
+			final long startUser = ScriptAccounting.threadUserTime();
+			final long startAllocated = ScriptAccounting.threadAllocatedBytes();
+			if(cancelReason==null) {
+				try {
+					PrintStream out = outStream.getPrintStream();
+					PrintStream err = errStream.getPrintStream();
+					SystemStreamRedirector.set(out, err);
+					current.setContextClassLoader(scriptCache.getClassLoader());
+					Class<? extends Script> scriptClass = request.isDigestOnly() || request.isNamed() ?
+							scriptCache.getScriptClass(request.getHexDigest(), request.getScriptText()) :
+							scriptCache.getScriptClass(request.getScriptText());
+					Binding binding = new Binding();
+					binding.setVariable(ARGS_BINDING, request.getArguments()==null ? new Object[0] : request.getArguments());
+					// Script.println resolves "out" from the binding before falling back to System.out
+					binding.setVariable(OUT_BINDING, out);
+					binding.setVariable(ERR_BINDING, err);
+					Script script = InvokerHelper.createScript(scriptClass, binding);
+					result = script.run();
+				} catch (Throwable t) {
+					if(log.isDebugEnabled()) log.debug("Invocation [" + requestId + "] failed", t);
+					error = t;
+				} finally {
+					current.setContextClassLoader(tccl);
+					SystemStreamRedirector.reset();
+				}
+			}
+			synchronized(this) {
+				state = DONE;
+				runner = null;
+			}
+			// A cancel's interrupt must not leak into the next task run by this thread
+			Thread.interrupted();
+			metrics.invocationExecuted(System.nanoTime() - startTime);
+			metrics.getScriptAccounting().record(request.getHexDigest(), request.getScriptText(),
+					ScriptAccounting.threadCpuTime() - startCpu, ScriptAccounting.threadUserTime() - startUser,
+					ScriptAccounting.threadAllocatedBytes() - startAllocated, error!=null);
+			finish();
+			if(cancelReason!=null) {
+				// The streams may have been busy when they were cancelled, so their output is released here
+				outStream.cancel();
+				errStream.cancel();
+				cancelled();
+				redispatch(seal(), true);
+			} else {
+				completeWhenDrained(this, result, error);
+			}
+		}
+	}
 
 }
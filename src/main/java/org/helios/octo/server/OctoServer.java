@@ -25,11 +25,11 @@
 package org.helios.octo.server;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
-import io.netty.channel.ChannelHandler;
-import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
@@ -38,24 +38,44 @@ import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.serialization.ClassResolver;
 import io.netty.handler.codec.serialization.ClassResolvers;
-import io.netty.handler.codec.serialization.ObjectDecoder;
-import io.netty.handler.codec.serialization.ObjectEncoder;
-import io.netty.handler.codec.string.StringEncoder;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.util.internal.logging.InternalLoggerFactory;
 import io.netty.util.internal.logging.Log4JLoggerFactory;
 
+import java.io.File;
 import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Logger;
+import org.helios.octo.protocol.CompressionCodec;
+import org.helios.octo.protocol.FrameCompressor;
+import org.helios.octo.protocol.FrameDecoder;
+import org.helios.octo.protocol.FrameDecompressor;
+import org.helios.octo.protocol.FrameEncoder;
+import org.helios.octo.protocol.FrameType;
+import org.helios.octo.protocol.OctoProtocol;
+import org.helios.octo.protocol.RequestDecoder;
+import org.helios.octo.server.admission.AdmissionControl;
+import org.helios.octo.server.cache.ResultCache;
+import org.helios.octo.server.invocation.PriorityTaskQueue;
+import org.helios.octo.server.invocation.ScriptCache;
+import org.helios.octo.server.invocation.ScriptRegistry;
+import org.helios.octo.server.invocation.ScriptExecutor;
+import org.helios.octo.server.io.BackpressurePolicy;
+import org.helios.octo.server.io.ChannelOutputStream;
+import org.helios.octo.server.io.SpillFile;
 import org.helios.octo.server.io.SystemStreamRedirector;
+import org.helios.octo.server.io.WritabilityGate;
+import org.helios.octo.server.metrics.MetricsHandler;
+import org.helios.octo.server.metrics.ServerMetrics;
 import org.helios.octo.server.streams.StreamOutputAdapter;
+import org.helios.octo.util.DigestTable;
 
 /**
  * <p>Title: OctoServer</p>
@@ -66,6 +86,11 @@ import org.helios.octo.server.streams.StreamOutputAdapter;
  */
 
 public class OctoServer implements OctoServerMBean {
+	/** The default child channel write buffer high water mark in bytes */
+	public static final int DEFAULT_HIGH_WATER_MARK = 256 * 1024;
+	/** The default child channel write buffer low water mark in bytes */
+	public static final int DEFAULT_LOW_WATER_MARK = 128 * 1024;
+	
 	/** The listening port */
 	protected int port = -1;
 	/** The interface to bind to */
@@ -74,6 +99,8 @@ public class OctoServer implements OctoServerMBean {
 	protected ObjectName classLoaderRef = null;
 	/** The classloader to use for the script invocation handler */
 	protected ClassLoader classLoader = null;
+	/** The hierarchical classloader scripts are compiled against */
+	protected ClassLoader scriptClassLoader = null;
 	
 	/** The MBeanServer where this server is deployed  */
 	protected MBeanServer server = null;
@@ -91,21 +118,68 @@ public class OctoServer implements OctoServerMBean {
 	/** A channel group containing all the child channels */
 	protected ChannelGroup channelGroup = null;
 	
-	/** The optimized object decoder */
+	/** The class resolver used to decode invocation arguments */
 	protected ClassResolver classResolver = null;
-	/** The optimized object encoder */
-	protected ObjectEncoder objectEncoder = new ObjectEncoder();
+	/** The maximum accepted frame payload size in bytes */
+	protected int maxFramePayload = OctoProtocol.DEFAULT_MAX_PAYLOAD;
+	/** The child channel write buffer high water mark in bytes */
+	protected int writeBufferHighWaterMark = DEFAULT_HIGH_WATER_MARK;
+	/** The child channel write buffer low water mark in bytes */
+	protected int writeBufferLowWaterMark = DEFAULT_LOW_WATER_MARK;
+	/** The frame encoder */
+	protected FrameEncoder frameEncoder = new FrameEncoder();
+	/** The frame compressor */
+	protected FrameCompressor frameCompressor = new FrameCompressor();
+	/** The decompression counters of the connections' decompressors */
+	protected final FrameDecompressor.Stats decompressionStats = new FrameDecompressor.Stats();
+	/** The invocation request decoder */
+	protected RequestDecoder requestDecoder = null;
 	
 	/** Logging handler */
 	protected LoggingHandler logging = new LoggingHandler(getClass(), LogLevel.INFO);
 	
 	/** Out handler */
-	protected StreamOutputAdapter outAdapter = new StreamOutputAdapter((byte) 0);
-	/** Out handler */
-	protected StreamOutputAdapter errAdapter = new StreamOutputAdapter((byte) 1);
+	protected StreamOutputAdapter outAdapter = new StreamOutputAdapter(FrameType.STDOUT);
+	/** Err handler */
+	protected StreamOutputAdapter errAdapter = new StreamOutputAdapter(FrameType.STDERR);
 	
 	/** Invocation handler */
-	protected final InvocationHandler invocationHandler = new InvocationHandler();
+	protected InvocationHandler invocationHandler = null;
+	
+	/** The number of script execution threads */
+	protected int scriptThreads = ScriptExecutor.DEFAULT_THREADS;
+	/** The maximum number of queued script invocations */
+	protected int scriptQueueSize = ScriptExecutor.DEFAULT_QUEUE_SIZE;
+	/** The scheduling weights of the priority classes */
+	protected volatile String priorityWeights = new PriorityTaskQueue(1).getWeights();
+	/** The script execution thread pool */
+	protected ScriptExecutor scriptExecutor = null;
+	/** The maximum number of cached compiled scripts */
+	protected int scriptCacheSize = ScriptCache.DEFAULT_SIZE;
+	/** The compiled script cache */
+	protected ScriptCache scriptCache = null;
+	/** The directory stored scripts are loaded from, or null if scripts are only deployed */
+	protected volatile String scriptDirectory = null;
+	/** The period in s of the stored script directory poll, 0 for no polling */
+	protected volatile int scriptPollPeriod = 0;
+	/** The registry of named stored scripts */
+	protected ScriptRegistry scriptRegistry = null;
+	/** The caching script class loader, or null if the server could not create one */
+	protected HierarchicalClassLoader hierarchicalClassLoader = null;
+	/** The maximum number of missing class names cached per class source */
+	protected int negativeClassCacheSize = HierarchicalClassLoader.DEFAULT_NEGATIVE_CACHE_SIZE;
+	/** The maximum number of script digests retained per connection */
+	protected int digestTableSize = DigestTable.DEFAULT_SIZE;
+	/** The latency histograms and traffic counters */
+	protected final ServerMetrics metrics = new ServerMetrics();
+	/** The connection and traffic counting handler */
+	protected final MetricsHandler metricsHandler = new MetricsHandler(metrics);
+	/** The per connection and per client request limits */
+	protected final AdmissionControl admission = new AdmissionControl();
+	/** The cache of the results of cacheable requests */
+	protected final ResultCache resultCache = new ResultCache();
+	/** Indicates if identical in-flight requests are coalesced */
+	protected volatile boolean coalescing = true;
 	
 	public static void main(String[] args) {
 		BasicConfigurator.configure();
@@ -129,6 +203,23 @@ public class OctoServer implements OctoServerMBean {
 		log.info("\n\t===========================================\n\tStarting OctoServer\n\t===========================================");
 		InternalLoggerFactory.setDefaultFactory(new Log4JLoggerFactory());
 		initClassLoader();
+		SystemStreamRedirector.install();
+		int staleSpills = SpillFile.cleanSpillDirectory();
+		if(staleSpills > 0) log.info("Deleted [" + staleSpills + "] stale spill files from [" + SpillFile.getSpillDirectory() + "]");
+		scriptExecutor = new ScriptExecutor(scriptThreads, scriptQueueSize);
+		scriptExecutor.getTaskQueue().setWeights(priorityWeights);
+		scriptCache = new ScriptCache(scriptClassLoader, scriptCacheSize);
+		scriptRegistry = new ScriptRegistry(scriptCache);
+		if(scriptDirectory!=null) scriptRegistry.setDirectory(new File(scriptDirectory));
+		scriptRegistry.reload();
+		for(String error: scriptRegistry.getErrors()) {
+			log.warn("Stored script failed to load: " + error);
+		}
+		scriptRegistry.setPollPeriod(scriptPollPeriod);
+		invocationHandler = new InvocationHandler(scriptExecutor, scriptCache, digestTableSize, metrics, admission, resultCache, scriptRegistry);
+		invocationHandler.setCoalescing(coalescing);
+		requestDecoder = new RequestDecoder(classResolver, metrics);
+		log.info("Script executor started with [" + scriptThreads + "] threads and a queue size of [" + scriptQueueSize + "]");
 		log.info("Starting listener on [" + address + ":" + port + "]");
 		bossGroup = new NioEventLoopGroup();
 		workerGroup = new NioEventLoopGroup();
@@ -137,34 +228,22 @@ public class OctoServer implements OctoServerMBean {
 			b.group(bossGroup, workerGroup)
 				.channel(NioServerSocketChannel.class)
 				.localAddress(new InetSocketAddress(address, port))
-				.childHandler(new ChannelHandler(){
-					@Override
-					public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
-						channelGroup.add(ctx.channel());
-					}
-					@Override
-					public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
-						/* No Op */
-					}
-					@Override
-					public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
-						log.error("Exception caught in client pipeline", cause);
-						
-					}
-					
-				}).childHandler(new ChannelInitializer<SocketChannel>() {
+				.childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+				.childOption(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, writeBufferHighWaterMark)
+				.childOption(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, writeBufferLowWaterMark)
+				.childHandler(new ChannelInitializer<SocketChannel>() {
 					@Override
 					public void initChannel(SocketChannel ch) throws Exception {
-						//ch.pipeline().addLast("logging", logging);
-						ch.pipeline().addLast("objectDecoder", new ObjectDecoder(classResolver));
-						//ch.pipeline().addLast("objectEncoder", objectEncoder);
-
+						channelGroup.add(ch);
+						ch.pipeline().addLast("metrics", metricsHandler);
+						ch.pipeline().addLast("frameDecoder", new FrameDecoder(maxFramePayload));
+						ch.pipeline().addLast("frameDecompressor", new FrameDecompressor(maxFramePayload, decompressionStats));
+						ch.pipeline().addLast("frameEncoder", frameEncoder);
+						ch.pipeline().addLast("frameCompressor", frameCompressor);
 						ch.pipeline().addLast("logging", logging);
-						
-						ch.pipeline().addLast("out", outAdapter);
-						ch.pipeline().addLast("stringEncoder", new StringEncoder());
-						//ch.pipeline().addLast("err", errAdapter);
-						
+						ch.pipeline().addLast(InvocationHandler.OUT_ADAPTER, outAdapter);
+						ch.pipeline().addLast(InvocationHandler.ERR_ADAPTER, errAdapter);
+						ch.pipeline().addLast("requestDecoder", requestDecoder);
 						ch.pipeline().addLast("invHandler", invocationHandler);
 					}
 				});
@@ -178,9 +257,6 @@ public class OctoServer implements OctoServerMBean {
 						serverChannel = (NioServerSocketChannel) f.channel();						
 						closeFuture = serverChannel.closeFuture();
 						log.info("Started and listening on " + serverChannel.localAddress());
-						if(!SystemStreamRedirector.isInstalledOnCurrentThread()) {
-							SystemStreamRedirector.install();
-						}
 						log.info("\n\t===========================================\n\tStarted OctoServer\n\t===========================================");
 					}					
 				}
@@ -202,9 +278,19 @@ public class OctoServer implements OctoServerMBean {
 		bossGroup = null;
 		try { workerGroup.shutdownGracefully().sync(); } catch (Exception ex) {/* No Op */}
 		workerGroup = null;		
-		if(SystemStreamRedirector.isInstalledOnCurrentThread()) {
-			SystemStreamRedirector.uninstall();
+		if(scriptExecutor!=null) {
+			scriptExecutor.shutdownNow();
+			scriptExecutor = null;
+		}
+		if(scriptRegistry!=null) {
+			scriptRegistry.stop();
+			scriptRegistry = null;
 		}
+		if(scriptCache!=null) {
+			scriptCache.flush();
+			scriptCache = null;
+		}
+		SystemStreamRedirector.uninstall();
 
 		log.info("\n\t===========================================\n\tStopped OctoServer\n\t===========================================");
 	}
@@ -218,12 +304,15 @@ public class OctoServer implements OctoServerMBean {
 			if(server==null) server = ManagementFactory.getPlatformMBeanServer();
 			classLoader = server.getClassLoaderFor(classLoaderRef);
 			if(classLoader==null) classLoader = OctoServer.class.getClassLoader().getParent();
-			cl = new HierarchicalClassLoader(OctoServer.class.getClassLoader(), classLoader);
+			hierarchicalClassLoader = new HierarchicalClassLoader(OctoServer.class.getClassLoader(), classLoader);
+			hierarchicalClassLoader.setNegativeCacheSize(negativeClassCacheSize);
+			cl = hierarchicalClassLoader;
 			log.info("Ref ClassLoader set for [" + classLoaderRef + "] --> [" + classLoader + "]");
 		} catch (Exception ex) {
 			log.error("Failed to get Classloader for Ref [" + classLoaderRef + "]", ex);
 			cl = OctoServer.class.getClassLoader();
 		}
+		scriptClassLoader = cl;
 		classResolver = ClassResolvers.weakCachingConcurrentResolver(cl);
 	}
 	
@@ -268,6 +357,1089 @@ public class OctoServer implements OctoServerMBean {
 		this.classLoaderRef = classLoaderRef;
 	}
 
+	/**
+	 * Returns the number of script execution threads
+	 * @return the number of script execution threads
+	 */
+	public int getScriptThreads() {
+		return scriptThreads;
+	}
+
+	/**
+	 * Sets the number of script execution threads. Resizes the running pool if the server is started.
+	 * @param scriptThreads the number of script execution threads
+	 */
+	public void setScriptThreads(int scriptThreads) {
+		if(scriptThreads<1) throw new IllegalArgumentException("Invalid script thread count [" + scriptThreads + "]");
+		this.scriptThreads = scriptThreads;
+		if(scriptExecutor!=null) scriptExecutor.setThreads(scriptThreads);
+	}
+
+	/**
+	 * Returns the maximum number of queued script invocations of each priority class
+	 * @return the maximum number of queued script invocations of each priority class
+	 */
+	public int getScriptQueueSize() {
+		return scriptQueueSize;
+	}
+
+	/**
+	 * Sets the maximum number of queued script invocations of each priority class. Takes effect on the next start.
+	 * @param scriptQueueSize the maximum number of queued script invocations of each priority class
+	 */
+	public void setScriptQueueSize(int scriptQueueSize) {
+		if(scriptQueueSize<1) throw new IllegalArgumentException("Invalid script queue size [" + scriptQueueSize + "]");
+		this.scriptQueueSize = scriptQueueSize;
+	}
+	
+	/**
+	 * Returns the number of script invocations waiting to execute
+	 * @return the script queue depth
+	 */
+	public int getScriptQueueDepth() {
+		return scriptExecutor==null ? 0 : scriptExecutor.getQueueDepth();
+	}
+	
+	/**
+	 * Returns the scheduling weights of the priority classes as a comma separated list of <b><code>CLASS:weight</code></b> pairs
+	 * @return the priority class weights
+	 */
+	public String getPriorityWeights() {
+		return scriptExecutor==null ? priorityWeights : scriptExecutor.getTaskQueue().getWeights();
+	}
+	
+	/**
+	 * Sets the scheduling weights of priority classes from a comma separated list of <b><code>CLASS:weight</code></b> pairs,
+	 * for example <b><code>INTERACTIVE:16,BATCH:4,BACKGROUND:1</code></b>. Classes that are not listed keep their weights. Applies at once if the server is started.
+	 * @param weights the priority class weights
+	 */
+	public void setPriorityWeights(String weights) {
+		if(scriptExecutor!=null) {
+			scriptExecutor.getTaskQueue().setWeights(weights);
+			priorityWeights = scriptExecutor.getTaskQueue().getWeights();
+		} else {
+			PriorityTaskQueue queue = new PriorityTaskQueue(1);
+			queue.setWeights(priorityWeights);
+			queue.setWeights(weights);
+			priorityWeights = queue.getWeights();
+		}
+	}
+	
+	/**
+	 * Returns the weight, queue depth, dispatched count and queue wait histogram of each priority class
+	 * @return the priority class stats
+	 */
+	public CompositeData[] getPriorityClassStats() {
+		return scriptExecutor==null ? new CompositeData[0] : scriptExecutor.getTaskQueue().getStats(metrics.getQueueWaitByPriority());
+	}
+	
+	/**
+	 * Returns the number of script invocations currently executing
+	 * @return the number of executing script invocations
+	 */
+	public int getActiveScriptCount() {
+		return scriptExecutor==null ? 0 : scriptExecutor.getActiveCount();
+	}
+	
+	/**
+	 * Returns the number of script invocations rejected because the queue was full
+	 * @return the number of rejected script invocations
+	 */
+	public long getRejectedScriptCount() {
+		return scriptExecutor==null ? 0L : scriptExecutor.getRejectedCount();
+	}
+	
+	/**
+	 * Returns the number of completed script invocations
+	 * @return the number of completed script invocations
+	 */
+	public long getCompletedScriptCount() {
+		return scriptExecutor==null ? 0L : scriptExecutor.getCompletedTaskCount();
+	}
+
+	/**
+	 * Returns the maximum number of cached compiled scripts
+	 * @return the maximum number of cached compiled scripts
+	 */
+	public int getScriptCacheSize() {
+		return scriptCacheSize;
+	}
+
+	/**
+	 * Sets the maximum number of cached compiled scripts
+	 * @param scriptCacheSize the maximum number of cached compiled scripts
+	 */
+	public void setScriptCacheSize(int scriptCacheSize) {
+		if(scriptCacheSize<1) throw new IllegalArgumentException("Invalid script cache size [" + scriptCacheSize + "]");
+		this.scriptCacheSize = scriptCacheSize;
+		if(scriptCache!=null) scriptCache.setMaxSize(scriptCacheSize);
+	}
+	
+	/**
+	 * Returns the number of compiled scripts currently cached
+	 * @return the number of cached compiled scripts
+	 */
+	public int getScriptCacheEntries() {
+		return scriptCache==null ? 0 : scriptCache.getSize();
+	}
+	
+	/**
+	 * Returns the number of compiled script cache hits
+	 * @return the number of compiled script cache hits
+	 */
+	public long getScriptCacheHits() {
+		return scriptCache==null ? 0L : scriptCache.getHits();
+	}
+	
+	/**
+	 * Returns the number of compiled script cache misses
+	 * @return the number of compiled script cache misses
+	 */
+	public long getScriptCacheMisses() {
+		return scriptCache==null ? 0L : scriptCache.getMisses();
+	}
+	
+	/**
+	 * Returns the cumulative script compile time in ms.
+	 * @return the cumulative script compile time
+	 */
+	public long getScriptCompileTime() {
+		return scriptCache==null ? 0L : scriptCache.getCompileTime();
+	}
+	
+	/**
+	 * Removes all compiled scripts from the cache. Stored script classes are kept.
+	 */
+	public void flushScriptCache() {
+		if(scriptCache!=null) scriptCache.flush();
+	}
+	
+	/**
+	 * Returns the directory stored scripts are loaded from
+	 * @return the stored script directory, or null if scripts are only deployed
+	 */
+	public String getScriptDirectory() {
+		return scriptDirectory;
+	}
+
+	/**
+	 * Sets the directory stored scripts are loaded from. The registry is reloaded if the server is started.
+	 * @param scriptDirectory the stored script directory, or null if scripts are only deployed
+	 */
+	public void setScriptDirectory(String scriptDirectory) {
+		this.scriptDirectory = scriptDirectory==null || scriptDirectory.trim().isEmpty() ? null : scriptDirectory.trim();
+		ScriptRegistry registry = scriptRegistry;
+		if(registry!=null) {
+			registry.setDirectory(this.scriptDirectory==null ? null : new File(this.scriptDirectory));
+			registry.reload();
+		}
+	}
+	
+	/**
+	 * Returns the period of the stored script directory poll
+	 * @return the poll period in s, 0 for no polling
+	 */
+	public int getScriptPollPeriod() {
+		return scriptPollPeriod;
+	}
+
+	/**
+	 * Sets the period of the stored script directory poll
+	 * @param scriptPollPeriod the poll period in s, 0 for no polling
+	 */
+	public void setScriptPollPeriod(int scriptPollPeriod) {
+		if(scriptPollPeriod<0) throw new IllegalArgumentException("Invalid script poll period [" + scriptPollPeriod + "]");
+		this.scriptPollPeriod = scriptPollPeriod;
+		ScriptRegistry registry = scriptRegistry;
+		if(registry!=null) registry.setPollPeriod(scriptPollPeriod);
+	}
+	
+	/**
+	 * Returns the names of the stored scripts
+	 * @return the sorted stored script names
+	 */
+	public String[] getStoredScriptNames() {
+		ScriptRegistry registry = scriptRegistry;
+		return registry==null ? new String[0] : registry.getNames();
+	}
+	
+	/**
+	 * Returns summaries of the stored scripts
+	 * @return the stored script summaries sorted by name
+	 */
+	public CompositeData[] getStoredScripts() {
+		ScriptRegistry registry = scriptRegistry;
+		return registry==null ? new CompositeData[0] : registry.getScripts();
+	}
+	
+	/**
+	 * Returns the errors of the last stored script reload
+	 * @return the errors, each as the script name and the error message
+	 */
+	public String[] getStoredScriptErrors() {
+		ScriptRegistry registry = scriptRegistry;
+		return registry==null ? new String[0] : registry.getErrors();
+	}
+	
+	/**
+	 * Returns the number of times the stored scripts have been reloaded
+	 * @return the reload count
+	 */
+	public long getStoredScriptReloads() {
+		ScriptRegistry registry = scriptRegistry;
+		return registry==null ? 0L : registry.getReloads();
+	}
+	
+	/**
+	 * Reloads the stored scripts from the script directory. Scripts whose text has not changed are not recompiled.
+	 * @return the number of stored scripts
+	 */
+	public int reloadScripts() {
+		return registry().reload();
+	}
+	
+	/**
+	 * Compiles and deploys a stored script, replacing any deployed script of the same name.
+	 * A deployed script overrides a directory script of the same name.
+	 * @param name The script name
+	 * @param source The script text
+	 */
+	public void deployScript(String name, String source) {
+		registry().deploy(name, source);
+	}
+	
+	/**
+	 * Removes a deployed stored script
+	 * @param name The script name
+	 * @return true if a deployed script was removed
+	 */
+	public boolean undeployScript(String name) {
+		return registry().undeploy(name);
+	}
+	
+	/**
+	 * Returns the stored script registry
+	 * @return the script registry
+	 */
+	protected ScriptRegistry registry() {
+		ScriptRegistry registry = scriptRegistry;
+		if(registry==null) throw new IllegalStateException("OctoServer is not started");
+		return registry;
+	}
+	
+	/**
+	 * Returns the maximum number of missing class names cached per class source
+	 * @return the maximum number of missing class names cached per class source
+	 */
+	public int getNegativeClassCacheSize() {
+		return negativeClassCacheSize;
+	}
+
+	/**
+	 * Sets the maximum number of missing class names cached per class source
+	 * @param negativeClassCacheSize the maximum number of missing class names cached per class source
+	 */
+	public void setNegativeClassCacheSize(int negativeClassCacheSize) {
+		if(negativeClassCacheSize<0) throw new IllegalArgumentException("Invalid negative class cache size [" + negativeClassCacheSize + "]");
+		this.negativeClassCacheSize = negativeClassCacheSize;
+		if(hierarchicalClassLoader!=null) hierarchicalClassLoader.setNegativeCacheSize(negativeClassCacheSize);
+	}
+	
+	/**
+	 * Returns the number of classes cached by the script class loader
+	 * @return the number of cached classes
+	 */
+	public int getClassCacheEntries() {
+		return hierarchicalClassLoader==null ? 0 : hierarchicalClassLoader.getCacheSize();
+	}
+	
+	/**
+	 * Returns the number of missing class names cached by the script class loader
+	 * @return the number of cached missing class names
+	 */
+	public int getNegativeClassCacheEntries() {
+		return hierarchicalClassLoader==null ? 0 : hierarchicalClassLoader.getNegativeCacheEntries();
+	}
+	
+	/**
+	 * Returns the number of class lookups served from the script class loader's cache
+	 * @return the number of class cache hits
+	 */
+	public long getClassCacheHits() {
+		return hierarchicalClassLoader==null ? 0L : hierarchicalClassLoader.getHits();
+	}
+	
+	/**
+	 * Returns the number of class lookups that searched the script class loader's sources
+	 * @return the number of class cache misses
+	 */
+	public long getClassCacheMisses() {
+		return hierarchicalClassLoader==null ? 0L : hierarchicalClassLoader.getMisses();
+	}
+	
+	/**
+	 * Returns the number of class source lookups skipped because the class is known to be missing from the source
+	 * @return the number of negative class cache hits
+	 */
+	public long getNegativeClassCacheHits() {
+		return hierarchicalClassLoader==null ? 0L : hierarchicalClassLoader.getNegativeHits();
+	}
+	
+	/**
+	 * Removes all classes and missing class names from the script class loader's caches
+	 */
+	public void flushClassCache() {
+		if(hierarchicalClassLoader!=null) hierarchicalClassLoader.flush();
+	}
+
+	/**
+	 * Returns the request decode time histogram, in microseconds
+	 * @return the request decode time histogram
+	 */
+	public CompositeData getRequestDecodeLatency() {
+		return metrics.getDecodeTime().toCompositeData();
+	}
+	
+	/**
+	 * Returns the histogram of the times invocations wait for a script thread, in microseconds
+	 * @return the queue wait histogram
+	 */
+	public CompositeData getQueueWaitLatency() {
+		return metrics.getQueueWait().toCompositeData();
+	}
+	
+	/**
+	 * Returns the script execution time histogram, in microseconds
+	 * @return the execution time histogram
+	 */
+	public CompositeData getExecutionLatency() {
+		return metrics.getExecutionTime().toCompositeData();
+	}
+	
+	/**
+	 * Returns the histogram of the times from receiving a request to sending its first output or result, in microseconds
+	 * @return the first response histogram
+	 */
+	public CompositeData getFirstResponseLatency() {
+		return metrics.getFirstResponse().toCompositeData();
+	}
+	
+	/**
+	 * Returns the histogram of the times from receiving a request to sending its terminal frames, in microseconds
+	 * @return the invocation time histogram
+	 */
+	public CompositeData getInvocationLatency() {
+		return metrics.getInvocationTime().toCompositeData();
+	}
+	
+	/**
+	 * Returns the number of bytes received
+	 * @return the number of bytes received
+	 */
+	public long getBytesIn() {
+		return metrics.getBytesIn();
+	}
+	
+	/**
+	 * Returns the number of bytes sent
+	 * @return the number of bytes sent
+	 */
+	public long getBytesOut() {
+		return metrics.getBytesOut();
+	}
+	
+	/**
+	 * Returns the number of connections accepted
+	 * @return the number of connections accepted
+	 */
+	public long getConnectionCount() {
+		return metrics.getConnections();
+	}
+	
+	/**
+	 * Returns the number of open connections
+	 * @return the number of open connections
+	 */
+	public int getActiveConnections() {
+		return metrics.getActiveConnections();
+	}
+	
+	/**
+	 * Returns the number of invocations accepted
+	 * @return the number of invocations accepted
+	 */
+	public long getInvocationCount() {
+		return metrics.getInvocations();
+	}
+	
+	/**
+	 * Returns the number of invocations stopped by a client cancel or by their channel closing
+	 * @return the number of cancelled invocations
+	 */
+	public long getCancelledInvocationCount() {
+		return metrics.getCancelledInvocations();
+	}
+	
+	/**
+	 * Returns the number of invocations stopped because their deadline expired
+	 * @return the number of expired invocations
+	 */
+	public long getExpiredInvocationCount() {
+		return metrics.getExpiredInvocations();
+	}
+	
+	/**
+	 * Returns the number of invocations answered by the run of an identical in-flight invocation
+	 * @return the number of coalesced invocations
+	 */
+	public long getCoalescedInvocationCount() {
+		return metrics.getCoalescedInvocations();
+	}
+	
+	/**
+	 * Returns the percentage of accepted invocations answered by the run of an identical in-flight invocation
+	 * @return the coalescing rate from 0 to 100
+	 */
+	public double getCoalescingRate() {
+		return metrics.getCoalescingRate();
+	}
+	
+	/**
+	 * Indicates if requests with the same script and arguments as an in-flight request are coalesced with it
+	 * @return true if requests are coalesced
+	 */
+	public boolean isCoalescing() {
+		return coalescing;
+	}
+	
+	/**
+	 * Sets whether requests with the same script and arguments as an in-flight request are coalesced with it. Applies at once if the server is started.
+	 * @param coalescing true to coalesce requests
+	 */
+	public void setCoalescing(boolean coalescing) {
+		this.coalescing = coalescing;
+		if(invocationHandler!=null) invocationHandler.setCoalescing(coalescing);
+	}
+	
+	/**
+	 * Returns the number of invocations accepted and not yet completed
+	 * @return the number of active invocations
+	 */
+	public int getActiveInvocations() {
+		return metrics.getActiveInvocations();
+	}
+	
+	/**
+	 * Clears the latency histograms and the byte, connection, invocation, cancellation and expiry counts
+	 */
+	public void resetMetrics() {
+		metrics.reset();
+	}
+	
+	/**
+	 * Returns the resource usage of the scripts with the highest value of the passed sort key
+	 * @param n The maximum number of scripts to return
+	 * @param sortBy The sort key, one of <b><code>cpu</code></b>, <b><code>user</code></b>, <b><code>allocated</code></b>,
+	 * <b><code>invocations</code></b> or <b><code>maxCpu</code></b>. Defaults to <b><code>cpu</code></b> if empty.
+	 * @return the script resource usage, in descending order of the sort key
+	 */
+	public CompositeData[] topScripts(int n, String sortBy) {
+		return metrics.getScriptAccounting().top(n, sortBy);
+	}
+	
+	/**
+	 * Returns the number of scripts whose resource usage is tracked
+	 * @return the number of scripts tracked
+	 */
+	public int getTrackedScripts() {
+		return metrics.getScriptAccounting().getSize();
+	}
+	
+	/**
+	 * Returns the number of scripts evicted from the resource usage table to keep it within its bound
+	 * @return the number of evicted scripts
+	 */
+	public long getEvictedScripts() {
+		return metrics.getScriptAccounting().getEvictions();
+	}
+	
+	/**
+	 * Returns the maximum number of scripts whose resource usage is tracked
+	 * @return the maximum number of scripts tracked
+	 */
+	public int getMaxTrackedScripts() {
+		return metrics.getScriptAccounting().getMaxScripts();
+	}
+
+	/**
+	 * Sets the maximum number of scripts whose resource usage is tracked. When a new script exceeds the bound, the script with the least CPU time is evicted.
+	 * @param maxScripts the maximum number of scripts tracked
+	 */
+	public void setMaxTrackedScripts(int maxScripts) {
+		metrics.getScriptAccounting().setMaxScripts(maxScripts);
+	}
+	
+	/**
+	 * Clears the per script resource usage
+	 */
+	public void resetScriptStats() {
+		metrics.getScriptAccounting().reset();
+	}
+	
+	/**
+	 * Returns the requests per second allowed per connection
+	 * @return the connection request rate, or 0 for unlimited
+	 */
+	public int getConnectionRequestRate() {
+		return admission.getConnectionRate();
+	}
+	
+	/**
+	 * Sets the requests per second allowed per connection. Applies to the next request of every connection. Result cache hits are counted.
+	 * @param limit the connection request rate, or 0 for unlimited
+	 */
+	public void setConnectionRequestRate(int limit) {
+		admission.setConnectionRate(limit);
+	}
+	
+	/**
+	 * Returns the request burst allowed per connection
+	 * @return the connection request burst, or 0 for one second of requests
+	 */
+	public int getConnectionRequestBurst() {
+		return admission.getConnectionBurst();
+	}
+	
+	/**
+	 * Sets the request burst allowed per connection. Applies to the next request of every connection.
+	 * @param limit the connection request burst, or 0 for one second of requests
+	 */
+	public void setConnectionRequestBurst(int limit) {
+		admission.setConnectionBurst(limit);
+	}
+	
+	/**
+	 * Returns the invocations in progress allowed per connection
+	 * @return the connection invocation limit, or 0 for unlimited
+	 */
+	public int getConnectionConcurrencyLimit() {
+		return admission.getConnectionConcurrency();
+	}
+	
+	/**
+	 * Sets the invocations in progress allowed per connection. Applies to the next request of every connection. Result cache hits take no invocation.
+	 * @param limit the connection invocation limit, or 0 for unlimited
+	 */
+	public void setConnectionConcurrencyLimit(int limit) {
+		admission.setConnectionConcurrency(limit);
+	}
+	
+	/**
+	 * Returns the requests per second allowed per client host
+	 * @return the client request rate, or 0 for unlimited
+	 */
+	public int getClientRequestRate() {
+		return admission.getClientRate();
+	}
+	
+	/**
+	 * Sets the requests per second allowed per client host. Applies to the next request of every connection. Result cache hits are counted.
+	 * @param limit the client request rate, or 0 for unlimited
+	 */
+	public void setClientRequestRate(int limit) {
+		admission.setClientRate(limit);
+	}
+	
+	/**
+	 * Returns the request burst allowed per client host
+	 * @return the client request burst, or 0 for one second of requests
+	 */
+	public int getClientRequestBurst() {
+		return admission.getClientBurst();
+	}
+	
+	/**
+	 * Sets the request burst allowed per client host. Applies to the next request of every connection.
+	 * @param limit the client request burst, or 0 for one second of requests
+	 */
+	public void setClientRequestBurst(int limit) {
+		admission.setClientBurst(limit);
+	}
+	
+	/**
+	 * Returns the invocations in progress allowed per client host
+	 * @return the client invocation limit, or 0 for unlimited
+	 */
+	public int getClientConcurrencyLimit() {
+		return admission.getClientConcurrency();
+	}
+	
+	/**
+	 * Sets the invocations in progress allowed per client host. Applies to the next request of every connection. Result cache hits take no invocation.
+	 * @param limit the client invocation limit, or 0 for unlimited
+	 */
+	public void setClientConcurrencyLimit(int limit) {
+		admission.setClientConcurrency(limit);
+	}
+	
+	/**
+	 * Returns the number of requests refused for exceeding a connection or client request rate
+	 * @return the number of rate limited requests
+	 */
+	public long getRateLimitedCount() {
+		return admission.getRateLimited();
+	}
+	
+	/**
+	 * Returns the number of requests refused for exceeding a connection or client invocation limit
+	 * @return the number of concurrency limited requests
+	 */
+	public long getConcurrencyLimitedCount() {
+		return admission.getConcurrencyLimited();
+	}
+	
+	/**
+	 * Returns the admission state of each connected client host
+	 * @return the clients' connection, invocation, admitted and refused counts
+	 */
+	public CompositeData[] clientAdmissions() {
+		return admission.getClients();
+	}
+	
+	/**
+	 * Returns the maximum number of cached invocation results
+	 * @return the maximum number of cached results, 0 if the cache is disabled
+	 */
+	public int getResultCacheMaxEntries() {
+		return resultCache.getMaxEntries();
+	}
+	
+	/**
+	 * Sets the maximum number of cached invocation results, evicting results if the cache is over the new bound
+	 * @param maxEntries the maximum number of cached results, 0 to disable the cache
+	 */
+	public void setResultCacheMaxEntries(int maxEntries) {
+		resultCache.setMaxEntries(maxEntries);
+	}
+	
+	/**
+	 * Returns the maximum estimated memory held by cached invocation results
+	 * @return the maximum memory in bytes
+	 */
+	public long getResultCacheMaxBytes() {
+		return resultCache.getMaxBytes();
+	}
+	
+	/**
+	 * Sets the maximum estimated memory held by cached invocation results, evicting results if the cache is over the new bound
+	 * @param maxBytes the maximum memory in bytes
+	 */
+	public void setResultCacheMaxBytes(long maxBytes) {
+		resultCache.setMaxBytes(maxBytes);
+	}
+	
+	/**
+	 * Returns the number of cached invocation results
+	 * @return the number of cached results
+	 */
+	public int getResultCacheSize() {
+		return resultCache.getSize();
+	}
+	
+	/**
+	 * Returns the estimated memory held by cached invocation results
+	 * @return the memory used in bytes
+	 */
+	public long getResultCacheBytes() {
+		return resultCache.getBytes();
+	}
+	
+	/**
+	 * Returns the number of cacheable requests answered from the result cache
+	 * @return the hit count
+	 */
+	public long getResultCacheHits() {
+		return resultCache.getHits();
+	}
+	
+	/**
+	 * Returns the number of cacheable requests that had to be run
+	 * @return the miss count
+	 */
+	public long getResultCacheMisses() {
+		return resultCache.getMisses();
+	}
+	
+	/**
+	 * Returns the percentage of cacheable requests answered from the result cache
+	 * @return the hit ratio from 0 to 100
+	 */
+	public double getResultCacheHitRatio() {
+		return resultCache.getHitRatio();
+	}
+	
+	/**
+	 * Returns the number of cached results evicted to make room
+	 * @return the eviction count
+	 */
+	public long getResultCacheEvictions() {
+		return resultCache.getEvictions();
+	}
+	
+	/**
+	 * Returns the number of cached results removed because they expired
+	 * @return the expiration count
+	 */
+	public long getResultCacheExpirations() {
+		return resultCache.getExpirations();
+	}
+	
+	/**
+	 * Returns the number of invocation results too large to cache
+	 * @return the oversized count
+	 */
+	public long getResultCacheOversized() {
+		return resultCache.getOversized();
+	}
+	
+	/**
+	 * Removes all cached invocation results and resets the result cache counters
+	 */
+	public void clearResultCache() {
+		resultCache.clear();
+		resultCache.resetStats();
+	}
+	
+	/**
+	 * Returns the maximum number of script digests retained per connection
+	 * @return the maximum number of script digests retained per connection
+	 */
+	public int getDigestTableSize() {
+		return digestTableSize;
+	}
+
+	/**
+	 * Sets the maximum number of script digests retained per connection. Applies to connections accepted after the next start.
+	 * @param digestTableSize the maximum number of script digests retained per connection
+	 */
+	public void setDigestTableSize(int digestTableSize) {
+		if(digestTableSize<1) throw new IllegalArgumentException("Invalid digest table size [" + digestTableSize + "]");
+		this.digestTableSize = digestTableSize;
+	}
+	
+	/**
+	 * Returns the stream output flush threshold in bytes
+	 * @return the stream output flush threshold in bytes
+	 */
+	public int getStreamFlushThreshold() {
+		return ChannelOutputStream.getDefaultFlushThreshold();
+	}
+	
+	/**
+	 * Sets the stream output flush threshold in bytes. Applies to streams created after the change.
+	 * @param streamFlushThreshold the stream output flush threshold in bytes
+	 */
+	public void setStreamFlushThreshold(int streamFlushThreshold) {
+		ChannelOutputStream.setDefaultFlushThreshold(streamFlushThreshold);
+	}
+	
+	/**
+	 * Returns the max stream output flush latency in ms
+	 * @return the max stream output flush latency in ms
+	 */
+	public long getStreamFlushLatency() {
+		return ChannelOutputStream.getDefaultFlushLatency();
+	}
+	
+	/**
+	 * Sets the max stream output flush latency in ms. Applies to streams created after the change.
+	 * @param streamFlushLatency the max stream output flush latency in ms
+	 */
+	public void setStreamFlushLatency(long streamFlushLatency) {
+		ChannelOutputStream.setDefaultFlushLatency(streamFlushLatency);
+	}
+	
+	/**
+	 * Returns the number of stream output bytes written to clients
+	 * @return the number of stream output bytes written to clients
+	 */
+	public long getStreamBytesWritten() {
+		return ChannelOutputStream.getTotalBytes();
+	}
+	
+	/**
+	 * Returns the number of stream output chunks written to clients
+	 * @return the number of stream output chunks written to clients
+	 */
+	public long getStreamFlushCount() {
+		return ChannelOutputStream.getTotalFlushes();
+	}
+	
+	/**
+	 * Returns the average size in bytes of the stream output chunks written to clients
+	 * @return the average size in bytes of the stream output chunks written to clients
+	 */
+	public long getAverageStreamChunkSize() {
+		return ChannelOutputStream.getTotalAverageChunkSize();
+	}
+	
+	/**
+	 * Returns the child channel write buffer high water mark in bytes
+	 * @return the child channel write buffer high water mark in bytes
+	 */
+	public int getWriteBufferHighWaterMark() {
+		return writeBufferHighWaterMark;
+	}
+	
+	/**
+	 * Sets the child channel write buffer high water mark in bytes. Applies to connections accepted after the next start.
+	 * @param writeBufferHighWaterMark the child channel write buffer high water mark in bytes
+	 */
+	public void setWriteBufferHighWaterMark(int writeBufferHighWaterMark) {
+		if(writeBufferHighWaterMark<writeBufferLowWaterMark) throw new IllegalArgumentException("High water mark [" + writeBufferHighWaterMark + "] is less than the low water mark [" + writeBufferLowWaterMark + "]");
+		this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+	}
+	
+	/**
+	 * Returns the child channel write buffer low water mark in bytes
+	 * @return the child channel write buffer low water mark in bytes
+	 */
+	public int getWriteBufferLowWaterMark() {
+		return writeBufferLowWaterMark;
+	}
+	
+	/**
+	 * Sets the child channel write buffer low water mark in bytes. Applies to connections accepted after the next start.
+	 * @param writeBufferLowWaterMark the child channel write buffer low water mark in bytes
+	 */
+	public void setWriteBufferLowWaterMark(int writeBufferLowWaterMark) {
+		if(writeBufferLowWaterMark<0 || writeBufferLowWaterMark>writeBufferHighWaterMark) throw new IllegalArgumentException("Invalid low water mark [" + writeBufferLowWaterMark + "]");
+		this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+	}
+	
+	/**
+	 * Returns the policy applied to script output when a client channel is not writable
+	 * @return the policy applied to script output when a client channel is not writable
+	 */
+	public String getBackpressurePolicy() {
+		return ChannelOutputStream.getDefaultBackpressurePolicy().name();
+	}
+	
+	/**
+	 * Sets the policy applied to script output when a client channel is not writable: BLOCK, FAIL, DISCARD or SPILL
+	 * @param backpressurePolicy the policy applied to script output when a client channel is not writable
+	 */
+	public void setBackpressurePolicy(String backpressurePolicy) {
+		ChannelOutputStream.setDefaultBackpressurePolicy(BackpressurePolicy.forName(backpressurePolicy));
+	}
+	
+	/**
+	 * Returns the time in ms script output waits for an unwritable channel under the FAIL and DISCARD policies
+	 * @return the time in ms script output waits for an unwritable channel under the FAIL and DISCARD policies
+	 */
+	public long getBackpressureTimeout() {
+		return ChannelOutputStream.getDefaultBackpressureTimeout();
+	}
+	
+	/**
+	 * Sets the time in ms script output waits for an unwritable channel under the FAIL and DISCARD policies
+	 * @param backpressureTimeout the time in ms script output waits for an unwritable channel under the FAIL and DISCARD policies
+	 */
+	public void setBackpressureTimeout(long backpressureTimeout) {
+		ChannelOutputStream.setDefaultBackpressureTimeout(backpressureTimeout);
+	}
+	
+	/**
+	 * Returns the total time in ms script threads have spent blocked on unwritable channels
+	 * @return the total time in ms script threads have spent blocked on unwritable channels
+	 */
+	public long getBackpressureBlockedTime() {
+		return WritabilityGate.getBlockedTime();
+	}
+	
+	/**
+	 * Returns the number of times a script thread blocked on an unwritable channel
+	 * @return the number of times a script thread blocked on an unwritable channel
+	 */
+	public long getBackpressureBlockCount() {
+		return WritabilityGate.getBlockCount();
+	}
+	
+	/**
+	 * Returns the number of times a script thread gave up waiting for an unwritable channel
+	 * @return the number of times a script thread gave up waiting for an unwritable channel
+	 */
+	public long getBackpressureTimeoutCount() {
+		return WritabilityGate.getTimeoutCount();
+	}
+	
+	/**
+	 * Returns the number of script output bytes discarded because a channel stayed unwritable
+	 * @return the number of script output bytes discarded because a channel stayed unwritable
+	 */
+	public long getDiscardedOutputBytes() {
+		return ChannelOutputStream.getDiscardedBytes();
+	}
+	
+	/**
+	 * Returns the directory script output is spilled to when the policy is SPILL
+	 * @return the spill directory
+	 */
+	public String getSpillDirectory() {
+		return SpillFile.getSpillDirectory().getAbsolutePath();
+	}
+	
+	/**
+	 * Sets the directory script output is spilled to when the policy is SPILL
+	 * @param dir the spill directory
+	 */
+	public void setSpillDirectory(String dir) {
+		SpillFile.setSpillDirectory(new File(dir));
+	}
+	
+	/**
+	 * Returns the maximum number of bytes one request stream may spill to disk
+	 * @return the maximum spill size in bytes
+	 */
+	public long getMaxSpillSize() {
+		return SpillFile.getMaxSpillSize();
+	}
+	
+	/**
+	 * Sets the maximum number of bytes one request stream may spill to disk
+	 * @param size the maximum spill size in bytes
+	 */
+	public void setMaxSpillSize(long size) {
+		SpillFile.setMaxSpillSize(size);
+	}
+	
+	/**
+	 * Returns the number of spill files created
+	 * @return the number of spill files created
+	 */
+	public long getSpillCount() {
+		return SpillFile.getSpillCount();
+	}
+	
+	/**
+	 * Returns the number of spill files not yet drained to their channel
+	 * @return the number of active spill files
+	 */
+	public int getActiveSpillCount() {
+		return SpillFile.getActiveSpillCount();
+	}
+	
+	/**
+	 * Returns the number of script output bytes spilled to disk
+	 * @return the number of script output bytes spilled to disk
+	 */
+	public long getSpilledBytes() {
+		return SpillFile.getSpilledBytes();
+	}
+	
+	/**
+	 * Returns the comma separated compression codecs the server accepts, in order of preference
+	 * @return the compression codecs
+	 */
+	public String getCompressionCodecs() {
+		StringBuilder b = new StringBuilder();
+		for(CompressionCodec cc: frameCompressor.getCodecs()) {
+			if(b.length()>0) b.append(',');
+			b.append(cc.name());
+		}
+		return b.toString();
+	}
+	
+	/**
+	 * Sets the comma separated compression codecs the server accepts. An empty value disables compression.
+	 * Applies to connections negotiated after the change.
+	 * @param codecs the compression codecs
+	 */
+	public void setCompressionCodecs(String codecs) {
+		frameCompressor.setCodecs(CompressionCodec.forNames(codecs));
+	}
+	
+	/**
+	 * Returns the minimum frame payload size in bytes that is compressed
+	 * @return the compression threshold
+	 */
+	public int getCompressionThreshold() {
+		return frameCompressor.getMinSize();
+	}
+	
+	/**
+	 * Sets the minimum frame payload size in bytes that is compressed
+	 * @param threshold the compression threshold
+	 */
+	public void setCompressionThreshold(int threshold) {
+		frameCompressor.setMinSize(threshold);
+	}
+	
+	/**
+	 * Returns the number of compressed frames sent
+	 * @return the number of compressed frames sent
+	 */
+	public long getCompressedFrameCount() {
+		return frameCompressor.getCompressedFrames();
+	}
+	
+	/**
+	 * Returns the ratio of bytes sent to bytes offered for compression
+	 * @return the compression ratio
+	 */
+	public double getCompressionRatio() {
+		return frameCompressor.getCompressionRatio();
+	}
+	
+	/**
+	 * Returns the total time in ms spent compressing frames
+	 * @return the total compression time in ms
+	 */
+	public long getCompressionTime() {
+		return frameCompressor.getCompressionTime();
+	}
+	
+	/**
+	 * Returns the total time in ms spent decompressing frames
+	 * @return the total decompression time in ms
+	 */
+	public long getDecompressionTime() {
+		return decompressionStats.getDecompressionTime();
+	}
+	
+	/**
+	 * Returns the maximum accepted frame payload size in bytes
+	 * @return the maximum frame payload size
+	 */
+	public int getMaxFramePayload() {
+		return maxFramePayload;
+	}
+
+	/**
+	 * Sets the maximum accepted frame payload size in bytes. Applies to connections accepted after the change.
+	 * @param maxFramePayload the maximum frame payload size
+	 */
+	public void setMaxFramePayload(int maxFramePayload) {
+		if(maxFramePayload<1) throw new IllegalArgumentException("Invalid max frame payload [" + maxFramePayload + "]");
+		this.maxFramePayload = maxFramePayload;
+	}
+	
+	/**
+	 * Returns the number of digest only requests whose digest was unknown to the connection
+	 * @return the number of unknown digests
+	 */
+	public long getUnknownDigestCount() {
+		return invocationHandler==null ? 0L : invocationHandler.getUnknownDigestCount();
+	}
+	
+	/**
+	 * Returns the number of stored script requests for a name that was not registered
+	 * @return the number of unknown stored script requests
+	 */
+	public long getUnknownStoredScriptCount() {
+		return invocationHandler==null ? 0L : invocationHandler.getUnknownStoredScriptCount();
+	}
+
 	/**
 	 * Sets the interface the listener should bind to
 	 * @param address the address to set
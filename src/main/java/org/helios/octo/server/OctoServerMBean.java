@@ -25,6 +25,7 @@
 package org.helios.octo.server;
 
 import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 
 import org.jboss.system.ServiceMBean;
 
@@ -71,5 +72,782 @@ public interface OctoServerMBean  {
 	 * Sets the interface the listener should bind to
 	 * @param address the address to set
 	 */
-	public void setAddress(String address);	
+	public void setAddress(String address);
+	
+	/**
+	 * Returns the number of script execution threads
+	 * @return the number of script execution threads
+	 */
+	public int getScriptThreads();
+
+	/**
+	 * Sets the number of script execution threads. Resizes the running pool if the server is started.
+	 * @param scriptThreads the number of script execution threads
+	 */
+	public void setScriptThreads(int scriptThreads);
+
+	/**
+	 * Returns the maximum number of queued script invocations of each priority class
+	 * @return the maximum number of queued script invocations of each priority class
+	 */
+	public int getScriptQueueSize();
+
+	/**
+	 * Sets the maximum number of queued script invocations of each priority class. Takes effect on the next start.
+	 * @param scriptQueueSize the maximum number of queued script invocations of each priority class
+	 */
+	public void setScriptQueueSize(int scriptQueueSize);
+	
+	/**
+	 * Returns the number of script invocations waiting to execute
+	 * @return the script queue depth
+	 */
+	public int getScriptQueueDepth();
+	
+	/**
+	 * Returns the scheduling weights of the priority classes as a comma separated list of <b><code>CLASS:weight</code></b> pairs
+	 * @return the priority class weights
+	 */
+	public String getPriorityWeights();
+	
+	/**
+	 * Sets the scheduling weights of priority classes from a comma separated list of <b><code>CLASS:weight</code></b> pairs,
+	 * for example <b><code>INTERACTIVE:16,BATCH:4,BACKGROUND:1</code></b>. Classes that are not listed keep their weights. Applies at once if the server is started.
+	 * @param weights the priority class weights
+	 */
+	public void setPriorityWeights(String weights);
+	
+	/**
+	 * Returns the weight, queue depth, dispatched count and queue wait histogram of each priority class
+	 * @return the priority class stats
+	 */
+	public CompositeData[] getPriorityClassStats();
+	
+	/**
+	 * Returns the number of script invocations currently executing
+	 * @return the number of executing script invocations
+	 */
+	public int getActiveScriptCount();
+	
+	/**
+	 * Returns the number of script invocations rejected because the queue was full
+	 * @return the number of rejected script invocations
+	 */
+	public long getRejectedScriptCount();
+	
+	/**
+	 * Returns the number of completed script invocations
+	 * @return the number of completed script invocations
+	 */
+	public long getCompletedScriptCount();
+	
+	/**
+	 * Returns the maximum number of cached compiled scripts
+	 * @return the maximum number of cached compiled scripts
+	 */
+	public int getScriptCacheSize();
+
+	/**
+	 * Sets the maximum number of cached compiled scripts
+	 * @param scriptCacheSize the maximum number of cached compiled scripts
+	 */
+	public void setScriptCacheSize(int scriptCacheSize);
+	
+	/**
+	 * Returns the number of compiled scripts currently cached
+	 * @return the number of cached compiled scripts
+	 */
+	public int getScriptCacheEntries();
+	
+	/**
+	 * Returns the number of compiled script cache hits
+	 * @return the number of compiled script cache hits
+	 */
+	public long getScriptCacheHits();
+	
+	/**
+	 * Returns the number of compiled script cache misses
+	 * @return the number of compiled script cache misses
+	 */
+	public long getScriptCacheMisses();
+	
+	/**
+	 * Returns the cumulative script compile time in ms.
+	 * @return the cumulative script compile time
+	 */
+	public long getScriptCompileTime();
+	
+	/**
+	 * Removes all compiled scripts from the cache. Stored script classes are kept.
+	 */
+	public void flushScriptCache();
+	
+	/**
+	 * Returns the directory stored scripts are loaded from
+	 * @return the stored script directory, or null if scripts are only deployed
+	 */
+	public String getScriptDirectory();
+
+	/**
+	 * Sets the directory stored scripts are loaded from. The registry is reloaded if the server is started.
+	 * @param scriptDirectory the stored script directory, or null if scripts are only deployed
+	 */
+	public void setScriptDirectory(String scriptDirectory);
+	
+	/**
+	 * Returns the period of the stored script directory poll
+	 * @return the poll period in s, 0 for no polling
+	 */
+	public int getScriptPollPeriod();
+
+	/**
+	 * Sets the period of the stored script directory poll
+	 * @param scriptPollPeriod the poll period in s, 0 for no polling
+	 */
+	public void setScriptPollPeriod(int scriptPollPeriod);
+	
+	/**
+	 * Returns the names of the stored scripts
+	 * @return the sorted stored script names
+	 */
+	public String[] getStoredScriptNames();
+	
+	/**
+	 * Returns summaries of the stored scripts
+	 * @return the stored script summaries sorted by name
+	 */
+	public CompositeData[] getStoredScripts();
+	
+	/**
+	 * Returns the errors of the last stored script reload
+	 * @return the errors, each as the script name and the error message
+	 */
+	public String[] getStoredScriptErrors();
+	
+	/**
+	 * Returns the number of times the stored scripts have been reloaded
+	 * @return the reload count
+	 */
+	public long getStoredScriptReloads();
+	
+	/**
+	 * Reloads the stored scripts from the script directory. Scripts whose text has not changed are not recompiled.
+	 * @return the number of stored scripts
+	 */
+	public int reloadScripts();
+	
+	/**
+	 * Compiles and deploys a stored script, replacing any deployed script of the same name.
+	 * A deployed script overrides a directory script of the same name.
+	 * @param name The script name
+	 * @param source The script text
+	 */
+	public void deployScript(String name, String source);
+	
+	/**
+	 * Removes a deployed stored script
+	 * @param name The script name
+	 * @return true if a deployed script was removed
+	 */
+	public boolean undeployScript(String name);
+	
+	/**
+	 * Returns the maximum number of missing class names cached per class source
+	 * @return the maximum number of missing class names cached per class source
+	 */
+	public int getNegativeClassCacheSize();
+
+	/**
+	 * Sets the maximum number of missing class names cached per class source
+	 * @param negativeClassCacheSize the maximum number of missing class names cached per class source
+	 */
+	public void setNegativeClassCacheSize(int negativeClassCacheSize);
+	
+	/**
+	 * Returns the number of classes cached by the script class loader
+	 * @return the number of cached classes
+	 */
+	public int getClassCacheEntries();
+	
+	/**
+	 * Returns the number of missing class names cached by the script class loader
+	 * @return the number of cached missing class names
+	 */
+	public int getNegativeClassCacheEntries();
+	
+	/**
+	 * Returns the number of class lookups served from the script class loader's cache
+	 * @return the number of class cache hits
+	 */
+	public long getClassCacheHits();
+	
+	/**
+	 * Returns the number of class lookups that searched the script class loader's sources
+	 * @return the number of class cache misses
+	 */
+	public long getClassCacheMisses();
+	
+	/**
+	 * Returns the number of class source lookups skipped because the class is known to be missing from the source
+	 * @return the number of negative class cache hits
+	 */
+	public long getNegativeClassCacheHits();
+	
+	/**
+	 * Removes all classes and missing class names from the script class loader's caches
+	 */
+	public void flushClassCache();
+	
+	/**
+	 * Returns the request decode time histogram, in microseconds
+	 * @return the request decode time histogram
+	 */
+	public CompositeData getRequestDecodeLatency();
+	
+	/**
+	 * Returns the histogram of the times invocations wait for a script thread, in microseconds
+	 * @return the queue wait histogram
+	 */
+	public CompositeData getQueueWaitLatency();
+	
+	/**
+	 * Returns the script execution time histogram, in microseconds
+	 * @return the execution time histogram
+	 */
+	public CompositeData getExecutionLatency();
+	
+	/**
+	 * Returns the histogram of the times from receiving a request to sending its first output or result, in microseconds
+	 * @return the first response histogram
+	 */
+	public CompositeData getFirstResponseLatency();
+	
+	/**
+	 * Returns the histogram of the times from receiving a request to sending its terminal frames, in microseconds
+	 * @return the invocation time histogram
+	 */
+	public CompositeData getInvocationLatency();
+	
+	/**
+	 * Returns the number of bytes received
+	 * @return the number of bytes received
+	 */
+	public long getBytesIn();
+	
+	/**
+	 * Returns the number of bytes sent
+	 * @return the number of bytes sent
+	 */
+	public long getBytesOut();
+	
+	/**
+	 * Returns the number of connections accepted
+	 * @return the number of connections accepted
+	 */
+	public long getConnectionCount();
+	
+	/**
+	 * Returns the number of open connections
+	 * @return the number of open connections
+	 */
+	public int getActiveConnections();
+	
+	/**
+	 * Returns the number of invocations accepted
+	 * @return the number of invocations accepted
+	 */
+	public long getInvocationCount();
+	
+	/**
+	 * Returns the number of invocations stopped by a client cancel or by their channel closing
+	 * @return the number of cancelled invocations
+	 */
+	public long getCancelledInvocationCount();
+	
+	/**
+	 * Returns the number of invocations stopped because their deadline expired
+	 * @return the number of expired invocations
+	 */
+	public long getExpiredInvocationCount();
+	
+	/**
+	 * Returns the number of invocations answered by the run of an identical in-flight invocation
+	 * @return the number of coalesced invocations
+	 */
+	public long getCoalescedInvocationCount();
+	
+	/**
+	 * Returns the percentage of accepted invocations answered by the run of an identical in-flight invocation
+	 * @return the coalescing rate from 0 to 100
+	 */
+	public double getCoalescingRate();
+	
+	/**
+	 * Indicates if requests with the same script and arguments as an in-flight request are coalesced with it
+	 * @return true if requests are coalesced
+	 */
+	public boolean isCoalescing();
+	
+	/**
+	 * Sets whether requests with the same script and arguments as an in-flight request are coalesced with it. Applies at once if the server is started.
+	 * @param coalescing true to coalesce requests
+	 */
+	public void setCoalescing(boolean coalescing);
+	
+	/**
+	 * Returns the number of invocations accepted and not yet completed
+	 * @return the number of active invocations
+	 */
+	public int getActiveInvocations();
+	
+	/**
+	 * Clears the latency histograms and the byte, connection, invocation, cancellation and expiry counts
+	 */
+	public void resetMetrics();
+	
+	/**
+	 * Returns the resource usage of the scripts with the highest value of the passed sort key
+	 * @param n The maximum number of scripts to return
+	 * @param sortBy The sort key, one of <b><code>cpu</code></b>, <b><code>user</code></b>, <b><code>allocated</code></b>,
+	 * <b><code>invocations</code></b> or <b><code>maxCpu</code></b>. Defaults to <b><code>cpu</code></b> if empty.
+	 * @return the script resource usage, in descending order of the sort key
+	 */
+	public CompositeData[] topScripts(int n, String sortBy);
+	
+	/**
+	 * Returns the number of scripts whose resource usage is tracked
+	 * @return the number of scripts tracked
+	 */
+	public int getTrackedScripts();
+	
+	/**
+	 * Returns the number of scripts evicted from the resource usage table to keep it within its bound
+	 * @return the number of evicted scripts
+	 */
+	public long getEvictedScripts();
+	
+	/**
+	 * Returns the maximum number of scripts whose resource usage is tracked
+	 * @return the maximum number of scripts tracked
+	 */
+	public int getMaxTrackedScripts();
+
+	/**
+	 * Sets the maximum number of scripts whose resource usage is tracked. When a new script exceeds the bound, the script with the least CPU time is evicted.
+	 * @param maxScripts the maximum number of scripts tracked
+	 */
+	public void setMaxTrackedScripts(int maxScripts);
+	
+	/**
+	 * Clears the per script resource usage
+	 */
+	public void resetScriptStats();
+	
+	/**
+	 * Returns the requests per second allowed per connection
+	 * @return the connection request rate, or 0 for unlimited
+	 */
+	public int getConnectionRequestRate();
+	
+	/**
+	 * Sets the requests per second allowed per connection. Applies to the next request of every connection. Result cache hits are counted.
+	 * @param limit the connection request rate, or 0 for unlimited
+	 */
+	public void setConnectionRequestRate(int limit);
+	
+	/**
+	 * Returns the request burst allowed per connection
+	 * @return the connection request burst, or 0 for one second of requests
+	 */
+	public int getConnectionRequestBurst();
+	
+	/**
+	 * Sets the request burst allowed per connection. Applies to the next request of every connection.
+	 * @param limit the connection request burst, or 0 for one second of requests
+	 */
+	public void setConnectionRequestBurst(int limit);
+	
+	/**
+	 * Returns the invocations in progress allowed per connection
+	 * @return the connection invocation limit, or 0 for unlimited
+	 */
+	public int getConnectionConcurrencyLimit();
+	
+	/**
+	 * Sets the invocations in progress allowed per connection. Applies to the next request of every connection. Result cache hits take no invocation.
+	 * @param limit the connection invocation limit, or 0 for unlimited
+	 */
+	public void setConnectionConcurrencyLimit(int limit);
+	
+	/**
+	 * Returns the requests per second allowed per client host
+	 * @return the client request rate, or 0 for unlimited
+	 */
+	public int getClientRequestRate();
+	
+	/**
+	 * Sets the requests per second allowed per client host. Applies to the next request of every connection. Result cache hits are counted.
+	 * @param limit the client request rate, or 0 for unlimited
+	 */
+	public void setClientRequestRate(int limit);
+	
+	/**
+	 * Returns the request burst allowed per client host
+	 * @return the client request burst, or 0 for one second of requests
+	 */
+	public int getClientRequestBurst();
+	
+	/**
+	 * Sets the request burst allowed per client host. Applies to the next request of every connection.
+	 * @param limit the client request burst, or 0 for one second of requests
+	 */
+	public void setClientRequestBurst(int limit);
+	
+	/**
+	 * Returns the invocations in progress allowed per client host
+	 * @return the client invocation limit, or 0 for unlimited
+	 */
+	public int getClientConcurrencyLimit();
+	
+	/**
+	 * Sets the invocations in progress allowed per client host. Applies to the next request of every connection. Result cache hits take no invocation.
+	 * @param limit the client invocation limit, or 0 for unlimited
+	 */
+	public void setClientConcurrencyLimit(int limit);
+	
+	/**
+	 * Returns the number of requests refused for exceeding a connection or client request rate
+	 * @return the number of rate limited requests
+	 */
+	public long getRateLimitedCount();
+	
+	/**
+	 * Returns the number of requests refused for exceeding a connection or client invocation limit
+	 * @return the number of concurrency limited requests
+	 */
+	public long getConcurrencyLimitedCount();
+	
+	/**
+	 * Returns the admission state of each connected client host
+	 * @return the clients' connection, invocation, admitted and refused counts
+	 */
+	public CompositeData[] clientAdmissions();
+	
+	/**
+	 * Returns the maximum number of cached invocation results
+	 * @return the maximum number of cached results, 0 if the cache is disabled
+	 */
+	public int getResultCacheMaxEntries();
+	
+	/**
+	 * Sets the maximum number of cached invocation results, evicting results if the cache is over the new bound
+	 * @param maxEntries the maximum number of cached results, 0 to disable the cache
+	 */
+	public void setResultCacheMaxEntries(int maxEntries);
+	
+	/**
+	 * Returns the maximum estimated memory held by cached invocation results
+	 * @return the maximum memory in bytes
+	 */
+	public long getResultCacheMaxBytes();
+	
+	/**
+	 * Sets the maximum estimated memory held by cached invocation results, evicting results if the cache is over the new bound
+	 * @param maxBytes the maximum memory in bytes
+	 */
+	public void setResultCacheMaxBytes(long maxBytes);
+	
+	/**
+	 * Returns the number of cached invocation results
+	 * @return the number of cached results
+	 */
+	public int getResultCacheSize();
+	
+	/**
+	 * Returns the estimated memory held by cached invocation results
+	 * @return the memory used in bytes
+	 */
+	public long getResultCacheBytes();
+	
+	/**
+	 * Returns the number of cacheable requests answered from the result cache
+	 * @return the hit count
+	 */
+	public long getResultCacheHits();
+	
+	/**
+	 * Returns the number of cacheable requests that had to be run
+	 * @return the miss count
+	 */
+	public long getResultCacheMisses();
+	
+	/**
+	 * Returns the percentage of cacheable requests answered from the result cache
+	 * @return the hit ratio from 0 to 100
+	 */
+	public double getResultCacheHitRatio();
+	
+	/**
+	 * Returns the number of cached results evicted to make room
+	 * @return the eviction count
+	 */
+	public long getResultCacheEvictions();
+	
+	/**
+	 * Returns the number of cached results removed because they expired
+	 * @return the expiration count
+	 */
+	public long getResultCacheExpirations();
+	
+	/**
+	 * Returns the number of invocation results too large to cache
+	 * @return the oversized count
+	 */
+	public long getResultCacheOversized();
+	
+	/**
+	 * Removes all cached invocation results and resets the result cache counters
+	 */
+	public void clearResultCache();
+	
+	/**
+	 * Returns the maximum number of script digests retained per connection
+	 * @return the maximum number of script digests retained per connection
+	 */
+	public int getDigestTableSize();
+
+	/**
+	 * Sets the maximum number of script digests retained per connection. Applies to connections accepted after the next start.
+	 * @param digestTableSize the maximum number of script digests retained per connection
+	 */
+	public void setDigestTableSize(int digestTableSize);
+	
+	/**
+	 * Returns the number of digest only requests whose digest was unknown to the connection
+	 * @return the number of unknown digests
+	 */
+	public long getUnknownDigestCount();
+	
+	/**
+	 * Returns the number of stored script requests for a name that was not registered
+	 * @return the number of unknown stored script requests
+	 */
+	public long getUnknownStoredScriptCount();
+	
+	/**
+	 * Returns the maximum accepted frame payload size in bytes
+	 * @return the maximum frame payload size
+	 */
+	public int getMaxFramePayload();
+	
+	/**
+	 * Sets the maximum accepted frame payload size in bytes. Applies to connections accepted after the change.
+	 * @param maxFramePayload the maximum frame payload size
+	 */
+	public void setMaxFramePayload(int maxFramePayload);
+	
+	/**
+	 * Returns the stream output flush threshold in bytes
+	 * @return the stream output flush threshold in bytes
+	 */
+	public int getStreamFlushThreshold();
+	
+	/**
+	 * Sets the stream output flush threshold in bytes. Applies to streams created after the change.
+	 * @param streamFlushThreshold the stream output flush threshold in bytes
+	 */
+	public void setStreamFlushThreshold(int streamFlushThreshold);
+	
+	/**
+	 * Returns the max stream output flush latency in ms
+	 * @return the max stream output flush latency in ms
+	 */
+	public long getStreamFlushLatency();
+	
+	/**
+	 * Sets the max stream output flush latency in ms. Applies to streams created after the change.
+	 * @param streamFlushLatency the max stream output flush latency in ms
+	 */
+	public void setStreamFlushLatency(long streamFlushLatency);
+	
+	/**
+	 * Returns the number of stream output bytes written to clients
+	 * @return the number of stream output bytes written to clients
+	 */
+	public long getStreamBytesWritten();
+	
+	/**
+	 * Returns the number of stream output chunks written to clients
+	 * @return the number of stream output chunks written to clients
+	 */
+	public long getStreamFlushCount();
+	
+	/**
+	 * Returns the average size in bytes of the stream output chunks written to clients
+	 * @return the average size in bytes of the stream output chunks written to clients
+	 */
+	public long getAverageStreamChunkSize();
+	
+	/**
+	 * Returns the child channel write buffer high water mark in bytes
+	 * @return the child channel write buffer high water mark in bytes
+	 */
+	public int getWriteBufferHighWaterMark();
+	
+	/**
+	 * Sets the child channel write buffer high water mark in bytes. Applies to connections accepted after the next start.
+	 * @param writeBufferHighWaterMark the child channel write buffer high water mark in bytes
+	 */
+	public void setWriteBufferHighWaterMark(int writeBufferHighWaterMark);
+	
+	/**
+	 * Returns the child channel write buffer low water mark in bytes
+	 * @return the child channel write buffer low water mark in bytes
+	 */
+	public int getWriteBufferLowWaterMark();
+	
+	/**
+	 * Sets the child channel write buffer low water mark in bytes. Applies to connections accepted after the next start.
+	 * @param writeBufferLowWaterMark the child channel write buffer low water mark in bytes
+	 */
+	public void setWriteBufferLowWaterMark(int writeBufferLowWaterMark);
+	
+	/**
+	 * Returns the policy applied to script output when a client channel is not writable
+	 * @return the policy applied to script output when a client channel is not writable
+	 */
+	public String getBackpressurePolicy();
+	
+	/**
+	 * Sets the policy applied to script output when a client channel is not writable: BLOCK, FAIL, DISCARD or SPILL
+	 * @param backpressurePolicy the policy applied to script output when a client channel is not writable
+	 */
+	public void setBackpressurePolicy(String backpressurePolicy);
+	
+	/**
+	 * Returns the time in ms script output waits for an unwritable channel under the FAIL and DISCARD policies
+	 * @return the time in ms script output waits for an unwritable channel under the FAIL and DISCARD policies
+	 */
+	public long getBackpressureTimeout();
+	
+	/**
+	 * Sets the time in ms script output waits for an unwritable channel under the FAIL and DISCARD policies
+	 * @param backpressureTimeout the time in ms script output waits for an unwritable channel under the FAIL and DISCARD policies
+	 */
+	public void setBackpressureTimeout(long backpressureTimeout);
+	
+	/**
+	 * Returns the total time in ms script threads have spent blocked on unwritable channels
+	 * @return the total time in ms script threads have spent blocked on unwritable channels
+	 */
+	public long getBackpressureBlockedTime();
+	
+	/**
+	 * Returns the number of times a script thread blocked on an unwritable channel
+	 * @return the number of times a script thread blocked on an unwritable channel
+	 */
+	public long getBackpressureBlockCount();
+	
+	/**
+	 * Returns the number of times a script thread gave up waiting for an unwritable channel
+	 * @return the number of times a script thread gave up waiting for an unwritable channel
+	 */
+	public long getBackpressureTimeoutCount();
+	
+	/**
+	 * Returns the number of script output bytes discarded because a channel stayed unwritable
+	 * @return the number of script output bytes discarded because a channel stayed unwritable
+	 */
+	public long getDiscardedOutputBytes();
+	
+	/**
+	 * Returns the directory script output is spilled to when the policy is SPILL
+	 * @return the spill directory
+	 */
+	public String getSpillDirectory();
+	
+	/**
+	 * Sets the directory script output is spilled to when the policy is SPILL
+	 * @param dir the spill directory
+	 */
+	public void setSpillDirectory(String dir);
+	
+	/**
+	 * Returns the maximum number of bytes one request stream may spill to disk
+	 * @return the maximum spill size in bytes
+	 */
+	public long getMaxSpillSize();
+	
+	/**
+	 * Sets the maximum number of bytes one request stream may spill to disk
+	 * @param size the maximum spill size in bytes
+	 */
+	public void setMaxSpillSize(long size);
+	
+	/**
+	 * Returns the number of spill files created
+	 * @return the number of spill files created
+	 */
+	public long getSpillCount();
+	
+	/**
+	 * Returns the number of spill files not yet drained to their channel
+	 * @return the number of active spill files
+	 */
+	public int getActiveSpillCount();
+	
+	/**
+	 * Returns the number of script output bytes spilled to disk
+	 * @return the number of script output bytes spilled to disk
+	 */
+	public long getSpilledBytes();
+	
+	/**
+	 * Returns the comma separated compression codecs the server accepts, in order of preference
+	 * @return the compression codecs
+	 */
+	public String getCompressionCodecs();
+	
+	/**
+	 * Sets the comma separated compression codecs the server accepts. An empty value disables compression.
+	 * Applies to connections negotiated after the change.
+	 * @param codecs the compression codecs
+	 */
+	public void setCompressionCodecs(String codecs);
+	
+	/**
+	 * Returns the minimum frame payload size in bytes that is compressed
+	 * @return the compression threshold
+	 */
+	public int getCompressionThreshold();
+	
+	/**
+	 * Sets the minimum frame payload size in bytes that is compressed
+	 * @param threshold the compression threshold
+	 */
+	public void setCompressionThreshold(int threshold);
+	
+	/**
+	 * Returns the number of compressed frames sent
+	 * @return the number of compressed frames sent
+	 */
+	public long getCompressedFrameCount();
+	
+	/**
+	 * Returns the ratio of bytes sent to bytes offered for compression
+	 * @return the compression ratio
+	 */
+	public double getCompressionRatio();
+	
+	/**
+	 * Returns the total time in ms spent compressing frames
+	 * @return the total compression time in ms
+	 */
+	public long getCompressionTime();
+	
+	/**
+	 * Returns the total time in ms spent decompressing frames
+	 * @return the total decompression time in ms
+	 */
+	public long getDecompressionTime();
 }
@@ -0,0 +1,426 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.admission;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
+import org.helios.octo.protocol.RejectReason;
+
+/**
+ * <p>Title: AdmissionControl</p>
+ * <p>Description: Limits the request rate and the number of invocations in progress of each connection and of each client.
+ * A client is identified by the remote host address of its connections, so all the connections from one host share the client limits.</p>
+ * <p>Request rates are enforced by {@link TokenBucket}s. A request is admitted only if the connection and the client both have
+ * an invocation slot and a token. A request answered without an invocation, such as a result cache hit, takes only the tokens.
+ * A limit of zero or less is unlimited. The limits can be changed at any time and apply to
+ * the next request of every connection.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.admission.AdmissionControl</code></p>
+ */
+
+public class AdmissionControl {
+	/** The limits of each client, keyed by identity */
+	protected final Map<String, Limits> clients = new ConcurrentHashMap<String, Limits>();
+	/** The requests per second allowed per connection */
+	protected volatile int connectionRate = 0;
+	/** The request burst allowed per connection */
+	protected volatile int connectionBurst = 0;
+	/** The invocations in progress allowed per connection */
+	protected volatile int connectionConcurrency = 0;
+	/** The requests per second allowed per client */
+	protected volatile int clientRate = 0;
+	/** The request burst allowed per client */
+	protected volatile int clientBurst = 0;
+	/** The invocations in progress allowed per client */
+	protected volatile int clientConcurrency = 0;
+	/** The number of requests refused for exceeding a request rate */
+	protected final AtomicLong rateLimited = new AtomicLong(0L);
+	/** The number of requests refused for exceeding an invocation limit */
+	protected final AtomicLong concurrencyLimited = new AtomicLong(0L);
+	
+	/** The attribute key for a connection's limits */
+	public static final AttributeKey<Limits> LIMITS = new AttributeKey<Limits>("OctoAdmissionLimits");
+	
+	/** The composite type items */
+	private static final String[] ITEMS = {"client", "connections", "activeInvocations", "admitted", "rejected"};
+	/** The composite type of a client's admission state */
+	public static final CompositeType CLIENT_TYPE;
+	
+	static {
+		try {
+			CLIENT_TYPE = new CompositeType("ClientAdmission", "The admission state of one client", ITEMS,
+					new String[]{"The client identity", "The number of open connections", "The number of invocations in progress",
+						"The number of requests admitted", "The number of requests refused"},
+					new OpenType<?>[]{SimpleType.STRING, SimpleType.INTEGER, SimpleType.INTEGER, SimpleType.LONG, SimpleType.LONG});
+		} catch (OpenDataException ode) {
+			throw new RuntimeException(ode);
+		}
+	}
+	
+	/**
+	 * Registers a new connection with the limits of its client
+	 * @param channel The connection's channel
+	 */
+	public void opened(Channel channel) {
+		final String identity = identity(channel);
+		Limits client = null;
+		synchronized(clients) {
+			client = clients.get(identity);
+			if(client==null) {
+				client = new Limits(identity, null);
+				clients.put(identity, client);
+			}
+			client.connections++;
+		}
+		channel.attr(LIMITS).set(new Limits(identity, client));
+	}
+	
+	/**
+	 * Unregisters a closed connection. A client's limits are dropped when its last connection closes and it has no invocations in progress.
+	 * @param channel The connection's channel
+	 */
+	public void closed(Channel channel) {
+		Limits conn = channel.attr(LIMITS).get();
+		if(conn==null) return;
+		synchronized(clients) {
+			--conn.client.connections;
+			dropIfIdle(conn.client);
+		}
+	}
+	
+	/**
+	 * Drops a client's limits if it has no open connections and no invocations in progress. Must be called holding the client map lock.
+	 * @param client The client's limits
+	 */
+	protected void dropIfIdle(Limits client) {
+		if(client.connections==0 && client.active.get()==0 && clients.get(client.identity)==client) {
+			clients.remove(client.identity);
+		}
+	}
+	
+	/**
+	 * Decides if a request received on the passed channel may run. An admitted request holds an invocation slot
+	 * of its connection and client until {@link #release(Channel)} is called.
+	 * @param channel The channel the request was received on
+	 * @return null if the request is admitted, otherwise the reason it was refused
+	 */
+	public Rejection admit(Channel channel) {
+		final Limits conn = channel.attr(LIMITS).get();
+		if(conn==null) return null;
+		final Limits client = conn.client;
+		if(!conn.acquireSlot(connectionConcurrency)) {
+			return reject(conn, RejectReason.CONCURRENCY, 0L);
+		}
+		if(!client.acquireSlot(clientConcurrency)) {
+			conn.releaseSlot();
+			return reject(conn, RejectReason.CONCURRENCY, 0L);
+		}
+		final long wait = acquireTokens(conn);
+		if(wait!=0L) {
+			conn.releaseSlot();
+			client.releaseSlot();
+			return reject(conn, RejectReason.RATE, wait);
+		}
+		conn.admitted.incrementAndGet();
+		client.admitted.incrementAndGet();
+		return null;
+	}
+	
+	/**
+	 * Decides if a request received on the passed channel may be answered without an invocation, such as from the result cache.
+	 * The request is charged a token of its connection and client request rates but takes no invocation slot, so nothing needs to be released.
+	 * @param channel The channel the request was received on
+	 * @return null if the request is admitted, otherwise the reason it was refused
+	 */
+	public Rejection admitRate(Channel channel) {
+		final Limits conn = channel.attr(LIMITS).get();
+		if(conn==null) return null;
+		final long wait = acquireTokens(conn);
+		if(wait!=0L) {
+			return reject(conn, RejectReason.RATE, wait);
+		}
+		conn.admitted.incrementAndGet();
+		conn.client.admitted.incrementAndGet();
+		return null;
+	}
+	
+	/**
+	 * Takes a request rate token of a connection and of its client. Neither is taken unless both are available.
+	 * @param conn The connection's limits
+	 * @return zero if the tokens were taken, otherwise the time in ns until they could be
+	 */
+	protected long acquireTokens(Limits conn) {
+		long wait = conn.bucket.tryAcquire(connectionRate, connectionBurst);
+		if(wait==0L) {
+			wait = conn.client.bucket.tryAcquire(clientRate, clientBurst);
+			if(wait!=0L) conn.bucket.refund();
+		}
+		return wait;
+	}
+	
+	/**
+	 * Counts a refused request
+	 * @param conn The connection's limits
+	 * @param reason The reason the request was refused
+	 * @param wait The time in ns until the request could be admitted, or 0 if unknown
+	 * @return the rejection
+	 */
+	protected Rejection reject(Limits conn, RejectReason reason, long wait) {
+		conn.rejected.incrementAndGet();
+		conn.client.rejected.incrementAndGet();
+		if(reason==RejectReason.RATE) rateLimited.incrementAndGet();
+		else concurrencyLimited.incrementAndGet();
+		long ms = TimeUnit.NANOSECONDS.toMillis(wait);
+		if(wait>0L && ms==0L) ms = 1L;
+		return new Rejection(reason, (int)Math.min(ms, Integer.MAX_VALUE));
+	}
+	
+	/**
+	 * Frees the invocation slots held by an admitted request once it has completed or been stopped.
+	 * A client whose connections have all closed is dropped when its last invocation is released.
+	 * @param channel The channel the request was received on
+	 */
+	public void release(Channel channel) {
+		final Limits conn = channel.attr(LIMITS).get();
+		if(conn==null) return;
+		conn.releaseSlot();
+		conn.client.releaseSlot();
+		synchronized(clients) {
+			dropIfIdle(conn.client);
+		}
+	}
+	
+	/**
+	 * Returns the client identity of a channel
+	 * @param channel The channel
+	 * @return the remote host address, or the remote address if it is not an internet address
+	 */
+	public static String identity(Channel channel) {
+		SocketAddress remote = channel.remoteAddress();
+		if(remote instanceof InetSocketAddress && ((InetSocketAddress)remote).getAddress()!=null) {
+			return ((InetSocketAddress)remote).getAddress().getHostAddress();
+		}
+		return String.valueOf(remote);
+	}
+	
+	/**
+	 * Returns the admission state of each connected client
+	 * @return the clients' admission states
+	 */
+	public CompositeData[] getClients() {
+		List<CompositeData> data = new ArrayList<CompositeData>(clients.size());
+		try {
+			for(Limits client: clients.values()) {
+				data.add(new CompositeDataSupport(CLIENT_TYPE, ITEMS, new Object[]{client.identity, client.connections,
+						client.active.get(), client.admitted.get(), client.rejected.get()}));
+			}
+		} catch (OpenDataException ode) {
+			throw new RuntimeException(ode);
+		}
+		return data.toArray(new CompositeData[data.size()]);
+	}
+	
+	/**
+	 * Returns the number of requests refused for exceeding a request rate
+	 * @return the number of rate limited requests
+	 */
+	public long getRateLimited() {
+		return rateLimited.get();
+	}
+	
+	/**
+	 * Returns the number of requests refused for exceeding an invocation limit
+	 * @return the number of concurrency limited requests
+	 */
+	public long getConcurrencyLimited() {
+		return concurrencyLimited.get();
+	}
+
+	/**
+	 * Returns the requests per second allowed per connection
+	 * @return the connection request rate, or 0 for unlimited
+	 */
+	public int getConnectionRate() {
+		return connectionRate;
+	}
+
+	/**
+	 * Sets the requests per second allowed per connection
+	 * @param connectionRate the connection request rate, or 0 for unlimited
+	 */
+	public void setConnectionRate(int connectionRate) {
+		this.connectionRate = Math.max(0, connectionRate);
+	}
+
+	/**
+	 * Returns the request burst allowed per connection
+	 * @return the connection request burst, or 0 for one second of requests
+	 */
+	public int getConnectionBurst() {
+		return connectionBurst;
+	}
+
+	/**
+	 * Sets the request burst allowed per connection
+	 * @param connectionBurst the connection request burst, or 0 for one second of requests
+	 */
+	public void setConnectionBurst(int connectionBurst) {
+		this.connectionBurst = Math.max(0, connectionBurst);
+	}
+
+	/**
+	 * Returns the invocations in progress allowed per connection
+	 * @return the connection invocation limit, or 0 for unlimited
+	 */
+	public int getConnectionConcurrency() {
+		return connectionConcurrency;
+	}
+
+	/**
+	 * Sets the invocations in progress allowed per connection
+	 * @param connectionConcurrency the connection invocation limit, or 0 for unlimited
+	 */
+	public void setConnectionConcurrency(int connectionConcurrency) {
+		this.connectionConcurrency = Math.max(0, connectionConcurrency);
+	}
+
+	/**
+	 * Returns the requests per second allowed per client
+	 * @return the client request rate, or 0 for unlimited
+	 */
+	public int getClientRate() {
+		return clientRate;
+	}
+
+	/**
+	 * Sets the requests per second allowed per client
+	 * @param clientRate the client request rate, or 0 for unlimited
+	 */
+	public void setClientRate(int clientRate) {
+		this.clientRate = Math.max(0, clientRate);
+	}
+
+	/**
+	 * Returns the request burst allowed per client
+	 * @return the client request burst, or 0 for one second of requests
+	 */
+	public int getClientBurst() {
+		return clientBurst;
+	}
+
+	/**
+	 * Sets the request burst allowed per client
+	 * @param clientBurst the client request burst, or 0 for one second of requests
+	 */
+	public void setClientBurst(int clientBurst) {
+		this.clientBurst = Math.max(0, clientBurst);
+	}
+
+	/**
+	 * Returns the invocations in progress allowed per client
+	 * @return the client invocation limit, or 0 for unlimited
+	 */
+	public int getClientConcurrency() {
+		return clientConcurrency;
+	}
+
+	/**
+	 * Sets the invocations in progress allowed per client
+	 * @param clientConcurrency the client invocation limit, or 0 for unlimited
+	 */
+	public void setClientConcurrency(int clientConcurrency) {
+		this.clientConcurrency = Math.max(0, clientConcurrency);
+	}
+
+	/**
+	 * <p>Title: Limits</p>
+	 * <p>Description: The rate bucket and invocation count of one connection or one client</p> 
+	 */
+	public static class Limits {
+		/** The client identity */
+		protected final String identity;
+		/** The client's limits for a connection, or null for a client */
+		protected final Limits client;
+		/** The request rate bucket */
+		protected final TokenBucket bucket = new TokenBucket();
+		/** The number of invocations in progress */
+		protected final AtomicInteger active = new AtomicInteger(0);
+		/** The number of requests admitted */
+		protected final AtomicLong admitted = new AtomicLong(0L);
+		/** The number of requests refused */
+		protected final AtomicLong rejected = new AtomicLong(0L);
+		/** The number of open connections of a client, guarded by the client map */
+		protected int connections = 0;
+		
+		/**
+		 * Creates a new Limits
+		 * @param identity The client identity
+		 * @param client The client's limits for a connection, or null for a client
+		 */
+		protected Limits(String identity, Limits client) {
+			this.identity = identity;
+			this.client = client;
+		}
+		
+		/**
+		 * Takes an invocation slot if fewer than the limit are in use
+		 * @param limit The invocation limit, or 0 for unlimited
+		 * @return true if a slot was taken
+		 */
+		protected boolean acquireSlot(int limit) {
+			for(;;) {
+				int current = active.get();
+				if(limit>0 && current>=limit) return false;
+				if(active.compareAndSet(current, current+1)) return true;
+			}
+		}
+		
+		/**
+		 * Frees an invocation slot
+		 */
+		protected void releaseSlot() {
+			active.decrementAndGet();
+		}
+	}
+}
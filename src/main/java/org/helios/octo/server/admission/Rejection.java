@@ -0,0 +1,77 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.admission;
+
+import org.helios.octo.protocol.RejectReason;
+
+/**
+ * <p>Title: Rejection</p>
+ * <p>Description: The reason a request was refused, and when the client may try again</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.admission.Rejection</code></p>
+ */
+
+public class Rejection {
+	/** The reason the request was refused */
+	protected final RejectReason reason;
+	/** The time in ms after which the client may try again, or 0 if unknown */
+	protected final int retryAfter;
+	
+	/**
+	 * Creates a new Rejection
+	 * @param reason The reason the request was refused
+	 * @param retryAfter The time in ms after which the client may try again, or 0 if unknown
+	 */
+	public Rejection(RejectReason reason, int retryAfter) {
+		this.reason = reason;
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * Returns the reason the request was refused
+	 * @return the reject reason
+	 */
+	public RejectReason getReason() {
+		return reason;
+	}
+
+	/**
+	 * Returns the time in ms after which the client may try again
+	 * @return the retry delay in ms, or 0 if unknown
+	 */
+	public int getRetryAfter() {
+		return retryAfter;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "Rejection [" + reason + ", retryAfter:" + retryAfter + "]";
+	}
+}
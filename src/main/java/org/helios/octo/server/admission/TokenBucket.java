@@ -0,0 +1,76 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.admission;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Title: TokenBucket</p>
+ * <p>Description: A token bucket that refills continuously at a rate and holds at most a burst of tokens.
+ * The rate and burst are passed on each acquire, so a bucket follows limits that are changed at runtime.
+ * A new bucket starts full.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.admission.TokenBucket</code></p>
+ */
+
+public class TokenBucket {
+	/** The tokens in the bucket, or -1 until the first acquire */
+	protected double tokens = -1d;
+	/** The nano time of the last refill */
+	protected long lastRefill = 0L;
+	
+	private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+	
+	/**
+	 * Takes a token from the bucket if one is available
+	 * @param rate The refill rate in tokens per second. A rate of zero or less never limits.
+	 * @param burst The maximum tokens held, or zero or less to hold one second of tokens
+	 * @return zero if a token was taken, otherwise the time in ns until a token will be available
+	 */
+	public synchronized long tryAcquire(int rate, int burst) {
+		if(rate<=0) return 0L;
+		final long now = System.nanoTime();
+		final int capacity = burst>0 ? burst : rate;
+		if(tokens<0d) {
+			tokens = capacity;
+		} else {
+			tokens = Math.min(capacity, tokens + (now - lastRefill) * rate / NANOS_PER_SECOND);
+		}
+		lastRefill = now;
+		if(tokens >= 1d) {
+			tokens -= 1d;
+			return 0L;
+		}
+		return (long)Math.ceil((1d - tokens) * NANOS_PER_SECOND / rate);
+	}
+	
+	/**
+	 * Returns a token taken by an acquire whose request was then refused for another reason
+	 */
+	public synchronized void refund() {
+		if(tokens>=0d) tokens += 1d;
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.cache;
+
+/**
+ * <p>Title: CachedResult</p>
+ * <p>Description: The output and encoded return value of a completed script invocation, retained by the {@link ResultCache}
+ * until it expires. Immutable.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.cache.CachedResult</code></p>
+ */
+
+public class CachedResult {
+	/** The cache key, the script digest and the argument digest */
+	protected final String key;
+	/** The output segments in the order they were written */
+	protected final byte[][] output;
+	/** The stream of each output segment, true for std-out */
+	protected final boolean[] streams;
+	/** The return value, encoded as a result frame payload */
+	protected final byte[] result;
+	/** The nano time the result expires */
+	protected final long expiresAt;
+	/** The estimated memory held by the result in bytes */
+	protected final long size;
+	
+	/** The estimated memory held by an entry besides its key, output and result */
+	public static final int ENTRY_OVERHEAD = 128;
+	
+	/**
+	 * Creates a new CachedResult
+	 * @param key The cache key
+	 * @param output The output segments in the order they were written
+	 * @param streams The stream of each output segment, true for std-out
+	 * @param result The return value, encoded as a result frame payload
+	 * @param ttl The time in ms the result is retained for
+	 */
+	public CachedResult(String key, byte[][] output, boolean[] streams, byte[] result, long ttl) {
+		if(output.length!=streams.length) throw new IllegalArgumentException("Output segment and stream counts differ");
+		this.key = key;
+		this.output = output;
+		this.streams = streams;
+		this.result = result;
+		expiresAt = System.nanoTime() + ttl * 1000000L;
+		long s = ENTRY_OVERHEAD + key.length() * 2 + result.length;
+		for(byte[] segment: output) {
+			s += segment.length + 16;
+		}
+		size = s;
+	}
+	
+	/**
+	 * Indicates if the result has expired
+	 * @param now The current nano time
+	 * @return true if the result has expired
+	 */
+	public boolean isExpired(long now) {
+		return now - expiresAt >= 0;
+	}
+	
+	/**
+	 * Returns the cache key
+	 * @return the cache key
+	 */
+	public String getKey() {
+		return key;
+	}
+	
+	/**
+	 * Returns the output segments in the order they were written
+	 * @return the output segments
+	 */
+	public byte[][] getOutput() {
+		return output;
+	}
+	
+	/**
+	 * Returns the stream of each output segment
+	 * @return true for each std-out segment, false for each std-err segment
+	 */
+	public boolean[] getStreams() {
+		return streams;
+	}
+	
+	/**
+	 * Returns the return value, encoded as a result frame payload
+	 * @return the encoded return value
+	 */
+	public byte[] getResult() {
+		return result;
+	}
+	
+	/**
+	 * Returns the estimated memory held by the result
+	 * @return the size in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+}
@@ -0,0 +1,295 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Title: ResultCache</p>
+ * <p>Description: A bounded cache of the results of invocations their clients marked as cacheable, keyed by script digest and argument digest.
+ * A hit is answered with the cached output and return value without running the script.
+ * The cache is bounded by entry count and by estimated memory. Least recently used results are evicted first.
+ * Expired results are removed when they are next looked up or when they reach the eviction end of the cache.</p>
+ * <p>Only return values are cached. Failed, cancelled and oversized invocations are not.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.cache.ResultCache</code></p>
+ */
+
+public class ResultCache {
+	/** The cached results in access order, guarded by the cache's monitor */
+	protected final LinkedHashMap<String, CachedResult> results = new LinkedHashMap<String, CachedResult>(64, 0.75f, true);
+	/** The estimated memory held by the cached results, guarded by the cache's monitor */
+	protected long bytes = 0L;
+	/** The maximum number of cached results, 0 to disable the cache */
+	protected volatile int maxEntries;
+	/** The maximum estimated memory held by the cached results in bytes */
+	protected volatile long maxBytes;
+	/** The number of lookups answered from the cache */
+	protected final AtomicLong hits = new AtomicLong(0L);
+	/** The number of lookups not answered from the cache */
+	protected final AtomicLong misses = new AtomicLong(0L);
+	/** The number of results evicted to make room */
+	protected final AtomicLong evictions = new AtomicLong(0L);
+	/** The number of results removed because they expired */
+	protected final AtomicLong expirations = new AtomicLong(0L);
+	/** The number of results too large to cache */
+	protected final AtomicLong oversized = new AtomicLong(0L);
+	
+	/** The default maximum number of cached results */
+	public static final int DEFAULT_MAX_ENTRIES = 1024;
+	/** The default maximum estimated memory held by the cached results, 64 MB */
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+	
+	/**
+	 * Creates a new ResultCache
+	 * @param maxEntries The maximum number of cached results, 0 to disable the cache
+	 * @param maxBytes The maximum estimated memory held by the cached results in bytes
+	 */
+	public ResultCache(int maxEntries, long maxBytes) {
+		setMaxEntries(maxEntries);
+		setMaxBytes(maxBytes);
+	}
+	
+	/**
+	 * Creates a new ResultCache with the default bounds
+	 */
+	public ResultCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+	}
+	
+	/**
+	 * Indicates if results are cached
+	 * @return true if the cache is enabled
+	 */
+	public boolean isEnabled() {
+		return maxEntries > 0;
+	}
+	
+	/**
+	 * Looks up a cached result
+	 * @param key The cache key
+	 * @return the cached result or null if there is no unexpired result for the key
+	 */
+	public CachedResult get(String key) {
+		CachedResult result = null;
+		synchronized(this) {
+			result = results.get(key);
+			if(result!=null && result.isExpired(System.nanoTime())) {
+				remove(key);
+				expirations.incrementAndGet();
+				result = null;
+			}
+		}
+		(result==null ? misses : hits).incrementAndGet();
+		return result;
+	}
+	
+	/**
+	 * Caches a result, replacing any result cached under the same key, then evicts results until the cache is within its bounds
+	 * @param result The result to cache
+	 * @return true if the result was cached, false if the cache is disabled or the result is too large
+	 */
+	public boolean put(CachedResult result) {
+		if(!isEnabled()) return false;
+		if(result.getSize() > maxBytes) {
+			oversized.incrementAndGet();
+			return false;
+		}
+		synchronized(this) {
+			CachedResult replaced = results.put(result.getKey(), result);
+			if(replaced!=null) bytes -= replaced.getSize();
+			bytes += result.getSize();
+			trim();
+		}
+		return true;
+	}
+	
+	/**
+	 * Counts a result whose output exceeded the capture limit, so it could not be cached
+	 */
+	public void oversized() {
+		oversized.incrementAndGet();
+	}
+	
+	/**
+	 * Removes results from the least recently used end until the cache is within its bounds. Must be called with the monitor held.
+	 */
+	protected void trim() {
+		final long now = System.nanoTime();
+		Iterator<CachedResult> iter = results.values().iterator();
+		while(iter.hasNext() && (results.size() > maxEntries || bytes > maxBytes)) {
+			CachedResult eldest = iter.next();
+			iter.remove();
+			bytes -= eldest.getSize();
+			(eldest.isExpired(now) ? expirations : evictions).incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Removes a result. Must be called with the monitor held.
+	 * @param key The cache key
+	 */
+	protected void remove(String key) {
+		CachedResult removed = results.remove(key);
+		if(removed!=null) bytes -= removed.getSize();
+	}
+	
+	/**
+	 * Returns the largest output and encoded return value that can be cached
+	 * @return the maximum cacheable size in bytes
+	 */
+	public int getMaxResultSize() {
+		return (int)Math.min(Integer.MAX_VALUE, maxBytes);
+	}
+	
+	/**
+	 * Removes all the cached results
+	 */
+	public synchronized void clear() {
+		results.clear();
+		bytes = 0L;
+	}
+	
+	/**
+	 * Resets the hit, miss, eviction, expiration and oversized counters
+	 */
+	public void resetStats() {
+		hits.set(0L);
+		misses.set(0L);
+		evictions.set(0L);
+		expirations.set(0L);
+		oversized.set(0L);
+	}
+	
+	/**
+	 * Returns the number of cached results
+	 * @return the number of cached results
+	 */
+	public synchronized int getSize() {
+		return results.size();
+	}
+	
+	/**
+	 * Returns the estimated memory held by the cached results
+	 * @return the memory used in bytes
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+	
+	/**
+	 * Returns the number of lookups answered from the cache
+	 * @return the hit count
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+	
+	/**
+	 * Returns the number of lookups not answered from the cache
+	 * @return the miss count
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * Returns the percentage of lookups answered from the cache
+	 * @return the hit ratio from 0 to 100, or 0 if there have been no lookups
+	 */
+	public double getHitRatio() {
+		final long h = hits.get();
+		final long total = h + misses.get();
+		return total==0 ? 0D : h * 100D / total;
+	}
+	
+	/**
+	 * Returns the number of results evicted to make room
+	 * @return the eviction count
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+	
+	/**
+	 * Returns the number of results removed because they expired
+	 * @return the expiration count
+	 */
+	public long getExpirations() {
+		return expirations.get();
+	}
+	
+	/**
+	 * Returns the number of results too large to cache
+	 * @return the oversized count
+	 */
+	public long getOversized() {
+		return oversized.get();
+	}
+
+	/**
+	 * Returns the maximum number of cached results
+	 * @return the maximum number of cached results, 0 if the cache is disabled
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Sets the maximum number of cached results, evicting results if the cache is over the new bound
+	 * @param maxEntries the maximum number of cached results, 0 to disable the cache
+	 */
+	public void setMaxEntries(int maxEntries) {
+		if(maxEntries<0) throw new IllegalArgumentException("Invalid max entries [" + maxEntries + "]");
+		this.maxEntries = maxEntries;
+		synchronized(this) {
+			trim();
+		}
+	}
+
+	/**
+	 * Returns the maximum estimated memory held by the cached results
+	 * @return the maximum memory in bytes
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Sets the maximum estimated memory held by the cached results, evicting results if the cache is over the new bound
+	 * @param maxBytes the maximum memory in bytes
+	 */
+	public void setMaxBytes(long maxBytes) {
+		if(maxBytes<1) throw new IllegalArgumentException("Invalid max bytes [" + maxBytes + "]");
+		this.maxBytes = maxBytes;
+		synchronized(this) {
+			trim();
+		}
+	}
+}
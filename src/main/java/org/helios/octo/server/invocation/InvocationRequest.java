@@ -24,37 +24,80 @@
  */
 package org.helios.octo.server.invocation;
 
-import java.io.Externalizable;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.serialization.ClassResolver;
+
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectOutput;
-import java.util.ArrayList;
-import java.util.List;
+
+import org.helios.octo.protocol.FrameType;
+import org.helios.octo.protocol.PriorityClass;
+import org.helios.octo.protocol.ValueCodec;
+import org.helios.octo.util.DigestUtil;
 
 /**
  * <p>Title: InvocationRequest</p>
- * <p>Description: Represents an invocation submitted by a remote client</p> 
+ * <p>Description: Represents an invocation submitted by a remote client.
+ * Carried as the payload of a {@link FrameType#REQUEST} frame:<pre>
+ *   int       timeout in ms, 0 for no deadline
+ *   byte      priority class
+ *   int       time in ms the result may be cached for, 0 if it may not be cached
+ *   byte      flags, {@link #NO_COALESCE} to opt out of coalescing, {@link #NAMED} for a stored script request
+ *   byte[20]  script digest, omitted from a stored script request
+ *   int       script length, -1 for a digest only request, omitted from a stored script request
+ *   byte[]    UTF-8 script text
+ *   short     stored script name length, only in a stored script request
+ *   byte[]    UTF-8 stored script name, only in a stored script request
+ *   short     argument count
+ *   values    the arguments, each encoded by {@link ValueCodec}
+ * </pre></p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.octo.server.invocation.InvocationRequest</code></p>
  */
 
-public class InvocationRequest implements Externalizable {
+public class InvocationRequest {
 	/** The script text */
 	protected String scriptText;
+	/** The name of the stored script to run, or null if the request carries its script */
+	protected String scriptName = null;
 	/** The arguments to the script */
 	protected Object[] arguments;
 	/** The client supplied request id */
 	protected long requestId;
+	/** The digest of the script text */
+	protected byte[] scriptDigest;
+	/** The hex encoded digest of the script text */
+	protected String hexDigest;
+	/** Indicates if only the script digest should be sent */
+	protected boolean digestOnly = false;
+	/** The time in ms the server has to complete the request, measured from when it is received, or 0 for no deadline */
+	protected int timeout = 0;
+	/** The scheduling class of the request */
+	protected PriorityClass priority = PriorityClass.BATCH;
+	/** The time in ms the server may cache the request's result for, or 0 if it may not be cached */
+	protected int cacheTtl = 0;
+	/** Indicates if the request may be answered by the run of an identical in-flight request */
+	protected boolean coalesce = true;
+	/** The hex encoded digest of the encoded arguments, or null if the result may neither be cached nor coalesced */
+	protected String argumentDigest = null;
+	/** The script digest and the argument digest, built on first use */
+	protected String invocationKey = null;
+	/** The nano time the server received the request, 0 on the client */
+	protected long receivedTime = 0L;
+	
+	private static final Object[] EMPTY_ARGS = {};
 	
-	private final byte[] EMPTY_BYTES = {};
+	/** The request flag that opts a request out of coalescing */
+	public static final byte NO_COALESCE = 0x01;
+	/** The request flag that marks a request for a stored script, which carries the script name in place of the script */
+	public static final byte NAMED = 0x02;
 	
 	/**
-	 * Creates a new InvocationRequest.
-	 * FOR EXTERN ONLY
+	 * Creates a new InvocationRequest
+	 * @param requestId The client supplied request id
 	 */
-	public InvocationRequest() {
-		
+	protected InvocationRequest(long requestId) {
+		this.requestId = requestId;
 	}
 	
 	/**
@@ -64,67 +107,322 @@ public class InvocationRequest implements Externalizable {
 	 * @param requestId The client supplied request id
 	 */
 	public InvocationRequest(String scriptText, Object[] arguments, long requestId) {
+		this(scriptText, DigestUtil.digest(scriptText), arguments, requestId);
+	}
+	
+	/**
+	 * Creates a new InvocationRequest
+	 * @param scriptText the script text
+	 * @param scriptDigest The pre-computed digest of the script text
+	 * @param arguments The arguments to pass when invoking
+	 * @param requestId The client supplied request id
+	 */
+	public InvocationRequest(String scriptText, byte[] scriptDigest, Object[] arguments, long requestId) {
+		if(scriptDigest==null || scriptDigest.length!=DigestUtil.DIGEST_LENGTH) throw new IllegalArgumentException("Invalid script digest");
 		this.scriptText = scriptText;
+		this.scriptDigest = scriptDigest;
 		this.arguments = arguments;
 		this.requestId = requestId;
 	}
 
-
 	/**
-	 * {@inheritDoc}
-	 * @see java.io.Externalizable#writeExternal(java.io.ObjectOutput)
-	 */
-	@Override
-	public void writeExternal(ObjectOutput out) throws IOException {
-		out.writeLong(requestId);
-		byte[] bytes = scriptText==null ? EMPTY_BYTES : scriptText.getBytes();
-		out.writeInt(bytes.length);
-		if(bytes.length>0) {
-			out.write(bytes);
+	 * Creates a request for a stored script
+	 * @param scriptName The name of the stored script
+	 * @param arguments The arguments to pass when invoking
+	 * @param requestId The client supplied request id
+	 * @return the request
+	 */
+	public static InvocationRequest named(String scriptName, Object[] arguments, long requestId) {
+		if(scriptName==null || scriptName.trim().isEmpty()) throw new IllegalArgumentException("The passed script name was null or empty");
+		InvocationRequest request = new InvocationRequest(requestId);
+		request.scriptName = scriptName;
+		request.arguments = arguments;
+		return request;
+	}
+	
+	/**
+	 * Encodes this request as a frame payload
+	 * @param out The buffer to write to
+	 * @throws IOException thrown if an argument cannot be encoded
+	 */
+	public void encode(ByteBuf out) throws IOException {
+		out.writeInt(timeout);
+		out.writeByte(priority.code);
+		out.writeInt(cacheTtl);
+		out.writeByte((coalesce ? 0 : NO_COALESCE) | (scriptName==null ? 0 : NAMED));
+		if(scriptName!=null) {
+			byte[] bytes = scriptName.getBytes(DigestUtil.UTF8);
+			if(bytes.length > 0xFFFF) throw new IllegalArgumentException("Script name too long [" + bytes.length + "]");
+			out.writeShort(bytes.length);
+			out.writeBytes(bytes);
+		} else if(digestOnly) {
+			out.writeBytes(scriptDigest);
+			out.writeInt(-1);
+		} else {
+			out.writeBytes(scriptDigest);
+			byte[] bytes = scriptText.getBytes(DigestUtil.UTF8);
+			out.writeInt(bytes.length);
+			out.writeBytes(bytes);
 		}
 		int argCount = arguments==null ? 0 : arguments.length;
-		out.writeInt(argCount);
-		if(argCount>0) {			
-			List<Object> validatedArgs = new ArrayList<Object>(argCount);
-			if(arguments!=null) {
-				for(int i = 0; i < argCount; i++) {
-					if(arguments[i] != null) {
-						validatedArgs.add(arguments[i]);
-						out.write(1);
-						out.writeObject(arguments[i]);
-					} else {
-						out.write(0);
-					}
-				}				
-			}
+		if(argCount > 0xFFFF) throw new IllegalArgumentException("Too many arguments [" + argCount + "]");
+		out.writeShort(argCount);
+		for(int i = 0; i < argCount; i++) {
+			ValueCodec.write(out, arguments[i]);
 		}
-		System.out.println("Wrote out requestId [" + requestId + "]");
 	}
 
-
 	/**
-	 * {@inheritDoc}
-	 * @see java.io.Externalizable#readExternal(java.io.ObjectInput)
-	 */
-	@Override
-	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
-		requestId = in.readLong();
-		int strLen = in.readInt();
-		byte[] bytes = new byte[strLen];
-		in.read(bytes);
-		scriptText = new String(bytes);
-		int argCount = in.readInt();
-		arguments = new Object[argCount];
-		for(int i = 0; i < argCount; i++) {
-			if(in.read()==1) {
-				arguments[i] = in.readObject();
+	 * Decodes a request from a frame payload
+	 * @param requestId The request id from the frame header
+	 * @param in The frame payload
+	 * @param classResolver The class resolver used to resolve the classes of java serialized arguments
+	 * @return the decoded request
+	 * @throws IOException thrown on any IO error
+	 * @throws ClassNotFoundException thrown if the class of an argument cannot be resolved
+	 */
+	public static InvocationRequest decode(long requestId, ByteBuf in, ClassResolver classResolver) throws IOException, ClassNotFoundException {
+		InvocationRequest request = new InvocationRequest(requestId);
+		request.timeout = in.readInt();
+		request.priority = PriorityClass.decode(in.readByte());
+		request.cacheTtl = in.readInt();
+		final byte flags = in.readByte();
+		request.coalesce = (flags & NO_COALESCE)==0;
+		if((flags & NAMED)!=0) {
+			int nameLen = in.readUnsignedShort();
+			request.scriptName = in.toString(in.readerIndex(), nameLen, DigestUtil.UTF8);
+			in.skipBytes(nameLen);
+		} else {
+			request.scriptDigest = new byte[DigestUtil.DIGEST_LENGTH];
+			in.readBytes(request.scriptDigest);
+			int strLen = in.readInt();
+			if(strLen<0) {
+				request.digestOnly = true;
 			} else {
-				arguments[i] = null;
+				request.scriptText = in.toString(in.readerIndex(), strLen, DigestUtil.UTF8);
+				in.skipBytes(strLen);
 			}
 		}
-		System.out.println("Read in requestId [" + requestId + "]");
+		final int argStart = in.readerIndex();
+		int argCount = in.readUnsignedShort();
+		request.arguments = argCount==0 ? EMPTY_ARGS : new Object[argCount];
+		for(int i = 0; i < argCount; i++) {
+			request.arguments[i] = ValueCodec.read(in, classResolver);
+		}
+		if(request.cacheTtl>0 || request.coalesce) {
+			// Keyed by the encoded arguments, so equal argument values always produce the same key
+			byte[] encodedArgs = new byte[in.readerIndex() - argStart];
+			in.getBytes(argStart, encodedArgs);
+			request.argumentDigest = DigestUtil.toHex(DigestUtil.digest(encodedArgs, 0, encodedArgs.length));
+		}
+		return request;
+	}
+	
+	/**
+	 * Returns the script text
+	 * @return the script text
+	 */
+	public String getScriptText() {
+		return scriptText;
+	}
+
+	/**
+	 * Sets the script text. Used by the server to resolve a digest only request.
+	 * @param scriptText the script text
+	 */
+	public void setScriptText(String scriptText) {
+		this.scriptText = scriptText;
+	}
+	
+	/**
+	 * Returns the name of the stored script to run
+	 * @return the stored script name, or null if the request carries its script
+	 */
+	public String getScriptName() {
+		return scriptName;
+	}
+	
+	/**
+	 * Indicates if the request is for a stored script
+	 * @return true if the request carries a stored script name in place of its script
+	 */
+	public boolean isNamed() {
+		return scriptName!=null;
+	}
+	
+	/**
+	 * Sets the script text and digest of a stored script request. Used by the server to resolve the script name.
+	 * @param scriptText The script text
+	 * @param scriptDigest The digest of the script text
+	 */
+	public void resolve(String scriptText, byte[] scriptDigest) {
+		this.scriptText = scriptText;
+		this.scriptDigest = scriptDigest;
+		hexDigest = null;
+		invocationKey = null;
+	}
+	
+	/**
+	 * Returns the digest of the script text
+	 * @return the script digest, or null if the request is for a stored script that has not been resolved
+	 */
+	public byte[] getScriptDigest() {
+		return scriptDigest;
+	}
+	
+	/**
+	 * Returns the hex encoded digest of the script text
+	 * @return the hex encoded script digest, or null if the request is for a stored script that has not been resolved
+	 */
+	public String getHexDigest() {
+		if(hexDigest==null && scriptDigest!=null) {
+			hexDigest = DigestUtil.toHex(scriptDigest);
+		}
+		return hexDigest;
+	}
+	
+	/**
+	 * Indicates if only the script digest is sent
+	 * @return true if only the script digest is sent, false if the full script text is sent
+	 */
+	public boolean isDigestOnly() {
+		return digestOnly;
+	}
+
+	/**
+	 * Sets whether only the script digest is sent
+	 * @param digestOnly true to send only the script digest, false to send the full script text
+	 */
+	public void setDigestOnly(boolean digestOnly) {
+		this.digestOnly = digestOnly;
+	}
+	
+	/**
+	 * Returns the time the server has to complete the request, measured from when it is received
+	 * @return the timeout in ms, or 0 for no deadline
+	 */
+	public int getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Sets the time the server has to complete the request, measured from when it is received
+	 * @param timeout the timeout in ms, or 0 for no deadline
+	 */
+	public void setTimeout(int timeout) {
+		if(timeout<0) throw new IllegalArgumentException("Invalid timeout [" + timeout + "]");
+		this.timeout = timeout;
+	}
+	
+	/**
+	 * Returns the scheduling class of the request
+	 * @return the priority class
+	 */
+	public PriorityClass getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Sets the scheduling class of the request
+	 * @param priority the priority class
+	 */
+	public void setPriority(PriorityClass priority) {
+		if(priority==null) throw new IllegalArgumentException("The passed priority class was null");
+		this.priority = priority;
+	}
+	
+	/**
+	 * Returns the time the server may cache the request's result for
+	 * @return the cache time to live in ms, or 0 if the result may not be cached
+	 */
+	public int getCacheTtl() {
+		return cacheTtl;
+	}
+
+	/**
+	 * Sets the time the server may cache the request's result for. Only scripts without side effects should be cached.
+	 * @param cacheTtl the cache time to live in ms, or 0 if the result may not be cached
+	 */
+	public void setCacheTtl(int cacheTtl) {
+		if(cacheTtl<0) throw new IllegalArgumentException("Invalid cache ttl [" + cacheTtl + "]");
+		this.cacheTtl = cacheTtl;
+	}
+	
+	/**
+	 * Returns the key the server caches the request's result under
+	 * @return the cache key, or null if the result may not be cached or the request was not decoded by the server
+	 */
+	public String getCacheKey() {
+		return cacheTtl>0 ? getInvocationKey() : null;
+	}
+	
+	/**
+	 * Indicates if the request may be answered by the run of an identical in-flight request
+	 * @return true if the request may be coalesced
+	 */
+	public boolean isCoalesce() {
+		return coalesce;
+	}
+
+	/**
+	 * Sets whether the request may be answered by the run of an identical in-flight request.
+	 * Requests for scripts with side effects that must happen once per request should opt out.
+	 * @param coalesce true to allow coalescing, false to always run the request
+	 */
+	public void setCoalesce(boolean coalesce) {
+		this.coalesce = coalesce;
+	}
+	
+	/**
+	 * Returns the key identical in-flight requests are coalesced under
+	 * @return the coalescing key, or null if the request may not be coalesced or was not decoded by the server
+	 */
+	public String getCoalesceKey() {
+		return coalesce ? getInvocationKey() : null;
+	}
+	
+	/**
+	 * Returns the script digest and the argument digest
+	 * @return the invocation key, or null if the arguments were not digested or the script digest is not known
+	 */
+	protected String getInvocationKey() {
+		if(invocationKey==null && argumentDigest!=null && scriptDigest!=null) {
+			invocationKey = getHexDigest() + ":" + argumentDigest;
+		}
+		return invocationKey;
+	}
+	
+	/**
+	 * Returns the nano time the server received the request
+	 * @return the nano time the request was received, or 0 on the client
+	 */
+	public long getReceivedTime() {
+		return receivedTime;
+	}
+
+	/**
+	 * Sets the nano time the server received the request
+	 * @param receivedTime the nano time the request was received
+	 */
+	public void setReceivedTime(long receivedTime) {
+		this.receivedTime = receivedTime;
 	}
 	
+	/**
+	 * Returns the arguments to the script
+	 * @return the arguments to the script
+	 */
+	public Object[] getArguments() {
+		return arguments;
+	}
+
+	/**
+	 * Returns the client supplied request id
+	 * @return the request id
+	 */
+	public long getRequestId() {
+		return requestId;
+	}
 	
 	/**
 	 * {@inheritDoc}
@@ -133,6 +431,12 @@ public class InvocationRequest implements Externalizable {
 	public String toString() {
 		StringBuilder b = new StringBuilder("InvocationRequest [");
 		b.append("\n\trequestId:").append(requestId);
+		if(scriptName!=null) b.append("\n\tName:").append(scriptName);
+		b.append("\n\tDigest:").append(getHexDigest());
+		if(timeout>0) b.append("\n\tTimeout:").append(timeout);
+		b.append("\n\tPriority:").append(priority);
+		if(cacheTtl>0) b.append("\n\tCache TTL:").append(cacheTtl);
+		if(!coalesce) b.append("\n\tCoalesce:false");
 		b.append("\n\tScript:").append(scriptText);
 		b.append("\n\tArguments:");
 		if(arguments!=null) {
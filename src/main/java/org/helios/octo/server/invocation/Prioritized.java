@@ -2,7 +2,7 @@
  * Helios, OpenSource Monitoring
  * Brought to you by the Helios Development Group
  *
- * Copyright 2007, Helios Development Group and individual contributors
+ * Copyright 2013, Helios Development Group and individual contributors
  * as indicated by the @author tags. See the copyright.txt file in the
  * distribution for a full listing of individual contributors.
  *
@@ -22,23 +22,22 @@
  * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
  *
  */
-package org.helios.octo.client;
+package org.helios.octo.server.invocation;
+
+import org.helios.octo.protocol.PriorityClass;
 
 /**
- * <p>Title: Response</p>
- * <p>Description: Response Replaying Decoder Enum</p> 
+ * <p>Title: Prioritized</p>
+ * <p>Description: A task that declares the priority class it is scheduled in by the {@link PriorityTaskQueue}</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
- * <p><code>org.helios.octo.client.Response</code></p>
+ * <p><code>org.helios.octo.server.invocation.Prioritized</code></p>
  */
 
-public enum Response {
-	/** The long identiftying the request for which this response is for */
-	REQUEST_ID,
-	/** The response type byte, 0 for a stream, 1 for an object */
-	RESPONSE_TYPE,
-	/** The stream type if the response type is stream, 0 for std-out, 1 for std-err */
-	STREAM_TYPE,
-	/** Inbound handlers installed */
-	FORWARD;
+public interface Prioritized {
+	/**
+	 * Returns the priority class of this task
+	 * @return the priority class
+	 */
+	public PriorityClass getPriority();
 }
@@ -0,0 +1,528 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.invocation;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
+import org.helios.octo.protocol.PriorityClass;
+import org.helios.octo.server.metrics.LatencyHistogram;
+
+/**
+ * <p>Title: PriorityTaskQueue</p>
+ * <p>Description: The script executor's task queue. Tasks are queued by {@link PriorityClass}, each class in its own bounded queue,
+ * and taken from the classes by smooth weighted round robin: while several classes have tasks waiting, each class is served
+ * in proportion to its weight, and the serving of the classes is interleaved rather than bunched.
+ * So an interactive request waits behind at most a few queued tasks of other classes however many are queued.
+ * Tasks that are not {@link Prioritized} are queued as {@link PriorityClass#BATCH}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.invocation.PriorityTaskQueue</code></p>
+ */
+
+public class PriorityTaskQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+	/** The queues of each class, indexed by ordinal */
+	protected final Lane[] lanes;
+	/** The capacity of each class's queue */
+	protected final int capacity;
+	/** Guards all the queues */
+	protected final ReentrantLock lock = new ReentrantLock();
+	/** Signalled when a task is queued */
+	protected final Condition notEmpty = lock.newCondition();
+	/** Signalled when a task is taken */
+	protected final Condition notFull = lock.newCondition();
+	/** The number of queued tasks */
+	protected volatile int count = 0;
+	
+	/** The composite type items */
+	private static final String[] ITEMS = {"priority", "weight", "queueDepth", "dispatched", "queueWait"};
+	/** The composite type of a priority class's stats */
+	public static final CompositeType STATS_TYPE;
+	
+	static {
+		try {
+			STATS_TYPE = new CompositeType("PriorityClassStats", "The queue state of one priority class", ITEMS,
+					new String[]{"The priority class", "The scheduling weight", "The number of queued tasks",
+						"The number of tasks taken from the queue", "The queue wait histogram in microseconds"},
+					new OpenType<?>[]{SimpleType.STRING, SimpleType.INTEGER, SimpleType.INTEGER, SimpleType.LONG, LatencyHistogram.SUMMARY_TYPE});
+		} catch (OpenDataException ode) {
+			throw new RuntimeException(ode);
+		}
+	}
+	
+	/**
+	 * Creates a new PriorityTaskQueue with the default class weights
+	 * @param capacity The capacity of each class's queue
+	 */
+	public PriorityTaskQueue(int capacity) {
+		if(capacity<1) throw new IllegalArgumentException("Invalid queue capacity [" + capacity + "]");
+		this.capacity = capacity;
+		PriorityClass[] classes = PriorityClass.values();
+		lanes = new Lane[classes.length];
+		for(PriorityClass pc: classes) {
+			lanes[pc.ordinal()] = new Lane(pc);
+		}
+	}
+	
+	/**
+	 * Returns the queue of the passed task's class
+	 * @param task The task
+	 * @return the task's class's queue
+	 */
+	protected Lane laneOf(Runnable task) {
+		if(task instanceof Prioritized) {
+			PriorityClass pc = ((Prioritized)task).getPriority();
+			if(pc!=null) return lanes[pc.ordinal()];
+		}
+		return lanes[PriorityClass.BATCH.ordinal()];
+	}
+	
+	/**
+	 * Selects the class to take the next task from. Must be called with the lock held and at least one task queued.
+	 * @param commit true to advance the round robin, false to only look
+	 * @return the selected class's queue
+	 */
+	protected Lane select(boolean commit) {
+		Lane best = null;
+		int total = 0;
+		long bestCurrent = 0L;
+		for(Lane lane: lanes) {
+			if(lane.tasks.isEmpty()) continue;
+			long current = lane.current + lane.weight;
+			total += lane.weight;
+			if(best==null || current > bestCurrent) {
+				best = lane;
+				bestCurrent = current;
+			}
+			if(commit) lane.current = current;
+		}
+		if(commit) best.current -= total;
+		return best;
+	}
+	
+	/**
+	 * Takes the next task. Must be called with the lock held and at least one task queued.
+	 * @return the next task
+	 */
+	protected Runnable dequeue() {
+		Lane lane = select(true);
+		Runnable task = lane.tasks.poll();
+		// An idle class starts afresh rather than carrying credit or debt from its last busy period
+		if(lane.tasks.isEmpty()) lane.current = 0L;
+		lane.dispatched++;
+		count--;
+		notFull.signalAll();
+		return task;
+	}
+	
+	/**
+	 * Queues a task. Must be called with the lock held and room in the task's queue.
+	 * @param lane The task's class's queue
+	 * @param task The task
+	 */
+	protected void enqueue(Lane lane, Runnable task) {
+		lane.tasks.add(task);
+		count++;
+		notEmpty.signal();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.Queue#offer(java.lang.Object)
+	 */
+	@Override
+	public boolean offer(Runnable task) {
+		if(task==null) throw new NullPointerException();
+		final Lane lane = laneOf(task);
+		lock.lock();
+		try {
+			if(lane.tasks.size() >= capacity) return false;
+			enqueue(lane, task);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.concurrent.BlockingQueue#offer(java.lang.Object, long, java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public boolean offer(Runnable task, long timeout, TimeUnit unit) throws InterruptedException {
+		if(task==null) throw new NullPointerException();
+		final Lane lane = laneOf(task);
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while(lane.tasks.size() >= capacity) {
+				if(nanos <= 0L) return false;
+				nanos = notFull.awaitNanos(nanos);
+			}
+			enqueue(lane, task);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.concurrent.BlockingQueue#put(java.lang.Object)
+	 */
+	@Override
+	public void put(Runnable task) throws InterruptedException {
+		if(task==null) throw new NullPointerException();
+		final Lane lane = laneOf(task);
+		lock.lockInterruptibly();
+		try {
+			while(lane.tasks.size() >= capacity) {
+				notFull.await();
+			}
+			enqueue(lane, task);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.Queue#poll()
+	 */
+	@Override
+	public Runnable poll() {
+		lock.lock();
+		try {
+			return count==0 ? null : dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.concurrent.BlockingQueue#poll(long, java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while(count==0) {
+				if(nanos <= 0L) return null;
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.concurrent.BlockingQueue#take()
+	 */
+	@Override
+	public Runnable take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while(count==0) {
+				notEmpty.await();
+			}
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.Queue#peek()
+	 */
+	@Override
+	public Runnable peek() {
+		lock.lock();
+		try {
+			return count==0 ? null : select(false).tasks.peek();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Removes a queued task, as when a queued invocation is cancelled
+	 * {@inheritDoc}
+	 * @see java.util.AbstractCollection#remove(java.lang.Object)
+	 */
+	@Override
+	public boolean remove(Object task) {
+		if(!(task instanceof Runnable)) return false;
+		final Lane lane = laneOf((Runnable)task);
+		lock.lock();
+		try {
+			if(!lane.tasks.remove(task)) return false;
+			if(lane.tasks.isEmpty()) lane.current = 0L;
+			count--;
+			notFull.signalAll();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.concurrent.BlockingQueue#remainingCapacity()
+	 */
+	@Override
+	public int remainingCapacity() {
+		return capacity * lanes.length - count;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection)
+	 */
+	@Override
+	public int drainTo(Collection<? super Runnable> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection, int)
+	 */
+	@Override
+	public int drainTo(Collection<? super Runnable> c, int maxElements) {
+		if(c==null) throw new NullPointerException();
+		if(c==this) throw new IllegalArgumentException();
+		lock.lock();
+		try {
+			int drained = 0;
+			while(count > 0 && drained < maxElements) {
+				c.add(dequeue());
+				drained++;
+			}
+			return drained;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns an iterator over a snapshot of the queued tasks, in class order
+	 * {@inheritDoc}
+	 * @see java.util.AbstractCollection#iterator()
+	 */
+	@Override
+	public Iterator<Runnable> iterator() {
+		final List<Runnable> snapshot = new ArrayList<Runnable>(count);
+		lock.lock();
+		try {
+			for(Lane lane: lanes) {
+				snapshot.addAll(lane.tasks);
+			}
+		} finally {
+			lock.unlock();
+		}
+		final Iterator<Runnable> iter = snapshot.iterator();
+		return new Iterator<Runnable>() {
+			private Runnable last = null;
+			@Override
+			public boolean hasNext() {
+				return iter.hasNext();
+			}
+			@Override
+			public Runnable next() {
+				last = iter.next();
+				return last;
+			}
+			@Override
+			public void remove() {
+				if(last==null) throw new IllegalStateException();
+				PriorityTaskQueue.this.remove(last);
+				last = null;
+			}
+		};
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.AbstractCollection#size()
+	 */
+	@Override
+	public int size() {
+		return count;
+	}
+	
+	/**
+	 * Returns the number of queued tasks of a class
+	 * @param priority The priority class
+	 * @return the class's queue depth
+	 */
+	public int getDepth(PriorityClass priority) {
+		lock.lock();
+		try {
+			return lanes[priority.ordinal()].tasks.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Returns the scheduling weight of a class
+	 * @param priority The priority class
+	 * @return the class's weight
+	 */
+	public int getWeight(PriorityClass priority) {
+		return lanes[priority.ordinal()].weight;
+	}
+	
+	/**
+	 * Sets the scheduling weight of a class
+	 * @param priority The priority class
+	 * @param weight The class's weight
+	 */
+	public void setWeight(PriorityClass priority, int weight) {
+		if(weight<1) throw new IllegalArgumentException("Invalid weight [" + weight + "] for [" + priority + "]");
+		lock.lock();
+		try {
+			lanes[priority.ordinal()].weight = weight;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Returns the class weights as a comma separated list of <b><code>CLASS:weight</code></b> pairs
+	 * @return the class weights
+	 */
+	public String getWeights() {
+		StringBuilder b = new StringBuilder();
+		for(Lane lane: lanes) {
+			if(b.length()>0) b.append(",");
+			b.append(lane.priority).append(":").append(lane.weight);
+		}
+		return b.toString();
+	}
+	
+	/**
+	 * Sets class weights from a comma separated list of <b><code>CLASS:weight</code></b> pairs. Class names ignore case.
+	 * Classes that are not listed keep their weights.
+	 * @param weights The class weights
+	 */
+	public void setWeights(String weights) {
+		int[] parsed = parseWeights(weights);
+		for(PriorityClass pc: PriorityClass.values()) {
+			if(parsed[pc.ordinal()]>0) setWeight(pc, parsed[pc.ordinal()]);
+		}
+	}
+	
+	/**
+	 * Parses a comma separated list of <b><code>CLASS:weight</code></b> pairs. Class names ignore case.
+	 * @param weights The class weights
+	 * @return the weight of each class indexed by ordinal, 0 for classes that are not listed
+	 */
+	public static int[] parseWeights(String weights) {
+		int[] parsed = new int[PriorityClass.values().length];
+		if(weights==null) return parsed;
+		for(String pair: weights.split(",")) {
+			pair = pair.trim();
+			if(pair.isEmpty()) continue;
+			int index = pair.indexOf(':');
+			if(index==-1) throw new IllegalArgumentException("Invalid priority weight [" + pair + "]");
+			PriorityClass pc = PriorityClass.forName(pair.substring(0, index));
+			int weight = 0;
+			try {
+				weight = Integer.parseInt(pair.substring(index+1).trim());
+			} catch (NumberFormatException nfe) {
+				weight = 0;
+			}
+			if(weight<1) throw new IllegalArgumentException("Invalid priority weight [" + pair + "]");
+			parsed[pc.ordinal()] = weight;
+		}
+		return parsed;
+	}
+	
+	/**
+	 * Returns the queue state of each class
+	 * @param queueWaits The queue wait histograms of each class, indexed by ordinal
+	 * @return the queue state of each class
+	 */
+	public CompositeData[] getStats(LatencyHistogram[] queueWaits) {
+		CompositeData[] stats = new CompositeData[lanes.length];
+		try {
+			for(Lane lane: lanes) {
+				int i = lane.priority.ordinal();
+				stats[i] = new CompositeDataSupport(STATS_TYPE, ITEMS, new Object[]{lane.priority.name(), lane.weight,
+						getDepth(lane.priority), lane.dispatched, queueWaits[i].toCompositeData()});
+			}
+		} catch (OpenDataException ode) {
+			throw new RuntimeException(ode);
+		}
+		return stats;
+	}
+	
+	/**
+	 * <p>Title: Lane</p>
+	 * <p>Description: The queue and scheduling state of one priority class</p> 
+	 */
+	protected static class Lane {
+		/** The priority class */
+		protected final PriorityClass priority;
+		/** The queued tasks, guarded by the queue lock */
+		protected final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+		/** The scheduling weight */
+		protected volatile int weight;
+		/** The round robin credit, guarded by the queue lock */
+		protected long current = 0L;
+		/** The number of tasks taken */
+		protected volatile long dispatched = 0L;
+		
+		/**
+		 * Creates a new Lane
+		 * @param priority The priority class
+		 */
+		protected Lane(PriorityClass priority) {
+			this.priority = priority;
+			weight = priority.defaultWeight;
+		}
+	}
+}
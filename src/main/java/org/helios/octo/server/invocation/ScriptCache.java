@@ -0,0 +1,239 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.invocation;
+
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyCodeSource;
+import groovy.lang.Script;
+import groovy.transform.ThreadInterrupt;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
+import org.helios.octo.util.DigestUtil;
+
+/**
+ * <p>Title: ScriptCache</p>
+ * <p>Description: Size bounded LRU cache of compiled groovy script classes keyed by the digest of the script text.
+ * Each script is compiled in its own {@link GroovyClassLoader} so an evicted script class can be collected.
+ * Scripts are compiled with {@link ThreadInterrupt} so loops and closures check for interruption and a cancelled script stops.
+ * The classes of the {@link ScriptRegistry}'s stored scripts are pinned, so they are never evicted and do not count towards the size bound.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.invocation.ScriptCache</code></p>
+ */
+
+public class ScriptCache {
+	/** The default maximum number of cached script classes */
+	public static final int DEFAULT_SIZE = 500;
+	/** The code base assigned to compiled scripts */
+	public static final String CODE_BASE = "/groovy/octo";
+	
+	/** Instance logger */
+	protected final Logger log = Logger.getLogger(getClass());
+	/** The class loader compiled scripts are parented to */
+	protected final ClassLoader classLoader;
+	/** The groovy compiler configuration */
+	protected final CompilerConfiguration compilerConfig = new CompilerConfiguration();
+	/** The maximum number of cached script classes */
+	protected volatile int maxSize;
+	/** The script class cache, in access order */
+	protected final LinkedHashMap<String, Class<? extends Script>> cache = new LinkedHashMap<String, Class<? extends Script>>(64, 0.75f, true) {
+		private static final long serialVersionUID = -3412254624574931475L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Class<? extends Script>> eldest) {
+			return size() > maxSize;
+		}
+	};
+	/** The pinned script classes keyed by digest, replaced as a whole */
+	protected volatile Map<String, Class<? extends Script>> pinned = Collections.emptyMap();
+	/** The number of cache hits */
+	protected final AtomicLong hits = new AtomicLong(0L);
+	/** The number of cache misses (compilations) */
+	protected final AtomicLong misses = new AtomicLong(0L);
+	/** The cumulative compile time in ms. */
+	protected final AtomicLong compileTime = new AtomicLong(0L);
+	
+	/**
+	 * Creates a new ScriptCache
+	 * @param classLoader The class loader compiled scripts are parented to
+	 * @param maxSize The maximum number of cached script classes
+	 */
+	public ScriptCache(ClassLoader classLoader, int maxSize) {
+		if(classLoader==null) throw new IllegalArgumentException("The passed class loader was null");
+		if(maxSize<1) throw new IllegalArgumentException("Invalid script cache size [" + maxSize + "]");
+		this.classLoader = classLoader;
+		this.maxSize = maxSize;
+		compilerConfig.addCompilationCustomizers(new ASTTransformationCustomizer(ThreadInterrupt.class));
+	}
+	
+	/**
+	 * Returns the compiled script class for the passed script text, compiling it if it is not cached
+	 * @param scriptText The script text
+	 * @return the compiled script class
+	 */
+	public Class<? extends Script> getScriptClass(String scriptText) {
+		return getScriptClass(DigestUtil.hexDigest(scriptText), scriptText);
+	}
+	
+	/**
+	 * Returns the cached script class for the passed digest
+	 * @param digest The hex digest of the script text
+	 * @return the compiled script class or null if it is not cached
+	 */
+	public Class<? extends Script> getCachedScriptClass(String digest) {
+		Class<? extends Script> clazz = pinned.get(digest);
+		if(clazz==null) {
+			synchronized(cache) {
+				clazz = cache.get(digest);
+			}
+		}
+		if(clazz!=null) hits.incrementAndGet();
+		return clazz;
+	}
+	
+	/**
+	 * Returns the compiled script class for the passed script text, compiling it if it is not cached
+	 * @param digest The hex digest of the script text
+	 * @param scriptText The script text
+	 * @return the compiled script class
+	 */
+	public Class<? extends Script> getScriptClass(String digest, String scriptText) {
+		Class<? extends Script> clazz = getCachedScriptClass(digest);
+		if(clazz!=null) return clazz;
+		// Compile outside the lock so one slow compile does not stall cache hits
+		clazz = compile(digest, scriptText);
+		synchronized(cache) {
+			Class<? extends Script> existing = cache.get(digest);
+			if(existing!=null) return existing;
+			cache.put(digest, clazz);
+		}
+		return clazz;
+	}
+	
+	/**
+	 * Compiles the passed script text
+	 * @param digest The hex digest of the script text
+	 * @param scriptText The script text
+	 * @return the compiled script class
+	 */
+	@SuppressWarnings("unchecked")
+	protected Class<? extends Script> compile(String digest, String scriptText) {
+		misses.incrementAndGet();
+		final long start = System.currentTimeMillis();
+		GroovyClassLoader gcl = new GroovyClassLoader(classLoader, compilerConfig);
+		GroovyCodeSource codeSource = new GroovyCodeSource(scriptText, "OctoScript_" + digest + ".groovy", CODE_BASE);
+		codeSource.setCachable(false);
+		Class<?> clazz = gcl.parseClass(codeSource, false);
+		long elapsed = System.currentTimeMillis() - start;
+		compileTime.addAndGet(elapsed);
+		if(log.isDebugEnabled()) log.debug("Compiled script [" + digest + "] in [" + elapsed + "] ms.");
+		if(!Script.class.isAssignableFrom(clazz)) {
+			throw new IllegalArgumentException("Script [" + digest + "] compiled to a non-script class [" + clazz.getName() + "]");
+		}
+		return (Class<? extends Script>)clazz;
+	}
+	
+	/**
+	 * Replaces the pinned script classes
+	 * @param pinned The script classes to pin, keyed by hex digest
+	 */
+	public void setPinned(Map<String, Class<? extends Script>> pinned) {
+		this.pinned = pinned;
+	}
+	
+	/**
+	 * Removes all cached script classes. Pinned script classes are kept.
+	 */
+	public void flush() {
+		synchronized(cache) {
+			cache.clear();
+		}
+	}
+	
+	/**
+	 * Returns the number of cached script classes
+	 * @return the number of cached script classes
+	 */
+	public int getSize() {
+		synchronized(cache) {
+			return cache.size();
+		}
+	}
+	
+	/**
+	 * Returns the maximum number of cached script classes
+	 * @return the maximum number of cached script classes
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+	
+	/**
+	 * Sets the maximum number of cached script classes. Excess entries are evicted on the next insert.
+	 * @param maxSize the maximum number of cached script classes
+	 */
+	public void setMaxSize(int maxSize) {
+		if(maxSize<1) throw new IllegalArgumentException("Invalid script cache size [" + maxSize + "]");
+		this.maxSize = maxSize;
+	}
+	
+	/**
+	 * Returns the number of cache hits
+	 * @return the number of cache hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+	
+	/**
+	 * Returns the number of cache misses
+	 * @return the number of cache misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * Returns the cumulative script compile time in ms.
+	 * @return the cumulative script compile time
+	 */
+	public long getCompileTime() {
+		return compileTime.get();
+	}
+	
+	/**
+	 * Returns the class loader compiled scripts are parented to
+	 * @return the script parent class loader
+	 */
+	public ClassLoader getClassLoader() {
+		return classLoader;
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.invocation;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Title: ScriptExecutor</p>
+ * <p>Description: Bounded thread pool that runs script invocations off the netty worker event loop.
+ * Invocations wait in a {@link PriorityTaskQueue}, which queues each priority class separately and shares the threads between the classes by weight.
+ * When a class's queue is full, submissions are rejected with a {@link RejectedExecutionException} so the
+ * invocation handler can report the rejection back to the caller.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.invocation.ScriptExecutor</code></p>
+ */
+
+public class ScriptExecutor extends ThreadPoolExecutor implements ThreadFactory, RejectedExecutionHandler {
+	/** The default number of script execution threads */
+	public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors() * 2;
+	/** The default maximum number of queued invocations */
+	public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+	/** Serial number factory for thread names */
+	protected final AtomicInteger serial = new AtomicInteger(0);
+	/** The number of rejected invocations */
+	protected final AtomicLong rejected = new AtomicLong(0L);
+	/** The configured queue capacity of each priority class */
+	protected final int queueSize;
+
+	/**
+	 * Creates a new ScriptExecutor
+	 * @param threads The number of script execution threads
+	 * @param queueSize The maximum number of queued invocations of each priority class
+	 */
+	public ScriptExecutor(int threads, int queueSize) {
+		super(threads, threads, 60L, TimeUnit.SECONDS, new PriorityTaskQueue(queueSize));
+		this.queueSize = queueSize;
+		setThreadFactory(this);
+		setRejectedExecutionHandler(this);
+		allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Resizes the number of script execution threads
+	 * @param threads The new number of threads
+	 */
+	public void setThreads(int threads) {
+		if(threads<1) throw new IllegalArgumentException("Invalid thread count [" + threads + "]");
+		if(threads > getMaximumPoolSize()) {
+			setMaximumPoolSize(threads);
+			setCorePoolSize(threads);
+		} else {
+			setCorePoolSize(threads);
+			setMaximumPoolSize(threads);
+		}
+	}
+
+	/**
+	 * Returns the number of invocations waiting in the queue
+	 * @return the queue depth
+	 */
+	public int getQueueDepth() {
+		return getQueue().size();
+	}
+
+	/**
+	 * Returns the priority task queue
+	 * @return the task queue
+	 */
+	public PriorityTaskQueue getTaskQueue() {
+		return (PriorityTaskQueue)getQueue();
+	}
+
+	/**
+	 * Returns the configured queue capacity of each priority class
+	 * @return the queue capacity
+	 */
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	/**
+	 * Returns the number of rejected invocations
+	 * @return the number of rejected invocations
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.concurrent.RejectedExecutionHandler#rejectedExecution(java.lang.Runnable, java.util.concurrent.ThreadPoolExecutor)
+	 */
+	@Override
+	public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+		rejected.incrementAndGet();
+		throw new RejectedExecutionException("Script execution queue full [" + queueSize + "]");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+	 */
+	@Override
+	public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, "OctoScriptThread#" + serial.incrementAndGet());
+		t.setDaemon(true);
+		return t;
+	}
+}
@@ -0,0 +1,388 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.invocation;
+
+import groovy.lang.Script;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.openmbean.CompositeData;
+
+import org.apache.log4j.Logger;
+import org.helios.octo.util.DigestUtil;
+
+/**
+ * <p>Title: ScriptRegistry</p>
+ * <p>Description: A registry of named scripts, loaded from the <b><code>.groovy</code></b> files of a directory
+ * or deployed through the management interface. Every script is compiled when it is loaded and its class is pinned
+ * in the {@link ScriptCache}, so a stored script request never waits on a compile.
+ * A reload builds a complete new registry and swaps it in as a whole, so a request sees either the old or the new set of scripts.
+ * A script that fails to compile keeps its previous version, and deployed scripts override directory scripts of the same name.
+ * Java 6 has no file system watch service, so the directory is polled for changes.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.invocation.ScriptRegistry</code></p>
+ */
+
+public class ScriptRegistry implements Runnable, ThreadFactory {
+	/** Instance logger */
+	protected final Logger log = Logger.getLogger(getClass());
+	/** The script cache the stored script classes are compiled by and pinned in */
+	protected final ScriptCache scriptCache;
+	/** The published stored scripts keyed by name, replaced as a whole */
+	protected volatile Map<String, StoredScript> scripts = Collections.emptyMap();
+	/** The scripts loaded from the directory keyed by name */
+	protected Map<String, StoredScript> loaded = new HashMap<String, StoredScript>();
+	/** The deployed scripts keyed by name */
+	protected final Map<String, StoredScript> deployed = new HashMap<String, StoredScript>();
+	/** The compile and load errors of the last reload keyed by script name */
+	protected volatile Map<String, String> errors = Collections.emptyMap();
+	/** The directory scripts are loaded from, or null if scripts are only deployed */
+	protected volatile File directory = null;
+	/** The fingerprint of the directory at the last reload */
+	protected String fingerprint = null;
+	/** The number of times the registry has been reloaded */
+	protected final AtomicLong reloads = new AtomicLong(0L);
+	/** The scheduler that polls the directory */
+	protected final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(this);
+	/** The handle of the scheduled directory poll */
+	protected ScheduledFuture<?> pollHandle = null;
+	/** The period in s of the directory poll, 0 for no polling */
+	protected int pollPeriod = 0;
+	
+	/** The file extension of script files */
+	public static final String EXTENSION = ".groovy";
+	
+	/** Selects the script files of the directory */
+	private static final FileFilter SCRIPT_FILES = new FileFilter() {
+		@Override
+		public boolean accept(File file) {
+			return file.isFile() && file.getName().endsWith(EXTENSION) && file.getName().length() > EXTENSION.length();
+		}
+	};
+	
+	/**
+	 * Creates a new ScriptRegistry
+	 * @param scriptCache The script cache the stored script classes are compiled by and pinned in
+	 */
+	public ScriptRegistry(ScriptCache scriptCache) {
+		this.scriptCache = scriptCache;
+	}
+	
+	/**
+	 * Returns the stored script with the passed name
+	 * @param name The script name
+	 * @return the stored script or null if there is none with the passed name
+	 */
+	public StoredScript get(String name) {
+		return scripts.get(name);
+	}
+	
+	/**
+	 * Reloads the scripts of the directory and publishes them with the deployed scripts.
+	 * Scripts whose text has not changed are not recompiled.
+	 * @return the number of stored scripts
+	 */
+	public synchronized int reload() {
+		final File dir = directory;
+		Map<String, StoredScript> newLoaded = new HashMap<String, StoredScript>();
+		Map<String, String> newErrors = new TreeMap<String, String>();
+		if(dir!=null) {
+			File[] files = dir.listFiles(SCRIPT_FILES);
+			if(files==null) {
+				newErrors.put(dir.getPath(), "Not a readable directory");
+				newLoaded.putAll(loaded);
+			} else {
+				fingerprint = fingerprint(files);
+				for(File file: files) {
+					String name = file.getName().substring(0, file.getName().length() - EXTENSION.length());
+					StoredScript previous = loaded.get(name);
+					try {
+						newLoaded.put(name, load(name, readText(file), file.getPath(), file.lastModified(), previous));
+					} catch (Exception ex) {
+						newErrors.put(name, ex.getMessage());
+						log.warn("Failed to load stored script [" + name + "] from [" + file + "]" + (previous==null ? "" : ", keeping the previous version"), ex);
+						if(previous!=null) newLoaded.put(name, previous);
+					}
+				}
+			}
+		}
+		loaded = newLoaded;
+		errors = Collections.unmodifiableMap(newErrors);
+		reloads.incrementAndGet();
+		publish();
+		log.info("Loaded [" + newLoaded.size() + "] stored scripts from [" + dir + "] with [" + newErrors.size() + "] errors");
+		return scripts.size();
+	}
+	
+	/**
+	 * Compiles and deploys a script, replacing any deployed script of the same name
+	 * @param name The script name
+	 * @param text The script text
+	 */
+	public synchronized void deploy(String name, String text) {
+		if(name==null || name.trim().isEmpty()) throw new IllegalArgumentException("The passed script name was null or empty");
+		if(text==null) throw new IllegalArgumentException("The passed script text was null");
+		deployed.put(name, load(name, text, StoredScript.DEPLOYED, System.currentTimeMillis(), deployed.get(name)));
+		publish();
+	}
+	
+	/**
+	 * Removes a deployed script. A directory script of the same name becomes visible again.
+	 * @param name The script name
+	 * @return true if a deployed script was removed
+	 */
+	public synchronized boolean undeploy(String name) {
+		if(deployed.remove(name)==null) return false;
+		publish();
+		return true;
+	}
+	
+	/**
+	 * Returns a stored script for the passed text, reusing the previous version if the text has not changed
+	 * @param name The script name
+	 * @param text The script text
+	 * @param source Where the script came from
+	 * @param lastModified The last modified time of the script's source
+	 * @param previous The previous version of the script, or null
+	 * @return the stored script
+	 */
+	protected StoredScript load(String name, String text, String source, long lastModified, StoredScript previous) {
+		byte[] digest = DigestUtil.digest(text);
+		if(previous!=null && Arrays.equals(previous.getDigest(), digest)) return previous;
+		String hexDigest = DigestUtil.toHex(digest);
+		Class<? extends Script> clazz = scriptCache.getCachedScriptClass(hexDigest);
+		if(clazz==null) clazz = scriptCache.compile(hexDigest, text);
+		return new StoredScript(name, text, digest, clazz, source, lastModified);
+	}
+	
+	/**
+	 * Publishes the loaded and deployed scripts and pins their classes in the script cache
+	 */
+	protected void publish() {
+		Map<String, StoredScript> merged = new HashMap<String, StoredScript>(loaded);
+		merged.putAll(deployed);
+		Map<String, Class<? extends Script>> classes = new HashMap<String, Class<? extends Script>>(merged.size());
+		for(StoredScript ss: merged.values()) {
+			classes.put(ss.getHexDigest(), ss.getScriptClass());
+		}
+		// Pin before publishing so a request for a new script always finds its class
+		Map<String, Class<? extends Script>> pinned = new HashMap<String, Class<? extends Script>>(scriptCache.pinned);
+		pinned.putAll(classes);
+		scriptCache.setPinned(pinned);
+		scripts = Collections.unmodifiableMap(merged);
+		scriptCache.setPinned(Collections.unmodifiableMap(classes));
+	}
+	
+	/**
+	 * Polls the directory and reloads the registry if any script file was added, removed or modified
+	 * {@inheritDoc}
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		try {
+			final File dir = directory;
+			if(dir==null) return;
+			File[] files = dir.listFiles(SCRIPT_FILES);
+			String current = files==null ? null : fingerprint(files);
+			boolean changed;
+			synchronized(this) {
+				changed = current==null ? fingerprint!=null : !current.equals(fingerprint);
+			}
+			if(changed) {
+				log.info("Stored script directory [" + dir + "] changed, reloading");
+				reload();
+			}
+		} catch (Exception ex) {
+			log.warn("Stored script directory poll failed", ex);
+		}
+	}
+	
+	/**
+	 * Computes a fingerprint of the passed script files from their names, sizes and last modified times
+	 * @param files The script files
+	 * @return the fingerprint
+	 */
+	protected static String fingerprint(File[] files) {
+		File[] sorted = files.clone();
+		Arrays.sort(sorted);
+		StringBuilder b = new StringBuilder();
+		for(File file: sorted) {
+			b.append(file.getName()).append('/').append(file.length()).append('/').append(file.lastModified()).append(';');
+		}
+		return b.toString();
+	}
+	
+	/**
+	 * Reads the UTF-8 text of a script file
+	 * @param file The file to read
+	 * @return the file text
+	 * @throws IOException thrown on any IO error
+	 */
+	protected static String readText(File file) throws IOException {
+		InputStream is = null;
+		try {
+			is = new FileInputStream(file);
+			byte[] bytes = new byte[(int)file.length()];
+			int offset = 0;
+			while(offset < bytes.length) {
+				int read = is.read(bytes, offset, bytes.length - offset);
+				if(read==-1) break;
+				offset += read;
+			}
+			return new String(bytes, 0, offset, DigestUtil.UTF8);
+		} finally {
+			if(is!=null) try { is.close(); } catch (Exception ex) {}
+		}
+	}
+	
+	/**
+	 * Returns the directory scripts are loaded from
+	 * @return the script directory, or null if scripts are only deployed
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Sets the directory scripts are loaded from. Takes effect on the next reload.
+	 * @param directory the script directory, or null if scripts are only deployed
+	 */
+	public void setDirectory(File directory) {
+		this.directory = directory;
+	}
+	
+	/**
+	 * Returns the period of the directory poll
+	 * @return the poll period in s, 0 for no polling
+	 */
+	public synchronized int getPollPeriod() {
+		return pollPeriod;
+	}
+
+	/**
+	 * Sets the period of the directory poll
+	 * @param pollPeriod the poll period in s, 0 for no polling
+	 */
+	public synchronized void setPollPeriod(int pollPeriod) {
+		if(pollPeriod<0) throw new IllegalArgumentException("Invalid poll period [" + pollPeriod + "]");
+		if(pollHandle!=null) {
+			pollHandle.cancel(false);
+			pollHandle = null;
+		}
+		this.pollPeriod = pollPeriod;
+		if(pollPeriod>0 && !poller.isShutdown()) {
+			pollHandle = poller.scheduleWithFixedDelay(this, pollPeriod, pollPeriod, TimeUnit.SECONDS);
+		}
+	}
+	
+	/**
+	 * Stops the directory poll
+	 */
+	public void stop() {
+		poller.shutdownNow();
+	}
+	
+	/**
+	 * Returns the names of the stored scripts
+	 * @return the sorted stored script names
+	 */
+	public String[] getNames() {
+		String[] names = scripts.keySet().toArray(new String[0]);
+		Arrays.sort(names);
+		return names;
+	}
+	
+	/**
+	 * Returns summaries of the stored scripts
+	 * @return the stored script summaries sorted by name
+	 */
+	public CompositeData[] getScripts() {
+		Map<String, StoredScript> sorted = new TreeMap<String, StoredScript>(scripts);
+		CompositeData[] data = new CompositeData[sorted.size()];
+		int i = 0;
+		for(StoredScript ss: sorted.values()) {
+			data[i++] = ss.toCompositeData();
+		}
+		return data;
+	}
+	
+	/**
+	 * Returns the errors of the last reload
+	 * @return the errors, each as the script name and the error message
+	 */
+	public String[] getErrors() {
+		Map<String, String> current = errors;
+		String[] messages = new String[current.size()];
+		int i = 0;
+		for(Map.Entry<String, String> e: current.entrySet()) {
+			messages[i++] = e.getKey() + ": " + e.getValue();
+		}
+		return messages;
+	}
+	
+	/**
+	 * Returns the number of stored scripts
+	 * @return the number of stored scripts
+	 */
+	public int getSize() {
+		return scripts.size();
+	}
+	
+	/**
+	 * Returns the number of times the registry has been reloaded
+	 * @return the reload count
+	 */
+	public long getReloads() {
+		return reloads.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+	 */
+	@Override
+	public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, "OctoScriptRegistryPoller");
+		t.setDaemon(true);
+		return t;
+	}
+}
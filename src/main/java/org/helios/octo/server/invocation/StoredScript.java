@@ -0,0 +1,177 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.invocation;
+
+import groovy.lang.Script;
+
+import java.util.Date;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
+import org.helios.octo.util.DigestUtil;
+
+/**
+ * <p>Title: StoredScript</p>
+ * <p>Description: A named script held by the {@link ScriptRegistry}, with its compiled class. Immutable.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.invocation.StoredScript</code></p>
+ */
+
+public class StoredScript {
+	/** The script name */
+	protected final String name;
+	/** The script text */
+	protected final String text;
+	/** The digest of the script text */
+	protected final byte[] digest;
+	/** The hex encoded digest of the script text */
+	protected final String hexDigest;
+	/** The compiled script class */
+	protected final Class<? extends Script> scriptClass;
+	/** Where the script came from, a file path or {@link #DEPLOYED} */
+	protected final String source;
+	/** The last modified time of the script's source */
+	protected final long lastModified;
+	
+	/** The source of scripts deployed through the management interface */
+	public static final String DEPLOYED = "deployed";
+	
+	/** The composite type items */
+	private static final String[] ITEMS = {"name", "digest", "source", "lastModified"};
+	/** The composite type of a stored script summary */
+	public static final CompositeType SCRIPT_TYPE;
+	
+	static {
+		try {
+			SCRIPT_TYPE = new CompositeType("StoredScript", "A stored script", ITEMS,
+					new String[]{"The script name", "The hex encoded digest of the script text", "The file the script was loaded from, or deployed", "The last modified time of the script's source"},
+					new OpenType<?>[]{SimpleType.STRING, SimpleType.STRING, SimpleType.STRING, SimpleType.DATE});
+		} catch (OpenDataException ode) {
+			throw new RuntimeException(ode);
+		}
+	}
+	
+	/**
+	 * Creates a new StoredScript
+	 * @param name The script name
+	 * @param text The script text
+	 * @param digest The digest of the script text
+	 * @param scriptClass The compiled script class
+	 * @param source Where the script came from, a file path or {@link #DEPLOYED}
+	 * @param lastModified The last modified time of the script's source
+	 */
+	public StoredScript(String name, String text, byte[] digest, Class<? extends Script> scriptClass, String source, long lastModified) {
+		this.name = name;
+		this.text = text;
+		this.digest = digest;
+		this.scriptClass = scriptClass;
+		this.source = source;
+		this.lastModified = lastModified;
+		hexDigest = DigestUtil.toHex(digest);
+	}
+	
+	/**
+	 * Returns a summary of the script
+	 * @return the script summary
+	 */
+	public CompositeData toCompositeData() {
+		try {
+			return new CompositeDataSupport(SCRIPT_TYPE, ITEMS, new Object[]{name, hexDigest, source, new Date(lastModified)});
+		} catch (OpenDataException ode) {
+			throw new RuntimeException(ode);
+		}
+	}
+
+	/**
+	 * Returns the script name
+	 * @return the script name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the script text
+	 * @return the script text
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Returns the digest of the script text
+	 * @return the script digest
+	 */
+	public byte[] getDigest() {
+		return digest;
+	}
+
+	/**
+	 * Returns the hex encoded digest of the script text
+	 * @return the hex encoded script digest
+	 */
+	public String getHexDigest() {
+		return hexDigest;
+	}
+
+	/**
+	 * Returns the compiled script class
+	 * @return the script class
+	 */
+	public Class<? extends Script> getScriptClass() {
+		return scriptClass;
+	}
+
+	/**
+	 * Returns where the script came from
+	 * @return a file path or {@link #DEPLOYED}
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * Returns the last modified time of the script's source
+	 * @return the last modified time
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "StoredScript [" + name + ", " + hexDigest + ", " + source + "]";
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.io;
+
+/**
+ * <p>Title: BackpressurePolicy</p>
+ * <p>Description: Determines what a {@link ChannelOutputStream} does with output when its channel is not writable,
+ * which happens when the client reads more slowly than the script writes</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.io.BackpressurePolicy</code></p>
+ */
+
+public enum BackpressurePolicy {
+	/** The writing thread blocks until the channel is writable again or closes */
+	BLOCK,
+	/** The writing thread blocks up to the backpressure timeout, then the script fails with a {@link BackpressureTimeoutException} */
+	FAIL,
+	/** The writing thread blocks up to the backpressure timeout, then the output is discarded */
+	DISCARD,
+	/** The output is appended to a memory-mapped {@link SpillFile} and drained to the channel as it becomes writable. The writing thread never blocks. */
+	SPILL;
+	
+	/**
+	 * Decodes the passed name to a policy, ignoring case
+	 * @param name The policy name
+	 * @return the policy
+	 */
+	public static BackpressurePolicy forName(String name) {
+		if(name==null) throw new IllegalArgumentException("The passed policy name was null");
+		try {
+			return valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException iae) {
+			throw new IllegalArgumentException("Invalid backpressure policy [" + name + "]");
+		}
+	}
+}
@@ -0,0 +1,49 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.io;
+
+/**
+ * <p>Title: BackpressureTimeoutException</p>
+ * <p>Description: Thrown to a script writing output when its channel stayed unwritable for longer than the backpressure
+ * timeout under the {@link BackpressurePolicy#FAIL} policy, or when its spill file reached the max spill size under the
+ * {@link BackpressurePolicy#SPILL} policy. Unchecked so that it is not swallowed by {@link java.io.PrintStream}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.io.BackpressureTimeoutException</code></p>
+ */
+
+public class BackpressureTimeoutException extends RuntimeException {
+
+	/**  */
+	private static final long serialVersionUID = 4046394651862581520L;
+
+	/**
+	 * Creates a new BackpressureTimeoutException
+	 * @param message The exception message
+	 */
+	public BackpressureTimeoutException(String message) {
+		super(message);
+	}
+}
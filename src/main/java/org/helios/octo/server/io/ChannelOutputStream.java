@@ -25,46 +25,99 @@
 package org.helios.octo.server.io;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufOutputStream;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
-import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.MessageList;
+import io.netty.util.concurrent.Future;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.helios.octo.protocol.FrameType;
+import org.helios.octo.server.streams.StreamChunk;
 
 /**
  * <p>Title: ChannelOutputStream</p>
- * <p>Description: </p> 
+ * <p>Description: A buffered output stream that writes {@link StreamChunk}s to a channel.
+ * Output is copied into a pooled direct buffer which is handed to the channel when it reaches the flush threshold,
+ * when the max flush latency has elapsed since the first unflushed byte was written, or on an explicit {@link #flush()}.
+ * When the channel is above its high water mark, the writing thread waits for it to drain according to the {@link BackpressurePolicy}.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.octo.server.io.ChannelOutputStream</code></p>
  */
 
-public class ChannelOutputStream extends OutputStream {
+public class ChannelOutputStream extends OutputStream implements Runnable {
 	/** The channel the print stream will stream to */
 	protected final Channel channel;
-	/** The output stream provided to facade the print stream */
-	protected final AtomicReference<ByteBufOutputStream> os = new AtomicReference<ByteBufOutputStream>(null);
 	/** A print stream for this output stream */
 	protected final PrintStream ps;
 	/** Indicates if this is std-out or std-err */
 	protected final boolean isStdOut;
-	/** The chanel context of the downstream aggregator for this stream */
-	protected final ChannelHandlerContext targetCtx;
-	/** All the OUT streams */
+	/** The stream type of the chunks written by this stream */
+	protected final FrameType streamType;
+	/** The id of the request writing to this stream, or -1 for a channel level stream */
+	protected final long requestId;
+	/** The flush threshold in bytes */
+	protected final int flushThreshold;
+	/** The max flush latency in ms */
+	protected final long flushLatency;
+	/** The backpressure policy */
+	protected final BackpressurePolicy backpressurePolicy;
+	/** The backpressure timeout in ms */
+	protected final long backpressureTimeout;
+	/** Guards the buffer. A lock rather than a monitor so the event loop can try it without blocking. */
+	protected final ReentrantLock lock = new ReentrantLock();
+	/** The spill file output goes to once the channel has backed up under the {@link BackpressurePolicy#SPILL} policy */
+	protected SpillFile spill = null;
+	/** The unflushed output, allocated on the first write after a flush */
+	protected ByteBuf buffer = null;
+	/** Indicates if a latency flush is scheduled */
+	protected boolean flushScheduled = false;
+	/** The number of bytes written to the channel by this stream */
+	protected volatile long bytesWritten = 0L;
+	/** The number of chunks written to the channel by this stream */
+	protected volatile long flushCount = 0L;
+	/** The nano time output was first handed to the channel or spilled, 0 if it has not been */
+	protected volatile long firstFlushTime = 0L;
+	/** Indicates if the output has been abandoned */
+	protected volatile boolean cancelled = false;
+	/** The copy of the output kept for replay, or null if the output is not kept */
+	protected volatile OutputCapture capture = null;
 	
+	/** All the OUT streams */
 	protected static final Map<Channel, ChannelOutputStream> OUT = new ConcurrentHashMap<Channel, ChannelOutputStream>();
 	/** All the ERR streams */
 	protected static final Map<Channel, ChannelOutputStream> ERR = new ConcurrentHashMap<Channel, ChannelOutputStream>();
 	
+	/** The default flush threshold in bytes */
+	public static final int DEFAULT_FLUSH_THRESHOLD = 8192;
+	/** The default max flush latency in ms */
+	public static final long DEFAULT_FLUSH_LATENCY = 50L;
+	/** The default backpressure timeout in ms */
+	public static final long DEFAULT_BACKPRESSURE_TIMEOUT = 30000L;
+	
+	/** The flush threshold in bytes for new streams */
+	private static volatile int defaultFlushThreshold = DEFAULT_FLUSH_THRESHOLD;
+	/** The max flush latency in ms for new streams */
+	private static volatile long defaultFlushLatency = DEFAULT_FLUSH_LATENCY;
+	/** The backpressure policy for new streams */
+	private static volatile BackpressurePolicy defaultBackpressurePolicy = BackpressurePolicy.BLOCK;
+	/** The backpressure timeout in ms for new streams */
+	private static volatile long defaultBackpressureTimeout = DEFAULT_BACKPRESSURE_TIMEOUT;
+	/** The number of bytes discarded by all streams because their channel stayed unwritable */
+	private static final AtomicLong discardedBytes = new AtomicLong(0L);
+	/** The number of bytes written to channels by all streams */
+	private static final AtomicLong totalBytes = new AtomicLong(0L);
+	/** The number of chunks written to channels by all streams */
+	private static final AtomicLong totalFlushes = new AtomicLong(0L);
+	
 	/**
 	 * Acquires an output stream for the passed channel
 	 * @param isStdOut true for std-out, false for std-err
@@ -76,13 +129,15 @@ public class ChannelOutputStream extends OutputStream {
 		ChannelOutputStream cos = map.get(channel);
 		if(cos==null) {
 			synchronized(map) {
+				cos = map.get(channel);
 				if(cos==null) {
-					cos = new ChannelOutputStream(isStdOut, channel);
+					cos = new ChannelOutputStream(isStdOut, channel, -1L);
 					map.put(channel, cos);
 					channel.closeFuture().addListener(new ChannelFutureListener() {
 						@Override
 						public void operationComplete(ChannelFuture future) throws Exception {
-							map.remove(future.channel());							
+							ChannelOutputStream removed = map.remove(future.channel());
+							if(removed!=null) removed.discard();
 						}
 					});
 				}
@@ -91,17 +146,50 @@ public class ChannelOutputStream extends OutputStream {
 		return cos;
 	}
 	
+	/**
+	 * Creates a new output stream for one request on the passed channel.
+	 * Request streams are not cached, so concurrent requests on the same channel each get their own stream.
+	 * @param isStdOut true for std-out, false for std-err
+	 * @param channel The channel
+	 * @param requestId The id of the request writing to the stream
+	 * @return a channel output stream
+	 */
+	public static ChannelOutputStream getInstance(boolean isStdOut, Channel channel, long requestId) {
+		return new ChannelOutputStream(isStdOut, channel, requestId);
+	}
+	
 	/**
 	 * Creates a new ChannelOutputStream
 	 * @param isStdOut true if this is std-out, false for std-err
 	 * @param channel The channel the output stream will write to
+	 * @param requestId The id of the request writing to this stream
 	 */
-	private ChannelOutputStream(boolean isStdOut, Channel channel) {
+	private ChannelOutputStream(boolean isStdOut, Channel channel, long requestId) {
 		this.channel = channel;
+		this.requestId = requestId;
 		this.isStdOut = isStdOut;
-		os.set(new ByteBufOutputStream(channel.alloc().directBuffer()));
+		streamType = isStdOut ? FrameType.STDOUT : FrameType.STDERR;
+		flushThreshold = defaultFlushThreshold;
+		flushLatency = defaultFlushLatency;
+		backpressurePolicy = defaultBackpressurePolicy;
+		backpressureTimeout = defaultBackpressureTimeout;
 		ps = new PrintStream(this, false);
-		targetCtx = channel.pipeline().context((this.isStdOut ? "out" : "err"));
+	}
+	
+	/**
+	 * Returns the id of the request writing to this stream
+	 * @return the request id, or -1 for a channel level stream
+	 */
+	public long getRequestId() {
+		return requestId;
+	}
+	
+	/**
+	 * Sets the capture that keeps a copy of this stream's output. Set before the stream is written to.
+	 * @param capture The output capture, or null to stop keeping a copy
+	 */
+	public void setCapture(OutputCapture capture) {
+		this.capture = capture;
 	}
 	
 	/**
@@ -112,22 +200,250 @@ public class ChannelOutputStream extends OutputStream {
 		return ps;
 	}
 	
-//	/**
-//	 * {@inheritDoc}
-//	 * @see java.io.OutputStream#flush()
-//	 */
-//	@Override
-//	public void flush() throws IOException {
-//		ByteBufOutputStream toFlush = os.getAndSet(new ByteBufOutputStream(channel.alloc().directBuffer()));		
-//		// first byte for STREAM, second byte for std-err/std-out flag
-//		// Prefix:
-//			// 1 long for the request id
-//			// 1 byte (0) for response type STREAM
-//			// 1 byte (0 or 1) for std-out or std-err
-//		channel.write(Unpooled.buffer(10).writeLong(System.nanoTime()).writeByte(0).writeByte(isStdOut ? 0 : 1));
-//		channel.write(toFlush);		
-//		channel.unsafe().flushNow();
-//	}
+	/**
+	 * Returns the buffer to write to, allocating it and scheduling a latency flush if this is the first write since the last flush
+	 * @param size The number of bytes about to be written
+	 * @return the buffer to write to
+	 */
+	protected ByteBuf buffer(int size) {
+		if(buffer==null) {
+			buffer = channel.alloc().directBuffer(Math.max(size, flushThreshold));
+			scheduleFlush();
+		}
+		return buffer;
+	}
+	
+	/**
+	 * Schedules a latency flush on the channel's event loop if one is not already scheduled
+	 */
+	protected void scheduleFlush() {
+		if(!flushScheduled && flushLatency > 0) {
+			flushScheduled = true;
+			channel.eventLoop().schedule(this, flushLatency, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	/**
+	 * Writes the buffered output to the channel if the flush threshold has been reached
+	 * @throws IOException thrown if the thread is interrupted while waiting for the channel to become writable
+	 */
+	protected void checkThreshold() throws IOException {
+		if(buffer.readableBytes() >= flushThreshold) {
+			flushBuffer();
+		}
+	}
+	
+	/**
+	 * Hands the buffered output to the channel. If the channel is not writable, the calling thread
+	 * waits for it according to the backpressure policy. The event loop never waits.
+	 * @throws IOException thrown if the thread is interrupted while waiting for the channel to become writable
+	 */
+	protected void flushBuffer() throws IOException {
+		if(cancelled) {
+			abandon();
+			return;
+		}
+		if(buffer==null) return;
+		if(!buffer.isReadable()) {
+			releaseBuffer();
+			return;
+		}
+		if(spill!=null) {
+			spillBuffer();
+			return;
+		}
+		if(!channel.isWritable() && !channel.eventLoop().inEventLoop()) {
+			if(backpressurePolicy==BackpressurePolicy.SPILL) {
+				spill = new SpillFile(requestId, streamType, channel.eventLoop());
+				SpillDrainer.get(channel).add(spill);
+				spillBuffer();
+				return;
+			}
+			boolean writable = WritabilityGate.get(channel).await(backpressurePolicy==BackpressurePolicy.BLOCK ? 0L : backpressureTimeout);
+			if(!writable) {
+				int bytes = buffer.readableBytes();
+				discardedBytes.addAndGet(bytes);
+				releaseBuffer();
+				if(backpressurePolicy==BackpressurePolicy.FAIL) {
+					throw new BackpressureTimeoutException("Channel [" + channel + "] not writable for [" + backpressureTimeout + "] ms. Discarded [" + bytes + "] bytes");
+				}
+				return;
+			}
+		}
+		ByteBuf toWrite = buffer;
+		buffer = null;
+		int bytes = toWrite.readableBytes();
+		bytesWritten += bytes;
+		flushCount++;
+		if(firstFlushTime==0L) firstFlushTime = System.nanoTime();
+		totalBytes.addAndGet(bytes);
+		totalFlushes.incrementAndGet();
+		final StreamChunk chunk = new StreamChunk(requestId, streamType, toWrite);
+		if(channel.eventLoop().inEventLoop()) {
+			// Writes from the script thread are queued as event loop tasks, so a latency flush queues its write behind them
+			channel.eventLoop().execute(new Runnable() {
+				@Override
+				public void run() {
+					channel.write(chunk);
+				}
+			});
+		} else {
+			channel.write(chunk);
+		}
+	}
+	
+	/**
+	 * Appends the buffered output to the spill file and schedules a drain. Once a stream has spilled, all its
+	 * subsequent output is spilled too so that it stays in order.
+	 * @throws IOException thrown if the spill file can not be written
+	 */
+	protected void spillBuffer() throws IOException {
+		if(firstFlushTime==0L) firstFlushTime = System.nanoTime();
+		try {
+			spill.append(buffer);
+		} catch (BackpressureTimeoutException bex) {
+			discardedBytes.addAndGet(buffer.readableBytes());
+			throw bex;
+		} finally {
+			releaseBuffer();
+		}
+		SpillDrainer.get(channel).schedule();
+	}
+	
+	/**
+	 * Flushes the buffered output and finishes any spill. Output written after this call is not covered by the returned future.
+	 * @return a future that completes when all the output, including spilled output, has been handed to the channel
+	 */
+	public Future<Void> drain() {
+		lock.lock();
+		try {
+			flushBuffer();
+			if(spill==null) return channel.newSucceededFuture();
+			Future<Void> drained = spill.finish();
+			spill = null;
+			SpillDrainer.get(channel).schedule();
+			return drained;
+		} catch (Exception ex) {
+			return channel.newFailedFuture(ex);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Releases the buffer without writing it. Must be called with the lock held.
+	 */
+	protected void releaseBuffer() {
+		if(buffer!=null) {
+			buffer.release();
+			buffer = null;
+		}
+	}
+	
+	/**
+	 * Abandons this stream's output: buffered output is released, any spill is deleted without being drained
+	 * and later writes are dropped. Never blocks. If another thread holds the lock, the output is released
+	 * when that thread next writes or flushes.
+	 */
+	public void cancel() {
+		cancelled = true;
+		if(lock.tryLock()) {
+			try {
+				abandon();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Indicates if this stream's output has been abandoned
+	 * @return true if the stream has been cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	/**
+	 * Releases the buffered output and cancels any spill. Must be called with the lock held.
+	 */
+	protected void abandon() {
+		if(buffer!=null) {
+			discardedBytes.addAndGet(buffer.readableBytes());
+			releaseBuffer();
+		}
+		if(spill!=null) {
+			spill.cancel();
+			spill = null;
+			SpillDrainer.get(channel).schedule();
+		}
+	}
+	
+	/**
+	 * Releases any buffered output without writing it. If another thread holds the lock,
+	 * it will find the channel closed and its write will release the output.
+	 */
+	protected void discard() {
+		if(lock.tryLock()) {
+			try {
+				releaseBuffer();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * The latency flush task, run on the channel's event loop. The event loop must never block on the stream,
+	 * so if the stream is busy or the channel is not writable the flush is rescheduled.
+	 * {@inheritDoc}
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		if(!lock.tryLock()) {
+			channel.eventLoop().schedule(this, flushLatency, TimeUnit.MILLISECONDS);
+			return;
+		}
+		try {
+			flushScheduled = false;
+			if(!channel.isActive()) {
+				releaseBuffer();
+			} else if(spill==null && !channel.isWritable()) {
+				if(buffer!=null) scheduleFlush();
+			} else {
+				flushBuffer();
+			}
+		} catch (IOException iex) {
+			/* Not thrown on the event loop */
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.OutputStream#flush()
+	 */
+	@Override
+	public void flush() throws IOException {
+		lock.lock();
+		try {
+			flushBuffer();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Flushes any buffered output
+	 * {@inheritDoc}
+	 * @see java.io.OutputStream#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
 
 	/**
 	 * {@inheritDoc}
@@ -135,10 +451,19 @@ public class ChannelOutputStream extends OutputStream {
 	 */
 	@Override
 	public void write(int b) throws IOException {
-		//os.get().write(b);		
-		//targetCtx.write(MessageList.newInstance(Unpooled.buffer(1).writeByte(b)));
-		//targetCtx.write(Unpooled.buffer(1).writeByte(b));
-		channel.write(Unpooled.buffer(1).writeByte(b));
+		lock.lock();
+		try {
+			if(cancelled) {
+				abandon();
+				discardedBytes.incrementAndGet();
+				return;
+			}
+			buffer(1).writeByte(b);
+			if(capture!=null) capture.capture(isStdOut, b);
+			checkThreshold();
+		} finally {
+			lock.unlock();
+		}
 	}
 	
 	/**
@@ -147,10 +472,7 @@ public class ChannelOutputStream extends OutputStream {
 	 */
 	@Override
 	public void write(byte[] b) throws IOException {
-		//os.get().write(b);
-		//targetCtx.write(MessageList.newInstance(Unpooled.wrappedBuffer(b)));
-		//targetCtx.write(Unpooled.wrappedBuffer(b));
-		channel.write(Unpooled.wrappedBuffer(b));
+		write(b, 0, b.length);
 	}
 	
 	/**
@@ -159,11 +481,162 @@ public class ChannelOutputStream extends OutputStream {
 	 */
 	@Override
 	public void write(byte[] b, int off, int len) throws IOException {
-		//os.get().write(b, off, len);		
-		//targetCtx.write(MessageList.newInstance(Unpooled.wrappedBuffer(b, off, len)));
-		//targetCtx.write(Unpooled.wrappedBuffer(b, off, len));
-		channel.write(Unpooled.wrappedBuffer(b, off, len));
+		if(len==0) return;
+		lock.lock();
+		try {
+			if(cancelled) {
+				abandon();
+				discardedBytes.addAndGet(len);
+				return;
+			}
+			buffer(len).writeBytes(b, off, len);
+			if(capture!=null) capture.capture(isStdOut, b, off, len);
+			checkThreshold();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Returns the number of bytes written to the channel by this stream
+	 * @return the number of bytes written
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+	
+	/**
+	 * Returns the number of chunks written to the channel by this stream
+	 * @return the number of flushes
+	 */
+	public long getFlushCount() {
+		return flushCount;
+	}
+	
+	/**
+	 * Returns the nano time output was first handed to the channel or spilled
+	 * @return the first flush time, or 0 if nothing has been flushed
+	 */
+	public long getFirstFlushTime() {
+		return firstFlushTime;
+	}
+	
+	/**
+	 * Returns the average size in bytes of the chunks written to the channel by this stream
+	 * @return the average chunk size
+	 */
+	public long getAverageChunkSize() {
+		long flushes = flushCount;
+		return flushes==0 ? 0 : bytesWritten/flushes;
+	}
+	
+	/**
+	 * Returns the number of bytes written to channels by all streams
+	 * @return the total number of bytes written
+	 */
+	public static long getTotalBytes() {
+		return totalBytes.get();
+	}
+	
+	/**
+	 * Returns the number of chunks written to channels by all streams
+	 * @return the total number of flushes
+	 */
+	public static long getTotalFlushes() {
+		return totalFlushes.get();
+	}
+	
+	/**
+	 * Returns the average size in bytes of the chunks written to channels by all streams
+	 * @return the average chunk size
+	 */
+	public static long getTotalAverageChunkSize() {
+		long flushes = totalFlushes.get();
+		return flushes==0 ? 0 : totalBytes.get()/flushes;
+	}
+
+	/**
+	 * Returns the flush threshold in bytes for new streams
+	 * @return the flush threshold
+	 */
+	public static int getDefaultFlushThreshold() {
+		return defaultFlushThreshold;
+	}
+
+	/**
+	 * Sets the flush threshold in bytes for new streams
+	 * @param flushThreshold the flush threshold
+	 */
+	public static void setDefaultFlushThreshold(int flushThreshold) {
+		if(flushThreshold<1) throw new IllegalArgumentException("Invalid flush threshold [" + flushThreshold + "]");
+		defaultFlushThreshold = flushThreshold;
+	}
+
+	/**
+	 * Returns the max flush latency in ms for new streams
+	 * @return the max flush latency
+	 */
+	public static long getDefaultFlushLatency() {
+		return defaultFlushLatency;
+	}
+
+	/**
+	 * Sets the max flush latency in ms for new streams. Zero disables latency flushes.
+	 * @param flushLatency the max flush latency
+	 */
+	public static void setDefaultFlushLatency(long flushLatency) {
+		if(flushLatency<0) throw new IllegalArgumentException("Invalid flush latency [" + flushLatency + "]");
+		defaultFlushLatency = flushLatency;
+	}
+	
+	/**
+	 * Returns the number of bytes discarded by all streams because their channel stayed unwritable or their request was cancelled
+	 * @return the number of discarded bytes
+	 */
+	public static long getDiscardedBytes() {
+		return discardedBytes.get();
+	}
+
+	/**
+	 * Returns the backpressure policy for new streams
+	 * @return the backpressure policy
+	 */
+	public static BackpressurePolicy getDefaultBackpressurePolicy() {
+		return defaultBackpressurePolicy;
 	}
 
+	/**
+	 * Sets the backpressure policy for new streams
+	 * @param policy the backpressure policy
+	 */
+	public static void setDefaultBackpressurePolicy(BackpressurePolicy policy) {
+		if(policy==null) throw new IllegalArgumentException("The passed policy was null");
+		defaultBackpressurePolicy = policy;
+	}
+
+	/**
+	 * Returns the backpressure timeout in ms for new streams
+	 * @return the backpressure timeout
+	 */
+	public static long getDefaultBackpressureTimeout() {
+		return defaultBackpressureTimeout;
+	}
 
+	/**
+	 * Sets the backpressure timeout in ms for new streams. Ignored by the {@link BackpressurePolicy#BLOCK} policy.
+	 * @param timeout the backpressure timeout
+	 */
+	public static void setDefaultBackpressureTimeout(long timeout) {
+		if(timeout<1) throw new IllegalArgumentException("Invalid backpressure timeout [" + timeout + "]");
+		defaultBackpressureTimeout = timeout;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ChannelOutputStream [" + streamType + ", request:" + requestId + ", channel:" + channel + "]";
+	}
 }
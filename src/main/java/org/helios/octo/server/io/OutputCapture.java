@@ -0,0 +1,148 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Title: OutputCapture</p>
+ * <p>Description: Keeps a copy of the output written to a request's std-out and std-err {@link ChannelOutputStream}s,
+ * in the order it was written, so the output can be replayed later. Consecutive writes to the same stream are merged into one segment.
+ * Capture stops and the copy is dropped once the output exceeds the capture limit.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.io.OutputCapture</code></p>
+ */
+
+public class OutputCapture {
+	/** The maximum number of bytes captured */
+	protected final int limit;
+	/** The stream of each segment, true for std-out */
+	protected final List<Boolean> streams = new ArrayList<Boolean>();
+	/** The segments of captured output */
+	protected final List<byte[]> segments = new ArrayList<byte[]>();
+	/** The number of bytes used in the last segment */
+	protected int lastLength = 0;
+	/** The number of bytes captured */
+	protected int size = 0;
+	/** Indicates if the output exceeded the limit */
+	protected boolean overflowed = false;
+	
+	/**
+	 * Creates a new OutputCapture
+	 * @param limit The maximum number of bytes captured
+	 */
+	public OutputCapture(int limit) {
+		if(limit<0) throw new IllegalArgumentException("Invalid capture limit [" + limit + "]");
+		this.limit = limit;
+	}
+	
+	/**
+	 * Appends output to the capture
+	 * @param isStdOut true for std-out output, false for std-err
+	 * @param b The output bytes
+	 * @param off The offset of the first output byte
+	 * @param len The number of output bytes
+	 */
+	public synchronized void capture(boolean isStdOut, byte[] b, int off, int len) {
+		if(overflowed) return;
+		if(size + len > limit) {
+			overflowed = true;
+			streams.clear();
+			segments.clear();
+			return;
+		}
+		size += len;
+		final int last = segments.size()-1;
+		if(last==-1 || streams.get(last)!=isStdOut) {
+			if(last!=-1 && segments.get(last).length!=lastLength) segments.set(last, Arrays.copyOf(segments.get(last), lastLength));
+			segments.add(Arrays.copyOfRange(b, off, off + Math.max(len, 256)));
+			streams.add(isStdOut);
+			lastLength = len;
+			return;
+		}
+		byte[] segment = segments.get(last);
+		if(lastLength + len > segment.length) {
+			segment = Arrays.copyOf(segment, Math.max(segment.length * 2, lastLength + len));
+			segments.set(last, segment);
+		}
+		System.arraycopy(b, off, segment, lastLength, len);
+		lastLength += len;
+	}
+	
+	/**
+	 * Appends one byte of output to the capture
+	 * @param isStdOut true for std-out output, false for std-err
+	 * @param b The output byte
+	 */
+	public void capture(boolean isStdOut, int b) {
+		capture(isStdOut, new byte[]{(byte)b}, 0, 1);
+	}
+	
+	/**
+	 * Indicates if the output exceeded the capture limit, in which case nothing is kept
+	 * @return true if the output exceeded the limit
+	 */
+	public synchronized boolean isOverflowed() {
+		return overflowed;
+	}
+	
+	/**
+	 * Returns the number of bytes captured
+	 * @return the captured size
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+	
+	/**
+	 * Returns the captured segments, trimmed to their length
+	 * @return the captured segments in the order they were written
+	 */
+	public synchronized byte[][] getSegments() {
+		byte[][] copy = new byte[segments.size()][];
+		for(int i = 0; i < copy.length; i++) {
+			copy[i] = segments.get(i);
+		}
+		if(copy.length > 0 && copy[copy.length-1].length!=lastLength) {
+			copy[copy.length-1] = Arrays.copyOf(copy[copy.length-1], lastLength);
+		}
+		return copy;
+	}
+	
+	/**
+	 * Returns the stream of each captured segment
+	 * @return true for each std-out segment, false for each std-err segment
+	 */
+	public synchronized boolean[] getStreams() {
+		boolean[] copy = new boolean[streams.size()];
+		for(int i = 0; i < copy.length; i++) {
+			copy[i] = streams.get(i);
+		}
+		return copy;
+	}
+}
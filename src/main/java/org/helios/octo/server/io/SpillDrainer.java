@@ -0,0 +1,181 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.io;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.util.AttributeKey;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>Title: SpillDrainer</p>
+ * <p>Description: Drains the {@link SpillFile}s of a channel to the channel while it is writable, one region at a time.
+ * Runs on the channel's event loop and is rescheduled when output is spilled, when a spill is finished and when the channel
+ * becomes writable again.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.io.SpillDrainer</code></p>
+ */
+
+public class SpillDrainer implements Runnable, ChannelFutureListener {
+	/** The drained channel */
+	protected final Channel channel;
+	/** The channel's spills in the order they were started */
+	protected final Queue<SpillFile> spills = new ConcurrentLinkedQueue<SpillFile>();
+	/** Indicates if a drain is scheduled on the event loop */
+	protected final AtomicBoolean scheduled = new AtomicBoolean(false);
+	/** Indicates if a region write is in flight. Only accessed on the event loop. */
+	protected boolean inFlight = false;
+	
+	/** The maximum size of a drained region */
+	public static final int MAX_REGION_SIZE = 1024 * 1024;
+	
+	/** The attribute key for a channel's drainer */
+	public static final AttributeKey<SpillDrainer> DRAINER = new AttributeKey<SpillDrainer>("OctoSpillDrainer");
+	
+	/**
+	 * Returns the drainer for the passed channel, creating it if necessary
+	 * @param channel The channel
+	 * @return the channel's drainer
+	 */
+	public static SpillDrainer get(Channel channel) {
+		SpillDrainer drainer = channel.attr(DRAINER).get();
+		if(drainer==null) {
+			SpillDrainer newDrainer = new SpillDrainer(channel);
+			drainer = channel.attr(DRAINER).setIfAbsent(newDrainer);
+			if(drainer==null) {
+				drainer = newDrainer;
+				final SpillDrainer closer = drainer;
+				channel.closeFuture().addListener(new ChannelFutureListener() {
+					@Override
+					public void operationComplete(ChannelFuture future) throws Exception {
+						closer.schedule();
+					}
+				});
+			}
+		}
+		return drainer;
+	}
+	
+	/**
+	 * Creates a new SpillDrainer
+	 * @param channel The drained channel
+	 */
+	private SpillDrainer(Channel channel) {
+		this.channel = channel;
+	}
+	
+	/**
+	 * Adds a new spill to be drained
+	 * @param spill The spill
+	 */
+	public void add(SpillFile spill) {
+		spills.add(spill);
+	}
+	
+	/**
+	 * Schedules a drain on the channel's event loop if one is not already scheduled
+	 */
+	public void schedule() {
+		if(scheduled.compareAndSet(false, true)) {
+			channel.eventLoop().execute(this);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		scheduled.set(false);
+		drain();
+	}
+	
+	/**
+	 * Writes the next available region if no region write is in flight and the channel is writable.
+	 * Completed and cancelled spills are closed and removed. Only called on the event loop.
+	 */
+	protected void drain() {
+		if(!channel.isActive()) {
+			closeAll(new ClosedChannelException());
+			return;
+		}
+		if(inFlight) return;
+		Iterator<SpillFile> iter = spills.iterator();
+		while(iter.hasNext()) {
+			SpillFile spill = iter.next();
+			if(spill.isCancelled()) {
+				iter.remove();
+				spill.close(new CancellationException("Spilled output cancelled"));
+				continue;
+			}
+			if(spill.isComplete()) {
+				iter.remove();
+				spill.close(null);
+				continue;
+			}
+			if(!channel.isWritable()) return;
+			if(spill.available() > 0) {
+				inFlight = true;
+				channel.write(spill.nextRegion(MAX_REGION_SIZE)).addListener(this);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Continues the drain when a region write completes
+	 * {@inheritDoc}
+	 * @see io.netty.util.concurrent.GenericFutureListener#operationComplete(io.netty.util.concurrent.Future)
+	 */
+	@Override
+	public void operationComplete(ChannelFuture future) throws Exception {
+		inFlight = false;
+		if(future.isSuccess()) {
+			drain();
+		} else {
+			closeAll(future.cause());
+		}
+	}
+	
+	/**
+	 * Closes all spills, failing their drained futures
+	 * @param cause The failure cause
+	 */
+	protected void closeAll(Throwable cause) {
+		SpillFile spill = null;
+		while((spill = spills.poll())!=null) {
+			spill.close(cause);
+		}
+	}
+}
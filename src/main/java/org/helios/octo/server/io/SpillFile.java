@@ -0,0 +1,369 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.io;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.DefaultPromise;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.helios.octo.protocol.FrameType;
+
+/**
+ * <p>Title: SpillFile</p>
+ * <p>Description: An append-only, memory-mapped temporary file that holds the output of one request stream
+ * while the client channel is not writable. Output is appended by the stream's writer through a mapped window and
+ * drained to the channel in {@link SpillRegion}s by the {@link SpillDrainer}.
+ * There is a single appender and a single drainer, the channel's event loop.</p> 
+ * <p>Spill files are not registered for deletion on exit, since that registry never shrinks. A spill file is deleted when it is closed,
+ * and files left behind by a JVM that exited with spills in progress are removed by {@link #cleanSpillDirectory()} when the server starts.</p>
+ * <p>A filled window is unmapped by the appender when it maps the next one. The last window is unmapped on close if the appender has
+ * finished with it. Where the JVM does not allow explicit unmapping, or a spill is closed while its appender may still be writing,
+ * the window stays mapped, holding its disk space and address space, until it is garbage collected.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.io.SpillFile</code></p>
+ */
+
+public class SpillFile {
+	/** The spill file */
+	protected final File file;
+	/** The spill file's random access file */
+	protected final RandomAccessFile raf;
+	/** The spill file's channel */
+	protected final FileChannel fc;
+	/** The id of the request the output belongs to */
+	protected final long requestId;
+	/** The stream type of the output */
+	protected final FrameType streamType;
+	/** Completed when all the output has been written to the channel */
+	protected final Promise<Void> drainedFuture;
+	/** The current mapped window */
+	protected MappedByteBuffer window = null;
+	/** The number of bytes appended */
+	protected volatile long written = 0L;
+	/** The number of bytes handed to the channel. Only accessed on the event loop. */
+	protected long drained = 0L;
+	/** Indicates that no more output will be appended */
+	protected volatile boolean finished = false;
+	/** Indicates that the remaining output is abandoned */
+	protected volatile boolean cancelled = false;
+	
+	/** The size of each mapped window */
+	public static final int WINDOW_SIZE = 8 * 1024 * 1024;
+	/** The default max spill file size */
+	public static final long DEFAULT_MAX_SPILL_SIZE = 1024L * 1024L * 1024L;
+	
+	/** The directory spill files are created in */
+	private static volatile File spillDirectory = new File(System.getProperty("java.io.tmpdir"), "octo-spill");
+	/** The max spill file size */
+	private static volatile long maxSpillSize = DEFAULT_MAX_SPILL_SIZE;
+	/** The number of spill files created */
+	private static final AtomicLong spillCount = new AtomicLong(0L);
+	/** The number of spill files not yet drained */
+	private static final AtomicInteger activeSpills = new AtomicInteger(0);
+	/** The number of bytes spilled */
+	private static final AtomicLong spilledBytes = new AtomicLong(0L);
+	/** Static class logger */
+	private static final Logger LOG = Logger.getLogger(SpillFile.class);
+	/** The prefix of spill file names */
+	private static final String PREFIX = "octo-";
+	/** The suffix of spill file names */
+	private static final String SUFFIX = ".spill";
+	/** The unmapping method, <code>Unsafe.invokeCleaner(ByteBuffer)</code> or <code>Cleaner.clean()</code>, or null if unmapping is not allowed */
+	private static final Method UNMAP;
+	/** The unsafe instance, or null if unmapping goes through the buffer's cleaner */
+	private static final Object UNSAFE;
+	
+	static {
+		Method unmap = null;
+		Object unsafe = null;
+		try {
+			// Java 9 and later
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			unmap = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field f = unsafeClass.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = f.get(null);
+		} catch (Throwable t) {
+			unmap = null;
+			unsafe = null;
+			try {
+				// Java 6 to 8
+				Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+				clean.setAccessible(true);
+				unmap = clean;
+			} catch (Throwable t2) {
+				LOG.info("Mapped spill windows can not be unmapped explicitly and will be released by garbage collection");
+			}
+		}
+		UNMAP = unmap;
+		UNSAFE = unsafe;
+	}
+
+	/**
+	 * Creates a new SpillFile
+	 * @param requestId The id of the request the output belongs to
+	 * @param streamType The stream type of the output
+	 * @param executor The executor that notifies the drained future's listeners
+	 * @throws IOException thrown if the spill file can not be created
+	 */
+	public SpillFile(long requestId, FrameType streamType, EventExecutor executor) throws IOException {
+		this.requestId = requestId;
+		this.streamType = streamType;
+		File dir = spillDirectory;
+		if(!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+			throw new IOException("Failed to create spill directory [" + dir + "]");
+		}
+		file = File.createTempFile(PREFIX + requestId + "-" + streamType.name().toLowerCase() + "-", SUFFIX, dir);
+		raf = new RandomAccessFile(file, "rw");
+		fc = raf.getChannel();
+		drainedFuture = new DefaultPromise<Void>(executor);
+		spillCount.incrementAndGet();
+		activeSpills.incrementAndGet();
+	}
+	
+	/**
+	 * Appends the readable bytes of the passed buffer, which are consumed
+	 * @param src The buffer to append
+	 * @throws IOException thrown if the spill file can not be mapped or is full
+	 */
+	public void append(ByteBuf src) throws IOException {
+		int bytes = src.readableBytes();
+		if(written + bytes > maxSpillSize) {
+			throw new BackpressureTimeoutException("Spill file [" + file + "] reached the max spill size [" + maxSpillSize + "]");
+		}
+		while(src.isReadable()) {
+			if(window==null || !window.hasRemaining()) {
+				// The drainer reads through the file channel, so a filled window is only ever used here.
+				// Cleared before mapping so a failed map does not leave the unmapped window in place.
+				if(window!=null) unmap(window);
+				window = null;
+				window = fc.map(FileChannel.MapMode.READ_WRITE, written, WINDOW_SIZE);
+			}
+			int n = Math.min(window.remaining(), src.readableBytes());
+			ByteBuffer dst = window.duplicate();
+			dst.limit(dst.position() + n);
+			src.readBytes(dst);
+			window.position(window.position() + n);
+			// Publishes the bytes to the drainer
+			written += n;
+		}
+		spilledBytes.addAndGet(bytes);
+	}
+	
+	/**
+	 * Returns the number of appended bytes not yet handed to the channel
+	 * @return the number of bytes available to drain
+	 */
+	public long available() {
+		return written - drained;
+	}
+	
+	/**
+	 * Returns the next region to drain. Only called on the event loop.
+	 * @param max The maximum region size
+	 * @return the next region
+	 */
+	public SpillRegion nextRegion(int max) {
+		long count = Math.min(max, available());
+		SpillRegion region = new SpillRegion(fc, drained, count, requestId, streamType);
+		drained += count;
+		return region;
+	}
+	
+	/**
+	 * Marks that no more output will be appended
+	 * @return a future that completes when all the output has been written to the channel
+	 */
+	public Future<Void> finish() {
+		finished = true;
+		return drainedFuture;
+	}
+	
+	/**
+	 * Abandons the output not yet handed to the channel. The spill is closed and deleted by the next drain.
+	 */
+	public void cancel() {
+		finished = true;
+		cancelled = true;
+	}
+	
+	/**
+	 * Indicates if the remaining output has been abandoned
+	 * @return true if the spill has been cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	/**
+	 * Indicates if all the output has been appended and handed to the channel
+	 * @return true if the spill is complete
+	 */
+	public boolean isComplete() {
+		return finished && drained==written;
+	}
+	
+	/**
+	 * Closes and deletes the spill file and completes the drained future
+	 * @param cause The failure cause, or null if all the output was written
+	 */
+	public void close(Throwable cause) {
+		// Finishing or cancelling happens after the appender's last append, so only then is the window safe to unmap
+		if(finished && window!=null) unmap(window);
+		window = null;
+		try { fc.close(); } catch (Exception ex) {/* No Op */}
+		try { raf.close(); } catch (Exception ex) {/* No Op */}
+		file.delete();
+		activeSpills.decrementAndGet();
+		if(cause==null) {
+			drainedFuture.trySuccess(null);
+		} else {
+			drainedFuture.tryFailure(cause);
+		}
+	}
+	
+	/**
+	 * Unmaps a mapped window where the JVM allows it. The window must not be used afterwards.
+	 * @param buffer The window to unmap
+	 */
+	protected static void unmap(MappedByteBuffer buffer) {
+		if(UNMAP==null) return;
+		try {
+			if(UNSAFE!=null) {
+				UNMAP.invoke(UNSAFE, buffer);
+			} else {
+				Method cleaner = buffer.getClass().getMethod("cleaner");
+				cleaner.setAccessible(true);
+				Object c = cleaner.invoke(buffer);
+				if(c!=null) UNMAP.invoke(c);
+			}
+		} catch (Throwable t) {
+			if(LOG.isDebugEnabled()) LOG.debug("Failed to unmap spill window", t);
+		}
+	}
+	
+	/**
+	 * Deletes the spill files left in the spill directory by an earlier run. Does nothing while spills are active in this JVM.
+	 * @return the number of spill files deleted
+	 */
+	public static int cleanSpillDirectory() {
+		if(activeSpills.get() > 0) return 0;
+		File[] files = spillDirectory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File f) {
+				return f.isFile() && f.getName().startsWith(PREFIX) && f.getName().endsWith(SUFFIX);
+			}
+		});
+		if(files==null) return 0;
+		int deleted = 0;
+		for(File f: files) {
+			if(f.delete()) deleted++;
+		}
+		return deleted;
+	}
+	
+	/**
+	 * Returns the directory spill files are created in
+	 * @return the spill directory
+	 */
+	public static File getSpillDirectory() {
+		return spillDirectory;
+	}
+
+	/**
+	 * Sets the directory spill files are created in
+	 * @param dir the spill directory
+	 */
+	public static void setSpillDirectory(File dir) {
+		if(dir==null) throw new IllegalArgumentException("The passed directory was null");
+		spillDirectory = dir;
+	}
+
+	/**
+	 * Returns the max spill file size in bytes
+	 * @return the max spill file size
+	 */
+	public static long getMaxSpillSize() {
+		return maxSpillSize;
+	}
+
+	/**
+	 * Sets the max spill file size in bytes
+	 * @param size the max spill file size
+	 */
+	public static void setMaxSpillSize(long size) {
+		if(size<1) throw new IllegalArgumentException("Invalid max spill size [" + size + "]");
+		maxSpillSize = size;
+	}
+	
+	/**
+	 * Returns the number of spill files created
+	 * @return the spill count
+	 */
+	public static long getSpillCount() {
+		return spillCount.get();
+	}
+	
+	/**
+	 * Returns the number of spill files not yet drained
+	 * @return the active spill count
+	 */
+	public static int getActiveSpillCount() {
+		return activeSpills.get();
+	}
+	
+	/**
+	 * Returns the number of bytes spilled
+	 * @return the number of spilled bytes
+	 */
+	public static long getSpilledBytes() {
+		return spilledBytes.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "SpillFile [" + file + ", written:" + written + ", drained:" + drained + ", finished:" + finished + "]";
+	}
+}
@@ -0,0 +1,153 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.io;
+
+import io.netty.channel.FileRegion;
+import io.netty.util.AbstractReferenceCounted;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.helios.octo.protocol.FrameType;
+
+/**
+ * <p>Title: SpillRegion</p>
+ * <p>Description: A region of a {@link SpillFile} to be transferred to a channel zero-copy.
+ * Unlike a {@link io.netty.channel.DefaultFileRegion}, releasing the region does not close the spill file's channel,
+ * which is shared by all the regions of the spill.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.io.SpillRegion</code></p>
+ */
+
+public class SpillRegion extends AbstractReferenceCounted implements FileRegion {
+	/** The spill file channel */
+	protected final FileChannel file;
+	/** The file position of the region */
+	protected final long position;
+	/** The number of bytes in the region */
+	protected final long count;
+	/** The number of bytes transferred so far */
+	protected long transfered = 0L;
+	/** The id of the request the output belongs to */
+	protected final long requestId;
+	/** The stream type of the output */
+	protected final FrameType streamType;
+	
+	/**
+	 * Creates a new SpillRegion
+	 * @param file The spill file channel
+	 * @param position The file position of the region
+	 * @param count The number of bytes in the region
+	 * @param requestId The id of the request the output belongs to
+	 * @param streamType The stream type of the output
+	 */
+	public SpillRegion(FileChannel file, long position, long count, long requestId, FrameType streamType) {
+		this.file = file;
+		this.position = position;
+		this.count = count;
+		this.requestId = requestId;
+		this.streamType = streamType;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.channel.FileRegion#position()
+	 */
+	@Override
+	public long position() {
+		return position;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.channel.FileRegion#transfered()
+	 */
+	@Override
+	public long transfered() {
+		return transfered;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.channel.FileRegion#count()
+	 */
+	@Override
+	public long count() {
+		return count;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.channel.FileRegion#transferTo(java.nio.channels.WritableByteChannel, long)
+	 */
+	@Override
+	public long transferTo(WritableByteChannel target, long position) throws IOException {
+		long remaining = count - position;
+		if(remaining < 0 || position < 0) {
+			throw new IllegalArgumentException("position out of range: " + position + " (expected: 0 - " + (count - 1) + ")");
+		}
+		if(remaining==0) return 0L;
+		long written = file.transferTo(this.position + position, remaining, target);
+		if(written > 0) transfered += written;
+		return written;
+	}
+	
+	/**
+	 * Returns the id of the request the output belongs to
+	 * @return the request id
+	 */
+	public long getRequestId() {
+		return requestId;
+	}
+	
+	/**
+	 * Returns the stream type of the output
+	 * @return the stream type
+	 */
+	public FrameType getStreamType() {
+		return streamType;
+	}
+
+	/**
+	 * The spill file is closed by its owner once fully drained
+	 * {@inheritDoc}
+	 * @see io.netty.util.AbstractReferenceCounted#deallocate()
+	 */
+	@Override
+	protected void deallocate() {
+		/* No Op */
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "SpillRegion [" + streamType + ", request:" + requestId + ", position:" + position + ", count:" + count + "]";
+	}
+}
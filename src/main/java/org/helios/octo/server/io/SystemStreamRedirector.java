@@ -24,14 +24,19 @@
  */
 package org.helios.octo.server.io;
 
-import io.netty.channel.Channel;
-
+import java.io.IOException;
 import java.io.PrintStream;
+import java.util.Locale;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * <p>Title: SystemStreamRedirector</p>
- * <p>Description: Utility to redirect out and err streams back to the calling client.</p> 
+ * <p>Description: Utility to redirect out and err streams back to the calling client.
+ * Once {@link #install()}ed, a single redirector replaces each of {@link System#out} and {@link System#err} and
+ * dispatches every call to the print stream bound to the calling thread by {@link #set(PrintStream, PrintStream)},
+ * or to the original system stream if the thread is not bound. Every {@link PrintStream} method is overridden so
+ * the redirector itself never takes a lock: the only synchronization is in the target stream, which is normally
+ * private to one request.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.octo.server.io.SystemStreamRedirector</code></p>
@@ -43,66 +48,60 @@ public class SystemStreamRedirector extends PrintStream {
 	/** The original system err print stream */
 	public static final PrintStream SYSTEM_ERR = System.err;
 	
-	/** A non channel stream redirector for std out */
-	private static final SystemStreamRedirector outRedirector = new SystemStreamRedirector(true, SYSTEM_OUT);
-	/** A non channel stream redirector for std err */
-	private static final SystemStreamRedirector errRedirector = new SystemStreamRedirector(false, SYSTEM_ERR);
+	/** A thread local for thread's output streams. Null when the thread is not bound. */
+	private static final InheritableThreadLocal<PrintStream> setOutStream = new InheritableThreadLocal<PrintStream>();
 	
-	/** A thread local for thread's output streams */
-	private static InheritableThreadLocal<PrintStream> setOutStream = new InheritableThreadLocal<PrintStream>() {
-		protected PrintStream initialValue() {
-			return SYSTEM_OUT; 
-		}
-	};
+	/** A thread local for thread's error streams. Null when the thread is not bound. */
+	private static final InheritableThreadLocal<PrintStream> setErrStream = new InheritableThreadLocal<PrintStream>();
 	
-	/** A thread local for thread's error streams */
-	private static InheritableThreadLocal<PrintStream> setErrStream = new InheritableThreadLocal<PrintStream>() {
-		protected PrintStream initialValue() {
-			return SYSTEM_ERR; 
-		}
-	};
+	/** The global redirector for std out. Declared after the thread locals it dispatches through. */
+	private static final SystemStreamRedirector outRedirector = new SystemStreamRedirector(true);
+	/** The global redirector for std err */
+	private static final SystemStreamRedirector errRedirector = new SystemStreamRedirector(false);
 	
 	/** Indicates if the system redirector is globally installed */
 	private static final AtomicBoolean installed = new AtomicBoolean(false);
 	
 	/** Indicates if this redirector is for std out */
 	protected final boolean isStdOut;
-	/** The channel the print stream should write to if not null */
-	protected final Channel channel;
-	
-	
+	/** The thread local this redirector dispatches through */
+	protected final ThreadLocal<PrintStream> threadStream;
+	/** The stream unbound threads fall through to */
+	protected final PrintStream original;
 	
 	/**
 	 * Installs the global system redirector if it is not installed already
 	 */
 	public static void install() {
-		if(!installed.get()) {
+		if(installed.compareAndSet(false, true)) {
 			System.setOut(outRedirector);
 			System.setErr(errRedirector);
-			installed.set(true);
 		} 
 	}
 	/**
 	 * Uninstalls the global system redirector if it is installed 
 	 */	
 	public static void uninstall() {
-		if(installed.get()) {
+		if(installed.compareAndSet(true, false)) {
 			System.setOut(SYSTEM_OUT);
 			System.setErr(SYSTEM_ERR);
-			installed.set(false);
 		} 
 	}
-
 	
 	/**
-	 * Determines if either stdout or stderr are redirected
+	 * Indicates if the global system redirector is installed
+	 * @return true if installed, false otherwise
+	 */
+	public static boolean isInstalled() {
+		return installed.get();
+	}
+	
+	/**
+	 * Determines if either stdout or stderr are redirected for the current thread
 	 * @return true if stdout or stderr is redirected, false otherwise
 	 */
 	public static boolean isInstalledOnCurrentThread() {
-		return (
-				!setOutStream.get().equals(SYSTEM_OUT) ||
-				!setErrStream.get().equals(SYSTEM_ERR)
-		);
+		return setOutStream.get()!=null || setErrStream.get()!=null;
 	}
 	
 	/**
@@ -121,50 +120,337 @@ public class SystemStreamRedirector extends PrintStream {
 		setErrStream.set(errPs==null ? outPs : errPs);
 	}
 	
-	/**
-	 * Redirects the out and error streams for the current thread to the passed channel
-	 * @param channel The channel to write to
-	 */
-	public static void set(Channel channel) {
-		if(!installed.get()) {
-			throw new RuntimeException("The SystemRedirector is not installed");			
-		}
-		if(channel==null) {
-			throw new RuntimeException("Channel was null");
-		}
-		setOutStream.set(new SystemStreamRedirector(true, channel));
-		setErrStream.set(new SystemStreamRedirector(false, channel));		
-	}
-	
 	/**
 	 * Resets the out and error streams for the current thread to the default
 	 */
 	public static void reset() {
-		setOutStream.set(SYSTEM_OUT);
-		setErrStream.set(SYSTEM_ERR);		
+		setOutStream.remove();
+		setErrStream.remove();
 	}
 	
 	/**
 	 * Creates a new SystemStreamRedirector
 	 * @param isStdOut true if this is for std out
-	 * @param channel The channel the streamed content should be written to
 	 */
-	private SystemStreamRedirector(boolean isStdOut, Channel channel) {
-		super(ChannelOutputStream.getInstance(isStdOut, channel));
-		this.isStdOut = isStdOut;		
-		this.channel = channel;		
+	private SystemStreamRedirector(boolean isStdOut) {
+		super(isStdOut ? SYSTEM_OUT : SYSTEM_ERR);
+		this.isStdOut = isStdOut;
+		threadStream = isStdOut ? setOutStream : setErrStream;
+		original = isStdOut ? SYSTEM_OUT : SYSTEM_ERR;
 	}
 	
 	/**
-	 * Creates a new SystemStreamRedirector
-	 * @param isStdOut true if this is for std out
-	 * @param printStream The print stream to write to
+	 * Returns the print stream bound to the calling thread, or the original system stream if the thread is not bound
+	 * @return the target print stream
 	 */
-	private SystemStreamRedirector(boolean isStdOut, PrintStream printStream) {
-		super(printStream);
-		this.isStdOut = isStdOut;
-		channel = null;		
+	protected PrintStream target() {
+		PrintStream ps = threadStream.get();
+		return ps==null ? original : ps;
 	}
 	
-
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#write(int)
+	 */
+	@Override
+	public void write(int b) {
+		target().write(b);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#write(byte[], int, int)
+	 */
+	@Override
+	public void write(byte[] buf, int off, int len) {
+		target().write(buf, off, len);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.FilterOutputStream#write(byte[])
+	 */
+	@Override
+	public void write(byte[] b) throws IOException {
+		target().write(b);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#flush()
+	 */
+	@Override
+	public void flush() {
+		target().flush();
+	}
+	
+	/**
+	 * Closes the calling thread's bound stream. The original system streams are never closed through the redirector.
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#close()
+	 */
+	@Override
+	public void close() {
+		PrintStream ps = threadStream.get();
+		if(ps!=null) ps.close();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#checkError()
+	 */
+	@Override
+	public boolean checkError() {
+		return target().checkError();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#print(boolean)
+	 */
+	@Override
+	public void print(boolean x) {
+		target().print(x);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#println(boolean)
+	 */
+	@Override
+	public void println(boolean x) {
+		target().println(x);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#print(char)
+	 */
+	@Override
+	public void print(char x) {
+		target().print(x);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#println(char)
+	 */
+	@Override
+	public void println(char x) {
+		target().println(x);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#print(int)
+	 */
+	@Override
+	public void print(int x) {
+		target().print(x);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#println(int)
+	 */
+	@Override
+	public void println(int x) {
+		target().println(x);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#print(long)
+	 */
+	@Override
+	public void print(long x) {
+		target().print(x);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#println(long)
+	 */
+	@Override
+	public void println(long x) {
+		target().println(x);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#print(float)
+	 */
+	@Override
+	public void print(float x) {
+		target().print(x);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#println(float)
+	 */
+	@Override
+	public void println(float x) {
+		target().println(x);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#print(double)
+	 */
+	@Override
+	public void print(double x) {
+		target().print(x);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#println(double)
+	 */
+	@Override
+	public void println(double x) {
+		target().println(x);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#print(char[])
+	 */
+	@Override
+	public void print(char[] x) {
+		target().print(x);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#println(char[])
+	 */
+	@Override
+	public void println(char[] x) {
+		target().println(x);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#print(java.lang.String)
+	 */
+	@Override
+	public void print(String x) {
+		target().print(x);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#println(java.lang.String)
+	 */
+	@Override
+	public void println(String x) {
+		target().println(x);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#print(java.lang.Object)
+	 */
+	@Override
+	public void print(Object x) {
+		target().print(x);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#println(java.lang.Object)
+	 */
+	@Override
+	public void println(Object x) {
+		target().println(x);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#println()
+	 */
+	@Override
+	public void println() {
+		target().println();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#printf(java.lang.String, java.lang.Object[])
+	 */
+	@Override
+	public PrintStream printf(String format, Object... args) {
+		target().printf(format, args);
+		return this;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#printf(java.util.Locale, java.lang.String, java.lang.Object[])
+	 */
+	@Override
+	public PrintStream printf(Locale l, String format, Object... args) {
+		target().printf(l, format, args);
+		return this;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#format(java.lang.String, java.lang.Object[])
+	 */
+	@Override
+	public PrintStream format(String format, Object... args) {
+		target().format(format, args);
+		return this;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#format(java.util.Locale, java.lang.String, java.lang.Object[])
+	 */
+	@Override
+	public PrintStream format(Locale l, String format, Object... args) {
+		target().format(l, format, args);
+		return this;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#append(java.lang.CharSequence)
+	 */
+	@Override
+	public PrintStream append(CharSequence csq) {
+		target().append(csq);
+		return this;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#append(java.lang.CharSequence, int, int)
+	 */
+	@Override
+	public PrintStream append(CharSequence csq, int start, int end) {
+		target().append(csq, start, end);
+		return this;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.PrintStream#append(char)
+	 */
+	@Override
+	public PrintStream append(char c) {
+		target().append(c);
+		return this;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "SystemStreamRedirector [" + (isStdOut ? "out" : "err") + "]";
+	}
 }
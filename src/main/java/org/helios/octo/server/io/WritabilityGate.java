@@ -0,0 +1,161 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.io;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.util.AttributeKey;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Title: WritabilityGate</p>
+ * <p>Description: Blocks threads writing to a channel while the channel's outbound buffer is above its high water mark.
+ * Waiting threads are released by {@link #signal()} when the channel becomes writable again or closes.
+ * Must never be awaited on the channel's event loop.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.io.WritabilityGate</code></p>
+ */
+
+public class WritabilityGate implements ChannelFutureListener {
+	/** The gated channel */
+	protected final Channel channel;
+	
+	/** The attribute key for a channel's gate */
+	public static final AttributeKey<WritabilityGate> GATE = new AttributeKey<WritabilityGate>("OctoWritabilityGate");
+	
+	/** The total time in ns threads have spent blocked on unwritable channels */
+	private static final AtomicLong blockedTime = new AtomicLong(0L);
+	/** The number of times a thread blocked on an unwritable channel */
+	private static final AtomicLong blockCount = new AtomicLong(0L);
+	/** The number of times a thread gave up waiting for an unwritable channel */
+	private static final AtomicLong timeoutCount = new AtomicLong(0L);
+	
+	/**
+	 * Returns the gate for the passed channel, creating it if necessary
+	 * @param channel The channel
+	 * @return the channel's gate
+	 */
+	public static WritabilityGate get(Channel channel) {
+		WritabilityGate gate = channel.attr(GATE).get();
+		if(gate==null) {
+			WritabilityGate newGate = new WritabilityGate(channel);
+			gate = channel.attr(GATE).setIfAbsent(newGate);
+			if(gate==null) {
+				gate = newGate;
+				channel.closeFuture().addListener(gate);
+			}
+		}
+		return gate;
+	}
+	
+	/**
+	 * Creates a new WritabilityGate
+	 * @param channel The gated channel
+	 */
+	private WritabilityGate(Channel channel) {
+		this.channel = channel;
+	}
+	
+	/**
+	 * Waits until the channel is writable or closed
+	 * @param timeout The maximum time to wait in ms, or zero to wait indefinitely
+	 * @return true if the channel is writable or closed, false if the timeout elapsed first
+	 * @throws InterruptedIOException thrown if the thread is interrupted while waiting
+	 */
+	public boolean await(long timeout) throws InterruptedIOException {
+		if(channel.isWritable() || !channel.isActive()) return true;
+		final long start = System.nanoTime();
+		blockCount.incrementAndGet();
+		try {
+			synchronized(this) {
+				long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+				while(!channel.isWritable() && channel.isActive()) {
+					if(timeout > 0) {
+						if(remaining <= 0) {
+							timeoutCount.incrementAndGet();
+							return false;
+						}
+						TimeUnit.NANOSECONDS.timedWait(this, remaining);
+						remaining = TimeUnit.MILLISECONDS.toNanos(timeout) - (System.nanoTime() - start);
+					} else {
+						wait();
+					}
+				}
+				return true;
+			}
+		} catch (InterruptedException iex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for channel [" + channel + "] to become writable");
+		} finally {
+			blockedTime.addAndGet(System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * Releases all threads waiting on this gate so they can re-check the channel
+	 */
+	public synchronized void signal() {
+		notifyAll();
+	}
+	
+	/**
+	 * Releases waiting threads when the channel closes
+	 * {@inheritDoc}
+	 * @see io.netty.util.concurrent.GenericFutureListener#operationComplete(io.netty.util.concurrent.Future)
+	 */
+	@Override
+	public void operationComplete(ChannelFuture future) throws Exception {
+		signal();
+	}
+	
+	/**
+	 * Returns the total time in ms threads have spent blocked on unwritable channels
+	 * @return the total blocked time in ms
+	 */
+	public static long getBlockedTime() {
+		return TimeUnit.NANOSECONDS.toMillis(blockedTime.get());
+	}
+	
+	/**
+	 * Returns the number of times a thread blocked on an unwritable channel
+	 * @return the block count
+	 */
+	public static long getBlockCount() {
+		return blockCount.get();
+	}
+	
+	/**
+	 * Returns the number of times a thread gave up waiting for an unwritable channel
+	 * @return the timeout count
+	 */
+	public static long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+}
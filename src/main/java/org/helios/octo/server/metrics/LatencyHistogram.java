@@ -0,0 +1,254 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
+/**
+ * <p>Title: LatencyHistogram</p>
+ * <p>Description: A lock-free log-linear histogram of latencies in ns. Each power of two range is split into
+ * {@link #SUB_BUCKETS}/2 linear buckets, so a reported percentile is at most about 6% above the recorded value.
+ * Recording is one bucket increment plus the count, sum and max updates, with no allocation.
+ * Percentiles are computed from a snapshot of the buckets that is not atomic with respect to concurrent recording,
+ * which is immaterial for monitoring.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.metrics.LatencyHistogram</code></p>
+ */
+
+public class LatencyHistogram {
+	/** The bucket counts */
+	protected final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	/** The number of recorded latencies */
+	protected final AtomicLong count = new AtomicLong(0L);
+	/** The sum of the recorded latencies in ns */
+	protected final AtomicLong sum = new AtomicLong(0L);
+	/** The largest recorded latency in ns */
+	protected final AtomicLong max = new AtomicLong(0L);
+
+	/** The number of bits of each value that select its linear bucket */
+	public static final int SUB_BUCKET_BITS = 5;
+	/** The number of buckets for values below the first logarithmic range */
+	public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/** The largest trackable latency in ns, about 4.9 hours. Larger latencies are recorded as this value. */
+	public static final long MAX_VALUE = (1L << 44) - 1;
+	/** The number of buckets */
+	public static final int BUCKETS = index(MAX_VALUE) + 1;
+	/** The percentiles published */
+	public static final double[] PERCENTILES = {50D, 90D, 99D, 99.9D};
+
+	/** The composite type items */
+	private static final String[] ITEMS = {"count", "mean", "p50", "p90", "p99", "p999", "max"};
+	/** The composite type item descriptions */
+	private static final String[] ITEM_DESCRIPTIONS = {"The number of recorded latencies", "The mean latency in microseconds",
+		"The 50th percentile latency in microseconds", "The 90th percentile latency in microseconds", "The 99th percentile latency in microseconds",
+		"The 99.9th percentile latency in microseconds", "The largest latency in microseconds"};
+	/** The composite type of a histogram summary */
+	public static final CompositeType SUMMARY_TYPE;
+
+	static {
+		try {
+			SUMMARY_TYPE = new CompositeType("LatencyHistogram", "A latency histogram summary", ITEMS, ITEM_DESCRIPTIONS,
+					new OpenType<?>[]{SimpleType.LONG, SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE});
+		} catch (OpenDataException ode) {
+			throw new RuntimeException(ode);
+		}
+	}
+
+	/**
+	 * Records a latency
+	 * @param nanos The latency in ns. Negative values are recorded as zero.
+	 */
+	public void record(long nanos) {
+		if(nanos < 0) nanos = 0;
+		else if(nanos > MAX_VALUE) nanos = MAX_VALUE;
+		buckets.incrementAndGet(index(nanos));
+		count.incrementAndGet();
+		sum.addAndGet(nanos);
+		long m = max.get();
+		while(nanos > m && !max.compareAndSet(m, nanos)) {
+			m = max.get();
+		}
+	}
+
+	/**
+	 * Returns the number of recorded latencies
+	 * @return the number of recorded latencies
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the mean latency in ns
+	 * @return the mean latency, or 0 if nothing has been recorded
+	 */
+	public long getMean() {
+		long c = count.get();
+		return c==0 ? 0L : sum.get() / c;
+	}
+
+	/**
+	 * Returns the largest recorded latency in ns
+	 * @return the largest latency
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the passed percentile in ns
+	 * @param percentile The percentile, from 0 to 100
+	 * @return the upper bound of the bucket holding the percentile, capped at the largest latency, or 0 if nothing has been recorded
+	 */
+	public long getPercentile(double percentile) {
+		return percentiles(snapshot(), percentile)[0];
+	}
+
+	/**
+	 * Clears the histogram. Latencies recorded during the reset may be partly cleared.
+	 */
+	public void reset() {
+		for(int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0L);
+		}
+		count.set(0L);
+		sum.set(0L);
+		max.set(0L);
+	}
+
+	/**
+	 * Returns a summary of the histogram with its values in microseconds
+	 * @return the summary
+	 */
+	public CompositeData toCompositeData() {
+		long[] snapshot = snapshot();
+		long[] ps = percentiles(snapshot, PERCENTILES);
+		long c = 0L;
+		for(long b: snapshot) {
+			c += b;
+		}
+		Object[] values = new Object[ITEMS.length];
+		values[0] = c;
+		values[1] = micros(c==0 ? 0L : sum.get() / c);
+		for(int i = 0; i < ps.length; i++) {
+			values[i+2] = micros(ps[i]);
+		}
+		values[ITEMS.length-1] = micros(max.get());
+		try {
+			return new CompositeDataSupport(SUMMARY_TYPE, ITEMS, values);
+		} catch (OpenDataException ode) {
+			throw new RuntimeException(ode);
+		}
+	}
+
+	/**
+	 * Copies the bucket counts
+	 * @return the bucket counts
+	 */
+	protected long[] snapshot() {
+		long[] snapshot = new long[BUCKETS];
+		for(int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = buckets.get(i);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Computes percentiles from a snapshot
+	 * @param snapshot The bucket counts
+	 * @param percentiles The percentiles to compute, in ascending order
+	 * @return the percentiles in ns
+	 */
+	protected long[] percentiles(long[] snapshot, double... percentiles) {
+		long total = 0L;
+		for(long b: snapshot) {
+			total += b;
+		}
+		long[] values = new long[percentiles.length];
+		if(total==0) return values;
+		final long m = max.get();
+		long seen = 0L;
+		int p = 0;
+		for(int i = 0; i < BUCKETS && p < percentiles.length; i++) {
+			seen += snapshot[i];
+			while(p < percentiles.length && seen >= Math.max(1L, (long)Math.ceil(percentiles[p] / 100D * total))) {
+				values[p++] = Math.min(upperBound(i), m);
+			}
+		}
+		while(p < percentiles.length) {
+			values[p++] = m;
+		}
+		return values;
+	}
+
+	/**
+	 * Returns the bucket index of a value
+	 * @param value The value, from 0 to {@link #MAX_VALUE}
+	 * @return the bucket index
+	 */
+	protected static int index(long value) {
+		if(value < SUB_BUCKETS) return (int)value;
+		int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return SUB_BUCKETS + (shift-1) * (SUB_BUCKETS >> 1) + (int)(value >>> shift) - (SUB_BUCKETS >> 1);
+	}
+
+	/**
+	 * Returns the largest value in a bucket
+	 * @param index The bucket index
+	 * @return the largest value in the bucket
+	 */
+	protected static long upperBound(int index) {
+		if(index < SUB_BUCKETS) return index;
+		int half = SUB_BUCKETS >> 1;
+		int shift = (index - SUB_BUCKETS) / half + 1;
+		long sub = (index - SUB_BUCKETS) % half + half;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	private static double micros(long nanos) {
+		return Math.round(nanos / 100D) / 10D;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		long[] ps = percentiles(snapshot(), PERCENTILES);
+		return "LatencyHistogram [count=" + count.get() + ", mean=" + TimeUnit.NANOSECONDS.toMicros(getMean()) + "us, p50=" + TimeUnit.NANOSECONDS.toMicros(ps[0])
+				+ "us, p99=" + TimeUnit.NANOSECONDS.toMicros(ps[2]) + "us, p999=" + TimeUnit.NANOSECONDS.toMicros(ps[3]) + "us, max=" + TimeUnit.NANOSECONDS.toMicros(max.get()) + "us]";
+	}
+}
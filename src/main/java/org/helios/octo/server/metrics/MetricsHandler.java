@@ -0,0 +1,114 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.metrics;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
+import io.netty.channel.MessageList;
+
+/**
+ * <p>Title: MetricsHandler</p>
+ * <p>Description: Counts connections and the bytes received and sent. Sits at the head of the server pipeline,
+ * so it sees the raw inbound bytes and the encoded outbound bytes, including spilled output sent as file regions.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.metrics.MetricsHandler</code></p>
+ */
+@Sharable
+public class MetricsHandler extends ChannelDuplexHandler {
+	/** The metrics to record to */
+	protected final ServerMetrics metrics;
+
+	/**
+	 * Creates a new MetricsHandler
+	 * @param metrics The metrics to record to
+	 */
+	public MetricsHandler(ServerMetrics metrics) {
+		if(metrics==null) throw new IllegalArgumentException("The passed metrics was null");
+		this.metrics = metrics;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.channel.ChannelInboundHandlerAdapter#channelActive(io.netty.channel.ChannelHandlerContext)
+	 */
+	@Override
+	public void channelActive(ChannelHandlerContext ctx) throws Exception {
+		metrics.connectionOpened();
+		super.channelActive(ctx);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.channel.ChannelInboundHandlerAdapter#channelInactive(io.netty.channel.ChannelHandlerContext)
+	 */
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		metrics.connectionClosed();
+		super.channelInactive(ctx);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.channel.ChannelInboundHandlerAdapter#messageReceived(io.netty.channel.ChannelHandlerContext, io.netty.channel.MessageList)
+	 */
+	@Override
+	public void messageReceived(ChannelHandlerContext ctx, MessageList<Object> msgs) throws Exception {
+		metrics.received(size(msgs));
+		ctx.fireMessageReceived(msgs);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.channel.ChannelDuplexHandler#write(io.netty.channel.ChannelHandlerContext, io.netty.channel.MessageList, io.netty.channel.ChannelPromise)
+	 */
+	@Override
+	public void write(ChannelHandlerContext ctx, MessageList<Object> msgs, ChannelPromise promise) throws Exception {
+		metrics.sent(size(msgs));
+		ctx.write(msgs, promise);
+	}
+
+	/**
+	 * Sums the sizes of the buffers and file regions in the passed message list
+	 * @param msgs The message list
+	 * @return the number of bytes
+	 */
+	protected static long size(MessageList<Object> msgs) {
+		long bytes = 0L;
+		final int size = msgs.size();
+		for(int i = 0; i < size; i++) {
+			Object msg = msgs.get(i);
+			if(msg instanceof ByteBuf) bytes += ((ByteBuf)msg).readableBytes();
+			else if(msg instanceof ByteBufHolder) bytes += ((ByteBufHolder)msg).content().readableBytes();
+			else if(msg instanceof FileRegion) bytes += ((FileRegion)msg).count();
+		}
+		return bytes;
+	}
+}
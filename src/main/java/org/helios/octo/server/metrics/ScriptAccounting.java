@@ -0,0 +1,286 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.openmbean.CompositeData;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <p>Title: ScriptAccounting</p>
+ * <p>Description: Accumulates the thread CPU time, user time and allocated bytes of script invocations per script digest.
+ * The table is bounded. When a new script would exceed the bound, the script with the least CPU time is evicted,
+ * so the heaviest scripts stay in the table.</p>
+ * <p>The counters are read from the {@link ThreadMXBean} of the script thread before and after each invocation.
+ * Thread CPU time measurement is enabled if the JVM supports it, and allocation counting if the JVM
+ * supports the HotSpot {@link com.sun.management.ThreadMXBean} extension. Unsupported counters read as zero.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.metrics.ScriptAccounting</code></p>
+ */
+
+public class ScriptAccounting {
+	/** The stats keyed by script digest */
+	protected final Map<String, ScriptStats> stats = new ConcurrentHashMap<String, ScriptStats>();
+	/** The maximum number of scripts tracked */
+	protected volatile int maxScripts;
+	/** The number of evicted scripts */
+	protected final AtomicLong evictions = new AtomicLong(0L);
+
+	/** The default maximum number of scripts tracked */
+	public static final int DEFAULT_MAX_SCRIPTS = 1000;
+	/** The sort key for the CPU time */
+	public static final String SORT_CPU = "cpu";
+	/** The sort key for the user time */
+	public static final String SORT_USER = "user";
+	/** The sort key for the allocated bytes */
+	public static final String SORT_ALLOCATED = "allocated";
+	/** The sort key for the invocation count */
+	public static final String SORT_INVOCATIONS = "invocations";
+	/** The sort key for the largest CPU time of one invocation */
+	public static final String SORT_MAX_CPU = "maxCpu";
+
+	/** The thread MXBean */
+	private static final ThreadMXBean TMX = ManagementFactory.getThreadMXBean();
+	/** The HotSpot thread MXBean, or null if allocation counting is not supported */
+	private static final com.sun.management.ThreadMXBean ALLOC_TMX;
+	/** Indicates if thread CPU time is measured */
+	private static final boolean CPU_ENABLED;
+
+	static {
+		Logger log = Logger.getLogger(ScriptAccounting.class);
+		boolean cpu = false;
+		try {
+			if(TMX.isCurrentThreadCpuTimeSupported()) {
+				if(!TMX.isThreadCpuTimeEnabled()) TMX.setThreadCpuTimeEnabled(true);
+				cpu = true;
+			}
+		} catch (Exception ex) {
+			log.warn("Failed to enable thread CPU time:" + ex);
+		}
+		CPU_ENABLED = cpu;
+		com.sun.management.ThreadMXBean alloc = null;
+		try {
+			if(TMX instanceof com.sun.management.ThreadMXBean) {
+				alloc = (com.sun.management.ThreadMXBean)TMX;
+				if(!alloc.isThreadAllocatedMemorySupported()) {
+					alloc = null;
+				} else if(!alloc.isThreadAllocatedMemoryEnabled()) {
+					alloc.setThreadAllocatedMemoryEnabled(true);
+				}
+			}
+		} catch (Throwable t) {
+			log.warn("Failed to enable thread allocation counting:" + t);
+			alloc = null;
+		}
+		ALLOC_TMX = alloc;
+		if(!CPU_ENABLED) log.warn("Thread CPU time is not supported. Script CPU times will read zero.");
+		if(ALLOC_TMX==null) log.warn("Thread allocation counting is not supported. Script allocations will read zero.");
+	}
+
+	/**
+	 * Creates a new ScriptAccounting
+	 * @param maxScripts The maximum number of scripts tracked
+	 */
+	public ScriptAccounting(int maxScripts) {
+		setMaxScripts(maxScripts);
+	}
+
+	/**
+	 * Creates a new ScriptAccounting with the default maximum number of scripts
+	 */
+	public ScriptAccounting() {
+		this(DEFAULT_MAX_SCRIPTS);
+	}
+
+	/**
+	 * Returns the current thread's CPU time
+	 * @return the CPU time in ns, or 0 if not supported
+	 */
+	public static long threadCpuTime() {
+		return CPU_ENABLED ? TMX.getCurrentThreadCpuTime() : 0L;
+	}
+
+	/**
+	 * Returns the current thread's user time
+	 * @return the user time in ns, or 0 if not supported
+	 */
+	public static long threadUserTime() {
+		return CPU_ENABLED ? TMX.getCurrentThreadUserTime() : 0L;
+	}
+
+	/**
+	 * Returns the number of bytes allocated by the current thread
+	 * @return the allocated bytes, or 0 if not supported
+	 */
+	public static long threadAllocatedBytes() {
+		return ALLOC_TMX==null ? 0L : ALLOC_TMX.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Records one invocation of a script
+	 * @param digest The hex digest of the script
+	 * @param scriptText The script text
+	 * @param cpu The thread CPU time in ns
+	 * @param user The thread user time in ns
+	 * @param allocated The bytes allocated
+	 * @param error true if the invocation threw
+	 */
+	public void record(String digest, String scriptText, long cpu, long user, long allocated, boolean error) {
+		if(digest==null) return;
+		ScriptStats ss = stats.get(digest);
+		boolean added = false;
+		if(ss==null) {
+			synchronized(stats) {
+				ss = stats.get(digest);
+				if(ss==null) {
+					ss = new ScriptStats(digest, scriptText);
+					stats.put(digest, ss);
+					added = true;
+				}
+			}
+		}
+		ss.record(cpu, user, allocated, error);
+		if(added) trim(digest);
+	}
+
+	/**
+	 * Evicts the scripts with the least CPU time until the table is within its bound
+	 * @param keep The digest of a script that was just added, which is not evicted
+	 */
+	protected void trim(String keep) {
+		synchronized(stats) {
+			while(stats.size() > maxScripts) {
+				ScriptStats least = null;
+				for(ScriptStats ss: stats.values()) {
+					if(ss.getDigest().equals(keep)) continue;
+					if(least==null || ss.getCpuTime() < least.getCpuTime()) least = ss;
+				}
+				if(least==null) return;
+				stats.remove(least.getDigest());
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Returns the stats of the top scripts
+	 * @param n The maximum number of scripts to return
+	 * @param sortBy The sort key, one of <b><code>cpu</code></b>, <b><code>user</code></b>, <b><code>allocated</code></b>,
+	 * <b><code>invocations</code></b> or <b><code>maxCpu</code></b>. Defaults to <b><code>cpu</code></b> if null or empty.
+	 * @return the stats of at most n scripts, in descending order of the sort key
+	 */
+	public CompositeData[] top(int n, String sortBy) {
+		final Comparator<ScriptStats> comparator = comparator(sortBy);
+		List<ScriptStats> all = new ArrayList<ScriptStats>(stats.values());
+		Collections.sort(all, comparator);
+		int size = Math.max(0, Math.min(n, all.size()));
+		CompositeData[] top = new CompositeData[size];
+		for(int i = 0; i < size; i++) {
+			top[i] = all.get(i).toCompositeData();
+		}
+		return top;
+	}
+
+	/**
+	 * Returns a descending comparator for the passed sort key
+	 * @param sortBy The sort key
+	 * @return the comparator
+	 */
+	protected static Comparator<ScriptStats> comparator(String sortBy) {
+		final String key = sortBy==null || sortBy.trim().isEmpty() ? SORT_CPU : sortBy.trim();
+		if(!key.equalsIgnoreCase(SORT_CPU) && !key.equalsIgnoreCase(SORT_USER) && !key.equalsIgnoreCase(SORT_ALLOCATED)
+				&& !key.equalsIgnoreCase(SORT_INVOCATIONS) && !key.equalsIgnoreCase(SORT_MAX_CPU)) {
+			throw new IllegalArgumentException("Invalid sort key [" + sortBy + "]. Valid keys are " + SORT_CPU + ", " + SORT_USER + ", "
+					+ SORT_ALLOCATED + ", " + SORT_INVOCATIONS + " and " + SORT_MAX_CPU);
+		}
+		return new Comparator<ScriptStats>() {
+			@Override
+			public int compare(ScriptStats a, ScriptStats b) {
+				long va = value(a), vb = value(b);
+				return va < vb ? 1 : va==vb ? 0 : -1;
+			}
+			private long value(ScriptStats ss) {
+				if(key.equalsIgnoreCase(SORT_USER)) return ss.getUserTime();
+				if(key.equalsIgnoreCase(SORT_ALLOCATED)) return ss.getAllocatedBytes();
+				if(key.equalsIgnoreCase(SORT_INVOCATIONS)) return ss.getInvocations();
+				if(key.equalsIgnoreCase(SORT_MAX_CPU)) return ss.getMaxCpuTime();
+				return ss.getCpuTime();
+			}
+		};
+	}
+
+	/**
+	 * Removes all the scripts' stats
+	 */
+	public void reset() {
+		synchronized(stats) {
+			stats.clear();
+		}
+	}
+
+	/**
+	 * Returns the number of scripts tracked
+	 * @return the number of scripts tracked
+	 */
+	public int getSize() {
+		return stats.size();
+	}
+
+	/**
+	 * Returns the number of scripts evicted from the table
+	 * @return the number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Returns the maximum number of scripts tracked
+	 * @return the maximum number of scripts tracked
+	 */
+	public int getMaxScripts() {
+		return maxScripts;
+	}
+
+	/**
+	 * Sets the maximum number of scripts tracked. Excess scripts are evicted when the next new script is recorded.
+	 * @param maxScripts the maximum number of scripts tracked
+	 */
+	public void setMaxScripts(int maxScripts) {
+		if(maxScripts<1) throw new IllegalArgumentException("Invalid max scripts [" + maxScripts + "]");
+		this.maxScripts = maxScripts;
+	}
+}
@@ -0,0 +1,187 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
+/**
+ * <p>Title: ScriptStats</p>
+ * <p>Description: The accumulated resource usage of the invocations of one script, identified by its digest</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.metrics.ScriptStats</code></p>
+ */
+
+public class ScriptStats {
+	/** The hex digest of the script */
+	protected final String digest;
+	/** The start of the script text */
+	protected final String script;
+	/** The number of invocations */
+	protected final AtomicLong invocations = new AtomicLong(0L);
+	/** The number of invocations that threw */
+	protected final AtomicLong errors = new AtomicLong(0L);
+	/** The total thread CPU time in ns */
+	protected final AtomicLong cpuTime = new AtomicLong(0L);
+	/** The total thread user time in ns */
+	protected final AtomicLong userTime = new AtomicLong(0L);
+	/** The total bytes allocated */
+	protected final AtomicLong allocatedBytes = new AtomicLong(0L);
+	/** The largest thread CPU time of one invocation in ns */
+	protected final AtomicLong maxCpuTime = new AtomicLong(0L);
+	/** The time of the last invocation in ms */
+	protected volatile long lastInvoked = 0L;
+
+	/** The maximum number of script characters retained */
+	public static final int MAX_SCRIPT_LENGTH = 120;
+
+	/** The composite type items */
+	private static final String[] ITEMS = {"digest", "script", "invocations", "errors", "cpuMicros", "userMicros", "maxCpuMicros", "meanCpuMicros", "allocatedBytes", "meanAllocatedBytes", "lastInvoked"};
+	/** The composite type item descriptions */
+	private static final String[] ITEM_DESCRIPTIONS = {"The hex digest of the script", "The start of the script text", "The number of invocations",
+		"The number of invocations that threw", "The total thread CPU time in microseconds", "The total thread user time in microseconds",
+		"The largest thread CPU time of one invocation in microseconds", "The mean thread CPU time per invocation in microseconds",
+		"The total bytes allocated", "The mean bytes allocated per invocation", "The time of the last invocation in ms since the epoch"};
+	/** The composite type of a script's stats */
+	public static final CompositeType STATS_TYPE;
+
+	static {
+		try {
+			STATS_TYPE = new CompositeType("ScriptStats", "The resource usage of one script", ITEMS, ITEM_DESCRIPTIONS,
+					new OpenType<?>[]{SimpleType.STRING, SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG,
+					SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG});
+		} catch (OpenDataException ode) {
+			throw new RuntimeException(ode);
+		}
+	}
+
+	/**
+	 * Creates a new ScriptStats
+	 * @param digest The hex digest of the script
+	 * @param scriptText The script text
+	 */
+	public ScriptStats(String digest, String scriptText) {
+		this.digest = digest;
+		if(scriptText==null) scriptText = "";
+		script = scriptText.length() > MAX_SCRIPT_LENGTH ? scriptText.substring(0, MAX_SCRIPT_LENGTH) + "..." : scriptText;
+	}
+
+	/**
+	 * Records one invocation
+	 * @param cpu The thread CPU time in ns
+	 * @param user The thread user time in ns
+	 * @param allocated The bytes allocated
+	 * @param error true if the invocation threw
+	 */
+	public void record(long cpu, long user, long allocated, boolean error) {
+		invocations.incrementAndGet();
+		if(error) errors.incrementAndGet();
+		cpuTime.addAndGet(cpu);
+		userTime.addAndGet(user);
+		allocatedBytes.addAndGet(allocated);
+		long m = maxCpuTime.get();
+		while(cpu > m && !maxCpuTime.compareAndSet(m, cpu)) {
+			m = maxCpuTime.get();
+		}
+		lastInvoked = System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns the hex digest of the script
+	 * @return the digest
+	 */
+	public String getDigest() {
+		return digest;
+	}
+
+	/**
+	 * Returns the number of invocations
+	 * @return the number of invocations
+	 */
+	public long getInvocations() {
+		return invocations.get();
+	}
+
+	/**
+	 * Returns the total thread CPU time in ns
+	 * @return the CPU time
+	 */
+	public long getCpuTime() {
+		return cpuTime.get();
+	}
+
+	/**
+	 * Returns the total thread user time in ns
+	 * @return the user time
+	 */
+	public long getUserTime() {
+		return userTime.get();
+	}
+
+	/**
+	 * Returns the total bytes allocated
+	 * @return the allocated bytes
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes.get();
+	}
+
+	/**
+	 * Returns the largest thread CPU time of one invocation in ns
+	 * @return the max CPU time
+	 */
+	public long getMaxCpuTime() {
+		return maxCpuTime.get();
+	}
+
+	/**
+	 * Returns the stats as composite data
+	 * @return the composite data
+	 */
+	public CompositeData toCompositeData() {
+		long count = invocations.get();
+		long cpu = cpuTime.get();
+		long allocated = allocatedBytes.get();
+		try {
+			return new CompositeDataSupport(STATS_TYPE, ITEMS, new Object[]{digest, script, count, errors.get(),
+					micros(cpu), micros(userTime.get()), micros(maxCpuTime.get()), count==0 ? 0L : micros(cpu / count),
+					allocated, count==0 ? 0L : allocated / count, lastInvoked});
+		} catch (OpenDataException ode) {
+			throw new RuntimeException(ode);
+		}
+	}
+
+	private static long micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+}
@@ -0,0 +1,354 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.helios.octo.protocol.CancelReason;
+import org.helios.octo.protocol.PriorityClass;
+
+/**
+ * <p>Title: ServerMetrics</p>
+ * <p>Description: The latency histograms and traffic counters of one server. All the recorders are lock-free,
+ * so the event loops and script threads record without contending on a lock.</p>
+ * <p>The latencies of an invocation are measured from the time its request frame was fully received:<ul>
+ * <li><b>request decode</b>: decoding the request frame payload</li>
+ * <li><b>queue wait</b>: from being handed to the script executor until a script thread picks it up</li>
+ * <li><b>execution</b>: compiling, or finding the compiled script, and running it</li>
+ * <li><b>first response</b>: from receipt until the first output, or the result if there is no output, is handed to the channel</li>
+ * <li><b>invocation</b>: from receipt until the terminal frames are handed to the channel</li>
+ * </ul></p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.metrics.ServerMetrics</code></p>
+ */
+
+public class ServerMetrics {
+	/** The request decode times */
+	protected final LatencyHistogram decodeTime = new LatencyHistogram();
+	/** The times invocations wait for a script thread */
+	protected final LatencyHistogram queueWait = new LatencyHistogram();
+	/** The times invocations wait for a script thread, for each priority class, indexed by ordinal */
+	protected final LatencyHistogram[] queueWaitByPriority = new LatencyHistogram[PriorityClass.values().length];
+	/** The script execution times */
+	protected final LatencyHistogram executionTime = new LatencyHistogram();
+	/** The times to the first response byte */
+	protected final LatencyHistogram firstResponse = new LatencyHistogram();
+	/** The times to invocation completion */
+	protected final LatencyHistogram invocationTime = new LatencyHistogram();
+	/** The number of bytes received */
+	protected final AtomicLong bytesIn = new AtomicLong(0L);
+	/** The number of bytes sent */
+	protected final AtomicLong bytesOut = new AtomicLong(0L);
+	/** The number of connections accepted */
+	protected final AtomicLong connections = new AtomicLong(0L);
+	/** The number of invocations accepted */
+	protected final AtomicLong invocations = new AtomicLong(0L);
+	/** The number of open connections */
+	protected final AtomicInteger activeConnections = new AtomicInteger(0);
+	/** The number of invocations accepted and not yet completed */
+	protected final AtomicInteger activeInvocations = new AtomicInteger(0);
+	/** The number of invocations stopped by the client or by the channel closing */
+	protected final AtomicLong cancelledInvocations = new AtomicLong(0L);
+	/** The number of invocations stopped because their deadline expired */
+	protected final AtomicLong expiredInvocations = new AtomicLong(0L);
+	/** The number of invocations answered by the run of an identical in-flight invocation */
+	protected final AtomicLong coalescedInvocations = new AtomicLong(0L);
+	/** The per script resource usage */
+	protected final ScriptAccounting scriptAccounting = new ScriptAccounting();
+
+	/**
+	 * Creates a new ServerMetrics
+	 */
+	public ServerMetrics() {
+		for(int i = 0; i < queueWaitByPriority.length; i++) {
+			queueWaitByPriority[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Records the time taken to decode a request
+	 * @param nanos The decode time in ns
+	 */
+	public void requestDecoded(long nanos) {
+		decodeTime.record(nanos);
+	}
+
+	/**
+	 * Counts an invocation handed to the script executor or answered from the result cache
+	 */
+	public void invocationAccepted() {
+		invocations.incrementAndGet();
+		activeInvocations.incrementAndGet();
+	}
+
+	/**
+	 * Records the time an invocation waited for a script thread
+	 * @param nanos The queue wait in ns
+	 * @param priority The invocation's priority class
+	 */
+	public void invocationStarted(long nanos, PriorityClass priority) {
+		queueWait.record(nanos);
+		queueWaitByPriority[priority.ordinal()].record(nanos);
+	}
+
+	/**
+	 * Records the execution time of an invocation
+	 * @param nanos The execution time in ns
+	 */
+	public void invocationExecuted(long nanos) {
+		executionTime.record(nanos);
+	}
+
+	/**
+	 * Records the completion of an invocation whose terminal frames are being handed to the channel
+	 * @param receivedTime The nano time the request was received, or 0 if unknown
+	 * @param firstOutputTime The nano time the first output was handed to the channel, or 0 if there was no output
+	 */
+	public void invocationCompleted(long receivedTime, long firstOutputTime) {
+		activeInvocations.decrementAndGet();
+		if(receivedTime==0L) return;
+		final long now = System.nanoTime();
+		firstResponse.record((firstOutputTime==0L ? now : firstOutputTime) - receivedTime);
+		invocationTime.record(now - receivedTime);
+	}
+
+	/**
+	 * Counts an accepted invocation that will never complete because the script executor refused it
+	 */
+	public void invocationAbandoned() {
+		activeInvocations.decrementAndGet();
+	}
+
+	/**
+	 * Counts an accepted invocation that was stopped before it completed
+	 * @param reason The reason the invocation was stopped
+	 */
+	public void invocationCancelled(CancelReason reason) {
+		activeInvocations.decrementAndGet();
+		if(reason==CancelReason.DEADLINE) {
+			expiredInvocations.incrementAndGet();
+		} else {
+			cancelledInvocations.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Counts an accepted invocation that will be answered by the run of an identical in-flight invocation
+	 */
+	public void invocationCoalesced() {
+		coalescedInvocations.incrementAndGet();
+	}
+
+	/**
+	 * Counts an accepted connection
+	 */
+	public void connectionOpened() {
+		connections.incrementAndGet();
+		activeConnections.incrementAndGet();
+	}
+
+	/**
+	 * Counts a closed connection
+	 */
+	public void connectionClosed() {
+		activeConnections.decrementAndGet();
+	}
+
+	/**
+	 * Counts received bytes
+	 * @param bytes The number of bytes received
+	 */
+	public void received(long bytes) {
+		bytesIn.addAndGet(bytes);
+	}
+
+	/**
+	 * Counts sent bytes
+	 * @param bytes The number of bytes handed to the transport
+	 */
+	public void sent(long bytes) {
+		bytesOut.addAndGet(bytes);
+	}
+
+	/**
+	 * Clears the histograms and the cumulative counters. The active connection and invocation counts are not reset.
+	 */
+	public void reset() {
+		decodeTime.reset();
+		queueWait.reset();
+		for(LatencyHistogram h: queueWaitByPriority) {
+			h.reset();
+		}
+		executionTime.reset();
+		firstResponse.reset();
+		invocationTime.reset();
+		bytesIn.set(0L);
+		bytesOut.set(0L);
+		connections.set(0L);
+		invocations.set(0L);
+		cancelledInvocations.set(0L);
+		expiredInvocations.set(0L);
+		coalescedInvocations.set(0L);
+	}
+
+	/**
+	 * Returns the number of invocations stopped by the client or by the channel closing
+	 * @return the number of cancelled invocations
+	 */
+	public long getCancelledInvocations() {
+		return cancelledInvocations.get();
+	}
+
+	/**
+	 * Returns the number of invocations stopped because their deadline expired
+	 * @return the number of expired invocations
+	 */
+	public long getExpiredInvocations() {
+		return expiredInvocations.get();
+	}
+
+	/**
+	 * Returns the number of invocations answered by the run of an identical in-flight invocation
+	 * @return the number of coalesced invocations
+	 */
+	public long getCoalescedInvocations() {
+		return coalescedInvocations.get();
+	}
+
+	/**
+	 * Returns the percentage of accepted invocations answered by the run of an identical in-flight invocation
+	 * @return the coalescing rate from 0 to 100, or 0 if no invocations have been accepted
+	 */
+	public double getCoalescingRate() {
+		final long total = invocations.get();
+		return total==0 ? 0D : coalescedInvocations.get() * 100D / total;
+	}
+
+	/**
+	 * Returns the queue wait histograms of each priority class
+	 * @return the queue wait histograms, indexed by priority class ordinal
+	 */
+	public LatencyHistogram[] getQueueWaitByPriority() {
+		return queueWaitByPriority;
+	}
+
+	/**
+	 * Returns the per script resource usage
+	 * @return the script accounting
+	 */
+	public ScriptAccounting getScriptAccounting() {
+		return scriptAccounting;
+	}
+
+	/**
+	 * Returns the request decode time histogram
+	 * @return the request decode time histogram
+	 */
+	public LatencyHistogram getDecodeTime() {
+		return decodeTime;
+	}
+
+	/**
+	 * Returns the queue wait histogram
+	 * @return the queue wait histogram
+	 */
+	public LatencyHistogram getQueueWait() {
+		return queueWait;
+	}
+
+	/**
+	 * Returns the execution time histogram
+	 * @return the execution time histogram
+	 */
+	public LatencyHistogram getExecutionTime() {
+		return executionTime;
+	}
+
+	/**
+	 * Returns the first response time histogram
+	 * @return the first response time histogram
+	 */
+	public LatencyHistogram getFirstResponse() {
+		return firstResponse;
+	}
+
+	/**
+	 * Returns the invocation time histogram
+	 * @return the invocation time histogram
+	 */
+	public LatencyHistogram getInvocationTime() {
+		return invocationTime;
+	}
+
+	/**
+	 * Returns the number of bytes received
+	 * @return the number of bytes received
+	 */
+	public long getBytesIn() {
+		return bytesIn.get();
+	}
+
+	/**
+	 * Returns the number of bytes sent
+	 * @return the number of bytes sent
+	 */
+	public long getBytesOut() {
+		return bytesOut.get();
+	}
+
+	/**
+	 * Returns the number of connections accepted
+	 * @return the number of connections accepted
+	 */
+	public long getConnections() {
+		return connections.get();
+	}
+
+	/**
+	 * Returns the number of invocations accepted
+	 * @return the number of invocations accepted
+	 */
+	public long getInvocations() {
+		return invocations.get();
+	}
+
+	/**
+	 * Returns the number of open connections
+	 * @return the number of open connections
+	 */
+	public int getActiveConnections() {
+		return activeConnections.get();
+	}
+
+	/**
+	 * Returns the number of invocations accepted and not yet completed
+	 * @return the number of active invocations
+	 */
+	public int getActiveInvocations() {
+		return activeInvocations.get();
+	}
+}
@@ -0,0 +1,131 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.streams;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCounted;
+
+import org.helios.octo.protocol.FrameType;
+
+/**
+ * <p>Title: StreamChunk</p>
+ * <p>Description: A chunk of raw, unframed script output written by a script's output stream.
+ * The {@link StreamOutputAdapter} for the chunk's stream type frames it into lines. Reference counting is delegated to the content.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.streams.StreamChunk</code></p>
+ */
+
+public class StreamChunk implements ReferenceCounted {
+	/** The request id the output is for */
+	protected final long requestId;
+	/** The stream type, {@link FrameType#STDOUT} or {@link FrameType#STDERR} */
+	protected final FrameType streamType;
+	/** The output content */
+	protected final ByteBuf content;
+	
+	/**
+	 * Creates a new StreamChunk
+	 * @param requestId The request id the output is for
+	 * @param streamType The stream type, {@link FrameType#STDOUT} or {@link FrameType#STDERR}
+	 * @param content The output content
+	 */
+	public StreamChunk(long requestId, FrameType streamType, ByteBuf content) {
+		this.requestId = requestId;
+		this.streamType = streamType;
+		this.content = content;
+	}
+
+	/**
+	 * Returns the request id the output is for
+	 * @return the request id
+	 */
+	public long getRequestId() {
+		return requestId;
+	}
+
+	/**
+	 * Returns the stream type
+	 * @return the stream type
+	 */
+	public FrameType getStreamType() {
+		return streamType;
+	}
+
+	/**
+	 * Returns the output content
+	 * @return the output content
+	 */
+	public ByteBuf getContent() {
+		return content;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.util.ReferenceCounted#refCnt()
+	 */
+	@Override
+	public int refCnt() {
+		return content.refCnt();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.util.ReferenceCounted#retain()
+	 */
+	@Override
+	public StreamChunk retain() {
+		content.retain();
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.util.ReferenceCounted#retain(int)
+	 */
+	@Override
+	public StreamChunk retain(int increment) {
+		content.retain(increment);
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.util.ReferenceCounted#release()
+	 */
+	@Override
+	public boolean release() {
+		return content.release();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.util.ReferenceCounted#release(int)
+	 */
+	@Override
+	public boolean release(int decrement) {
+		return content.release(decrement);
+	}
+}
@@ -25,9 +25,8 @@
 package org.helios.octo.server.streams;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufIndexFinder;
-import io.netty.buffer.Unpooled;
-import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOutboundHandlerAdapter;
@@ -35,66 +34,214 @@ import io.netty.channel.ChannelPromise;
 import io.netty.channel.MessageList;
 import io.netty.util.AttributeKey;
 
-import org.jboss.logging.Logger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.helios.octo.protocol.Frame;
+import org.helios.octo.protocol.FrameType;
+import org.helios.octo.protocol.OctoProtocol;
+import org.helios.octo.server.io.ChannelOutputStream;
+import org.helios.octo.server.io.SpillRegion;
 
 /**
  * <p>Title: StreamOutputAdapter</p>
- * <p>Description: Accumulates outbound buffers until an EOL is detected, then prepends the approriate indicators and flushes the content out.</p> 
+ * <p>Description: Accumulates outbound {@link StreamChunk}s of one stream type per request until an EOL is detected, 
+ * then writes the complete lines out as a {@link FrameType#STDOUT} or {@link FrameType#STDERR} frame.
+ * All the complete lines of a request in one write batch go out in a single frame whose payload is a zero-copy slice
+ * of the accumulation buffer. Only an unterminated tail is copied, into a fresh accumulation buffer, since the
+ * sliced buffer can not be compacted while the frame is in flight.
+ * Only the bytes appended since the last batch are scanned for an EOL. An unterminated tail is held back only up to the
+ * {@link ChannelOutputStream#getDefaultFlushThreshold() flush threshold}, so output that never prints an EOL cannot
+ * accumulate outside the channel's outbound buffer, where the water marks would not see it. A longer tail is written out as it is.
+ * When a terminal frame for a request passes through, any unterminated output for that request is written ahead of it.
+ * Spilled output arrives as {@link SpillRegion}s, which are framed with a header and passed on for a zero-copy transfer.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.octo.server.streams.StreamOutputAdapter</code></p>
  */
 @Sharable
 public class StreamOutputAdapter extends ChannelOutboundHandlerAdapter {
-	/** The outbound stream type, 0 for std-out, 1 for std-in */
-	protected final byte streamType;
-	
-	protected final Logger log = Logger.getLogger(getClass());
+	/** The outbound stream type, {@link FrameType#STDOUT} or {@link FrameType#STDERR} */
+	protected final FrameType streamType;
 	
-	/** The attribute key for the request id */
-	public static final AttributeKey<Long> REQ_ID = new AttributeKey<Long>("ReqId"); 
-	/** The attribute key for the buffer accumulation */
-	public static final AttributeKey<ByteBuf> ACC = new AttributeKey<ByteBuf>("Accumulation");
+	/** The attribute key for the per request buffer accumulations */
+	public static final AttributeKey<Map<Long, Accumulation>> ACC = new AttributeKey<Map<Long, Accumulation>>("Accumulation");
+	/** The line feed byte */
+	public static final byte LF = '\n';
 
-	/** The stream response type encoded in a buffer */
-	public static final ByteBuf RESPONSE_TYPE = Unpooled.unmodifiableBuffer(Unpooled.buffer(1).writeByte(0));
-	
 	/**
 	 * Creates a new StreamOutputAdapter
-	 * @param streamType 0 for std-out, 1 for std-in
+	 * @param streamType {@link FrameType#STDOUT} or {@link FrameType#STDERR}
 	 */
-	public StreamOutputAdapter(byte streamType) {
+	public StreamOutputAdapter(FrameType streamType) {
 		super();
+		if(streamType==null || !streamType.isStream()) throw new IllegalArgumentException("Invalid stream type [" + streamType + "]");
 		this.streamType = streamType;
 	}
 
-
+	/**
+	 * {@inheritDoc}
+	 * @see io.netty.channel.ChannelOutboundHandlerAdapter#write(io.netty.channel.ChannelHandlerContext, io.netty.channel.MessageList, io.netty.channel.ChannelPromise)
+	 */
 	@Override
 	public void write(ChannelHandlerContext ctx, MessageList<Object> msgs, ChannelPromise promise) {
-		MessageList<ByteBuf> buffers = msgs.cast();
-		ByteBuf acc = ctx.attr(ACC).get();
-		if(acc==null) {
-			acc = Unpooled.buffer();
-			ctx.attr(ACC).set(acc);
+		final Map<Long, Accumulation> accs = accumulations(ctx);
+		final MessageList<Object> out = MessageList.newInstance(msgs.size());
+		final int size = msgs.size();
+		// The requests with output in this batch that has not been framed yet
+		List<Long> pending = null;
+		for(int i = 0; i < size; i++) {
+			Object msg = msgs.get(i);
+			if(msg instanceof StreamChunk && ((StreamChunk)msg).getStreamType()==streamType) {
+				StreamChunk chunk = (StreamChunk)msg;
+				Long requestId = chunk.getRequestId();
+				Accumulation acc = accs.get(requestId);
+				if(acc==null) {
+					acc = new Accumulation(ctx.alloc().buffer(chunk.getContent().readableBytes()));
+					accs.put(requestId, acc);
+				}
+				acc.append(chunk.getContent());
+				chunk.release();
+				if(pending==null) pending = new ArrayList<Long>(2);
+				if(!pending.contains(requestId)) pending.add(requestId);
+			} else if(msg instanceof SpillRegion && ((SpillRegion)msg).getStreamType()==streamType) {
+				// Spilled output follows whatever was accumulated for the request before the spill started
+				SpillRegion region = (SpillRegion)msg;
+				Long requestId = region.getRequestId();
+				if(pending!=null) pending.remove(requestId);
+				flushRemaining(requestId, accs, out);
+				out.add(OctoProtocol.writeHeader(ctx.alloc().buffer(OctoProtocol.HEADER_SIZE), streamType, OctoProtocol.NO_FLAGS, requestId, (int)region.count()));
+				out.add(region);
+			} else {
+				if(msg instanceof Frame && !((Frame)msg).getType().isStream()) {
+					Long requestId = ((Frame)msg).getRequestId();
+					if(pending!=null) pending.remove(requestId);
+					flushRemaining(requestId, accs, out);
+				}
+				out.add(msg);
+			}
+		}
+		msgs.recycle();
+		if(pending!=null) {
+			for(Long requestId: pending) {
+				frameLines(ctx, requestId, accs, out);
+			}
+		}
+		if(out.isEmpty()) {
+			out.recycle();
+			promise.setSuccess();
+		} else {
+			ctx.write(out, promise);
+		}
+	}
+	
+	/**
+	 * Writes all the complete lines in a request's accumulation buffer as one stream frame.
+	 * If the unterminated tail is longer than the flush threshold, it is written as well.
+	 * @param ctx The channel handler context
+	 * @param requestId The request id the output is for
+	 * @param accs The per request accumulation buffers
+	 * @param out The message list to add frames to
+	 */
+	protected void frameLines(ChannelHandlerContext ctx, Long requestId, Map<Long, Accumulation> accs, MessageList<Object> out) {
+		Accumulation acc = accs.get(requestId);
+		if(acc==null) return;
+		final ByteBuf buf = acc.buf;
+		int end = acc.lineEnd;
+		if(buf.writerIndex() - Math.max(end, buf.readerIndex()) > ChannelOutputStream.getDefaultFlushThreshold()) {
+			end = buf.writerIndex();
+		}
+		if(end==-1) return;
+		out.add(new Frame(streamType, requestId, buf.readSlice(end - buf.readerIndex()).retain()));
+		if(buf.isReadable()) {
+			ByteBuf tail = ctx.alloc().buffer(buf.readableBytes());
+			tail.writeBytes(buf);
+			accs.put(requestId, new Accumulation(tail));
+		} else {
+			accs.remove(requestId);
 		}
-		for(ByteBuf b: buffers) {
-			acc.writeBytes(b);
+		// The frame's slice holds the buffer until it is written
+		buf.release();
+	}
+	
+	/**
+	 * Writes any output for the passed request, terminated or not, and discards its accumulation buffer
+	 * @param requestId The request id
+	 * @param accs The per request accumulation buffers
+	 * @param out The message list to add frames to
+	 */
+	protected void flushRemaining(Long requestId, Map<Long, Accumulation> accs, MessageList<Object> out) {
+		Accumulation acc = accs.remove(requestId);
+		if(acc==null) return;
+		if(acc.buf.isReadable()) {
+			out.add(new Frame(streamType, requestId, acc.buf));
+		} else {
+			acc.buf.release();
+		}
+	}
+	
+	/**
+	 * Returns the per request accumulation buffers for the passed context, creating them if necessary.
+	 * Only accessed from the channel's event loop.
+	 * @param ctx The channel handler context
+	 * @return the per request accumulation buffers
+	 */
+	protected Map<Long, Accumulation> accumulations(ChannelHandlerContext ctx) {
+		Map<Long, Accumulation> accs = ctx.attr(ACC).get();
+		if(accs==null) {
+			final Map<Long, Accumulation> newAccs = new HashMap<Long, Accumulation>();
+			ctx.attr(ACC).set(newAccs);
+			ctx.channel().closeFuture().addListener(new ChannelFutureListener() {
+				@Override
+				public void operationComplete(ChannelFuture future) throws Exception {
+					for(Accumulation acc: newAccs.values()) {
+						acc.buf.release();
+					}
+					newAccs.clear();
+				}
+			});
+			accs = newAccs;
+		}
+		return accs;
+	}
+	
+	/**
+	 * <p>Title: Accumulation</p>
+	 * <p>Description: A request's accumulation buffer and the end of its last complete line, found as bytes are appended
+	 * so each byte is scanned for an EOL only once.</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.octo.server.streams.StreamOutputAdapter.Accumulation</code></p>
+	 */
+	protected static class Accumulation {
+		/** The accumulated output */
+		protected final ByteBuf buf;
+		/** The index following the last LF in the buffer, or -1 if the buffer does not contain a complete line */
+		protected int lineEnd = -1;
+		
+		/**
+		 * Creates a new Accumulation
+		 * @param buf The accumulation buffer, which contains no complete line
+		 */
+		protected Accumulation(ByteBuf buf) {
+			this.buf = buf;
 		}
-		msgs.releaseAllAndRecycle();
-		while(true) {			
-			int loc = acc.bytesBefore(ByteBufIndexFinder.LF);
-			if(loc==-1) break;
-			ByteBuf buf = Unpooled.buffer(10);
-			buf.writeLong(System.nanoTime()).writeByte(0).writeByte(streamType);
-			//.writeBytes(acc.readBytes(loc+1));
-			ChannelHandler se = ctx.pipeline().remove("stringEncoder");
-			ctx.write(buf);
-			ctx.pipeline().addAfter("out", "stringEncoder", se);
-			byte[] bytes = new byte[loc];
-			acc.readBytes(bytes);
-			String s = new String(bytes);
-			log.info("Writing out [" + s + "]");
-			ctx.write(s + "\n");
+		
+		/**
+		 * Appends output to the buffer, scanning only the appended bytes for an EOL
+		 * @param content The output to append
+		 */
+		protected void append(ByteBuf content) {
+			final int base = buf.writerIndex() - content.readerIndex();
+			for(int i = content.writerIndex()-1, r = content.readerIndex(); i >= r; i--) {
+				if(content.getByte(i)==LF) {
+					lineEnd = base + i + 1;
+					break;
+				}
+			}
+			buf.writeBytes(content);
 		}
 	}
 }
@@ -0,0 +1,122 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Title: DigestTable</p>
+ * <p>Description: A per-connection, size bounded LRU table of script texts keyed by their hex digest.
+ * The client uses it to remember which scripts it has already sent in full on a connection, and the server
+ * uses it to resolve digest-only requests back to script text.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.util.DigestTable</code></p>
+ */
+
+public class DigestTable {
+	/** The default maximum number of digests retained per connection */
+	public static final int DEFAULT_SIZE = 512;
+	
+	/** The maximum number of digests retained */
+	protected final int maxSize;
+	/** The digest to script text map, in access order */
+	protected final LinkedHashMap<String, String> table;
+	
+	/**
+	 * Creates a new DigestTable
+	 * @param maxSize The maximum number of digests retained
+	 */
+	public DigestTable(int maxSize) {
+		if(maxSize<1) throw new IllegalArgumentException("Invalid digest table size [" + maxSize + "]");
+		this.maxSize = maxSize;
+		table = new LinkedHashMap<String, String>(Math.min(maxSize, 64), 0.75f, true) {
+			private static final long serialVersionUID = 7411930564326470233L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > DigestTable.this.maxSize;
+			}
+		};
+	}
+	
+	/**
+	 * Creates a new DigestTable with the default size
+	 */
+	public DigestTable() {
+		this(DEFAULT_SIZE);
+	}
+	
+	/**
+	 * Registers a script text
+	 * @param digest The hex digest of the script text
+	 * @param scriptText The script text
+	 */
+	public synchronized void put(String digest, String scriptText) {
+		table.put(digest, scriptText);
+	}
+	
+	/**
+	 * Returns the script text for the passed digest
+	 * @param digest The hex digest of the script text
+	 * @return the script text or null if the digest is not in the table
+	 */
+	public synchronized String get(String digest) {
+		return table.get(digest);
+	}
+	
+	/**
+	 * Determines if the passed digest is in the table
+	 * @param digest The hex digest of the script text
+	 * @return true if the digest is in the table, false otherwise
+	 */
+	public synchronized boolean contains(String digest) {
+		return table.get(digest)!=null;
+	}
+	
+	/**
+	 * Removes the passed digest from the table
+	 * @param digest The hex digest of the script text
+	 */
+	public synchronized void remove(String digest) {
+		table.remove(digest);
+	}
+	
+	/**
+	 * Returns the number of digests in the table
+	 * @return the number of digests in the table
+	 */
+	public synchronized int size() {
+		return table.size();
+	}
+	
+	/**
+	 * Returns the maximum number of digests retained
+	 * @return the maximum number of digests retained
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+}
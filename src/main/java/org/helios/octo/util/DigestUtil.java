@@ -0,0 +1,113 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.util;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * <p>Title: DigestUtil</p>
+ * <p>Description: Content digest utilities used to identify scripts by their text</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.util.DigestUtil</code></p>
+ */
+
+public class DigestUtil {
+	/** The digest algorithm */
+	public static final String ALGORITHM = "SHA-1";
+	/** The length of a digest in bytes */
+	public static final int DIGEST_LENGTH = 20;
+	/** The charset used to encode script text */
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	
+	/** Per thread message digests since they are not thread safe */
+	private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance(ALGORITHM);
+			} catch (NoSuchAlgorithmException nsae) {
+				throw new RuntimeException("No [" + ALGORITHM + "] digest available", nsae);
+			}
+		}
+	};
+	
+	/**
+	 * Computes the digest of the passed script text
+	 * @param scriptText The script text
+	 * @return the digest bytes
+	 */
+	public static byte[] digest(String scriptText) {
+		if(scriptText==null) throw new IllegalArgumentException("The passed script text was null");
+		MessageDigest md = digests.get();
+		md.reset();
+		return md.digest(scriptText.getBytes(UTF8));
+	}
+	
+	/**
+	 * Computes the hex encoded digest of the passed script text
+	 * @param scriptText The script text
+	 * @return the hex encoded digest
+	 */
+	public static String hexDigest(String scriptText) {
+		return toHex(digest(scriptText));
+	}
+	
+	/**
+	 * Computes the digest of a range of the passed bytes
+	 * @param bytes The bytes to digest
+	 * @param offset The offset of the first byte to digest
+	 * @param length The number of bytes to digest
+	 * @return the digest bytes
+	 */
+	public static byte[] digest(byte[] bytes, int offset, int length) {
+		if(bytes==null) throw new IllegalArgumentException("The passed bytes were null");
+		MessageDigest md = digests.get();
+		md.reset();
+		md.update(bytes, offset, length);
+		return md.digest();
+	}
+	
+	/**
+	 * Hex encodes the passed bytes
+	 * @param bytes The bytes to encode
+	 * @return the hex encoded string
+	 */
+	public static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for(int i = 0; i < bytes.length; i++) {
+			int v = bytes[i] & 0xFF;
+			chars[i*2] = HEX[v >>> 4];
+			chars[i*2+1] = HEX[v & 0x0F];
+		}
+		return new String(chars);
+	}
+	
+	private DigestUtil() {}
+}
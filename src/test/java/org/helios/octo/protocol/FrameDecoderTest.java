@@ -0,0 +1,213 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.TooLongFrameException;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: FrameDecoderTest</p>
+ * <p>Description: Feeds the {@link FrameDecoder} fragmented and corrupt input</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.protocol.FrameDecoderTest</code></p>
+ */
+
+public class FrameDecoderTest {
+	/** The charset of the test payloads */
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+	/** The maximum payload size of the test decoders */
+	protected static final int MAX_PAYLOAD = 1024;
+	
+	/**
+	 * Checks that frames split at every possible byte are decoded once they are complete
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testByteAtATime() throws Exception {
+		ByteBuf wire = wire(3);
+		EmbeddedChannel channel = new EmbeddedChannel(new FrameDecoder(MAX_PAYLOAD));
+		int frames = 0;
+		while(wire.isReadable()) {
+			channel.writeInbound(wire.readBytes(1));
+			Frame frame = (Frame)channel.readInbound();
+			if(frame!=null) {
+				assertFrame(frame, frames++);
+				assertNull(channel.readInbound());
+			}
+		}
+		assertEquals(3, frames);
+		assertFalse(channel.finish());
+	}
+	
+	/**
+	 * Checks that frames arriving in random sized chunks, several to a chunk or split across chunks, are all decoded in order
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testRandomFragments() throws Exception {
+		Random random = new Random(17);
+		for(int run = 0; run < 20; run++) {
+			ByteBuf wire = wire(50);
+			EmbeddedChannel channel = new EmbeddedChannel(new FrameDecoder(MAX_PAYLOAD));
+			while(wire.isReadable()) {
+				channel.writeInbound(wire.readBytes(Math.min(wire.readableBytes(), 1 + random.nextInt(200))));
+			}
+			for(int i = 0; i < 50; i++) {
+				assertFrame((Frame)channel.readInbound(), i);
+			}
+			assertNull(channel.readInbound());
+			assertFalse(channel.finish());
+		}
+	}
+	
+	/**
+	 * Checks that an empty payload decodes to a frame with an empty payload
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testEmptyPayload() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new FrameDecoder(MAX_PAYLOAD));
+		channel.writeInbound(OctoProtocol.writeHeader(Unpooled.buffer(), FrameType.END, OctoProtocol.NO_FLAGS, 9L, 0));
+		Frame frame = (Frame)channel.readInbound();
+		assertEquals(FrameType.END, frame.getType());
+		assertEquals(9L, frame.getRequestId());
+		assertEquals(0, frame.getPayload().readableBytes());
+		frame.release();
+	}
+	
+	/**
+	 * Checks that corrupt headers are refused as soon as the header is complete
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testCorruptInput() throws Exception {
+		ByteBuf badMagic = wire(1);
+		badMagic.setByte(0, 0x7F);
+		assertRefused(badMagic, CorruptedFrameException.class);
+		ByteBuf badVersion = wire(1);
+		badVersion.setByte(1, OctoProtocol.VERSION + 1);
+		assertRefused(badVersion, CorruptedFrameException.class);
+		// The length is checked before the payload arrives, so only the header is sent
+		assertRefused(OctoProtocol.writeHeader(Unpooled.buffer(), FrameType.STDOUT, OctoProtocol.NO_FLAGS, 1L, -1), TooLongFrameException.class);
+		assertRefused(OctoProtocol.writeHeader(Unpooled.buffer(), FrameType.STDOUT, OctoProtocol.NO_FLAGS, 1L, MAX_PAYLOAD + 1), TooLongFrameException.class);
+		ByteBuf badType = wire(1);
+		badType.setByte(2, 99);
+		assertRefused(badType, DecoderException.class);
+		// A corrupt frame after a good one is refused once the good one has been decoded
+		ByteBuf second = wire(2);
+		second.setByte(second.readableBytes() - (OctoProtocol.HEADER_SIZE + payload(1).length), 0);
+		EmbeddedChannel channel = new EmbeddedChannel(new FrameDecoder(MAX_PAYLOAD));
+		try {
+			channel.writeInbound(second);
+			fail("Decoded a corrupt frame");
+		} catch (CorruptedFrameException expected) {
+			/* No Op */
+		}
+		assertFrame((Frame)channel.readInbound(), 0);
+	}
+	
+	/**
+	 * Checks that decoding the passed input fails with the passed exception
+	 * @param wire The corrupt input
+	 * @param expected The expected exception type
+	 */
+	protected static void assertRefused(ByteBuf wire, Class<? extends Exception> expected) {
+		EmbeddedChannel channel = new EmbeddedChannel(new FrameDecoder(MAX_PAYLOAD));
+		try {
+			channel.writeInbound(wire);
+			fail("Decoded a corrupt frame [" + channel.readInbound() + "]");
+		} catch (Exception ex) {
+			assertTrue("Unexpected exception " + ex, expected.isInstance(ex));
+		}
+	}
+	
+	/**
+	 * Writes the passed number of frames, each with a distinct type, flags, request id and payload
+	 * @param count The number of frames to write
+	 * @return the buffer holding the encoded frames
+	 */
+	protected static ByteBuf wire(int count) {
+		ByteBuf wire = Unpooled.buffer();
+		for(int i = 0; i < count; i++) {
+			byte[] payload = payload(i);
+			OctoProtocol.writeHeader(wire, type(i), (byte)(i & OctoProtocol.COMPRESSION_MASK), 1000L + i, payload.length);
+			wire.writeBytes(payload);
+		}
+		return wire;
+	}
+	
+	/**
+	 * Checks that a decoded frame is the passed frame written by {@link #wire(int)}, and releases it
+	 * @param frame The decoded frame
+	 * @param index The index of the frame
+	 */
+	protected static void assertFrame(Frame frame, int index) {
+		try {
+			assertEquals(type(index), frame.getType());
+			assertEquals((byte)(index & OctoProtocol.COMPRESSION_MASK), frame.getFlags());
+			assertEquals(1000L + index, frame.getRequestId());
+			assertEquals(new String(payload(index), UTF8), frame.getPayload().toString(UTF8));
+		} finally {
+			frame.release();
+		}
+	}
+	
+	/**
+	 * Returns the type of a test frame
+	 * @param index The index of the frame
+	 * @return the frame type
+	 */
+	protected static FrameType type(int index) {
+		return index%2==0 ? FrameType.STDOUT : FrameType.STDERR;
+	}
+	
+	/**
+	 * Returns the payload of a test frame, of a length that varies with the index
+	 * @param index The index of the frame
+	 * @return the payload bytes
+	 */
+	protected static byte[] payload(int index) {
+		StringBuilder b = new StringBuilder("frame ").append(index);
+		for(int i = 0; i < index % 7; i++) {
+			b.append(" line of output ").append(i);
+		}
+		return b.toString().getBytes(UTF8);
+	}
+}
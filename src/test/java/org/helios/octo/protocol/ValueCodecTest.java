@@ -0,0 +1,276 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.protocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.serialization.ClassResolver;
+import io.netty.handler.codec.serialization.ClassResolvers;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.ArrayType;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: ValueCodecTest</p>
+ * <p>Description: Round trips a value of every tag through the {@link ValueCodec} and checks that malformed input fails with an {@link IOException}</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.protocol.ValueCodecTest</code></p>
+ */
+
+public class ValueCodecTest {	
+	/** The class resolver for java serialized values */
+	protected final ClassResolver classResolver = ClassResolvers.cacheDisabled(getClass().getClassLoader());
+	
+	/** The composite type of a memory usage like value */
+	protected static final CompositeType USAGE_TYPE;
+	/** The tabular type of a table of usages keyed by pool name */
+	protected static final TabularType POOL_TYPE;
+	
+	static {
+		try {
+			USAGE_TYPE = new CompositeType("Usage", "A memory usage", new String[]{"pool", "used", "max", "tags"},
+					new String[]{"The pool name", "The bytes used", "The maximum bytes", "The pool tags"},
+					new OpenType<?>[]{SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, new ArrayType<String[]>(1, SimpleType.STRING)});
+			POOL_TYPE = new TabularType("Pools", "The usage of each pool", USAGE_TYPE, new String[]{"pool"});
+		} catch (Exception ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+	
+	/**
+	 * Checks that the simple tags round trip to equal values of the same class
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testSimpleValues() throws Exception {
+		Object[] values = {"", "hello \u00e9\u4e2d", Integer.MIN_VALUE, -1, 0, Integer.MAX_VALUE, Long.MIN_VALUE, 42L, Boolean.TRUE, Boolean.FALSE,
+				(byte)-7, (short)300, 1.5f, Double.NaN, -0.25d, 'x', new Date(1371234567890L), new BigInteger("-123456789012345678901234567890"),
+				new BigDecimal("3.14159265358979323846"), new ObjectName("java.lang:type=Memory")};
+		for(Object value: values) {
+			Object read = roundTrip(value);
+			assertEquals(value.getClass(), read.getClass());
+			assertEquals(value, read);
+		}
+		assertNull(roundTrip(null));
+		assertArrayEquals(new byte[]{0, 1, -1, 127}, (byte[])roundTrip(new byte[]{0, 1, -1, 127}));
+	}
+	
+	/**
+	 * Checks that arrays, lists, sets and maps round trip with their element order
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testCollections() throws Exception {
+		assertArrayEquals(new String[]{"a", null, "c"}, (String[])roundTrip(new String[]{"a", null, "c"}));
+		int[][] grid = (int[][])roundTrip(new int[][]{{1, 2}, {3}});
+		assertEquals(3, grid[1][0]);
+		List<Object> list = new ArrayList<Object>(Arrays.<Object>asList(1, "two", 3L, null));
+		Object readList = roundTrip(list);
+		assertTrue(readList instanceof ArrayList);
+		assertEquals(list, readList);
+		Set<String> set = new LinkedHashSet<String>(Arrays.asList("z", "a", "m"));
+		assertEquals(new ArrayList<String>(set), new ArrayList<Object>((Set<?>)roundTrip(set)));
+		Map<Object, Object> map = new HashMap<Object, Object>();
+		map.put("k", list);
+		map.put(7, null);
+		Object readMap = roundTrip(map);
+		assertTrue(readMap instanceof LinkedHashMap);
+		assertEquals(map, readMap);
+	}
+	
+	/**
+	 * Checks that composite and tabular data round trip
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testOpenData() throws Exception {
+		CompositeData usage = usage("eden", 10L);
+		assertEquals(usage, roundTrip(usage));
+		TabularData table = new TabularDataSupport(POOL_TYPE);
+		for(int i = 0; i < 10; i++) {
+			table.put(usage("pool" + i, i));
+		}
+		Object read = roundTrip(table);
+		assertEquals(POOL_TYPE, ((TabularData)read).getTabularType());
+		assertEquals(table, read);
+	}
+	
+	/**
+	 * Checks that an open type is written once per value and referenced after that
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testOpenTypeBackReferences() throws Exception {
+		CompositeData first = usage("eden", 1L);
+		CompositeData second = usage("old", 2L);
+		int single = encode(first).readableBytes();
+		ByteBuf both = encode(Arrays.asList(first, second));
+		// The second composite only carries a type reference, so the pair is far smaller than two full composites
+		assertTrue(both.readableBytes() < single + single/2);
+		assertEquals(Arrays.asList(first, second), ValueCodec.read(both, classResolver));
+		// A reference to a type that was not written for this value is malformed
+		ByteBuf bad = Unpooled.buffer();
+		bad.writeByte(ValueCodec.COMPOSITE).writeByte(ValueCodec.TYPE_REF);
+		ValueCodec.writeVarInt(bad, 3);
+		assertMalformed(bad);
+	}
+	
+	/**
+	 * Checks that values nested deeper than the maximum depth are java serialized and still round trip
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testMaxDepthFallback() throws Exception {
+		// A linked list decodes as an array list unless it was java serialized
+		List<Object> root = new LinkedList<Object>();
+		List<Object> current = root;
+		for(int i = 0; i < ValueCodec.MAX_DEPTH + 10; i++) {
+			List<Object> child = new LinkedList<Object>();
+			current.add(child);
+			current = child;
+		}
+		current.add("leaf");
+		Object read = roundTrip(root);
+		assertEquals(root, read);
+		int depth = 0;
+		while(read instanceof ArrayList) {
+			read = ((List<?>)read).get(0);
+			depth++;
+		}
+		assertEquals(ValueCodec.MAX_DEPTH, depth);
+		assertTrue(read instanceof LinkedList);
+	}
+	
+	/**
+	 * Checks that malformed input fails with an IOException rather than allocating or recursing without bound
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testMalformedInput() throws Exception {
+		// Truncated values
+		ByteBuf whole = encode(Arrays.asList("abc", 12345678L, usage("eden", 3L)));
+		for(int i = 1; i < whole.readableBytes(); i++) {
+			assertMalformed(whole.copy(0, i));
+		}
+		// Sizes larger than the bytes remaining
+		ByteBuf list = Unpooled.buffer().writeByte(ValueCodec.LIST);
+		ValueCodec.writeVarInt(list, Integer.MAX_VALUE);
+		assertMalformed(list);
+		ByteBuf string = Unpooled.buffer().writeByte(ValueCodec.STRING);
+		ValueCodec.writeVarInt(string, 1 << 30);
+		assertMalformed(string);
+		assertMalformed(Unpooled.buffer().writeByte(ValueCodec.JAVA).writeInt(-1));
+		// Nesting deeper than the writer produces
+		ByteBuf deep = Unpooled.buffer();
+		for(int i = 0; i <= ValueCodec.MAX_DEPTH + 1; i++) {
+			deep.writeByte(ValueCodec.LIST).writeByte(1);
+		}
+		deep.writeByte(ValueCodec.NULL);
+		assertMalformed(deep);
+		// An over long varint and an unknown tag
+		assertMalformed(Unpooled.buffer().writeByte(ValueCodec.INT).writeBytes(new byte[]{-1, -1, -1, -1, -1, 1}));
+		assertMalformed(Unpooled.buffer().writeByte(99));
+	}
+	
+	/**
+	 * Creates a usage composite
+	 * @param pool The pool name
+	 * @param used The bytes used
+	 * @return the composite
+	 * @throws Exception thrown on any error
+	 */
+	protected static CompositeData usage(String pool, long used) throws Exception {
+		return new CompositeDataSupport(USAGE_TYPE, new String[]{"pool", "used", "max", "tags"}, new Object[]{pool, used, used * 2, new String[]{pool, "heap"}});
+	}
+	
+	/**
+	 * Encodes a value
+	 * @param value The value to encode
+	 * @return the buffer holding the encoded value
+	 * @throws IOException thrown if the value cannot be encoded
+	 */
+	protected static ByteBuf encode(Object value) throws IOException {
+		ByteBuf buf = Unpooled.buffer();
+		ValueCodec.write(buf, value);
+		return buf;
+	}
+	
+	/**
+	 * Encodes and decodes a value and checks that the whole encoding was read
+	 * @param value The value to round trip
+	 * @return the decoded value
+	 * @throws Exception thrown on any error
+	 */
+	protected Object roundTrip(Object value) throws Exception {
+		ByteBuf buf = encode(value);
+		Object read = ValueCodec.read(buf, classResolver);
+		assertEquals(0, buf.readableBytes());
+		return read;
+	}
+	
+	/**
+	 * Checks that decoding the passed buffer fails with an IOException
+	 * @param buf The malformed encoding
+	 * @throws Exception thrown on an unexpected error
+	 */
+	protected void assertMalformed(ByteBuf buf) throws Exception {
+		try {
+			Object read = ValueCodec.read(buf, classResolver);
+			fail("Decoded a malformed value [" + read + "]");
+		} catch (IOException expected) {
+			/* No Op */
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.admission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: TokenBucketTest</p>
+ * <p>Description: Checks the burst, refill and refund behaviour of the {@link TokenBucket}</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.admission.TokenBucketTest</code></p>
+ */
+
+public class TokenBucketTest {
+	/**
+	 * Checks that a new bucket allows a burst and then reports the wait until the next token
+	 */
+	@Test
+	public void testBurstThenWait() {
+		TokenBucket bucket = new TokenBucket();
+		for(int i = 0; i < 3; i++) {
+			assertEquals(0L, bucket.tryAcquire(10, 3));
+		}
+		long wait = bucket.tryAcquire(10, 3);
+		// One token every 100ms at 10 per second
+		assertTrue("wait " + wait, wait > 0L && wait <= TimeUnit.MILLISECONDS.toNanos(100));
+	}
+	
+	/**
+	 * Checks that a burst of zero holds one second of tokens
+	 */
+	@Test
+	public void testDefaultBurst() {
+		TokenBucket bucket = new TokenBucket();
+		for(int i = 0; i < 5; i++) {
+			assertEquals(0L, bucket.tryAcquire(5, 0));
+		}
+		assertTrue(bucket.tryAcquire(5, 0) > 0L);
+	}
+	
+	/**
+	 * Checks that an empty bucket refills at the rate
+	 * @throws Exception thrown if the test is interrupted
+	 */
+	@Test
+	public void testRefill() throws Exception {
+		TokenBucket bucket = new TokenBucket();
+		assertEquals(0L, bucket.tryAcquire(20, 1));
+		long wait = bucket.tryAcquire(20, 1);
+		assertTrue(wait > 0L);
+		Thread.sleep(TimeUnit.NANOSECONDS.toMillis(wait) + 20);
+		assertEquals(0L, bucket.tryAcquire(20, 1));
+	}
+	
+	/**
+	 * Checks that a rate of zero or less never limits
+	 */
+	@Test
+	public void testUnlimited() {
+		TokenBucket bucket = new TokenBucket();
+		for(int i = 0; i < 10000; i++) {
+			assertEquals(0L, bucket.tryAcquire(0, 1));
+			assertEquals(0L, bucket.tryAcquire(-1, 1));
+		}
+	}
+	
+	/**
+	 * Checks that a refunded token can be taken again
+	 */
+	@Test
+	public void testRefund() {
+		TokenBucket bucket = new TokenBucket();
+		// A refund before the first acquire does not add to the initial burst
+		bucket.refund();
+		assertEquals(0L, bucket.tryAcquire(1, 1));
+		assertTrue(bucket.tryAcquire(1, 1) > 0L);
+		bucket.refund();
+		assertEquals(0L, bucket.tryAcquire(1, 1));
+		assertTrue(bucket.tryAcquire(1, 1) > 0L);
+	}
+	
+	/**
+	 * Checks that a lowered burst caps the tokens already held
+	 */
+	@Test
+	public void testLoweredBurst() {
+		TokenBucket bucket = new TokenBucket();
+		assertEquals(0L, bucket.tryAcquire(1, 100));
+		assertEquals(0L, bucket.tryAcquire(1, 2));
+		assertEquals(0L, bucket.tryAcquire(1, 2));
+		assertTrue(bucket.tryAcquire(1, 2) > 0L);
+	}
+}
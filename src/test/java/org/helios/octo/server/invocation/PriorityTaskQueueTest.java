@@ -0,0 +1,213 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2013, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.octo.server.invocation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.helios.octo.protocol.PriorityClass;
+import org.junit.Test;
+
+/**
+ * <p>Title: PriorityTaskQueueTest</p>
+ * <p>Description: Checks that the {@link PriorityTaskQueue} serves its classes in proportion to their weights and bounds each class</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.octo.server.invocation.PriorityTaskQueueTest</code></p>
+ */
+
+public class PriorityTaskQueueTest {
+	/** The number of tasks queued per class */
+	protected static final int TASKS = 210;
+	
+	/**
+	 * Checks that while every class has tasks waiting, each is served in proportion to its default weight
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testDefaultWeights() throws Exception {
+		PriorityTaskQueue queue = fill(new PriorityTaskQueue(TASKS));
+		// One round of 16 + 4 + 1
+		int[] served = take(queue, 21);
+		assertArrayEquals(new int[]{16, 4, 1}, served);
+	}
+	
+	/**
+	 * Checks that every round serves each class its weight and that the classes are interleaved rather than served in runs
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testInterleaving() throws Exception {
+		PriorityTaskQueue queue = fill(new PriorityTaskQueue(TASKS));
+		int run = 0, longest = 0;
+		for(int i = 0; i < 5 * 21; i++) {
+			if(((Task)queue.take()).getPriority()==PriorityClass.INTERACTIVE) {
+				longest = Math.max(longest, ++run);
+			} else {
+				run = 0;
+			}
+		}
+		// Plain weighted round robin would serve all 16 interactive tasks of a round in one run
+		assertTrue("Run of " + longest, longest <= 6);
+		queue.setWeights("interactive:2, BATCH:1, background:1");
+		for(int round = 0; round < 10; round++) {
+			assertArrayEquals(new int[]{2, 1, 1}, take(queue, 4));
+		}
+	}
+	
+	/**
+	 * Checks that when a class empties the others share the queue by their own weights, and the empty class starts afresh
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testIdleClass() throws Exception {
+		PriorityTaskQueue queue = new PriorityTaskQueue(TASKS);
+		for(int i = 0; i < 50; i++) {
+			queue.offer(new Task(PriorityClass.BATCH));
+			queue.offer(new Task(PriorityClass.BACKGROUND));
+		}
+		assertArrayEquals(new int[]{0, 8, 2}, take(queue, 10));
+		queue.offer(new Task(PriorityClass.INTERACTIVE));
+		// The interactive class carries no debt from before it was queued, so it is served next
+		assertSame(PriorityClass.INTERACTIVE, ((Task)queue.poll()).getPriority());
+	}
+	
+	/**
+	 * Checks that each class is bounded separately and that plain runnables are queued as batch
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testCapacity() throws Exception {
+		PriorityTaskQueue queue = new PriorityTaskQueue(2);
+		assertTrue(queue.offer(new Task(PriorityClass.BACKGROUND)));
+		assertTrue(queue.offer(new Task(PriorityClass.BACKGROUND)));
+		assertFalse(queue.offer(new Task(PriorityClass.BACKGROUND)));
+		assertFalse(queue.offer(new Task(PriorityClass.BACKGROUND), 10, TimeUnit.MILLISECONDS));
+		assertTrue(queue.offer(new Task(PriorityClass.INTERACTIVE)));
+		Runnable plain = new Runnable() {
+			public void run() {
+				/* No Op */
+			}
+		};
+		assertTrue(queue.offer(plain));
+		assertEquals(1, queue.getDepth(PriorityClass.BATCH));
+		assertEquals(4, queue.size());
+		assertEquals(4, queue.drainTo(new java.util.ArrayList<Runnable>()));
+		assertNull(queue.poll());
+		assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+	}
+	
+	/**
+	 * Checks that invalid weights are refused and unlisted classes keep their weights
+	 */
+	@Test
+	public void testWeights() {
+		PriorityTaskQueue queue = new PriorityTaskQueue(1);
+		queue.setWeights("background:3");
+		assertEquals(PriorityClass.INTERACTIVE.defaultWeight, queue.getWeight(PriorityClass.INTERACTIVE));
+		assertEquals(3, queue.getWeight(PriorityClass.BACKGROUND));
+		String[] invalid = {"background:0", "background", "urgent:2", "batch:x"};
+		for(String weights: invalid) {
+			try {
+				queue.setWeights(weights);
+				fail("Accepted weights [" + weights + "]");
+			} catch (IllegalArgumentException expected) {
+				/* No Op */
+			}
+		}
+		assertEquals(3, queue.getWeight(PriorityClass.BACKGROUND));
+	}
+	
+	/**
+	 * Queues {@link #TASKS} tasks of each class
+	 * @param queue The queue to fill
+	 * @return the filled queue
+	 */
+	protected static PriorityTaskQueue fill(PriorityTaskQueue queue) {
+		for(int i = 0; i < TASKS; i++) {
+			for(PriorityClass pc: PriorityClass.values()) {
+				assertTrue(queue.offer(new Task(pc)));
+			}
+		}
+		return queue;
+	}
+	
+	/**
+	 * Takes tasks from the queue and counts them by class
+	 * @param queue The queue to take from
+	 * @param count The number of tasks to take
+	 * @return the number of tasks taken of each class, indexed by ordinal
+	 * @throws InterruptedException thrown if interrupted while taking
+	 */
+	protected static int[] take(PriorityTaskQueue queue, int count) throws InterruptedException {
+		int[] served = new int[PriorityClass.values().length];
+		for(int i = 0; i < count; i++) {
+			served[((Task)queue.take()).getPriority().ordinal()]++;
+		}
+		return served;
+	}
+	
+	/**
+	 * <p>Title: Task</p>
+	 * <p>Description: A task of one priority class that does nothing</p>
+	 */
+	protected static class Task implements Runnable, Prioritized {
+		/** The task's class */
+		protected final PriorityClass priority;
+		
+		/**
+		 * Creates a new Task
+		 * @param priority The task's class
+		 */
+		protected Task(PriorityClass priority) {
+			this.priority = priority;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.octo.server.invocation.Prioritized#getPriority()
+		 */
+		@Override
+		public PriorityClass getPriority() {
+			return priority;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			/* No Op */
+		}
+	}
+}